@@ -0,0 +1,100 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマークの入力データを作成するクラス
+ *
+ * 列数・1列の文字数・行の並び（{@link Distribution}）を指定して行を作成する。
+ * 同じ引数とシードからは同じ行を作成するため、バージョン間で結果を比較できる。
+ * ソートキーは先頭の列（既定の比較では全ての列）とする。
+ *
+ */
+final class BenchmarkData {
+
+	private static final char[] ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * 行を作成する
+	 *
+	 * @param count : 行数
+	 * @param columns : 列数
+	 * @param cellLength : 1列の文字数
+	 * @param distribution : 行の並び
+	 * @param seed : 乱数のシード
+	 * @return 作成した行
+	 */
+	static List<List<String>> rows(int count, int columns, int cellLength, Distribution distribution, long seed) {
+		Random random = new Random(seed);
+		List<List<String>> rows = new ArrayList<List<String>>(count);
+		for (int i = 0; i < count; i++) {
+			List<String> row = new ArrayList<String>(columns);
+			row.add(distribution.firstCell(random, cellLength));
+			for (int c = 1; c < columns; c++) {
+				row.add(cell(random, cellLength));
+			}
+			rows.add(row);
+		}
+		distribution.arrange(rows);
+		return rows;
+	}
+
+	static String cell(Random random, int cellLength) {
+		char[] chars = new char[cellLength];
+		for (int i = 0; i < cellLength; i++) {
+			chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * 行を CSV 形式のファイルに書き込む
+	 *
+	 * @param rows : 書き込む行
+	 * @param file : 書き込むファイル
+	 */
+	static void writeCsv(List<List<String>> rows, File file) throws IOException {
+		RowWriter out = CsvFileSorter.openOutput(file, csvOptions());
+		try {
+			for (List<String> row : rows) {
+				out.write(row);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * CSV 形式のファイルを読み書きするオプション
+	 */
+	static SortOptions csvOptions() {
+		SortOptions options = new SortOptions();
+		options.setInputFormat(FileFormat.CSV);
+		options.setOutputFormat(FileFormat.CSV);
+		return options;
+	}
+
+	/**
+	 * 書き込んだ行を数えるだけで捨てる {@link RowWriter}
+	 */
+	static final class CountingRowWriter implements RowWriter {
+
+		long rows = 0;
+
+		@Override
+		public void write(List<String> row) {
+			this.rows++;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
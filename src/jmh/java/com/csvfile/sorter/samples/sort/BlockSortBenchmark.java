@@ -0,0 +1,102 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 1ブロック分の行のメモリ上でのソートのベンチマーク
+ *
+ * 行は比較の準備（キーの計算）をしてからソートする。計測するのはソートと、ソートする行のリストのコピーだけである。
+ * ソートの方法（{@link SortEngine}）ごとに計測する。正規化キーで比較しない場合は、基数ソートの正規化キーの作成も計測に含む。
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BlockSortBenchmark {
+
+	private static final int ROWS = 100000;
+
+	/**
+	 * 比較の方法
+	 */
+	public enum ComparatorKind {
+
+		/**
+		 * 全ての列を文字列として比較する
+		 */
+		DEFAULT {
+			@Override
+			Comparator<List<String>> comparator() {
+				return CsvFileSorter.DEFAULT_COMPARATOR;
+			}
+		},
+
+		/**
+		 * 先頭の列をソートキーとする
+		 */
+		SORT_SPEC {
+			@Override
+			Comparator<List<String>> comparator() {
+				return new SortSpec(new SortKey(0, KeyType.STRING));
+			}
+		},
+
+		/**
+		 * 先頭の列の正規化キーで比較する
+		 */
+		NORMALIZED_KEYS {
+			@Override
+			Comparator<List<String>> comparator() {
+				return new NormalizedKeyComparator(new SortSpec(new SortKey(0, KeyType.STRING)));
+			}
+		};
+
+		abstract Comparator<List<String>> comparator();
+	}
+
+	@Param
+	public Distribution distribution;
+
+	@Param
+	public ComparatorKind comparator;
+
+	@Param
+	public SortEngine engine;
+
+	private Comparator<List<String>> cmp;
+	private List<List<String>> rows;
+
+	@Setup
+	public void setUp() {
+		this.cmp = this.comparator.comparator();
+		this.rows = new ArrayList<List<String>>(ROWS);
+		for (List<String> row : BenchmarkData.rows(ROWS, 4, 16, this.distribution, 42L)) {
+			this.rows.add(CsvFileSorter.prepare(this.cmp, row));
+		}
+	}
+
+	@Benchmark
+	public List<List<String>> sort() {
+		List<List<String>> block = new ArrayList<List<String>>(this.rows);
+		this.engine.sort(block, this.cmp);
+		return block;
+	}
+}
@@ -0,0 +1,60 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマークの入力データの行の並び
+ *
+ */
+public enum Distribution {
+
+	/**
+	 * ランダムな行
+	 */
+	RANDOM {
+		@Override
+		void arrange(List<List<String>> rows) {
+		}
+	},
+
+	/**
+	 * 整列済みの行
+	 */
+	PRESORTED {
+		@Override
+		void arrange(List<List<String>> rows) {
+			Collections.sort(rows, CsvFileSorter.DEFAULT_COMPARATOR);
+		}
+	},
+
+	/**
+	 * 先頭の列が DISTINCT_KEYS 種類の値しか取らない、同じキーの行が多い行
+	 */
+	DUPLICATES {
+		@Override
+		String firstCell(Random random, int cellLength) {
+			return BenchmarkData.cell(new Random(random.nextInt(DISTINCT_KEYS)), cellLength);
+		}
+
+		@Override
+		void arrange(List<List<String>> rows) {
+		}
+	};
+
+	// 重複の多い並びで、先頭の列が取る値の数
+	static final int DISTINCT_KEYS = 16;
+
+	/**
+	 * 先頭の列の値を作成する
+	 */
+	String firstCell(Random random, int cellLength) {
+		return BenchmarkData.cell(random, cellLength);
+	}
+
+	/**
+	 * 作成した行を並べ替える
+	 */
+	abstract void arrange(List<List<String>> rows);
+}
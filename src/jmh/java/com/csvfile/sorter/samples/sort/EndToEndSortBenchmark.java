@@ -0,0 +1,74 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CSV 形式の入力ファイルを出力ファイルへソートするベンチマーク
+ *
+ * メモリ使用量の上限を小さくして、一時ファイルの作成とマージを含めて計測する。
+ * 1回のソートに時間がかかるため、1回ずつ計測する。
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class EndToEndSortBenchmark {
+
+	// 一時ファイル作成中にメモリ上に保持する行の合計の上限
+	private static final long MEMORY_BUDGET = 16 * 1024 * 1024;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int rows;
+
+	@Param
+	public Distribution distribution;
+
+	@Param
+	public RunGeneration runGeneration;
+
+	private File directory;
+	private File input;
+	private File output;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("csvsort-bench").toFile();
+		this.input = new File(this.directory, "input.csv");
+		this.output = new File(this.directory, "output.csv");
+		BenchmarkData.writeCsv(BenchmarkData.rows(this.rows, 4, 16, this.distribution, 42L), this.input);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.input.delete();
+		this.output.delete();
+		this.directory.delete();
+	}
+
+	@Benchmark
+	public SortStats sort() throws IOException {
+		SortOptions options = BenchmarkData.csvOptions();
+		options.setMemoryBudget(MEMORY_BUDGET);
+		options.setRunGeneration(this.runGeneration);
+		return CsvFileSorter.sort(this.input.getPath(), this.output.getPath(), options);
+	}
+}
@@ -0,0 +1,86 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * k 個の一時ファイル（ラン）を1回マージするベンチマーク
+ *
+ * 同じ行数の一時ファイルを k 個作成しておき、一時ファイルの読み込み（復元・展開を含む）とマージを計測する。
+ * マージした行は書き込まずに捨てる。一時ファイルはマージで削除しないよう、元の一時ファイルを指定せずに読み込む。
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MergeBenchmark {
+
+	private static final int ROWS = 200000;
+
+	@Param({ "2", "16", "128" })
+	public int k;
+
+	@Param
+	public MergeEngine engine;
+
+	@Param({ "false", "true" })
+	public boolean normalizedKeys;
+
+	private Comparator<List<String>> cmp;
+	private SortSession session;
+	private final List<SortedRun> runs = new ArrayList<SortedRun>();
+
+	@Setup
+	public void setUp() throws IOException {
+		SortOptions options = new SortOptions();
+		options.setNormalizedKeys(this.normalizedKeys);
+		this.cmp = CsvFileSorter.comparatorOf(options);
+		this.session = new SortSession(options, options.getSpillCodec());
+
+		List<List<String>> rows = BenchmarkData.rows(ROWS, 4, 16, Distribution.RANDOM, 42L);
+		for (int i = 0; i < this.k; i++) {
+			List<List<String>> block = new ArrayList<List<String>>();
+			for (int r = i; r < rows.size(); r += this.k) {
+				block.add(CsvFileSorter.prepare(this.cmp, rows.get(r)));
+			}
+			Collections.sort(block, this.cmp);
+			this.runs.add(CsvFileSorter.save(block, this.cmp, this.session));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.session.close();
+	}
+
+	@Benchmark
+	public long merge() throws IOException {
+		List<BinaryFileBuffer> buffers = new ArrayList<BinaryFileBuffer>(this.k);
+		for (int i = 0; i < this.k; i++) {
+			buffers.add(new BinaryFileBuffer(new RunReader(this.runs.get(i), this.cmp), i, null));
+		}
+		BenchmarkData.CountingRowWriter out = new BenchmarkData.CountingRowWriter();
+		this.engine.merge(buffers, this.cmp, out);
+		return out.rows;
+	}
+}
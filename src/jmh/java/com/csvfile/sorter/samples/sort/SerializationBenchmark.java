@@ -0,0 +1,89 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.csvfile.sorter.samples.serialize.CompactRowReader;
+import com.csvfile.sorter.samples.serialize.CompactRowWriter;
+
+/**
+ * 行の直列化と復元（メモリ上での往復）のベンチマーク
+ *
+ * 一時ファイルの形式（{@link CompactRowWriter}）と、
+ * シリアライズ形式の入出力ファイル（{@link com.csvfile.sorter.samples.serialize.ListOfStringSerializer}）を比較する。
+ * 圧縮は含まない。
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SerializationBenchmark {
+
+	private static final int ROWS = 20000;
+
+	@Param({ "4", "16" })
+	public int columns;
+
+	@Param({ "8", "64" })
+	public int cellLength;
+
+	private List<List<String>> rows;
+
+	@Setup
+	public void setUp() {
+		this.rows = BenchmarkData.rows(ROWS, this.columns, this.cellLength, Distribution.RANDOM, 42L);
+	}
+
+	@Benchmark
+	public void compactRoundTrip(Blackhole blackhole) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompactRowWriter out = new CompactRowWriter(bytes);
+		for (List<String> row : this.rows) {
+			out.write(row);
+		}
+		out.close();
+
+		CompactRowReader in = new CompactRowReader(new ByteArrayInputStream(bytes.toByteArray()));
+		List<String> row;
+		while ((row = in.read()) != null) {
+			blackhole.consume(row);
+		}
+		in.close();
+	}
+
+	@Benchmark
+	public void objectStreamRoundTrip(Blackhole blackhole) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectStreamRowWriter out = new ObjectStreamRowWriter(bytes);
+		for (List<String> row : this.rows) {
+			out.write(row);
+		}
+		out.close();
+
+		ObjectStreamRowReader in = new ObjectStreamRowReader(new ByteArrayInputStream(bytes.toByteArray()));
+		List<String> row;
+		while ((row = in.read()) != null) {
+			blackhole.consume(row);
+		}
+		in.close();
+	}
+}
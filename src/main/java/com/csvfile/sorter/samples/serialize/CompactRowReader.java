@@ -0,0 +1,183 @@
+package com.csvfile.sorter.samples.serialize;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+* {@link CompactRowWriter} で書き込んだ List<String> を読み込むクラス
+*
+* 読み込み用のバッファは使い回し、1行分のペイロードをバッファ上で直接解析する。
+* 行ごとに確保するのは、返す List と各列の String だけである。
+*
+*/
+public final class CompactRowReader implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final InputStream in;
+
+	// 各行にキーが書き込まれているかどうか
+	private final boolean withKeys;
+
+	// 最後に読み込んだ行のキー
+	private byte[] lastKey = null;
+
+	private byte[] buf;
+	private int pos = 0;
+	private int limit = 0;
+
+	public CompactRowReader( InputStream in ) {
+		this( in, CompactRowWriter.BUFFER_SIZE );
+	}
+
+	public CompactRowReader( InputStream in, int bufferSize ) {
+		this( in, bufferSize, false );
+	}
+
+	public CompactRowReader( InputStream in, int bufferSize, boolean withKeys ) {
+		this.in = in;
+		this.buf = new byte[bufferSize];
+		this.withKeys = withKeys;
+	}
+
+	/**
+	 * 1行を読み込む
+	 *
+	 * @return 読み込んだ行。終端に達した場合は null
+	 */
+	public List<String> read() throws IOException {
+
+		if( !fill(1) ) {
+			return null;
+		}
+		int payload = readLength();
+		if( payload < 0 ) {
+			throw new StreamCorruptedException("invalid row length: " + payload);
+		}
+		if( !fill(payload) ) {
+			throw new EOFException("unexpected end of row");
+		}
+
+		int end = this.pos + payload;
+		if( this.withKeys ) {
+			int keyLength = readVarint(end);
+			if( keyLength < 0 || keyLength > end - this.pos ) {
+				throw new StreamCorruptedException("invalid key length: " + keyLength);
+			}
+			this.lastKey = Arrays.copyOfRange(this.buf, this.pos, this.pos + keyLength);
+			this.pos += keyLength;
+		}
+		int columnCount = readVarint(end);
+		int bitmap = this.pos;
+		this.pos += (columnCount + 7) >>> 3;
+		if( columnCount < 0 || this.pos > end ) {
+			throw new StreamCorruptedException("invalid column count: " + columnCount);
+		}
+
+		List<String> row = new ArrayList<String>( columnCount );
+		for( int i = 0; i < columnCount; i++ ) {
+			if( (this.buf[bitmap + (i >>> 3)] & (1 << (i & 7))) != 0 ) {
+				row.add(null);
+			} else {
+				int length = readVarint(end);
+				if( length < 0 || length > end - this.pos ) {
+					throw new StreamCorruptedException("invalid cell length: " + length);
+				}
+				row.add(new String(this.buf, this.pos, length, UTF8));
+				this.pos += length;
+			}
+		}
+
+		if( this.pos != end ) {
+			throw new StreamCorruptedException("row length mismatch");
+		}
+		return row;
+	}
+
+	/**
+	 * 最後に読み込んだ行のキーを返す。キー付きの形式でない場合は null
+	 */
+	public byte[] lastKey() {
+		return this.lastKey;
+	}
+
+	/**
+	 * 行の先頭のペイロード長を読み込む。1バイトずつバッファに読み込みながら解析する。
+	 */
+	private int readLength() throws IOException {
+		int value = 0;
+		for( int shift = 0; shift < 35; shift += 7 ) {
+			if( !fill(1) ) {
+				throw new EOFException("unexpected end of row length");
+			}
+			byte b = this.buf[this.pos++];
+			value |= (b & 0x7F) << shift;
+			if( (b & 0x80) == 0 ) {
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("malformed varint");
+	}
+
+	/**
+	 * バッファ上のペイロード内の varint を読み込む
+	 *
+	 * @param end : ペイロードの終わりの位置
+	 */
+	private int readVarint( int end ) throws IOException {
+		int value = 0;
+		for( int shift = 0; shift < 35; shift += 7 ) {
+			if( this.pos >= end ) {
+				throw new StreamCorruptedException("varint exceeds row");
+			}
+			byte b = this.buf[this.pos++];
+			value |= (b & 0x7F) << shift;
+			if( (b & 0x80) == 0 ) {
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("malformed varint");
+	}
+
+	/**
+	 * バッファ上に size バイト以上の未読データがあるようにする
+	 *
+	 * @return 終端に達して size バイトを用意できない場合は false
+	 */
+	private boolean fill( int size ) throws IOException {
+		int available = this.limit - this.pos;
+		if( available >= size ) {
+			return true;
+		}
+		if( this.buf.length < size ) {
+			byte[] grown = new byte[Math.max(size, this.buf.length * 2)];
+			System.arraycopy(this.buf, this.pos, grown, 0, available);
+			this.buf = grown;
+		} else if( this.pos > 0 ) {
+			System.arraycopy(this.buf, this.pos, this.buf, 0, available);
+		}
+		this.pos = 0;
+		this.limit = available;
+
+		while( this.limit < size ) {
+			int n = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+			if( n < 0 ) {
+				return false;
+			}
+			this.limit += n;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+}
@@ -0,0 +1,282 @@
+package com.csvfile.sorter.samples.serialize;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+* 一時ファイル用の独自形式で List<String> を書き込むクラス
+*
+* {@link ListOfStringSerializer} と ObjectOutputStream による書き込みは、オブジェクトごとの直列化の情報、
+* 列ごとの真偽値、writeUTF（64KB までの制限あり）の分だけ遅く大きくなるため、
+* 一時ファイルには以下の形式で書き込む。
+*
+* 行 = [ペイロード長 : varint][ペイロード]
+* ペイロード = [列数 : varint][null ビットマップ : (列数 + 7) / 8 バイト][null でない列ごとに [UTF-8 のバイト長 : varint][UTF-8 のバイト列]]
+*
+* キー付きの形式（withKeys が true）の場合は、ペイロードの先頭に [キーのバイト長 : varint][キーのバイト列] を書き込む。
+* キーはソート処理が比較に使う正規化済みのキーであり、読み込み時に再計算せずに済むようにするためのものである。
+*
+* null ビットマップは、i 列目が null の場合に (i / 8) バイト目の (i % 8) ビット目を立てる。
+* varint は 7ビットずつ下位から書き込み、続きがある場合は最上位ビットを立てる形式である。
+*
+* 書き込み用のバッファは使い回し、行ごとの領域確保は行わない。
+* 読み込みは {@link CompactRowReader} で行う。
+*
+*/
+public final class CompactRowWriter implements Closeable, Flushable {
+
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	// varint の最大バイト数
+	private static final int MAX_VARINT_SIZE = 5;
+
+	private final OutputStream out;
+
+	// 各行にキーを書き込むかどうか
+	private final boolean withKeys;
+
+	private byte[] buf;
+	private int count = 0;
+
+	// 列ごとの UTF-8 のバイト長
+	private int[] cellLengths = new int[16];
+
+	public CompactRowWriter( OutputStream out ) {
+		this( out, BUFFER_SIZE );
+	}
+
+	public CompactRowWriter( OutputStream out, int bufferSize ) {
+		this( out, bufferSize, false );
+	}
+
+	public CompactRowWriter( OutputStream out, int bufferSize, boolean withKeys ) {
+		this.out = out;
+		this.buf = new byte[bufferSize];
+		this.withKeys = withKeys;
+	}
+
+	/**
+	 * 1行を書き込む
+	 *
+	 * 先にペイロード長を求めるため、UTF-8 のバイト長を計算してから書き込む。
+	 *
+	 * @param row : 書き込む行
+	 */
+	public void write( List<String> row ) throws IOException {
+		if( this.withKeys ) {
+			throw new IllegalStateException("a key is required for each row");
+		}
+		write( row, null );
+	}
+
+	/**
+	 * キーと1行を書き込む
+	 *
+	 * @param row : 書き込む行
+	 * @param key : 行のキー。キー付きの形式でない場合は null
+	 */
+	public void write( List<String> row, byte[] key ) throws IOException {
+		if( this.withKeys != (null != key) ) {
+			throw new IllegalStateException(this.withKeys ? "a key is required for each row" : "keys are not enabled");
+		}
+
+		int columnCount = row.size();
+		if( this.cellLengths.length < columnCount ) {
+			this.cellLengths = new int[Math.max(columnCount, this.cellLengths.length * 2)];
+		}
+
+		int bitmapSize = (columnCount + 7) >>> 3;
+		long payload = varintSize(columnCount) + bitmapSize;
+		if( null != key ) {
+			payload += varintSize(key.length) + key.length;
+		}
+		for( int i = 0; i < columnCount; i++ ) {
+			String value = row.get(i);
+			if( null != value ) {
+				int length = utf8Length(value);
+				this.cellLengths[i] = length;
+				payload += varintSize(length) + length;
+			}
+		}
+		if( payload > Integer.MAX_VALUE - MAX_VARINT_SIZE ) {
+			throw new IOException("row is too large: " + payload + " bytes");
+		}
+
+		ensureCapacity( MAX_VARINT_SIZE + (int) payload );
+		writeVarint( (int) payload );
+		if( null != key ) {
+			writeVarint( key.length );
+			System.arraycopy(key, 0, this.buf, this.count, key.length);
+			this.count += key.length;
+		}
+		writeVarint( columnCount );
+
+		// null ビットマップ
+		int bitmap = this.count;
+		for( int i = 0; i < bitmapSize; i++ ) {
+			this.buf[bitmap + i] = 0;
+		}
+		this.count += bitmapSize;
+
+		for( int i = 0; i < columnCount; i++ ) {
+			String value = row.get(i);
+			if( null != value ) {
+				writeVarint( this.cellLengths[i] );
+				writeUtf8( value );
+			} else {
+				this.buf[bitmap + (i >>> 3)] |= (byte) (1 << (i & 7));
+			}
+		}
+	}
+
+	/**
+	 * キー付きの形式で符号化済みの1行を書き込む
+	 *
+	 * キー付きの形式の場合はそのまま書き込み、そうでない場合はキーを除いてペイロード長を書き直す。
+	 *
+	 * @param b : 符号化済みの行を含むバイト列
+	 * @param off : 行の先頭（ペイロード長）の位置
+	 */
+	public void writeEncoded( byte[] b, int off ) throws IOException {
+		int pos = off;
+		int payload = 0;
+		for( int shift = 0; ; shift += 7 ) {
+			byte v = b[pos++];
+			payload |= (v & 0x7F) << shift;
+			if( (v & 0x80) == 0 ) {
+				break;
+			}
+		}
+
+		if( this.withKeys ) {
+			int length = pos - off + payload;
+			ensureCapacity( length );
+			System.arraycopy(b, off, this.buf, this.count, length);
+			this.count += length;
+			return;
+		}
+
+		int keyStart = pos;
+		int keyLength = 0;
+		for( int shift = 0; ; shift += 7 ) {
+			byte v = b[pos++];
+			keyLength |= (v & 0x7F) << shift;
+			if( (v & 0x80) == 0 ) {
+				break;
+			}
+		}
+		pos += keyLength;
+		int rest = payload - (pos - keyStart);
+		ensureCapacity( MAX_VARINT_SIZE + rest );
+		writeVarint( rest );
+		System.arraycopy(b, pos, this.buf, this.count, rest);
+		this.count += rest;
+	}
+
+	/**
+	 * 必要な大きさの空きをバッファに確保する。空きが足りない場合は書き出し、それでも足りない場合は拡張する。
+	 */
+	private void ensureCapacity( int size ) throws IOException {
+		if( this.buf.length - this.count >= size ) {
+			return;
+		}
+		flushBuffer();
+		if( this.buf.length < size ) {
+			this.buf = new byte[size];
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if( this.count > 0 ) {
+			this.out.write(this.buf, 0, this.count);
+			this.count = 0;
+		}
+	}
+
+	private void writeVarint( int value ) {
+		while( (value & ~0x7F) != 0 ) {
+			this.buf[this.count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buf[this.count++] = (byte) value;
+	}
+
+	static int varintSize( int value ) {
+		int size = 1;
+		while( (value & ~0x7F) != 0 ) {
+			size++;
+			value >>>= 7;
+		}
+		return size;
+	}
+
+	/**
+	 * UTF-8 のバイト長を求める。対になっていないサロゲートは String#getBytes と同じく '?' とする。
+	 */
+	static int utf8Length( String value ) {
+		int length = 0;
+		int size = value.length();
+		for( int i = 0; i < size; i++ ) {
+			char c = value.charAt(i);
+			if( c < 0x80 ) {
+				length += 1;
+			} else if( c < 0x800 ) {
+				length += 2;
+			} else if( Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1)) ) {
+				length += 4;
+				i++;
+			} else if( Character.isSurrogate(c) ) {
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private void writeUtf8( String value ) {
+		byte[] b = this.buf;
+		int pos = this.count;
+		int size = value.length();
+		for( int i = 0; i < size; i++ ) {
+			char c = value.charAt(i);
+			if( c < 0x80 ) {
+				b[pos++] = (byte) c;
+			} else if( c < 0x800 ) {
+				b[pos++] = (byte) (0xC0 | (c >>> 6));
+				b[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if( Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1)) ) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				b[pos++] = (byte) (0xF0 | (cp >>> 18));
+				b[pos++] = (byte) (0x80 | ((cp >>> 12) & 0x3F));
+				b[pos++] = (byte) (0x80 | ((cp >>> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (cp & 0x3F));
+			} else if( Character.isSurrogate(c) ) {
+				b[pos++] = (byte) '?';
+			} else {
+				b[pos++] = (byte) (0xE0 | (c >>> 12));
+				b[pos++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		this.count = pos;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			this.out.close();
+		}
+	}
+}
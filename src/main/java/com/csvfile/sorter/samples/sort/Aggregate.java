@@ -0,0 +1,148 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.math.BigDecimal;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 同じキーの行を1行にまとめるときに、列の値を集計する指定
+ *
+ * {@link SortOptions#setAggregates} に指定して使用する。集計した値は、まとめた行の同じ列に書き込む。
+ * 空の値は集計しない（全ての値が空の場合は空とする）。
+ *
+ */
+public final class Aggregate {
+
+	/**
+	 * 集計の方法
+	 */
+	public enum Function {
+
+		/**
+		 * 行数。列の値は使わず、集計した行数を書き込む
+		 */
+		COUNT {
+			@Override
+			String combine(String acc, String value, KeyType type, DateTimeFormatter dateFormat) {
+				return String.valueOf(Long.parseLong(acc) + Long.parseLong(value));
+			}
+		},
+
+		/**
+		 * 合計（10進数）
+		 */
+		SUM {
+			@Override
+			String combine(String acc, String value, KeyType type, DateTimeFormatter dateFormat) {
+				return new BigDecimal(acc.trim()).add(new BigDecimal(value.trim())).toPlainString();
+			}
+		},
+
+		/**
+		 * 最小値。値は前後の空白を除いて型に従って比較し、元の文字列のまま書き込む
+		 */
+		MIN {
+			@Override
+			String combine(String acc, String value, KeyType type, DateTimeFormatter dateFormat) {
+				return compare(acc, value, type, dateFormat) <= 0 ? acc : value;
+			}
+		},
+
+		/**
+		 * 最大値。値は前後の空白を除いて型に従って比較し、元の文字列のまま書き込む
+		 */
+		MAX {
+			@Override
+			String combine(String acc, String value, KeyType type, DateTimeFormatter dateFormat) {
+				return compare(acc, value, type, dateFormat) >= 0 ? acc : value;
+			}
+		};
+
+		/**
+		 * 集計済みの値に値を加える
+		 *
+		 * @param acc : 集計済みの値（空でない）
+		 * @param value : 加える値（空でない）
+		 * @param type : 値の型
+		 * @param dateFormat : 日付の書式
+		 * @return 集計した値
+		 */
+		abstract String combine(String acc, String value, KeyType type, DateTimeFormatter dateFormat);
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static int compare(String v1, String v2, KeyType type, DateTimeFormatter dateFormat) {
+			Comparable c1 = type.parse(type.normalize(v1), dateFormat);
+			Comparable c2 = type.parse(type.normalize(v2), dateFormat);
+			return c1.compareTo(c2);
+		}
+	}
+
+	private final int column;
+	private final Function function;
+	private final KeyType type;
+	private final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern(SortKey.DEFAULT_DATE_PATTERN);
+
+	/**
+	 * 値を10進数として集計する
+	 *
+	 * @param column : 列の位置（0から）
+	 * @param function : 集計の方法
+	 */
+	public Aggregate(int column, Function function) {
+		this(column, function, KeyType.DECIMAL);
+	}
+
+	/**
+	 * @param column : 列の位置（0から）
+	 * @param function : 集計の方法
+	 * @param type : 最小値・最大値を比較する型。日付は {@link SortKey#DEFAULT_DATE_PATTERN} の書式とする。
+	 *			 合計の場合は {@link KeyType#LONG} または {@link KeyType#DECIMAL}
+	 */
+	public Aggregate(int column, Function function, KeyType type) {
+		if (column < 0) {
+			throw new IllegalArgumentException("column must not be negative: " + column);
+		}
+		if (function == null || type == null) {
+			throw new IllegalArgumentException("function and type must not be null");
+		}
+		if (function == Function.SUM && type != KeyType.LONG && type != KeyType.DECIMAL) {
+			throw new IllegalArgumentException("SUM needs a numeric type: " + type);
+		}
+		this.column = column;
+		this.function = function;
+		this.type = type;
+	}
+
+	public int getColumn() {
+		return this.column;
+	}
+
+	public Function getFunction() {
+		return this.function;
+	}
+
+	public KeyType getType() {
+		return this.type;
+	}
+
+	/**
+	 * 集計済みの値に値を加える。どちらかが空の場合はもう一方を返す
+	 */
+	String combine(String acc, String value) {
+		if (acc == null || this.type.normalize(acc).isEmpty()) {
+			return value;
+		}
+		if (value == null || this.type.normalize(value).isEmpty()) {
+			return acc;
+		}
+		try {
+			return this.function.combine(acc, value, this.type, this.dateFormat);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("column " + this.column + ": cannot aggregate '" + value + "' by " + this, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.function + "(" + this.column + (this.function == Function.COUNT ? "" : " " + this.type) + ")";
+	}
+}
@@ -0,0 +1,282 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import com.csvfile.sorter.samples.serialize.CompactRowReader;
+import com.csvfile.sorter.samples.serialize.CompactRowWriter;
+
+/**
+ * 一時ファイル作成中の行を、1つの大きなバイト配列（アリーナ）に格納するバッファ
+ *
+ * 行ごとに List と列ごとの String を保持する代わりに、各行を正規化キーと一緒に
+ * {@link CompactRowWriter} のキー付きの形式でアリーナへ追記する。
+ * ソートは (正規化キーの先頭8バイト, アリーナ上の位置) の組の配列に対して行い、
+ * 一時ファイルへはアリーナ上のバイト列をそのまま書き込む。
+ *
+ * 先頭8バイトが同じ行だけアリーナ上の正規化キーを比較する。ソートは安定（マージソート）であり、
+ * 同じキーの行は追記した順（入力の順）に並ぶ。
+ *
+ * アリーナと索引の配列はブロックごとに作り直さず、{@link #clear()} して使い回す。
+ *
+ */
+final class ArenaRunBuffer {
+
+	// 1行あたりの索引の大きさ（先頭8バイトと位置、マージソートの作業領域を含む）
+	static final int INDEX_BYTES = (8 + 4) * 2;
+
+	// アリーナの最大の大きさ
+	private static final int MAX_ARENA_SIZE = Integer.MAX_VALUE - 8;
+
+	private static final int INITIAL_SIZE = 64 * 1024;
+
+	private final NormalizedKeyComparator keys;
+	// アリーナの大きさの上限
+	private final int maxSize;
+	private CompactRowWriter encoder;
+
+	byte[] arena;
+	private int used = 0;
+
+	private long[] prefixes = new long[1024];
+	private int[] offsets = new int[1024];
+	private long[] workPrefixes = new long[0];
+	private int[] workOffsets = new int[0];
+	private int count = 0;
+
+	/**
+	 * @param keys : 正規化キーの作成と比較に使用する比較
+	 * @param maxSize : アリーナの大きさの上限（バイト数）
+	 */
+	ArenaRunBuffer(NormalizedKeyComparator keys, long maxSize) {
+		this.keys = keys;
+		this.maxSize = (int) Math.max(Math.min(maxSize, MAX_ARENA_SIZE), 1);
+		this.arena = new byte[Math.min(INITIAL_SIZE, this.maxSize)];
+		this.encoder = newEncoder();
+	}
+
+	private CompactRowWriter newEncoder() {
+		return new CompactRowWriter(new ArenaOutputStream(), 4096, true);
+	}
+
+	/**
+	 * 格納している行数
+	 */
+	int size() {
+		return this.count;
+	}
+
+	/**
+	 * 格納している行が使用しているバイト数（アリーナの使用量と索引）
+	 */
+	long byteSize() {
+		return this.used + (long) this.count * INDEX_BYTES;
+	}
+
+	/**
+	 * 1行を追記する
+	 *
+	 * @return アリーナの大きさが上限に達して追記できない場合は false
+	 */
+	boolean add(List<String> row) throws IOException {
+		byte[] key = this.keys.keyOf(row);
+		int offset = this.used;
+		try {
+			this.encoder.write(row, key);
+			this.encoder.flush();
+		} catch (ArenaFullException e) {
+			// 書き込み途中の行を捨てる
+			this.encoder = newEncoder();
+			this.used = offset;
+			if (this.count == 0) {
+				throw new IOException("row is too large for the arena", e);
+			}
+			return false;
+		}
+
+		if (this.count == this.offsets.length) {
+			int capacity = this.count * 2;
+			this.prefixes = Arrays.copyOf(this.prefixes, capacity);
+			this.offsets = Arrays.copyOf(this.offsets, capacity);
+		}
+		this.prefixes[this.count] = NormalizedKeyComparator.prefixOf(key);
+		this.offsets[this.count] = offset;
+		this.count++;
+		return true;
+	}
+
+	/**
+	 * 格納している行を破棄する。アリーナと索引の配列は使い回す
+	 */
+	void clear() {
+		this.used = 0;
+		this.count = 0;
+	}
+
+	/**
+	 * 索引をキーの順にソートする
+	 */
+	void sort() {
+		if (this.workOffsets.length < this.count) {
+			this.workPrefixes = new long[this.prefixes.length];
+			this.workOffsets = new int[this.offsets.length];
+		}
+		System.arraycopy(this.prefixes, 0, this.workPrefixes, 0, this.count);
+		System.arraycopy(this.offsets, 0, this.workOffsets, 0, this.count);
+		mergeSort(this.workPrefixes, this.workOffsets, this.prefixes, this.offsets, 0, this.count);
+	}
+
+	/**
+	 * src を作業領域として、dest の [low, high) をソートする。呼び出し時には src と dest の内容は同じであること
+	 */
+	private void mergeSort(long[] srcPrefixes, int[] srcOffsets, long[] destPrefixes, int[] destOffsets, int low, int high) {
+		if (high - low < 7) {
+			// 短い範囲は挿入ソート
+			for (int i = low + 1; i < high; i++) {
+				for (int j = i; j > low && compare(destPrefixes, destOffsets, j - 1, j) > 0; j--) {
+					long prefix = destPrefixes[j];
+					destPrefixes[j] = destPrefixes[j - 1];
+					destPrefixes[j - 1] = prefix;
+					int offset = destOffsets[j];
+					destOffsets[j] = destOffsets[j - 1];
+					destOffsets[j - 1] = offset;
+				}
+			}
+			return;
+		}
+
+		int mid = (low + high) >>> 1;
+		mergeSort(destPrefixes, destOffsets, srcPrefixes, srcOffsets, low, mid);
+		mergeSort(destPrefixes, destOffsets, srcPrefixes, srcOffsets, mid, high);
+
+		// 前半の最後が後半の先頭以下であれば、そのまま並べる
+		if (compare(srcPrefixes, srcOffsets, mid - 1, mid) <= 0) {
+			System.arraycopy(srcPrefixes, low, destPrefixes, low, high - low);
+			System.arraycopy(srcOffsets, low, destOffsets, low, high - low);
+			return;
+		}
+
+		for (int i = low, p = low, q = mid; i < high; i++) {
+			if (q >= high || (p < mid && compare(srcPrefixes, srcOffsets, p, q) <= 0)) {
+				destPrefixes[i] = srcPrefixes[p];
+				destOffsets[i] = srcOffsets[p++];
+			} else {
+				destPrefixes[i] = srcPrefixes[q];
+				destOffsets[i] = srcOffsets[q++];
+			}
+		}
+	}
+
+	private int compare(long[] prefixes, int[] offsets, int i, int j) {
+		if (prefixes[i] != prefixes[j]) {
+			return Long.compareUnsigned(prefixes[i], prefixes[j]);
+		}
+		return compareKeys(offsets[i], offsets[j]);
+	}
+
+	/**
+	 * アリーナ上の2行の正規化キーを、先頭8バイトより後ろから比較する
+	 */
+	private int compareKeys(int offset1, int offset2) {
+		byte[] b = this.arena;
+		int start1 = skipVarint(b, offset1);
+		int start2 = skipVarint(b, offset2);
+		int length1 = readVarint(b, start1);
+		int length2 = readVarint(b, start2);
+		start1 = skipVarint(b, start1);
+		start2 = skipVarint(b, start2);
+
+		int length = Math.min(length1, length2);
+		for (int i = 8; i < length; i++) {
+			int result = (b[start1 + i] & 0xFF) - (b[start2 + i] & 0xFF);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return length1 - length2;
+	}
+
+	private static int readVarint(byte[] b, int pos) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte v = b[pos++];
+			value |= (v & 0x7F) << shift;
+			if ((v & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	private static int skipVarint(byte[] b, int pos) {
+		while ((b[pos++] & 0x80) != 0) {
+			// 続きのバイトを読み飛ばす
+		}
+		return pos;
+	}
+
+	/**
+	 * i 番目の行の位置。{@link #sort()} の後はソート済みの順となる
+	 */
+	int offsetAt(int i) {
+		return this.offsets[i];
+	}
+
+	/**
+	 * ソート済みの行を一時ファイルへ書き込む。{@link #sort()} の後に呼び出すこと
+	 */
+	void writeTo(RunWriter out) throws IOException {
+		for (int i = 0; i < this.count; i++) {
+			out.writeEncoded(this, offsetAt(i));
+		}
+	}
+
+	/**
+	 * アリーナ上の行を読み込む
+	 *
+	 * @param offset : 行の位置
+	 * @param comparator : 行と一緒に正規化キーを保持させる場合の比較。保持させない場合は null
+	 */
+	List<String> rowAt(int offset, NormalizedKeyComparator comparator) throws IOException {
+		CompactRowReader reader = new CompactRowReader(new ByteArrayInputStream(this.arena, offset, this.used - offset),
+													   256, true);
+		List<String> row = reader.read();
+		return comparator == null ? row : comparator.withKey(row, reader.lastKey());
+	}
+
+	/**
+	 * アリーナの大きさが上限に達したことを表す例外
+	 */
+	private static final class ArenaFullException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * アリーナへ追記するストリーム。必要に応じてアリーナを上限まで2倍ずつ拡張する
+	 */
+	private final class ArenaOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (arena.length - used < len) {
+				// 上限より大きい行も、1行目であれば格納する
+				int limit = count == 0 ? MAX_ARENA_SIZE : maxSize;
+				if (limit - used < len) {
+					throw new ArenaFullException();
+				}
+				long capacity = Math.max((long) arena.length * 2, (long) used + len);
+				arena = Arrays.copyOf(arena, (int) Math.min(capacity, Math.max(limit, maxSize)));
+			}
+			System.arraycopy(b, off, arena, used, len);
+			used += len;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 別のスレッドで書き込む {@link RowWriter}
+ *
+ * 書き込む行を BATCH_ROWS 行ごとのバッチとして書き込み用のスレッドへ渡す。
+ * 書き込み待ちのバッチは最大2つとし、書き込みが追いつかない場合は {@link #write} で待つ。
+ * 書き込み用のスレッドで発生した例外は、以降の {@link #write}、または {@link #close} で投げる。
+ *
+ */
+final class AsyncRowWriter implements RowWriter {
+
+	static final int BATCH_ROWS = 1024;
+
+	// 書き込み待ちのバッチの最大数
+	private static final int BATCHES = 2;
+
+	// 書き込みの終わりを表すバッチ
+	private static final List<List<String>> END = new ArrayList<List<String>>(0);
+
+	private final RowWriter out;
+	private final BlockingQueue<List<List<String>>> queue = new ArrayBlockingQueue<List<List<String>>>(BATCHES);
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile IOException error = null;
+	private List<List<String>> batch = new ArrayList<List<String>>(BATCH_ROWS);
+
+	/**
+	 * @param out : 書き込み先
+	 * @param executor : 書き込みを行うスレッドプール。書き込みの間、スレッドを1つ使用する
+	 */
+	AsyncRowWriter(RowWriter out, ExecutorService executor) {
+		this.out = out;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		});
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				List<List<String>> rows = this.queue.take();
+				if (rows == END) {
+					break;
+				}
+				for (List<String> row : rows) {
+					this.out.write(row);
+				}
+			}
+		} catch (IOException e) {
+			this.error = e;
+		} catch (InterruptedException e) {
+			this.error = new InterruptedIOException("writing was interrupted");
+		} catch (RuntimeException e) {
+			this.error = new IOException(e);
+		} finally {
+			this.done.countDown();
+		}
+	}
+
+	@Override
+	public void write(List<String> row) throws IOException {
+		this.batch.add(row);
+		if (this.batch.size() == BATCH_ROWS) {
+			send(this.batch);
+			this.batch = new ArrayList<List<String>>(BATCH_ROWS);
+		}
+	}
+
+	/**
+	 * バッチを書き込み用のスレッドへ渡す。書き込み用のスレッドが終了している場合は、その例外を投げる
+	 */
+	private void send(List<List<String>> rows) throws IOException {
+		try {
+			while (!this.queue.offer(rows, 100, TimeUnit.MILLISECONDS)) {
+				checkError();
+				if (this.done.getCount() == 0) {
+					throw new IOException("writer has stopped");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("writing was interrupted");
+		}
+		checkError();
+	}
+
+	private void checkError() throws IOException {
+		if (this.error != null) {
+			throw this.error;
+		}
+	}
+
+	/**
+	 * 残りの行を書き込み、書き込み用のスレッドの終了を待ってから書き込み先を閉じる
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (this.done.getCount() != 0) {
+				if (!this.batch.isEmpty()) {
+					send(this.batch);
+				}
+				send(END);
+				this.done.await();
+			}
+			checkError();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("writing was interrupted");
+		} finally {
+			this.out.close();
+		}
+	}
+}
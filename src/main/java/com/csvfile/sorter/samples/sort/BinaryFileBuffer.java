@@ -0,0 +1,57 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * マージの入力の1つ分を、先頭の行を先読みして保持するクラス
+ *
+ */
+class BinaryFileBuffer {
+	private final RowReader fbr;
+	// 読み終わったときに削除する一時ファイル。削除しない場合は null
+	private final SortedRun originalfile;
+	// マージ対象の入力内での順番。同じ値の行を比較するときに使用する
+	public final int index;
+	private List<String> cache;
+	private boolean empty;
+
+	public BinaryFileBuffer(RowReader fbr, int index, SortedRun originalfile) throws IOException {
+		this.fbr = fbr;
+		this.index = index;
+		this.originalfile = originalfile;
+		reload();
+	}
+
+	public boolean empty() {
+		return this.empty;
+	}
+
+	private void reload() throws IOException {
+		this.cache = this.fbr.read();
+		this.empty = this.cache == null;
+	}
+
+	public void close() throws IOException {
+		this.fbr.close();
+	}
+
+	public void delete() {
+		if (this.originalfile != null) {
+			this.originalfile.delete();
+		}
+	}
+
+	public List<String> peek() {
+		if (empty()) {
+			return null;
+		}
+		return this.cache;
+	}
+
+	public List<String> pop() throws IOException {
+		List<String> answer = peek();
+		reload();
+		return answer;
+	}
+}
@@ -0,0 +1,160 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * 入力ファイル・一時ファイル・出力ファイルの圧縮方式
+ *
+ * 入力ファイルと出力ファイルの既定は形式ごとに決まり（{@link FileFormat#defaultCodec()}）、
+ * 一時ファイルの既定は {@link #SNAPPY} とする。いずれも {@link SortOptions} で変更できる。
+ *
+ */
+public abstract class Codec {
+
+	/**
+	 * 圧縮しない
+	 */
+	public static final Codec NONE = new Codec("none") {
+		@Override
+		OutputStream compress(OutputStream out) {
+			return out;
+		}
+
+		@Override
+		InputStream decompress(InputStream in) {
+			return in;
+		}
+	};
+
+	/**
+	 * Snappy（snappy-java のストリーム形式）。従来の入力ファイル・出力ファイル・一時ファイルの形式
+	 */
+	public static final Codec SNAPPY = new Codec("snappy") {
+		@Override
+		OutputStream compress(OutputStream out) {
+			return new SnappyOutputStream(out);
+		}
+
+		@Override
+		InputStream decompress(InputStream in) throws IOException {
+			return new SnappyInputStream(in);
+		}
+	};
+
+	/**
+	 * LZ4 のフレーム形式。Snappy と同程度の圧縮率で、展開が速い
+	 */
+	public static final Codec LZ4 = new Codec("lz4") {
+		@Override
+		OutputStream compress(OutputStream out) throws IOException {
+			return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB);
+		}
+
+		@Override
+		InputStream decompress(InputStream in) throws IOException {
+			return new LZ4FrameInputStream(in);
+		}
+	};
+
+	/**
+	 * zstd の既定のレベル（3）
+	 */
+	public static final Codec ZSTD = zstd(3);
+
+	private final String name;
+
+	private Codec(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * 指定したレベルの zstd を返す
+	 *
+	 * レベルが高いほど圧縮率は高く、圧縮は遅くなる。展開の速さはレベルによらずほぼ同じ。
+	 * 低速なディスクやネットワーク上のファイルシステムでは、高いレベルの方が速くなることがある。
+	 *
+	 * @param level : 圧縮レベル（負の値は高速モード）
+	 * @return zstd の圧縮方式
+	 */
+	public static Codec zstd(final int level) {
+		if (level < Zstd.minCompressionLevel() || level > Zstd.maxCompressionLevel()) {
+			throw new IllegalArgumentException("invalid zstd level: " + level);
+		}
+		return new Codec("zstd-" + level) {
+			@Override
+			OutputStream compress(OutputStream out) throws IOException {
+				return new ZstdOutputStream(out, level);
+			}
+
+			@Override
+			InputStream decompress(InputStream in) throws IOException {
+				return new ZstdInputStream(in);
+			}
+		};
+	}
+
+	/**
+	 * 名前（{@link #getName()}）から圧縮方式を返す
+	 *
+	 * @throws IllegalArgumentException 名前に対応する圧縮方式がない場合
+	 */
+	static Codec forName(String name) {
+		for (Codec codec : new Codec[] { NONE, SNAPPY, LZ4 }) {
+			if (codec.name.equals(name)) {
+				return codec;
+			}
+		}
+		if (name != null && name.startsWith("zstd-")) {
+			try {
+				return zstd(Integer.parseInt(name.substring("zstd-".length())));
+			} catch (NumberFormatException e) {
+				// 下で投げる
+			}
+		}
+		throw new IllegalArgumentException("unknown codec: " + name);
+	}
+
+	/**
+	 * 圧縮して out へ書き込むストリームを返す。返したストリームを閉じると out も閉じる
+	 */
+	abstract OutputStream compress(OutputStream out) throws IOException;
+
+	/**
+	 * in から読み込んで展開するストリームを返す。返したストリームを閉じると in も閉じる
+	 */
+	abstract InputStream decompress(InputStream in) throws IOException;
+
+	/**
+	 * 圧縮方式の名前（"none"、"snappy"、"lz4"、"zstd-3" など）
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Codec && ((Codec) obj).name.equals(this.name);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+}
@@ -0,0 +1,157 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import com.csvfile.sorter.samples.serialize.CompactRowWriter;
+
+/**
+ * 一時ファイルの圧縮方式を、入力ファイルの一部で計測して選ぶクラス
+ *
+ * 入力ファイルの先頭の行を一時ファイルと同じ形式（{@link CompactRowWriter}）に変換したものを標本とし、
+ * 候補の方式ごとに圧縮・展開の時間と圧縮後の大きさを計測する。
+ * 一時ファイルのディレクトリ（複数ある場合はいずれか1つ）への書き込みの速さも計測し、1バイトあたりの
+ * （圧縮の時間 + 展開の時間 + 圧縮後の大きさを書き込んで読み込む時間）が最も短い方式を選ぶ。
+ * 読み込みの速さは書き込みと同じとみなす。
+ *
+ */
+final class CodecSelector {
+
+	// 標本の大きさの上限（一時ファイルの形式でのバイト数）
+	static final int SAMPLE_BYTES = 1024 * 1024;
+
+	// 書き込みの速さを計測するために書き込む大きさ
+	private static final int DISK_SAMPLE_BYTES = 4 * 1024 * 1024;
+
+	// 計測の回数。最も短い時間を使う
+	private static final int REPEAT = 3;
+
+	// 候補の方式
+	static final List<Codec> CANDIDATES = Arrays.asList(Codec.NONE, Codec.LZ4, Codec.SNAPPY, Codec.zstd(1), Codec.ZSTD);
+
+	private CodecSelector() {
+	}
+
+	/**
+	 * 一時ファイルの圧縮方式を選ぶ
+	 *
+	 * @param file : 入力ファイル
+	 * @param options : 入力ファイルの形式。入力ファイルに行がない場合は spillCodec をそのまま返す
+	 * @param session : 書き込みの速さを計測する一時ファイルを作成するソート処理
+	 * @return 選んだ圧縮方式
+	 */
+	static Codec select(File file, SortOptions options, SortSession session) throws IOException {
+		byte[] sample = sample(file, options);
+		if (sample.length == 0) {
+			return options.getSpillCodec();
+		}
+
+		double diskNanosPerByte = measureDisk(sample, session.newRunFile("codec"));
+		Codec best = null;
+		double bestCost = Double.MAX_VALUE;
+		for (Codec codec : CANDIDATES) {
+			double cost = cost(codec, sample, diskNanosPerByte);
+			if (cost < bestCost) {
+				best = codec;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * 入力ファイルの先頭の行を、一時ファイルと同じ形式に変換する
+	 */
+	private static byte[] sample(File file, SortOptions options) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompactRowWriter out = new CompactRowWriter(bytes, RunReader.BUFFER_SIZE);
+		RowReader in = CsvFileSorter.openInput(file, options);
+		try {
+			List<String> row;
+			while (bytes.size() < SAMPLE_BYTES && (row = in.read()) != null) {
+				out.write(row);
+				out.flush();
+			}
+		} finally {
+			in.close();
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * 一時ファイルのディレクトリへの書き込みの速さ（1バイトあたりのナノ秒）を計測する
+	 */
+	private static double measureDisk(byte[] sample, File tmpfile) throws IOException {
+		try {
+			long start = System.nanoTime();
+			FileOutputStream fos = new FileOutputStream(tmpfile);
+			long written = 0;
+			try {
+				while (written < DISK_SAMPLE_BYTES) {
+					fos.write(sample);
+					written += sample.length;
+				}
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+			return (double) (System.nanoTime() - start) / written;
+		} finally {
+			tmpfile.delete();
+		}
+	}
+
+	/**
+	 * 標本1バイトあたりの時間（ナノ秒）を見積もる
+	 */
+	static double cost(Codec codec, byte[] sample, double diskNanosPerByte) throws IOException {
+		// 最初の1回はクラスの読み込みや JIT コンパイルを含むため計測しない
+		byte[] compressed = compress(codec, sample);
+		decompress(codec, compressed);
+
+		long compressNanos = Long.MAX_VALUE;
+		long decompressNanos = Long.MAX_VALUE;
+		for (int i = 0; i < REPEAT; i++) {
+			long start = System.nanoTime();
+			compressed = compress(codec, sample);
+			long middle = System.nanoTime();
+			decompress(codec, compressed);
+			long end = System.nanoTime();
+			compressNanos = Math.min(compressNanos, middle - start);
+			decompressNanos = Math.min(decompressNanos, end - middle);
+		}
+		return (double) (compressNanos + decompressNanos) / sample.length
+				+ 2 * diskNanosPerByte * compressed.length / sample.length;
+	}
+
+	private static byte[] compress(Codec codec, byte[] sample) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(sample.length / 2);
+		OutputStream out = codec.compress(bytes);
+		try {
+			out.write(sample);
+		} finally {
+			out.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void decompress(Codec codec, byte[] compressed) throws IOException {
+		InputStream in = codec.decompress(new ByteArrayInputStream(compressed));
+		try {
+			byte[] buffer = new byte[RunReader.BUFFER_SIZE];
+			while (in.read(buffer) >= 0) {
+				// 展開した内容は使わない
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 比較の回数を数える比較
+ *
+ * 詳細な統計情報（{@link SortOptions#setDetailedStats}）を指定した場合に、元の比較の代わりに使用する。
+ * キーの計算（{@link #prepare}）は元の比較に任せる。並列にソートする場合も数えられるよう、{@link LongAdder} で数える。
+ * 正規化キーの読み書きでは、{@link NormalizedKeyComparator#of} で元の比較を取り出して使用する。
+ *
+ */
+final class CountingComparator implements RowKeyComparator {
+
+	private final Comparator<List<String>> comparator;
+	private final LongAdder count = new LongAdder();
+
+	CountingComparator(Comparator<List<String>> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * 元の比較
+	 */
+	Comparator<List<String>> getComparator() {
+		return this.comparator;
+	}
+
+	/**
+	 * これまでに比較した回数
+	 */
+	long getCount() {
+		return this.count.sum();
+	}
+
+	@Override
+	public List<String> prepare(List<String> row) {
+		return CsvFileSorter.prepare(this.comparator, row);
+	}
+
+	@Override
+	public int compare(List<String> r1, List<String> r2) {
+		this.count.increment();
+		return this.comparator.compare(r1, r2);
+	}
+
+	/**
+	 * 比較の回数。比較が CountingComparator でない（ReversedComparator で包んだ場合を含む）場合は0
+	 */
+	static long countOf(Comparator<List<String>> comparator) {
+		if (comparator instanceof ReversedComparator) {
+			comparator = ((ReversedComparator) comparator).getComparator();
+		}
+		return comparator instanceof CountingComparator ? ((CountingComparator) comparator).getCount() : 0;
+	}
+}
@@ -1,25 +1,30 @@
 package com.csvfile.sorter.samples.sort;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
-
-import org.xerial.snappy.SnappyInputStream;
-import org.xerial.snappy.SnappyOutputStream;
-
-import com.csvfile.sorter.samples.serialize.ListOfStringSerializer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /*
  * 数GBになるCSVファイルをソートするため、公開されているソート処理を取り込んだ。
@@ -53,131 +58,707 @@ import com.csvfile.sorter.samples.serialize.ListOfStringSerializer;
  */
 public final class CsvFileSorter {
 
-	private static final int FLUSH_INTERVAL = 10000;
-
 	/**
 	 * コンストラクタ.
 	 */
 	private CsvFileSorter() {
 	}
 
-	private static final int OBJ_HEADER;
-	private static final int ARR_HEADER;
-	private static final int INT_FIELDS = 12;
-	private static final int OBJ_REF;
-	private static final int OBJ_OVERHEAD;
-	private static final int DEFAULTMAXTEMPFILES = 1024;
-	private static boolean is64bitJVM;
+	static final int DEFAULTMAXTEMPFILES = 1024;
 
 	public static final int BUFFER_SIZE = 4096;
 
 	/**
-	 * Class initializations.
+	 * 全ての列を文字列として先頭から比較する、既定の比較
 	 */
-	static {
-		// By default we assume 64 bit JVM
-		// (defensive approach since we will get
-		// larger estimations in case we are not sure)
-		is64bitJVM = true;
-
-		// check the system property "sun.arch.data.model"
-		// not very safe, as it might not work for all JVM implementations
-		// nevertheless the worst thing that might happen is that the JVM is
-		// 32bit
-		// but we assume its 64bit, so we will be counting a few extra bytes per
-		// string object
-		// no harm done here since this is just an approximation.
-		String arch = System.getProperty("sun.arch.data.model");
-		if (arch != null) {
-			if (arch.indexOf("32") != -1) {
-				// If exists and is 32 bit then we assume a 32bit JVM
-				is64bitJVM = false;
+	static final Comparator<List<String>> DEFAULT_COMPARATOR = new Comparator<List<String>>() {
+		@Override
+		public int compare(List<String> r1, List<String> r2) {
+			int result = 0;
+			int size = r1.size() < r2.size() ? r1.size() : r2.size();
+			for (int i = 0; i < size && result == 0; i++) {
+				String str1 = r1.get(i);
+				String str2 = r2.get(i);
+				if (str1 == null) {
+					str1 = "";
+				}
+				if (str2 == null) {
+					str2 = "";
+				}
+				result = str1.compareTo(str2);
+			}
+			if (result == 0) {
+				// 先頭の列が全て同じ場合は列数の少ない行を前にする（比較の推移律を保つため）
+				result = r1.size() < r2.size() ? -1 : (r1.size() == r2.size() ? 0 : 1);
 			}
+			return result;
 		}
-		// The sizes below are a bit rough as we don't take into account
-		// advanced JVM options such as compressed oops
-		// however if our calculation is not accurate it'll be a bit over
-		// so there is no danger of an out of memory error because of this.
-		OBJ_HEADER = is64bitJVM ? 16 : 8;
-		ARR_HEADER = is64bitJVM ? 24 : 12;
-		OBJ_REF = is64bitJVM ? 8 : 4;
-		OBJ_OVERHEAD = OBJ_HEADER + INT_FIELDS + OBJ_REF + ARR_HEADER;
+	};
+
+	public static SortStats sort(String inputfile, String outputfile) throws IOException {
+		return sort(inputfile, outputfile, new SortOptions());
 	}
 
-	public static void sort(String inputfile, String outputfile) throws IOException {
+	/**
+	 * オプションを指定してソートを行う
+	 *
+	 * @param inputfile : 入力ファイル
+	 * @param outputfile : 出力ファイル
+	 * @param options : ソートのオプション
+	 * @return ソート処理の統計情報
+	 */
+	public static SortStats sort(String inputfile, String outputfile, SortOptions options) throws IOException {
+
+		SortStats stats = new SortStats();
 
 		// 入力ファイルが存在しないか、存在していてもファイルサイズが0バイトの場合は処理を終了
 		File file = new File(inputfile);
 		if (!file.isFile() || (file.length() == 0)) {
-			return;
-		}
-
-		int maxtmpfiles = DEFAULTMAXTEMPFILES;
-		Charset cs = Charset.forName("UTF-8");
-
-		Comparator<List<String>> comparator = new Comparator<List<String>>() {
-			@Override
-			public int compare(List<String> r1, List<String> r2) {
-				int result = 0;
-				int size = r1.size() < r2.size() ? r1.size() : r2.size();
-				for (int i = 0; i < size && result == 0; i++) {
-					String str1 = r1.get(i);
-					String str2 = r2.get(i);
-					if (str1 == null) {
-						str1 = "";
+			return stats;
+		}
+
+		if (options.isKeyPointer()) {
+			KeyPointer.check(options);
+			return sortByKeyPointer(file, new File(outputfile), options, stats);
+		}
+
+		Comparator<List<String>> comparator = comparatorOf(options);
+		SortInput input = SortInput.of(file);
+		SortSession session = openSession(input, options, stats);
+		try {
+			if (options.getJobDirectory() != null) {
+				session.openJob(file, options, comparator);
+			}
+			sort(input, new File(outputfile), comparator, options, session, stats);
+			session.getMetrics().finish(stats, comparator);
+			if (session.getJob() != null) {
+				session.getJob().complete();
+			}
+			return stats;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * ファイルからファイルへのソートでしか使用できないオプション（jobDirectory・keyPointer）を指定していないことを確かめる
+	 */
+	private static void checkFileToFile(SortOptions options) {
+		if (options.getJobDirectory() != null) {
+			throw new IllegalArgumentException("jobDirectory is only supported when sorting a file into a file");
+		}
+		if (options.isKeyPointer()) {
+			throw new IllegalArgumentException("keyPointer is only supported when sorting a file into a file");
+		}
+	}
+
+	/**
+	 * 呼び出し元が渡す行をソートして、出力ファイルへ書き込む
+	 *
+	 * 行は全て読み込んでからマージを始めるため、ソートが終わるまで保持する。渡した後に変更しないこと。
+	 * 一時ファイルの圧縮方式の自動選択（autoSpillCodec）は行わず、spillCodec を使う。
+	 * 再開できるジョブ（jobDirectory）とキーとポインタによるソート（keyPointer）は指定できない。
+	 *
+	 * @param rows : ソートする行
+	 * @param outputfile : 出力ファイル
+	 * @param options : ソートのオプション
+	 * @return ソート処理の統計情報
+	 */
+	public static SortStats sort(Iterator<? extends List<String>> rows, String outputfile, SortOptions options)
+			throws IOException {
+
+		checkFileToFile(options);
+		SortStats stats = new SortStats();
+		Comparator<List<String>> comparator = comparatorOf(options);
+		SortInput input = SortInput.of(rows, null);
+		SortSession session = openSession(input, options, stats);
+		try {
+			sort(input, new File(outputfile), comparator, options, session, stats);
+			session.getMetrics().finish(stats, comparator);
+			return stats;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * ソートした行を、出力ファイルへ書き込まずに順に返す
+	 *
+	 * 一時ファイルの作成（と途中のマージパス）はこのメソッドの中で行い、最後のマージは別のスレッドで、
+	 * 返した {@link SortedRowIterator} から行を取り出す速さに合わせて行う。
+	 * 使い終わったら {@link SortedRowIterator#close()} で一時ファイルを削除すること。
+	 * 出力ファイルの形式・圧縮方式と、範囲ごとの出力（partitionedOutput）は使用しない。
+	 * 再開できるジョブ（jobDirectory）とキーとポインタによるソート（keyPointer）は指定できない。
+	 *
+	 * @param inputfile : 入力ファイル
+	 * @param options : ソートのオプション
+	 * @return ソートした行。入力ファイルが存在しないか空の場合は、行を返さない
+	 */
+	public static SortedRowIterator sorted(String inputfile, SortOptions options) throws IOException {
+		checkFileToFile(options);
+		File file = new File(inputfile);
+		if (!file.isFile() || (file.length() == 0)) {
+			return new SortedRowIterator(new SortStats());
+		}
+		return sorted(SortInput.of(file), options);
+	}
+
+	/**
+	 * 呼び出し元が渡す行をソートして、順に返す
+	 *
+	 * 詳細は {@link #sorted(String, SortOptions)} と {@link #sort(Iterator, String, SortOptions)} を参照。
+	 *
+	 * @param rows : ソートする行
+	 * @param options : ソートのオプション
+	 * @return ソートした行
+	 */
+	public static SortedRowIterator sorted(Iterator<? extends List<String>> rows, SortOptions options) throws IOException {
+		return sorted(SortInput.of(rows, null), options);
+	}
+
+	/**
+	 * 呼び出し元が渡す行をソートして、順に返す。rows は全ての行を読み込んだ後に閉じる
+	 *
+	 * 詳細は {@link #sorted(String, SortOptions)} と {@link #sort(Iterator, String, SortOptions)} を参照。
+	 *
+	 * @param rows : ソートする行
+	 * @param options : ソートのオプション
+	 * @return ソートした行
+	 */
+	public static SortedRowIterator sorted(Stream<? extends List<String>> rows, SortOptions options) throws IOException {
+		return sorted(SortInput.of(rows.iterator(), rows), options);
+	}
+
+	private static SortedRowIterator sorted(SortInput input, SortOptions options) throws IOException {
+		checkFileToFile(options);
+		SortStats stats = new SortStats();
+		Comparator<List<String>> comparator = comparatorOf(options);
+		SortSession session = openSession(input, options, stats);
+		try {
+			List<SortedRun> filesList = generateRuns(input, comparator, options, session, stats);
+			int fanIn = MergePlanner.chooseFanIn(options);
+			stats.setFanIn(fanIn);
+			filesList = MergePlanner.reduce(filesList, comparator, fanIn, stats);
+			return new SortedRowIterator(filesList, comparator, options, session, stats);
+		} catch (IOException | RuntimeException e) {
+			session.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 先頭から k 行だけを出力する
+	 *
+	 * 出力結果は、{@link #sort(String, String, SortOptions)} の出力の先頭 k 行と同じになる。
+	 * 詳細は {@link #top(String, String, long, boolean, SortOptions)} を参照。
+	 *
+	 * @param inputfile : 入力ファイル
+	 * @param outputfile : 出力ファイル
+	 * @param k : 出力する行数
+	 * @param options : ソートのオプション
+	 * @return ソート処理の統計情報
+	 */
+	public static SortStats top(String inputfile, String outputfile, long k, SortOptions options) throws IOException {
+		return top(inputfile, outputfile, k, false, options);
+	}
+
+	/**
+	 * 最小（または最大）の k 行だけを、ソートして出力する
+	 *
+	 * 入力ファイルを1度だけ読み、k 行を保持するヒープで残す行を選ぶ。一時ファイルは作成しない。
+	 * k 行がメモリ使用量の上限に収まらない場合は、各ブロックの先頭 k 行だけを一時ファイルに書き込み、
+	 * マージも k 行を出力した時点で終了する。
+	 *
+	 * 同じ値の行は入力の順に出力する。マージの方法（mergeEngine）・並列マージ・置換選択・アリーナは使用しない。
+	 * 同じキーの行の扱い（duplicates）と集計（aggregates）、再開できるジョブ（jobDirectory）とキーとポインタによるソート（keyPointer）は指定できない。
+	 *
+	 * @param inputfile : 入力ファイル
+	 * @param outputfile : 出力ファイル
+	 * @param k : 出力する行数
+	 * @param largest : true の場合は最大の k 行を大きい順に、false の場合は最小の k 行を小さい順に出力する
+	 * @param options : ソートのオプション
+	 * @return ソート処理の統計情報
+	 */
+	public static SortStats top(String inputfile, String outputfile, long k, boolean largest, SortOptions options)
+			throws IOException {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		checkFileToFile(options);
+
+		SortStats stats = new SortStats();
+
+		File file = new File(inputfile);
+		if (!file.isFile() || (file.length() == 0)) {
+			return stats;
+		}
+
+		if (Reduction.of(options) != null) {
+			throw new IllegalArgumentException("top does not support duplicates or aggregates");
+		}
+
+		Comparator<List<String>> comparator = comparatorOf(options);
+		if (largest) {
+			comparator = new ReversedComparator(comparator);
+		}
+		SortSession session = openSession(file, options, stats);
+		try {
+			new TopK(comparator, k, options, session, stats).select(file, new File(outputfile));
+			session.getMetrics().finish(stats, comparator);
+			return stats;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * ソート済みの複数のファイルをマージして、出力ファイルへ書き込む
+	 *
+	 * 入力ファイルは options のソートキー（sortSpec。null の場合は全ての列）の順にソート済みであること。
+	 * 各入力ファイルは行を読み込むごとに前の行と比較し、順序が逆の行があった場合は {@link UnsortedInputException} を投げる。
+	 * 同じ値の行は inputfiles の順に出力する。存在しないか空の入力ファイルは、行がないものとする。
+	 *
+	 * 全ての入力ファイルを同時に開き、1回のマージで出力する。マージの方法（mergeEngine）と同じキーの行の扱い（duplicates・aggregates）
+	 * は指定に従う。並列マージ（mergeParallelism）と範囲ごとの出力（partitionedOutput）は使用しない。
+	 * 再開できるジョブ（jobDirectory）とキーとポインタによるソート（keyPointer）は指定できない。
+	 *
+	 * @param inputfiles : ソート済みの入力ファイル
+	 * @param outputfile : 出力ファイル
+	 * @param options : 入力ファイル・出力ファイルの形式とソートキー
+	 * @return マージの統計情報
+	 */
+	public static SortStats merge(List<String> inputfiles, String outputfile, SortOptions options) throws IOException {
+		checkFileToFile(options);
+		SortStats stats = new SortStats();
+		Comparator<List<String>> comparator = comparatorOf(options);
+		SortSession session = new SortSession(options, options.getSpillCodec());
+		try {
+			long bytesRead = 0;
+			long start = System.nanoTime();
+			List<BinaryFileBuffer> buffers = new ArrayList<BinaryFileBuffer>();
+			RowWriter out;
+			try {
+				for (int i = 0; i < inputfiles.size(); i++) {
+					File file = new File(inputfiles.get(i));
+					bytesRead += file.length();
+					SortedInputReader reader = SortedInputReader.open(file, comparator, options);
+					try {
+						buffers.add(new BinaryFileBuffer(reader, i, null));
+					} catch (IOException | RuntimeException e) {
+						reader.close();
+						throw e;
 					}
-					if (str2 == null) {
-						str2 = "";
+				}
+				out = openOutput(new File(outputfile), options);
+			} catch (IOException | RuntimeException e) {
+				for (BinaryFileBuffer bfb : buffers) {
+					bfb.close();
+				}
+				throw e;
+			}
+			long rowcounter;
+			try {
+				rowcounter = mergeAndReduce(options.getMergeEngine(), buffers, comparator, out, session);
+			} finally {
+				out.close();
+			}
+			stats.setRowCount(rowcounter);
+			session.getMetrics().mergePass(stats, new MergePassStats(1, buffers.size(), 1, rowcounter, bytesRead,
+					new File(outputfile).length(), MergePassStats.depthOf(buffers.size()), System.nanoTime() - start));
+			session.getMetrics().finish(stats, comparator);
+			return stats;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * 入力ファイルが、options のソートキー（sortSpec。null の場合は全ての列）の順にソート済みかどうかを確かめる
+	 *
+	 * 順序が逆の行が見つかるまで読み込む。存在しないか空の入力ファイルはソート済みとする。
+	 *
+	 * @param inputfile : 入力ファイル
+	 * @param options : 入力ファイルの形式とソートキー
+	 * @return ソート済みの場合は true
+	 */
+	public static boolean isSorted(String inputfile, SortOptions options) throws IOException {
+		SortedInputReader reader = SortedInputReader.open(new File(inputfile), comparatorOf(options), options);
+		try {
+			while (reader.read() != null) {
+				// 全ての行を前の行と比較する
+			}
+			return true;
+		} catch (UnsortedInputException e) {
+			return false;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * 2つのファイルを結合キーで結合（ソートマージ結合）して、出力ファイルへ書き込む
+	 *
+	 * 左右の入力ファイルは、それぞれの結合キーの順にソート済みであればそのまま読み込み（確認のために1度読み込む）、
+	 * そうでなければ {@link #sorted(String, SortOptions)} でソートしながら読み込む。結合した行は左の入力の順に出力する。
+	 * どちらの入力も全体をメモリ上に保持せず、保持するのは1つのキーと一致する右の行だけである。
+	 * 存在しないか空の入力ファイルは、行がないものとする。
+	 *
+	 * options のソートキー（sortSpec）は使用せず、左右の結合キーに置き換える。それ以外のオプションは入力ファイルのソートと、
+	 * 入力ファイル・出力ファイルの形式に使用する。同じキーの行の扱い（duplicates）・集計（aggregates）・
+	 * 再開できるジョブ（jobDirectory）・キーとポインタによるソート（keyPointer）は指定できない。
+	 *
+	 * @param leftfile : 左の入力ファイル
+	 * @param rightfile : 右の入力ファイル
+	 * @param outputfile : 出力ファイル
+	 * @param join : 結合の種類と結合キー
+	 * @param options : 入力ファイル・出力ファイルの形式と、ソートのオプション
+	 * @return 出力ファイルへ書き込んだ行数
+	 */
+	public static long join(String leftfile, String rightfile, String outputfile, JoinSpec join, SortOptions options)
+			throws IOException {
+		checkFileToFile(options);
+		if (Reduction.of(options) != null) {
+			throw new IllegalArgumentException("join does not support duplicates or aggregates");
+		}
+		return MergeJoin.join(new File(leftfile), new File(rightfile), new File(outputfile), join, options);
+	}
+
+	/**
+	 * 以前のソートの出力ファイルに、追加の行（差分）を加えてソートした結果を出力ファイルへ書き込む
+	 *
+	 * 差分の入力ファイルだけを一時ファイルへソートし、以前の出力ファイルと一緒に1回のマージで出力する。
+	 * 以前の出力ファイルは再びソートせずに1度だけ先頭から読み込むため、処理時間は差分の大きさと、全体を1回読み書きする時間で決まる。
+	 * 出力結果は、以前の入力ファイルの後に差分の行を加えた入力ファイルを {@link #sort(String, String, SortOptions)} でソートした結果と同じになる。
+	 *
+	 * 同じ値の行は以前の出力ファイルの行、差分の行の順に出力する。このため同じキーの行の扱い（duplicates）に
+	 * {@link Duplicates#LAST_PER_KEY} を指定すると、キーごとに最も新しい行（差分の中では後の行）だけを残す。
+	 *
+	 * 以前の出力ファイルは options の出力ファイルの形式・圧縮方式で読み込み、行を読み込むごとにソート済みであることを確かめる
+	 * （順序が逆の行があった場合は {@link UnsortedInputException} を投げる）。存在しないか空の場合は、差分だけをソートする。
+	 * 以前の出力ファイルをブロックに分けて書き込んだ場合（outputBlockSize）も、ブロックを連結した1つのファイルとして先頭から読み込む。
+	 * 並列マージ（mergeParallelism）と範囲ごとの出力（partitionedOutput）は使用しない。
+	 * 再開できるジョブ（jobDirectory）とキーとポインタによるソート（keyPointer）は指定できない。
+	 *
+	 * @param sortedfile : 以前の出力ファイル
+	 * @param deltafile : 差分の入力ファイル
+	 * @param outputfile : 出力ファイル。以前の出力ファイルとは別のファイルとすること
+	 * @param options : ソートのオプション。以前の出力ファイルを書き込んだときと同じソートキー・出力ファイルの形式とすること
+	 * @return ソート処理の統計情報。入力の行数・一時ファイルの統計は差分だけのものとなる
+	 */
+	public static SortStats sortIncremental(String sortedfile, String deltafile, String outputfile, SortOptions options)
+			throws IOException {
+
+		checkFileToFile(options);
+		File existing = new File(sortedfile);
+		File output = new File(outputfile);
+		if (existing.getCanonicalFile().equals(output.getCanonicalFile())) {
+			throw new IllegalArgumentException("outputfile must not be the same as sortedfile: " + outputfile);
+		}
+		SortStats stats = new SortStats();
+		Comparator<List<String>> comparator = comparatorOf(options);
+		File delta = new File(deltafile);
+		SortInput input = delta.isFile() && delta.length() > 0
+				? SortInput.of(delta) : SortInput.of(Collections.<List<String>>emptyIterator(), null);
+		SortSession session = openSession(input, options, stats);
+		try {
+			List<SortedRun> filesList = generateRuns(input, comparator, options, session, stats);
+
+			// 最後のマージでは、以前の出力ファイルも1つの入力とする
+			int fanIn = MergePlanner.chooseFanIn(options);
+			stats.setFanIn(fanIn);
+			filesList = MergePlanner.reduce(filesList, comparator, Math.max(fanIn - 1, MergePlanner.MIN_FAN_IN), stats);
+
+			long bytesRead = MergePlanner.totalBytes(filesList) + existing.length();
+			long start = System.nanoTime();
+			List<BinaryFileBuffer> buffers = new ArrayList<BinaryFileBuffer>();
+			RowWriter out;
+			try {
+				SortedInputReader reader = SortedInputReader.open(existing, comparator, options.forReadingOutput());
+				try {
+					buffers.add(new BinaryFileBuffer(reader, 0, null));
+				} catch (IOException | RuntimeException e) {
+					reader.close();
+					throw e;
+				}
+				for (int i = 0; i < filesList.size(); i++) {
+					RunReader run = new RunReader(filesList.get(i), comparator);
+					try {
+						buffers.add(new BinaryFileBuffer(run, i + 1, filesList.get(i)));
+					} catch (IOException | RuntimeException e) {
+						run.close();
+						throw e;
 					}
-					result = str1.compareTo(str2);
 				}
-				return result;
+				out = openOutput(output, options);
+			} catch (IOException | RuntimeException e) {
+				for (BinaryFileBuffer bfb : buffers) {
+					bfb.close();
+				}
+				throw e;
 			}
-		};
+			long rowcounter;
+			try {
+				rowcounter = mergeAndReduce(options.getMergeEngine(), buffers, comparator, out, session);
+			} finally {
+				out.close();
+			}
+			stats.setRowCount(rowcounter);
+			session.getMetrics().mergePass(stats, new MergePassStats(stats.getMergePassCount() + 1, buffers.size(), 1,
+					rowcounter, bytesRead, output.length(), MergePassStats.depthOf(buffers.size()), System.nanoTime() - start));
+			session.getMetrics().finish(stats, comparator);
+			return stats;
+		} finally {
+			session.close();
+		}
+	}
 
-		List<File> filesList = sortInBatch(new File(inputfile), comparator, maxtmpfiles, cs);
-		mergeSortedFiles(filesList, new File(outputfile), comparator, cs);
+	/**
+	 * オプションで指定した行の比較
+	 */
+	static Comparator<List<String>> comparatorOf(SortOptions options) {
+		return comparatorOf(options.getSortSpec(), options);
 	}
 
 	/**
-	 * Estimates the size of a {@link String} object in bytes.
+	 * ソートキーを指定した行の比較。正規化キーと詳細な統計情報はオプションの指定に従う
 	 *
-	 * @param line
-	 *			The string to estimate memory footprint.
-	 * @return The <strong>estimated</strong> size in bytes.
+	 * @param spec : ソートキー。null の場合は全ての列を文字列として比較する
+	 * @param options : ソートのオプション
 	 */
-	private static long estimatedSizeOf(List<String> line) {
-		long result = 0L;
-		for (String value : line) {
-			if (value != null) {
-				result += value.length() * 4; // UTF-8の文字長は最大で４バイト必要になるため、valueの大きさを4倍している
+	static Comparator<List<String>> comparatorOf(SortSpec spec, SortOptions options) {
+		Comparator<List<String>> comparator = spec != null ? spec : DEFAULT_COMPARATOR;
+		if (options.isNormalizedKeys()) {
+			comparator = new NormalizedKeyComparator(spec);
+		}
+		if (options.isDetailedStats()) {
+			comparator = new CountingComparator(comparator);
+		}
+		return comparator;
+	}
+
+	/**
+	 * 一時ファイルを作成するソート処理を開始する。一時ファイルの圧縮方式を自動で選ぶ場合はここで選ぶ
+	 */
+	private static SortSession openSession(File file, SortOptions options, SortStats stats) throws IOException {
+		return openSession(SortInput.of(file), options, stats);
+	}
+
+	/**
+	 * 一時ファイルを作成するソート処理を開始する。入力ファイルでない場合は、圧縮方式を自動で選ばない
+	 */
+	private static SortSession openSession(SortInput input, SortOptions options, SortStats stats) throws IOException {
+		SortSession session = new SortSession(options, options.getSpillCodec());
+		try {
+			if (options.isAutoSpillCodec() && input.getFile() != null) {
+				session.setSpillCodec(CodecSelector.select(input.getFile(), options, session));
+			}
+		} catch (IOException e) {
+			session.close();
+			throw e;
+		}
+		stats.setSpillCodec(session.getSpillCodec());
+		return session;
+	}
+
+	/**
+	 * 一時ファイルを作成してマージする
+	 *
+	 * @param input : 入力元
+	 * @param output : 出力ファイル
+	 * @param comparator : 行の比較
+	 * @param options : ソートのオプション
+	 * @param session : 一時ファイルを作成するソート処理
+	 * @param stats : ソート処理の統計情報
+	 * @return ソート処理の統計情報
+	 */
+	private static SortStats sort(SortInput input,
+								  File output,
+								  Comparator<List<String>> comparator,
+								  SortOptions options,
+								  SortSession session,
+								  SortStats stats) throws IOException {
+
+		List<SortedRun> filesList = generateRuns(input, comparator, options, session, stats);
+
+		File file = input.getFile();
+		if (file != null && stats.isInputSorted() && !session.isReducing()
+				&& options.getInputFormat() == FileFormat.SERIALIZED && options.getOutputFormat() == FileFormat.SERIALIZED
+				&& options.getInputCodec().equals(options.getOutputCodec()) && options.getOutputBlockSize() == 0) {
+			// 入力ファイルが整列済みで出力ファイルと同じ形式の場合は、マージせずに入力ファイルを書き写す。
+			// CSV は改行と引用符を出力のオプションに合わせて書き直すため、書き写さずにマージする
+			long rowcounter = 0;
+			for (SortedRun run : filesList) {
+				rowcounter += run.getRowCount();
+				run.delete();
+			}
+			Files.copy(file.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			IndexedRowWriter.indexFile(output).delete();
+			stats.setRowCount(rowcounter);
+			return stats;
+		}
+
+		// 一時ファイルが多すぎる場合は、途中のマージパスで減らしておく
+		int fanIn = MergePlanner.chooseFanIn(options);
+		stats.setFanIn(fanIn);
+		filesList = MergePlanner.reduce(filesList, comparator, fanIn, stats);
+
+		long rowcounter;
+		if (options.getMergeParallelism() > 1) {
+			rowcounter = PartitionedMerge.mergeSortedFiles(filesList, output, comparator, options, session, stats);
+		} else {
+			long bytesRead = MergePlanner.totalBytes(filesList);
+			long start = System.nanoTime();
+			rowcounter = mergeSortedFiles(filesList, output, comparator, options, session);
+			session.getMetrics().mergePass(stats, new MergePassStats(stats.getMergePassCount() + 1, filesList.size(), 1,
+					rowcounter, bytesRead, output.length(), MergePassStats.depthOf(filesList.size()), System.nanoTime() - start));
+		}
+		stats.setRowCount(rowcounter);
+		return stats;
+	}
+
+	/**
+	 * キーとポインタによるソート（{@link SortOptions#setKeyPointer}）を行う
+	 *
+	 * 射影した行（{@link KeyPointer}）で一時ファイルを作成してマージし、最後のマージで入力ファイルから
+	 * ソート順に行を取り出して出力ファイルへ書き込む。
+	 *
+	 * @param file : 入力ファイル
+	 * @param output : 出力ファイル
+	 * @param options : ソートのオプション
+	 * @param stats : ソート処理の統計情報
+	 * @return ソート処理の統計情報
+	 */
+	private static SortStats sortByKeyPointer(File file, File output, SortOptions options, SortStats stats)
+			throws IOException {
+
+		Comparator<List<String>> comparator = comparatorOf(KeyPointer.project(options.getSortSpec()), options);
+		SortInput input = KeyPointer.input(file, options.getSortSpec());
+		SortSession session = openSession(input, options, stats);
+		try {
+			List<SortedRun> filesList = generateRuns(input, comparator, options, session, stats);
+			int fanIn = MergePlanner.chooseFanIn(options);
+			stats.setFanIn(fanIn);
+			filesList = MergePlanner.reduce(filesList, comparator, fanIn, stats);
+
+			RowWriter out = openOutput(output, options);
+			try {
+				KeyPointer.Gatherer gatherer = new KeyPointer.Gatherer(file, options, out);
+				try {
+					mergeToWriter(filesList, gatherer, comparator, options, session, stats);
+				} finally {
+					gatherer.close();
+				}
+				stats.setRowCount(gatherer.getRowCount());
+			} finally {
+				out.close();
 			}
+			session.getMetrics().finish(stats, comparator);
+			return stats;
+		} finally {
+			session.close();
 		}
-		return result + OBJ_OVERHEAD;
 	}
 
-	// we divide the file into small blocks. If the blocks
-	// are too small, we shall create too many temporary files.
-	// If they are too big, we shall be using too much memory.
-	private static long estimateBestSizeOfBlocks(File filetobesorted, int maxtmpfiles) {
-		long sizeoffile = filetobesorted.length() * 4;
-		/**
-		 * We multiply by two because later on someone insisted on counting the
-		 * memory usage as 4 bytes per character. By this model, loading a file
-		 * with 1 character will use 4 bytes.
-		 */
-		// we don't want to open up much more than maxtmpfiles temporary files,
-		// better run out of memory first.
-		long blocksize = sizeoffile / maxtmpfiles + (sizeoffile % maxtmpfiles == 0 ? 0 : 1);
+	/**
+	 * オプションで指定した方法で、入力元から一時ファイルを作成する
+	 *
+	 * 再開したジョブの場合は、記録済みの一時ファイルを引き継ぎ、続きの入力から一時ファイルを作成する。
+	 * 一時ファイルの作成が終わっていた場合は、記録済みの一時ファイルをそのまま返す。
+	 *
+	 * @return 入力の順に並んだ一時ファイル
+	 */
+	private static List<SortedRun> generateRuns(SortInput input,
+												Comparator<List<String>> comparator,
+												SortOptions options,
+												SortSession session,
+												SortStats stats) throws IOException {
+		SortJob job = session.getJob();
+		List<SortedRun> resumed = job != null ? job.getRuns() : Collections.<SortedRun>emptyList();
+		if (job != null) {
+			stats.setResumedRunCount(job.getResumedRunCount());
+			stats.setResumedInputRows(job.getResumedInputRows());
+			if (job.isGenerated()) {
+				stats.setRunCount(resumed.size());
+				return new ArrayList<SortedRun>(resumed);
+			}
+		}
 
-		// on the other hand, we don't want to create many temporary files for naught.
-		// If blocksize is smaller than half the free memory, grow it.
-		long freemem = Runtime.getRuntime().freeMemory();
-		if (blocksize < freemem / 2) {
-			blocksize = freemem / 2;
+		List<SortedRun> filesList;
+		if (options.getRunGeneration() == RunGeneration.REPLACEMENT_SELECTION) {
+			filesList = ReplacementSelection.generate(input, comparator, session, options, stats);
+		} else if (options.isArenaBuffer()) {
+			filesList = sortInArena(input, comparator, session, options, stats);
+		} else if (options.getParallelism() > 1) {
+			filesList = sortInBatchParallel(input, comparator, session, options, stats);
+		} else {
+			filesList = sortInBatch(input, comparator, session, options, stats);
+		}
+		if (job != null) {
+			if (!resumed.isEmpty()) {
+				// 読み飛ばした入力が整列済みかどうかは分からない
+				stats.setInputSorted(false);
+				filesList.addAll(0, resumed);
+			}
+			job.generated(filesList);
 		}
-	   
-		return blocksize;
+		stats.setRunCount(filesList.size());
+		return filesList;
+	}
+
+	/**
+	 * 比較の準備をした行を返す。比較が {@link RowKeyComparator} でない場合はそのまま返す。
+	 *
+	 * @param comparator : 行の比較
+	 * @param row : 読み込んだ行
+	 * @return 比較の準備をした行
+	 */
+	static List<String> prepare(Comparator<List<String>> comparator, List<String> row) {
+		if (comparator instanceof RowKeyComparator) {
+			return ((RowKeyComparator) comparator).prepare(row);
+		}
+		return row;
+	}
+
+	/**
+	 * 入力ファイルを開く
+	 *
+	 * @param file : 入力ファイル
+	 * @param options : 入力ファイルの形式・圧縮方式・文字コード・区切り文字
+	 * @return 入力ファイルの行を読み込む {@link RowReader}
+	 */
+	static RowReader openInput(File file, SortOptions options) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		InputStream in;
+		try {
+			in = options.getInputCodec().decompress(fis);
+		} catch (IOException e) {
+			fis.close();
+			throw e;
+		}
+		if (options.getInputFormat() == FileFormat.CSV) {
+			return new CsvTokenizer(in, options.getCharset(), options.getDelimiter());
+		}
+		return new ObjectStreamRowReader(in);
+	}
+
+	/**
+	 * 出力ファイルを開く
+	 *
+	 * @param file : 出力ファイル
+	 * @param options : 出力ファイルの形式・圧縮方式・文字コード・区切り文字・改行と、ブロックに分けて書き込むかどうか
+	 * @return 出力ファイルへ行を書き込む {@link RowWriter}
+	 */
+	static RowWriter openOutput(File file, SortOptions options) throws IOException {
+		if (options.getOutputBlockSize() > 0) {
+			return new IndexedRowWriter(file, options);
+		}
+		// 以前にブロックに分けて書き込んだ場合のインデックスは、出力ファイルと合わなくなるため削除する
+		IndexedRowWriter.indexFile(file).delete();
+		OutputStream out = options.getOutputCodec().compress(new FileOutputStream(file, false));
+		if (options.getOutputFormat() == FileFormat.CSV) {
+			return new CsvRowWriter(out, options.getCharset(), options.getDelimiter(), options.getLineSeparator());
+		}
+		return new ObjectStreamRowWriter(out);
 	}
 
 	/**
@@ -186,62 +767,317 @@ public final class CsvFileSorter {
 	 * later. You can specify a bound on the number of temporary files that will
 	 * be created.
 	 *
-	 * @param file
-	 *			some flat file
+	 * @param input
+	 *			some flat file or rows
 	 * @param comparator
 	 *			string comparator
-	 * @param maxtmpfiles
-	 *			maximal number of temporary files
-	 * @param Charset
-	 *			character set to use (can use Charset.defaultCharset())
+	 * @param session
+	 *			the session that creates the temporary files
+	 * @param options
+	 *			memory budget, input format and
+	 *			character set to use
+	 * @param stats
+	 *			the chosen block size is reported here
 	 * @return a list of temporary flat files
 	 */
-	private static List<File> sortInBatch( File file,
-										   Comparator<List<String>> comparator,
-										   int maxtmpfiles,
-										   Charset cs) throws IOException {
+	private static List<SortedRun> sortInBatch( SortInput input,
+												Comparator<List<String>> comparator,
+												SortSession session,
+												SortOptions options,
+												SortStats stats) throws IOException {
 
-		List<File> files = new ArrayList<File>();
-		ObjectInputStream fbr = new ObjectInputStream(
-									new BufferedInputStream(
-										new SnappyInputStream(new FileInputStream(file)),
-										BUFFER_SIZE));
+		List<SortedRun> files = new ArrayList<SortedRun>();
+		RowReader fbr = session.prepareInput(input.open(options));
 
-		long blocksize = estimateBestSizeOfBlocks(file, maxtmpfiles);// in bytes
+		MemoryTracker tracker = MemoryTracker.create(input.length(), options, 1);
 
 		try {
 			List<List<String>> tmplist = new ArrayList<List<String>>();
 			List<String> line = new ArrayList<String>();
-			try {
-				while (line != null) {
-					long currentblocksize = 0;// in bytes
-
-					while ((currentblocksize < blocksize)
-							&&
-						   (line = ((ListOfStringSerializer) fbr.readObject()).getData()) != null ){
-						tmplist.add(line);
-						// ram usage estimation, not very accurate, still more
-						// realistic that the simple 4 * String.length
-						currentblocksize += estimatedSizeOf(line);
-					}
+			while (line != null) {
+				long blocksize = tracker.nextBlockSize();// in bytes
+				long currentblocksize = 0;// in bytes
+				long start = System.nanoTime();
 
-					files.add(sortAndSave(tmplist, comparator, cs));
-					tmplist.clear();
+				while ((currentblocksize < blocksize)
+						&&
+					   (line = fbr.read()) != null ){
+					// 比較の準備をした行（キーを含む）の大きさで見積もる
+					List<String> row = prepare(comparator, line);
+					currentblocksize += tracker.sizeOf(row);
+					tmplist.add(row);
 				}
-			} catch (EOFException oef) {
+				session.getMetrics().read(tmplist.size(), System.nanoTime() - start);
+
 				if (tmplist.size() > 0) {
-					files.add(sortAndSave(tmplist, comparator, cs));
+					SortedRun run = sortAndSave(tmplist, comparator, options.getSortEngine(), session);
+					files.add(run);
+					session.checkpoint(files.size() - 1, run, tmplist.size());
 					tmplist.clear();
 				}
-			} catch (ClassNotFoundException e) {
-				throw new IOException(e);
 			}
 		} finally {
 			fbr.close();
 		}
+		tracker.report(stats);
 		return files;
 	}
 
+	/**
+	 * {@link #sortInBatch} の並列版.
+	 *
+	 * 入力ファイルの読み込みは呼び出し元のスレッドで行い、読み込んだブロックのソートと
+	 * 一時ファイルへの書き出しは parallelism 個のスレッドで並列に行う。
+	 *
+	 * 読み込み中のブロックと書き出し中のブロックを合わせて、メモリ上に保持するブロックは最大で
+	 * parallelism + 1 個となる。メモリ使用量をシングルスレッド時と同じに抑えるため、
+	 * 1ブロックの大きさはメモリ使用量の上限を parallelism + 1 で割った値とする（{@link MemoryTracker}）。
+	 *
+	 * 一時ファイルは入力の順（ブロックの順）に並べて返す。各ブロックは安定ソートされ、
+	 * マージでは同じ値の行を一時ファイルの順に出力するため、ブロックの大きさが変わっても
+	 * 出力結果はシングルスレッド時と同じになる。
+	 *
+	 * @param input
+	 *			some flat file or rows
+	 * @param comparator
+	 *			string comparator
+	 * @param session
+	 *			the session that creates the temporary files
+	 * @param options
+	 *			memory budget, input format,
+	 *			character set and number of sorting threads
+	 * @param stats
+	 *			the chosen block size is reported here
+	 * @return a list of temporary flat files
+	 */
+	private static List<SortedRun> sortInBatchParallel( SortInput input,
+														final Comparator<List<String>> comparator,
+														final SortSession session,
+														SortOptions options,
+														SortStats stats) throws IOException {
+
+		int parallelism = options.getParallelism();
+		MemoryTracker tracker = MemoryTracker.create(input.length(), options, parallelism + 1);
+
+		// 読み込み中のブロックと書き出し中のブロックの合計数を制限する
+		final Semaphore blocks = new Semaphore(parallelism + 1);
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		List<Future<SortedRun>> futures = new ArrayList<Future<SortedRun>>();
+
+		RowReader fbr = session.prepareInput(input.open(options));
+		boolean completed = false;
+		try {
+			boolean eof = false;
+			while (!eof) {
+				blocks.acquire();
+
+				final List<List<String>> tmplist = new ArrayList<List<String>>();
+				long blocksize = tracker.nextBlockSize();// in bytes
+				long currentblocksize = 0;// in bytes
+				long start = System.nanoTime();
+				while (currentblocksize < blocksize) {
+					List<String> line = fbr.read();
+					if (line == null) {
+						eof = true;
+						break;
+					}
+					List<String> row = prepare(comparator, line);
+					currentblocksize += tracker.sizeOf(row);
+					tmplist.add(row);
+				}
+				session.getMetrics().read(tmplist.size(), System.nanoTime() - start);
+
+				if (tmplist.isEmpty()) {
+					blocks.release();
+					continue;
+				}
+
+				final int block = futures.size();
+				futures.add(executor.submit(new Callable<SortedRun>() {
+					@Override
+					public SortedRun call() throws IOException {
+						try {
+							SortedRun run = sortAndSave(tmplist, comparator, options.getSortEngine(), session);
+							session.checkpoint(block, run, tmplist.size());
+							return run;
+						} finally {
+							blocks.release();
+						}
+					}
+				}));
+			}
+
+			List<SortedRun> files = collect(futures);
+			completed = true;
+			tracker.report(stats);
+			return files;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("sorting was interrupted");
+		} finally {
+			fbr.close();
+			executor.shutdownNow();
+			if (!completed) {
+				// 異常終了時は、書き出し中のスレッドの終了を待ってから作成済みの一時ファイルを削除する
+				awaitTermination(executor);
+				deleteCompleted(futures);
+			}
+		}
+	}
+
+	/**
+	 * 行を {@link ArenaRunBuffer} に格納して一時ファイルを作成する
+	 *
+	 * 入力ファイルの読み込みは呼び出し元のスレッドで行い、バッファのソートと一時ファイルへの書き出しは
+	 * parallelism 個のスレッドで行う。バッファは parallelism が1の場合は1個、それ以外は parallelism + 1 個を
+	 * 使い回し、1ブロックの大きさはメモリ使用量の上限をバッファの数で割った値とする。
+	 *
+	 * 一時ファイルは入力の順（ブロックの順）に並べて返す。
+	 *
+	 * @param input : 入力元
+	 * @param comparator : 行の比較
+	 * @param session : 一時ファイルを作成するソート処理
+	 * @param options : メモリ使用量の上限、入力ファイルの形式、スレッド数
+	 * @param stats : 選択したブロックの大きさを設定する統計情報
+	 * @return 作成した一時ファイル
+	 */
+	private static List<SortedRun> sortInArena( SortInput input,
+												final Comparator<List<String>> comparator,
+												final SortSession session,
+												SortOptions options,
+												SortStats stats) throws IOException {
+
+		int parallelism = options.getParallelism();
+		int buffers = parallelism > 1 ? parallelism + 1 : 1;
+		MemoryTracker tracker = MemoryTracker.create(input.length(), options, buffers);
+
+		// 比較が正規化キーでない場合も、同じ順序になる正規化キーでソートする
+		NormalizedKeyComparator keys = NormalizedKeyComparator.of(comparator);
+		if (keys == null) {
+			Comparator<List<String>> base = comparator instanceof CountingComparator
+					? ((CountingComparator) comparator).getComparator() : comparator;
+			keys = new NormalizedKeyComparator(base instanceof SortSpec ? (SortSpec) base : null);
+		}
+
+		// 読み込みに使用できるバッファ
+		final BlockingQueue<ArenaRunBuffer> pool = new ArrayBlockingQueue<ArenaRunBuffer>(buffers);
+		for (int i = 0; i < buffers; i++) {
+			pool.add(new ArenaRunBuffer(keys, tracker.getBlockSize()));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		List<Future<SortedRun>> futures = new ArrayList<Future<SortedRun>>();
+
+		RowReader fbr = session.prepareInput(input.open(options));
+		boolean completed = false;
+		try {
+			// 前のブロックに格納できなかった行
+			List<String> pending = null;
+			boolean eof = false;
+			while (!eof) {
+				final ArenaRunBuffer buffer = pool.take();
+
+				long blocksize = tracker.nextBlockSize();// in bytes
+				long start = System.nanoTime();
+				while (buffer.byteSize() < blocksize) {
+					List<String> line = pending != null ? pending : fbr.read();
+					pending = null;
+					if (line == null) {
+						eof = true;
+						break;
+					}
+					if (!buffer.add(line)) {
+						pending = line;
+						break;
+					}
+				}
+
+				session.getMetrics().read(buffer.size(), System.nanoTime() - start);
+				if (buffer.size() == 0) {
+					pool.add(buffer);
+					continue;
+				}
+
+				final int block = futures.size();
+				final long rows = buffer.size();
+				futures.add(executor.submit(new Callable<SortedRun>() {
+					@Override
+					public SortedRun call() throws IOException {
+						try {
+							long start = System.nanoTime();
+							buffer.sort();
+							session.getMetrics().sorted(System.nanoTime() - start);
+							SortedRun run = save(buffer, comparator, session);
+							session.checkpoint(block, run, rows);
+							return run;
+						} finally {
+							buffer.clear();
+							pool.add(buffer);
+						}
+					}
+				}));
+			}
+
+			List<SortedRun> files = collect(futures);
+			completed = true;
+			tracker.report(stats);
+			return files;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("sorting was interrupted");
+		} finally {
+			fbr.close();
+			executor.shutdownNow();
+			if (!completed) {
+				awaitTermination(executor);
+				deleteCompleted(futures);
+			}
+		}
+	}
+
+	/**
+	 * タスクの結果を順に取り出す。タスクで発生した {@link IOException} はそのまま投げる。
+	 */
+	static <T> List<T> collect(List<Future<T>> futures) throws IOException {
+		List<T> results = new ArrayList<T>(futures.size());
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("sorting was interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		return results;
+	}
+
+	static void awaitTermination(ExecutorService executor) {
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 正常に終了したタスクが作成した一時ファイルを削除する
+	 */
+	static void deleteCompleted(List<Future<SortedRun>> futures) {
+		for (Future<SortedRun> future : futures) {
+			if (future.isDone() && !future.isCancelled()) {
+				try {
+					future.get().delete();
+				} catch (Exception e) {
+					// 失敗したタスクには削除するファイルがない
+				}
+			}
+		}
+	}
+
 	/**
 	 * Sort a list and save it to a temporary file
 	 *
@@ -250,39 +1086,65 @@ public final class CsvFileSorter {
 	 *			data to be sorted
 	 * @param cmp
 	 *			string comparator
-	 * @param cs
-	 *			charset to use for output (can use Charset.defaultCharset())
+	 * @param engine
+	 *			the in-memory sort algorithm
+	 * @param session
+	 *			the session that creates the temporary file
 	 */
-	private static File sortAndSave(List<List<String>> tmplist,
-									Comparator<List<String>> cmp,
-									Charset cs) throws IOException {
+	private static SortedRun sortAndSave(List<List<String>> tmplist,
+										 Comparator<List<String>> cmp,
+										 SortEngine engine,
+										 SortSession session) throws IOException {
 
-		Collections.sort(tmplist, cmp);
-		File newtmpfile = File.createTempFile("sortInBatch", "flatfile", null);
-		newtmpfile.deleteOnExit();
+		long start = System.nanoTime();
+		engine.sort(tmplist, cmp);
+		session.getMetrics().sorted(System.nanoTime() - start);
+		return save(tmplist, cmp, session);
+	}
 
-		ObjectOutputStream fbw = new ObjectOutputStream(
-									new BufferedOutputStream(
-											new SnappyOutputStream(new FileOutputStream(newtmpfile)),
-											BUFFER_SIZE));
+	/**
+	 * ソート済みの行を一時ファイルへ書き込む
+	 *
+	 * @param rows : ソート済みの行
+	 * @param cmp : 行の比較。正規化キーを使う場合は行と一緒に書き込む
+	 * @param session : 一時ファイルを作成するソート処理
+	 * @return 書き込んだ一時ファイル
+	 */
+	static SortedRun save(Iterable<List<String>> rows, Comparator<List<String>> cmp, SortSession session) throws IOException {
+		RunWriter fbw = new RunWriter(session, "sortInBatch", cmp);
+		// 同じキーの行は、一時ファイルへ書き込む前にまとめる
+		ReducingRowWriter reducer = session.reducer(cmp, fbw);
+		RowWriter out = reducer != null ? reducer : fbw;
 		try {
-			int writeCount = 0;
-			for (List<String> r : tmplist) {
-				fbw.writeObject(new ListOfStringSerializer(r));
-				writeCount++;
-
-				if (writeCount % FLUSH_INTERVAL == 0) {
-					fbw.flush();
-					fbw.reset();
-					writeCount = 0;
-				}
+			for (List<String> r : rows) {
+				out.write(r);
 			}
 		} finally {
-			fbw.flush();
-			fbw.reset();
+			out.close();
+		}
+		SortedRun run = fbw.toSortedRun();
+		session.getMetrics().runWritten(run);
+		return run;
+	}
+
+	/**
+	 * ソート済みの {@link ArenaRunBuffer} の行を一時ファイルへ書き込む
+	 *
+	 * @param buffer : ソート済みのバッファ
+	 * @param cmp : 行の比較。正規化キーを使う場合は行と一緒に書き込む
+	 * @param session : 一時ファイルを作成するソート処理
+	 * @return 書き込んだ一時ファイル
+	 */
+	static SortedRun save(ArenaRunBuffer buffer, Comparator<List<String>> cmp, SortSession session) throws IOException {
+		RunWriter fbw = new RunWriter(session, "sortInBatch", cmp);
+		try {
+			buffer.writeTo(fbw);
+		} finally {
 			fbw.close();
 		}
-		return newtmpfile;
+		SortedRun run = fbw.toSortedRun();
+		session.getMetrics().runWritten(run);
+		return run;
 	}
 
 	/**
@@ -290,68 +1152,225 @@ public final class CsvFileSorter {
 	 *
 	 * @param files
 	 *			The {@link List} of sorted {@link File}s to be merged.
-	 * @param Charset
-	 *			character set to use to load the strings
 	 * @param outputfile
 	 *			The output {@link File} to merge the results to.
 	 * @param comparator
 	 *			The {@link Comparator} to use to compare {@link String}s.
-	 * @param cs
-	 *			The {@link Charset} to be used for the byte to character
-	 *			conversion.
+	 * @param options
+	 *			The output format and the {@link java.nio.charset.Charset}
+	 *			to be used for the character to byte conversion.
+	 * @param session
+	 *			The session that removes duplicates or aggregates rows with the same key.
 	 * @return The number of lines sorted. (P. Beaudoin)
 	 * @since v0.1.4
 	 */
-	private static int mergeSortedFiles(List<File> files,
-										File outputfile,
-										final Comparator<List<String>> comparator,
-										Charset cs) throws IOException {
+	private static long mergeSortedFiles(List<SortedRun> files,
+										 File outputfile,
+										 final Comparator<List<String>> comparator,
+										 SortOptions options,
+										 SortSession session) throws IOException {
+
+		// 一時ファイルの先読みと出力ファイルへの非同期の書き込みを行う
+		ReadAhead readAhead = options.getReadAhead() == 0 || files.isEmpty()
+				? null : new ReadAhead(options.getReadAhead(), files.size());
+		try {
+			List<BinaryFileBuffer> buffers = openBuffers(files, comparator, readAhead);
+			RowWriter fbw;
+			try {
+				fbw = openOutput(outputfile, options);
+			} catch (IOException e) {
+				for (BinaryFileBuffer bfb : buffers) {
+					bfb.close();
+				}
+				throw e;
+			}
+			if (readAhead != null) {
+				fbw = readAhead.writeBehind(fbw);
+			}
+			try {
+				return mergeAndReduce(options.getMergeEngine(), buffers, comparator, fbw, session);
+			} finally {
+				fbw.close();
+			}
+		} finally {
+			if (readAhead != null) {
+				readAhead.close();
+			}
+		}
+	}
+
+	/**
+	 * 一時ファイルをマージして out へ書き込み、マージパスの統計情報を記録する
+	 *
+	 * mergeParallelism が2以上の場合は範囲ごとに並列にマージし、範囲の順に書き込む。
+	 * 書き込んだバイト数は分からないため、統計情報には0を記録する。
+	 *
+	 * @param files : マージする一時ファイル
+	 * @param out : 出力先。閉じない
+	 * @param comparator : 行の比較
+	 * @param options : 先読みの大きさ、マージの方法、並列マージのスレッド数
+	 * @param session : 同じキーの行の扱いを指定したソート処理
+	 * @param stats : マージパスの統計情報の出力先
+	 * @return 書き込んだ行数
+	 */
+	static long mergeToWriter(List<SortedRun> files,
+							  RowWriter out,
+							  Comparator<List<String>> comparator,
+							  SortOptions options,
+							  SortSession session,
+							  SortStats stats) throws IOException {
+
+		if (options.getMergeParallelism() > 1) {
+			return PartitionedMerge.mergeSortedFiles(files, out, comparator, options, session, stats);
+		}
+		long bytesRead = MergePlanner.totalBytes(files);
+		long start = System.nanoTime();
+		ReadAhead readAhead = options.getReadAhead() == 0 || files.isEmpty()
+				? null : new ReadAhead(options.getReadAhead(), files.size());
+		long rowcounter;
+		try {
+			List<BinaryFileBuffer> buffers = openBuffers(files, comparator, readAhead);
+			rowcounter = mergeAndReduce(options.getMergeEngine(), buffers, comparator, out, session);
+		} finally {
+			if (readAhead != null) {
+				readAhead.close();
+			}
+		}
+		session.getMetrics().mergePass(stats, new MergePassStats(stats.getMergePassCount() + 1, files.size(), 1,
+				rowcounter, bytesRead, 0, MergePassStats.depthOf(files.size()), System.nanoTime() - start));
+		return rowcounter;
+	}
+
+	/**
+	 * マージする一時ファイルを全て開く
+	 *
+	 * @param readAhead : 一時ファイルの先読みを行う場合に指定する。行わない場合は null
+	 */
+	private static List<BinaryFileBuffer> openBuffers(List<SortedRun> files,
+													  Comparator<List<String>> comparator,
+													  ReadAhead readAhead) throws IOException {
+
+		// 先読みを全ての一時ファイルで同時に始めるため、先に全ての入力を開く
+		List<RowReader> readers = new ArrayList<RowReader>();
+		List<BinaryFileBuffer> buffers = new ArrayList<BinaryFileBuffer>();
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				RowReader reader = new RunReader(files.get(i), comparator);
+				readers.add(readAhead != null ? readAhead.prefetch(reader) : reader);
+			}
+			for (int i = 0; i < files.size(); i++) {
+				buffers.add(new BinaryFileBuffer(readers.get(i), i, files.get(i)));
+			}
+		} catch (IOException e) {
+			for (RowReader reader : readers) {
+				reader.close();
+			}
+			throw e;
+		}
+		return buffers;
+	}
+
+	/**
+	 * 複数のソート済みの入力をマージして書き込む。同じキーの行をまとめる場合は、まとめた行を書き込む
+	 *
+	 * @param engine : マージの方法
+	 * @param buffers : マージする入力
+	 * @param comparator : 行の比較
+	 * @param out : 出力先。閉じない
+	 * @param session : 同じキーの行の扱いを指定したソート処理
+	 * @return 書き込んだ行数
+	 */
+	static long mergeAndReduce(MergeEngine engine,
+							   List<BinaryFileBuffer> buffers,
+							   Comparator<List<String>> comparator,
+							   RowWriter out,
+							   SortSession session) throws IOException {
+		ReducingRowWriter reducer = session.reducer(comparator, out);
+		if (reducer == null) {
+			return engine.merge(buffers, comparator, out);
+		}
+		engine.merge(buffers, comparator, reducer);
+		return reducer.finish();
+	}
+
+	/**
+	 * 複数のソート済みの入力をマージして書き込む
+	 *
+	 * 同じ値の行は buffers の順に出力する。読み終わった入力は閉じ、
+	 * 元の一時ファイルがある場合は削除する。
+	 *
+	 * @param buffers : マージする入力
+	 * @param comparator : 行の比較
+	 * @param out : 出力先
+	 * @return 書き込んだ行数
+	 */
+	static long merge(List<BinaryFileBuffer> buffers,
+					  final Comparator<List<String>> comparator,
+					  RowWriter out) throws IOException {
+		return merge(buffers, comparator, out, Long.MAX_VALUE);
+	}
+
+	/**
+	 * 複数のソート済みの入力をマージして、先頭から limit 行までを書き込む
+	 *
+	 * limit 行を書き込んだ時点で、残りの入力は読まずに閉じ、元の一時ファイルがある場合は削除する。
+	 *
+	 * @param buffers : マージする入力
+	 * @param comparator : 行の比較
+	 * @param out : 出力先
+	 * @param limit : 書き込む行数の上限
+	 * @return 書き込んだ行数
+	 */
+	static long merge(List<BinaryFileBuffer> buffers,
+					  final Comparator<List<String>> comparator,
+					  RowWriter out,
+					  long limit) throws IOException {
 
 		PriorityQueue<BinaryFileBuffer> pq = new PriorityQueue<BinaryFileBuffer>(
 				11,
 				new Comparator<BinaryFileBuffer>() {
 					@Override
 					public int compare(BinaryFileBuffer i, BinaryFileBuffer j) {
-						return comparator.compare(i.peek(), j.peek());
+						int result = comparator.compare(i.peek(), j.peek());
+						if (result == 0) {
+							// 同じ値の行は一時ファイルの順（入力の順）に出力し、ソートを安定にする
+							result = i.index < j.index ? -1 : (i.index == j.index ? 0 : 1);
+						}
+						return result;
 					}
 				});
 
-		for (File f : files) {
-			BinaryFileBuffer bfb = new BinaryFileBuffer(f, cs);
-			pq.add(bfb);
+		for (BinaryFileBuffer bfb : buffers) {
+			if (bfb.empty()) {
+				bfb.close();
+				bfb.delete();
+			} else {
+				pq.add(bfb);
+			}
 		}
 
-		ObjectOutputStream fbw = new ObjectOutputStream(
-									new BufferedOutputStream(
-										new SnappyOutputStream(new FileOutputStream(outputfile, false)),
-										BUFFER_SIZE));
-		int rowcounter = 0;
+		long rowcounter = 0;
 		try {
-			int writeCount = 0;
-			while (pq.size() > 0) {
+			while (pq.size() > 0 && rowcounter < limit) {
 				BinaryFileBuffer bfb = pq.poll();
 				List<String> r = bfb.pop();
-				fbw.writeObject(new ListOfStringSerializer(r));
-
-				writeCount++;
-				if (writeCount % FLUSH_INTERVAL == 0) {
-					fbw.flush();
-					fbw.reset();
-					writeCount = 0;
-				}
+				out.write(r);
 
 				++rowcounter;
 				if (bfb.empty()) {
-					bfb.fbr.close();
-					bfb.originalfile.delete();// we don't need you anymore
+					bfb.close();
+					bfb.delete();// we don't need you anymore
 				} else {
 					pq.add(bfb); // add it back
 				}
 			}
+			// 上限に達した場合は、残りの入力を読まずに閉じる
+			while (pq.size() > 0) {
+				BinaryFileBuffer bfb = pq.poll();
+				bfb.close();
+				bfb.delete();
+			}
 		} finally {
-			fbw.flush();
-			fbw.reset();
-			fbw.close();
 			for (BinaryFileBuffer bfb : pq) {
 				bfb.close();
 			}
@@ -359,62 +1378,4 @@ public final class CsvFileSorter {
 
 		return rowcounter;
 	}
-}
-
-class BinaryFileBuffer {
-	public ObjectInputStream fbr;
-	public File originalfile;
-	private List<String> cache;
-	private boolean empty;
-
-	public static final int BUFFER_SIZE = 2048;
-
-	public BinaryFileBuffer(File f, Charset cs) throws IOException {
-		this.originalfile = f;
-		this.fbr = new ObjectInputStream(
-					new BufferedInputStream(
-						new SnappyInputStream(new FileInputStream(f)),
-						BUFFER_SIZE));
-		reload();
-	}
-
-	public boolean empty() {
-		return this.empty;
-	}
-
-	private void reload() throws IOException {
-		try {
-			if ((this.cache = ((ListOfStringSerializer) this.fbr.readObject()).getData())
-				==
-				null) {
-
-				this.empty = true;
-				this.cache = null;
-			} else {
-				this.empty = false;
-			}
-		} catch (EOFException oef) {
-			this.empty = true;
-			this.cache = null;
-		} catch (ClassNotFoundException e) {
-			throw new IOException(e);
-		}
-	}
-
-	public void close() throws IOException {
-		this.fbr.close();
-	}
-
-	public List<String> peek() {
-		if (empty()) {
-			return null;
-		}
-		return this.cache;
-	}
-
-	public List<String> pop() throws IOException {
-		List<String> answer = peek();
-		reload();
-		return answer;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * {@link CsvTokenizer} が読み込んだ1行
+ *
+ * 行のバイト列と各列の位置だけを保持し、列の文字列は {@link #get} で初めて参照されたときに作成する。
+ * ソートキーの列しか参照しない場合は、その他の列の文字列は作成されない。
+ *
+ */
+final class CsvRow extends AbstractList<String> implements RandomAccess {
+
+	private static final byte QUOTE = '"';
+
+	private final byte[] data;
+	// 各列の開始位置と終了位置（囲み文字の内側）
+	private final int[] bounds;
+	// "" のエスケープを含む列。1つもない場合は null
+	private final boolean[] escaped;
+	private final Charset charset;
+	// 作成済みの列の文字列
+	private String[] values = null;
+
+	CsvRow(byte[] data, int[] bounds, boolean[] escaped, Charset charset) {
+		this.data = data;
+		this.bounds = bounds;
+		this.escaped = escaped;
+		this.charset = charset;
+	}
+
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		if (this.values == null) {
+			this.values = new String[size()];
+		}
+		String value = this.values[index];
+		if (value == null) {
+			value = decode(index);
+			this.values[index] = value;
+		}
+		return value;
+	}
+
+	private String decode(int index) {
+		int start = this.bounds[index * 2];
+		int end = this.bounds[index * 2 + 1];
+		if (this.escaped == null || !this.escaped[index]) {
+			return new String(this.data, start, end - start, this.charset);
+		}
+
+		// "" を " に置き換える
+		byte[] unescaped = new byte[end - start];
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			unescaped[length++] = this.data[i];
+			if (this.data[i] == QUOTE) {
+				i++;
+			}
+		}
+		return new String(unescaped, 0, length, this.charset);
+	}
+
+	@Override
+	public int size() {
+		return this.bounds.length / 2;
+	}
+
+	/**
+	 * 行が保持しているバイト数（行のバイト列と列の位置）
+	 */
+	int byteSize() {
+		return this.data.length + this.bounds.length * 4 + (this.escaped == null ? 0 : this.escaped.length);
+	}
+
+	/**
+	 * ヒープ上の大きさの見積もり
+	 *
+	 * 作成済みの列の文字列を含める。まだ1つも作成していない場合は、比較で作成される先頭の列の分を含める。
+	 */
+	long estimatedSize(MemoryEstimator estimator) {
+		// byte[] data, int[] bounds, boolean[] escaped, Charset charset, String[] values
+		long size = estimator.object(5, 0)
+				  + estimator.array(this.data.length, 1)
+				  + estimator.array(this.bounds.length, 4)
+				  + (this.escaped == null ? 0 : estimator.array(this.escaped.length, 1))
+				  + estimator.referenceArray(size());
+
+		boolean decoded = false;
+		if (this.values != null) {
+			for (String value : this.values) {
+				if (value != null) {
+					size += estimator.string(value);
+					decoded = true;
+				}
+			}
+		}
+		if (!decoded && size() > 0) {
+			// UTF-8 のバイト数を文字数の上限として見積もる
+			size += estimator.string(this.bounds[1] - this.bounds[0], false);
+		}
+		return size;
+	}
+
+	/**
+	 * 作成済みの列の文字列を破棄する
+	 *
+	 * 一時ファイルへの書き込みで全ての列の文字列が作成されるため、書き込んだ行から破棄して
+	 * ブロック全体の文字列が同時にメモリ上に残らないようにする。
+	 *
+	 * @param row : 読み込んだ行、またはそれを包んだ {@link WrappedRow}
+	 */
+	static void release(List<String> row) {
+		while (row instanceof WrappedRow) {
+			row = ((WrappedRow) row).unwrap();
+		}
+		if (row instanceof CsvRow) {
+			((CsvRow) row).values = null;
+		}
+	}
+}
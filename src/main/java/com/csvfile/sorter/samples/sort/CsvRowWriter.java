@@ -0,0 +1,73 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * CSV（RFC 4180）のテキストを1行ずつ書き込むクラス
+ *
+ * 区切り文字・囲み文字（"）・改行を含む列は " で囲み、列の中の " は "" とする。
+ * null の列は空の列として書き込む。
+ *
+ */
+final class CsvRowWriter implements RowWriter {
+
+	private final Writer out;
+	private final char delimiter;
+	private final String lineSeparator;
+
+	/**
+	 * @param out : 出力
+	 * @param charset : 文字コード
+	 * @param delimiter : 区切り文字
+	 * @param lineSeparator : 行の区切り
+	 */
+	CsvRowWriter(OutputStream out, Charset charset, char delimiter, String lineSeparator) {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, charset), CsvTokenizer.BUFFER_SIZE);
+		this.delimiter = delimiter;
+		this.lineSeparator = lineSeparator;
+	}
+
+	@Override
+	public void write(List<String> row) throws IOException {
+		int size = row.size();
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				this.out.write(this.delimiter);
+			}
+			String value = row.get(i);
+			if (value == null) {
+				continue;
+			}
+			if (needsQuote(value)) {
+				this.out.write('"');
+				this.out.write(value.replace("\"", "\"\""));
+				this.out.write('"');
+			} else {
+				this.out.write(value);
+			}
+		}
+		this.out.write(this.lineSeparator);
+	}
+
+	private boolean needsQuote(String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == this.delimiter || c == '"' || c == '\r' || c == '\n') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.out.close();
+	}
+}
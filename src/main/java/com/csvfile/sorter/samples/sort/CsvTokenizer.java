@@ -0,0 +1,333 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CSV（RFC 4180）のテキストを1行ずつ読み込むクラス
+ *
+ * 使い回すバイト列のバッファ上で区切り文字・囲み文字・改行を探し、各列の位置だけを記録する。
+ * 列の文字列は作成せず、行のバイト列を1回だけコピーした {@link CsvRow} を返す。
+ *
+ * 囲み文字（"）で囲んだ列には、区切り文字・改行・"" でエスケープした " を含めることができる。
+ * 行の区切りは LF・CRLF・CR のいずれでもよい。ファイル末尾の改行はあってもなくてもよい。
+ * UTF-8 の BOM は読み飛ばす。
+ *
+ * 区切り文字などを1バイトとして探すため、ASCII と互換性のない文字コード（UTF-16 など）の場合は、
+ * 読み込みながら UTF-8 へ変換してから解析する。
+ *
+ */
+final class CsvTokenizer implements RowReader {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte QUOTE = '"';
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final InputStream in;
+	private final Charset charset;
+	private final byte delimiter;
+
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private int pos = 0;
+	private int limit = 0;
+	private boolean eof = false;
+	// バッファの先頭のストリーム上の位置
+	private long bufferOffset = 0;
+	// 次に読み込む行の行番号（エラーメッセージ用）
+	private long line = 1;
+
+	// 読み込み中の行の列の位置
+	private int[] bounds = new int[64];
+	private boolean[] escaped = new boolean[32];
+
+	/**
+	 * @param in : 入力
+	 * @param charset : 文字コード
+	 * @param delimiter : 区切り文字（ASCII の文字）
+	 */
+	CsvTokenizer(InputStream in, Charset charset, char delimiter) throws IOException {
+		if (delimiter >= 0x80 || delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+			throw new IllegalArgumentException("invalid delimiter: " + delimiter);
+		}
+		if (isAsciiCompatible(charset)) {
+			this.in = in;
+			this.charset = charset;
+		} else {
+			this.in = new Utf8InputStream(new InputStreamReader(in, charset));
+			this.charset = UTF8;
+		}
+		this.delimiter = (byte) delimiter;
+		skipBom();
+	}
+
+	/**
+	 * ASCII の文字を同じ1バイトで表し、他の文字のバイト列にそのバイトが現れない文字コードかどうか
+	 */
+	static boolean isAsciiCompatible(Charset charset) {
+		if (charset.name().startsWith("ISO-2022") || charset.name().startsWith("UTF-16") || charset.name().startsWith("UTF-32")) {
+			return false;
+		}
+		String ascii = "\",\t;|\r\n azAZ09";
+		return Arrays.equals(ascii.getBytes(charset), ascii.getBytes(UTF8));
+	}
+
+	private void skipBom() throws IOException {
+		if (!UTF8.equals(this.charset)) {
+			return;
+		}
+		fill(3);
+		if (this.limit - this.pos >= 3
+				&& (this.buf[0] & 0xFF) == 0xEF && (this.buf[1] & 0xFF) == 0xBB && (this.buf[2] & 0xFF) == 0xBF) {
+			this.pos = 3;
+		}
+	}
+
+	/**
+	 * 次に読み込む行のストリーム上の位置（バイト数）
+	 *
+	 * 文字コードを UTF-8 へ変換している場合は、変換後の位置となる。
+	 */
+	long position() {
+		return this.bufferOffset + this.pos;
+	}
+
+	@Override
+	public List<String> read() throws IOException {
+		while (true) {
+			if (this.pos >= this.limit && this.eof) {
+				return null;
+			}
+			CsvRow row = scan();
+			if (row != null) {
+				return row;
+			}
+			// 行の途中でバッファが終わったため、読み込んでからやり直す
+			if (!fill(this.limit - this.pos + 1) && this.pos >= this.limit) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * バッファ上の1行を解析する
+	 *
+	 * @return 解析した行。バッファの終わりまでに行が終わらない場合は null
+	 */
+	private CsvRow scan() throws IOException {
+		byte[] b = this.buf;
+		int start = this.pos;
+		int i = start;
+		int fieldStart = i;
+		int cells = 0;
+		boolean quoted = false;
+		boolean closed = false;
+		boolean hasEscape = false;
+		boolean cellEscaped = false;
+		long lines = 0;
+
+		while (true) {
+			if (i >= this.limit) {
+				if (!this.eof) {
+					return null;
+				}
+				if (quoted && !closed) {
+					throw new IOException("unterminated quoted field at line " + (this.line + lines));
+				}
+				cells = addCell(cells, fieldStart, i, quoted, cellEscaped);
+				return emit(start, i, i, cells, hasEscape, lines);
+			}
+
+			byte c = b[i];
+			if (quoted && !closed) {
+				if (c == QUOTE) {
+					if (i + 1 >= this.limit && !this.eof) {
+						return null;
+					}
+					if (i + 1 < this.limit && b[i + 1] == QUOTE) {
+						cellEscaped = true;
+						hasEscape = true;
+						i += 2;
+					} else {
+						closed = true;
+						i++;
+					}
+					continue;
+				}
+				if (c == LF) {
+					lines++;
+				}
+				i++;
+				continue;
+			}
+
+			if (c == this.delimiter) {
+				cells = addCell(cells, fieldStart, i, quoted, cellEscaped);
+				i++;
+				fieldStart = i;
+				quoted = false;
+				closed = false;
+				cellEscaped = false;
+				continue;
+			}
+			if (c == LF) {
+				cells = addCell(cells, fieldStart, i, quoted, cellEscaped);
+				return emit(start, i, i + 1, cells, hasEscape, lines + 1);
+			}
+			if (c == CR) {
+				if (i + 1 >= this.limit && !this.eof) {
+					return null;
+				}
+				cells = addCell(cells, fieldStart, i, quoted, cellEscaped);
+				int next = i + 1 < this.limit && b[i + 1] == LF ? i + 2 : i + 1;
+				return emit(start, i, next, cells, hasEscape, lines + 1);
+			}
+			if (closed) {
+				throw new IOException("unexpected character after quoted field at line " + (this.line + lines));
+			}
+			if (c == QUOTE && i == fieldStart) {
+				quoted = true;
+			}
+			i++;
+		}
+	}
+
+	private int addCell(int cells, int fieldStart, int fieldEnd, boolean quoted, boolean cellEscaped) {
+		if (this.bounds.length < (cells + 1) * 2) {
+			this.bounds = Arrays.copyOf(this.bounds, this.bounds.length * 2);
+			this.escaped = Arrays.copyOf(this.escaped, this.escaped.length * 2);
+		}
+		if (quoted) {
+			// 囲み文字の内側
+			fieldStart++;
+			fieldEnd--;
+		}
+		this.bounds[cells * 2] = fieldStart;
+		this.bounds[cells * 2 + 1] = fieldEnd;
+		this.escaped[cells] = cellEscaped;
+		return cells + 1;
+	}
+
+	/**
+	 * 解析した行を {@link CsvRow} としてバッファからコピーし、次の行へ進む
+	 */
+	private CsvRow emit(int start, int end, int next, int cells, boolean hasEscape, long lines) {
+		byte[] data = Arrays.copyOfRange(this.buf, start, end);
+		int[] rowBounds = new int[cells * 2];
+		for (int i = 0; i < rowBounds.length; i++) {
+			rowBounds[i] = this.bounds[i] - start;
+		}
+		boolean[] rowEscaped = hasEscape ? Arrays.copyOf(this.escaped, cells) : null;
+
+		this.pos = next;
+		this.line += lines;
+		return new CsvRow(data, rowBounds, rowEscaped, this.charset);
+	}
+
+	/**
+	 * バッファ上に size バイト以上の未読データがあるようにする。未読データはバッファの先頭へ移す。
+	 *
+	 * @return 終端に達して size バイトを用意できない場合は false
+	 */
+	private boolean fill(int size) throws IOException {
+		int available = this.limit - this.pos;
+		if (available >= size) {
+			return true;
+		}
+		if (this.buf.length < size) {
+			byte[] grown = new byte[Math.max(size, this.buf.length * 2)];
+			System.arraycopy(this.buf, this.pos, grown, 0, available);
+			this.buf = grown;
+		} else if (this.pos > 0) {
+			System.arraycopy(this.buf, this.pos, this.buf, 0, available);
+		}
+		this.bufferOffset += this.pos;
+		this.pos = 0;
+		this.limit = available;
+
+		while (this.limit < size && !this.eof) {
+			int n = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+			if (n < 0) {
+				this.eof = true;
+			} else {
+				this.limit += n;
+			}
+		}
+		return this.limit >= size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+
+	/**
+	 * 文字のストリームを UTF-8 のバイト列として読み込むためのストリーム
+	 */
+	private static final class Utf8InputStream extends InputStream {
+
+		private final Reader reader;
+		private final CharsetEncoder encoder = UTF8.newEncoder()
+													.onMalformedInput(CodingErrorAction.REPLACE)
+													.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+		private boolean endOfInput = false;
+
+		Utf8InputStream(Reader reader) {
+			this.reader = reader;
+			this.chars.flip();
+			this.bytes.flip();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			int n = read(one, 0, 1);
+			return n < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (!this.bytes.hasRemaining()) {
+				if (this.endOfInput && !this.chars.hasRemaining()) {
+					return -1;
+				}
+				this.chars.compact();
+				int n = this.endOfInput ? -1 : this.reader.read(this.chars);
+				if (n < 0) {
+					this.endOfInput = true;
+				}
+				this.chars.flip();
+
+				this.bytes.clear();
+				CoderResult result = this.encoder.encode(this.chars, this.bytes, this.endOfInput);
+				if (this.endOfInput && result.isUnderflow()) {
+					this.encoder.flush(this.bytes);
+				}
+				this.bytes.flip();
+			}
+			int n = Math.min(len, this.bytes.remaining());
+			this.bytes.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.reader.close();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.csvfile.sorter.samples.sort;
+
+/**
+ * 比較が同じ行（同じキーの行）の扱い
+ *
+ * ブロックのソート後に一時ファイルへ書き込むときと、マージで書き込むときに適用する。
+ * 同じキーの行はソート後に隣り合うため、別のパスを必要としない。
+ *
+ */
+public enum Duplicates {
+
+	/**
+	 * 全ての行を出力する（従来の動作）
+	 */
+	KEEP,
+
+	/**
+	 * 全ての列が同じ行を1行だけ出力する。同じキーの行の中で、最初に現れた行を残す
+	 */
+	DROP_EXACT,
+
+	/**
+	 * 同じキーの行のうち、入力で最初の行だけを出力する
+	 */
+	FIRST_PER_KEY,
+
+	/**
+	 * 同じキーの行のうち、入力で最後の行だけを出力する
+	 */
+	LAST_PER_KEY
+}
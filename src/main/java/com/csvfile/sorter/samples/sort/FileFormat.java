@@ -0,0 +1,33 @@
+package com.csvfile.sorter.samples.sort;
+
+/**
+ * 入力ファイル・出力ファイルの形式
+ *
+ */
+public enum FileFormat {
+
+	/**
+	 * {@link com.csvfile.sorter.samples.serialize.ListOfStringSerializer} のストリーム（従来の形式）。既定では Snappy で圧縮する
+	 */
+	SERIALIZED {
+		@Override
+		public Codec defaultCodec() {
+			return Codec.SNAPPY;
+		}
+	},
+
+	/**
+	 * CSV のテキスト（RFC 4180）。区切り文字・文字コード・改行は {@link SortOptions} で指定する。既定では圧縮しない
+	 */
+	CSV {
+		@Override
+		public Codec defaultCodec() {
+			return Codec.NONE;
+		}
+	};
+
+	/**
+	 * 圧縮方式を指定しない場合に使用する圧縮方式
+	 */
+	public abstract Codec defaultCodec();
+}
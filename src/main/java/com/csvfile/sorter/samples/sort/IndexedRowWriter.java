@@ -0,0 +1,184 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.csvfile.sorter.samples.serialize.CompactRowWriter;
+
+/**
+ * 出力ファイルを、独立した圧縮のストリーム（ブロック）に分けて書き込み、疎なインデックスを作成する {@link RowWriter}
+ *
+ * 各ブロックは出力ファイルの形式（outputFormat）と圧縮方式（outputCodec）のストリームであり、圧縮前の大きさが
+ * outputBlockSize に達したところで閉じて、次の行から新しいブロックを始める。圧縮前の大きさは、形式のバッファに
+ * 左右されないよう、行の文字数（列の文字数と区切りの数）で見積もる。
+ * 出力ファイルはブロックを連結したものとなり、通常の出力ファイルと同じように先頭から読み込める
+ * （各圧縮方式は連結したストリームを続けて展開する。シリアライズ形式では、2つ目以降のブロックにストリームのヘッダを書き込まない）。
+ *
+ * インデックスは出力ファイル名に INDEX_SUFFIX を付けたファイルに、{@link CompactRowWriter} の形式で書き込む。
+ * 先頭の行はヘッダ [INDEX_MAGIC, INDEX_VERSION, 圧縮方式の名前, 形式] とし、続く各行はブロックごとに
+ * [出力ファイル上の位置, 圧縮後のバイト数, 行数, ブロックの先頭の行の列...] とする。
+ * 読み込みは {@link IndexedSortedFile} で行う。
+ *
+ */
+final class IndexedRowWriter implements RowWriter {
+
+	static final String INDEX_SUFFIX = ".idx";
+	static final String INDEX_MAGIC = "csvsort-index";
+	static final String INDEX_VERSION = "1";
+
+	// インデックスの各行の、ブロックの先頭の行より前の列数
+	static final int ENTRY_HEADER = 3;
+
+	private final SortOptions options;
+	private final CountingOutputStream out;
+	private final CompactRowWriter index;
+	private final long blockSize;
+	private RowWriter block = null;
+	// ブロックの圧縮前の大きさの見積もり
+	private long blockBytes = 0;
+	private long blockOffset = 0;
+	private long blockRows = 0;
+	private List<String> firstRow = null;
+	// 書き込み終えたブロックの数
+	private int blocks = 0;
+
+	/**
+	 * @param file : 出力ファイル
+	 * @param options : 出力ファイルの形式・圧縮方式・文字コード・区切り文字・改行と、ブロックの大きさ
+	 */
+	IndexedRowWriter(File file, SortOptions options) throws IOException {
+		this.options = options;
+		this.blockSize = options.getOutputBlockSize();
+		this.out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file, false), CsvFileSorter.BUFFER_SIZE));
+		try {
+			this.index = new CompactRowWriter(new FileOutputStream(indexFile(file), false));
+			this.index.write(Arrays.asList(INDEX_MAGIC, INDEX_VERSION,
+										   options.getOutputCodec().getName(), options.getOutputFormat().name()));
+		} catch (IOException e) {
+			this.out.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 出力ファイルのインデックスのファイル
+	 */
+	static File indexFile(File file) {
+		return new File(file.getPath() + INDEX_SUFFIX);
+	}
+
+	@Override
+	public void write(List<String> row) throws IOException {
+		if (this.block == null) {
+			startBlock(row);
+		}
+		this.block.write(row);
+		this.blockRows++;
+		this.blockBytes += sizeOf(row);
+		if (this.blockBytes >= this.blockSize) {
+			finishBlock();
+		}
+	}
+
+	private void startBlock(List<String> row) throws IOException {
+		while (row instanceof WrappedRow) {
+			row = ((WrappedRow) row).unwrap();
+		}
+		this.firstRow = new ArrayList<String>(row);
+		this.blockOffset = this.out.count;
+		this.blockRows = 0;
+		this.blockBytes = 0;
+		// ブロックを閉じても出力ファイルは閉じない
+		OutputStream file = new FilterOutputStream(this.out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				this.out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+		OutputStream compressed = this.options.getOutputCodec().compress(file);
+		if (this.options.getOutputFormat() == FileFormat.CSV) {
+			this.block = new CsvRowWriter(compressed, this.options.getCharset(), this.options.getDelimiter(),
+										  this.options.getLineSeparator());
+		} else {
+			this.block = new ObjectStreamRowWriter(compressed, this.blocks == 0);
+		}
+	}
+
+	/**
+	 * 行の圧縮前の大きさの見積もり
+	 */
+	private static long sizeOf(List<String> row) {
+		long size = row.size();
+		for (int i = 0; i < row.size(); i++) {
+			String value = row.get(i);
+			if (value != null) {
+				size += value.length();
+			}
+		}
+		return size;
+	}
+
+	private void finishBlock() throws IOException {
+		if (this.block == null) {
+			return;
+		}
+		this.block.close();
+		this.block = null;
+		this.blocks++;
+		List<String> entry = new ArrayList<String>(ENTRY_HEADER + this.firstRow.size());
+		entry.add(Long.toString(this.blockOffset));
+		entry.add(Long.toString(this.out.count - this.blockOffset));
+		entry.add(Long.toString(this.blockRows));
+		entry.addAll(this.firstRow);
+		this.index.write(entry);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finishBlock();
+		} finally {
+			try {
+				this.out.close();
+			} finally {
+				this.index.close();
+			}
+		}
+	}
+
+	/**
+	 * 書き込んだバイト数を数えるストリーム
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+	}
+}
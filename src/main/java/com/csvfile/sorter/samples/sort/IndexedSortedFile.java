@@ -0,0 +1,308 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.csvfile.sorter.samples.serialize.CompactRowReader;
+
+/**
+ * ブロックに分けて書き込んだ出力ファイル（{@link SortOptions#setOutputBlockSize}）を、インデックスを使って読み込むクラス
+ *
+ * インデックスにはブロックごとの先頭の行・位置・行数があるため、キーを指定した読み込みでは、
+ * キーを含み得る最初のブロックまで出力ファイルを展開せずに読み飛ばす。
+ * メモリ上に保持するのはインデックスと、読み込み中のブロックの1つ分（圧縮後）だけである。
+ *
+ * キーは、ソートキー（sortSpec）の列の位置にキーの値を置いた行（他の列は null でよい）で指定し、
+ * ソートと同じ比較で出力ファイルの行と比較する。sortSpec を指定しなかった場合は、先頭の列からの値を並べた行で指定し、
+ * 出力ファイルの行とはキーの列数までを比較する（先頭の列がキーと同じ行を全て返す）。
+ *
+ * 返す {@link Iterator} は、読み込みで発生した例外を {@link UncheckedIOException} として投げる。
+ * スレッドセーフではない。
+ *
+ */
+public final class IndexedSortedFile implements Closeable {
+
+	private final FileChannel channel;
+	private final SortSpec spec;
+	private final SortOptions options;
+	private final Codec codec;
+	private final FileFormat format;
+	private final long[] offsets;
+	private final long[] lengths;
+	private final long[] rows;
+	private final List<List<String>> firstRows;
+	private final long rowCount;
+
+	private IndexedSortedFile(FileChannel channel, SortOptions options, Codec codec, FileFormat format,
+							  List<List<String>> entries) {
+		this.channel = channel;
+		this.spec = options.getSortSpec();
+		this.options = options;
+		this.codec = codec;
+		this.format = format;
+		this.offsets = new long[entries.size()];
+		this.lengths = new long[entries.size()];
+		this.rows = new long[entries.size()];
+		this.firstRows = new ArrayList<List<String>>(entries.size());
+		long total = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			List<String> entry = entries.get(i);
+			this.offsets[i] = Long.parseLong(entry.get(0));
+			this.lengths[i] = Long.parseLong(entry.get(1));
+			this.rows[i] = Long.parseLong(entry.get(2));
+			this.firstRows.add(entry.subList(IndexedRowWriter.ENTRY_HEADER, entry.size()));
+			total += this.rows[i];
+		}
+		this.rowCount = total;
+	}
+
+	/**
+	 * 出力ファイルとインデックスを開く
+	 *
+	 * @param outputfile : ブロックに分けて書き込んだ出力ファイル
+	 * @param options : 出力ファイルを書き込んだときのソートキー（sortSpec）・文字コード・区切り文字
+	 * @return 開いた出力ファイル。使い終わったら閉じること
+	 * @throws IOException インデックスがない場合、インデックスの形式が異なる場合
+	 */
+	public static IndexedSortedFile open(String outputfile, SortOptions options) throws IOException {
+		File file = new File(outputfile);
+		File indexFile = IndexedRowWriter.indexFile(file);
+		List<List<String>> entries = new ArrayList<List<String>>();
+		List<String> header;
+		CompactRowReader index = new CompactRowReader(new FileInputStream(indexFile));
+		try {
+			header = index.read();
+			if (header == null || header.size() != 4 || !IndexedRowWriter.INDEX_MAGIC.equals(header.get(0))) {
+				throw new IOException("not an index file: " + indexFile);
+			}
+			if (!IndexedRowWriter.INDEX_VERSION.equals(header.get(1))) {
+				throw new IOException("unsupported index version: " + header.get(1));
+			}
+			for (List<String> entry = index.read(); entry != null; entry = index.read()) {
+				entries.add(entry);
+			}
+		} finally {
+			index.close();
+		}
+		Codec codec;
+		FileFormat format;
+		try {
+			codec = Codec.forName(header.get(2));
+			format = FileFormat.valueOf(header.get(3));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("broken index file: " + indexFile, e);
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		return new IndexedSortedFile(channel, options, codec, format, entries);
+	}
+
+	/**
+	 * 出力ファイルの行数
+	 */
+	public long getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * 出力ファイルのブロックの数
+	 */
+	public int getBlockCount() {
+		return this.offsets.length;
+	}
+
+	/**
+	 * キーが from 以上の行を、出力ファイルの終わりまで順に返す
+	 *
+	 * @param from : 最初の行のキー。null の場合は先頭から返す
+	 */
+	public Iterator<List<String>> seek(List<String> from) {
+		return range(from, null);
+	}
+
+	/**
+	 * キーが from 以上 to 未満の行を順に返す
+	 *
+	 * @param from : 範囲の始め（含む）。null の場合は先頭から
+	 * @param to : 範囲の終わり（含まない）。null の場合は出力ファイルの終わりまで
+	 */
+	public Iterator<List<String>> range(List<String> from, List<String> to) {
+		return new RangeIterator(from, to, false);
+	}
+
+	/**
+	 * キーが key と同じ行を全て返す
+	 *
+	 * @param key : キー
+	 * @return キーが同じ行。ない場合は空のリスト
+	 */
+	public List<List<String>> get(List<String> key) {
+		List<List<String>> found = new ArrayList<List<String>>();
+		Iterator<List<String>> it = new RangeIterator(key, key, true);
+		while (it.hasNext()) {
+			found.add(it.next());
+		}
+		return found;
+	}
+
+	/**
+	 * キーが from 以上の行を含み得る最初のブロック
+	 *
+	 * 先頭の行が from 未満のブロックのうち最後のもの（同じキーの行が前のブロックから続いている場合があるため）。
+	 */
+	private int firstBlock(List<String> from) {
+		int low = 0;
+		int high = this.firstRows.size() - 1;
+		int found = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (compareKey(this.firstRows.get(mid), from) < 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 行とキーを比較する。sortSpec がない場合は、行のキーの列数までを既定の比較で比較する
+	 */
+	private int compareKey(List<String> row, List<String> key) {
+		if (this.spec != null) {
+			return this.spec.compare(row, key);
+		}
+		return CsvFileSorter.DEFAULT_COMPARATOR.compare(row.size() > key.size() ? row.subList(0, key.size()) : row, key);
+	}
+
+	/**
+	 * ブロックを読み込んで、行を読み込む {@link RowReader} を返す
+	 */
+	private RowReader openBlock(int block) throws IOException {
+		byte[] bytes = new byte[Math.toIntExact(this.lengths[block])];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long position = this.offsets[block];
+		while (buffer.hasRemaining()) {
+			int n = this.channel.read(buffer, position);
+			if (n < 0) {
+				throw new IOException("output file was truncated at " + position);
+			}
+			position += n;
+		}
+		InputStream in = this.codec.decompress(new ByteArrayInputStream(bytes));
+		if (this.format == FileFormat.CSV) {
+			return new CsvTokenizer(in, this.options.getCharset(), this.options.getDelimiter());
+		}
+		// 2つ目以降のブロックにはストリームのヘッダがない
+		return new ObjectStreamRowReader(in, block == 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	/**
+	 * 範囲の行をブロックの順に読み込んで返す {@link Iterator}
+	 */
+	private final class RangeIterator implements Iterator<List<String>> {
+
+		private final List<String> from;
+		private final List<String> to;
+		// to と同じキーの行も返すかどうか
+		private final boolean inclusive;
+		private int block;
+		private RowReader reader = null;
+		private List<String> next = null;
+		private boolean finished = false;
+
+		RangeIterator(List<String> from, List<String> to, boolean inclusive) {
+			this.from = from;
+			this.to = to;
+			this.inclusive = inclusive;
+			this.block = from != null ? firstBlock(from) : 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.next != null) {
+				return true;
+			}
+			if (this.finished) {
+				return false;
+			}
+			try {
+				List<String> row = read();
+				// 範囲の始めより前の行を読み飛ばす
+				while (row != null && this.from != null && compareKey(row, this.from) < 0) {
+					row = read();
+				}
+				if (row != null && this.to != null) {
+					int result = compareKey(row, this.to);
+					if (result > 0 || (result == 0 && !this.inclusive)) {
+						row = null;
+					}
+				}
+				if (row == null) {
+					finish();
+					return false;
+				}
+				this.next = row;
+				return true;
+			} catch (IOException e) {
+				this.finished = true;
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * 次の行を読み込む。ブロックの終わりに達した場合は次のブロックを開く
+		 */
+		private List<String> read() throws IOException {
+			while (true) {
+				if (this.reader == null) {
+					if (this.block >= offsets.length) {
+						return null;
+					}
+					this.reader = openBlock(this.block++);
+				}
+				List<String> row = this.reader.read();
+				if (row != null) {
+					return row;
+				}
+				this.reader.close();
+				this.reader = null;
+			}
+		}
+
+		private void finish() throws IOException {
+			this.finished = true;
+			if (this.reader != null) {
+				this.reader.close();
+				this.reader = null;
+			}
+		}
+
+		@Override
+		public List<String> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			List<String> row = this.next;
+			this.next = null;
+			return row;
+		}
+	}
+}
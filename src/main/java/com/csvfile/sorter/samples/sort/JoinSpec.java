@@ -0,0 +1,104 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.List;
+
+/**
+ * 2つのファイルの結合（{@link CsvFileSorter#join}）の指定
+ *
+ * 結合の種類と、左右それぞれの結合キーを指定する。左右のキーは同じ数とし、i 番目のキー同士の型・昇順と降順・null の位置を揃える
+ * （列の番号と日付の書式は左右で異なってよい）。各入力は自分のキーの順にソートしてから結合する。
+ * いずれかのキーが null（空文字列・存在しない列）の行は、どの行ともキーが一致しないものとする。
+ *
+ */
+public final class JoinSpec {
+
+	private final JoinType type;
+	private final SortSpec left;
+	private final SortSpec right;
+
+	/**
+	 * @param type : 結合の種類
+	 * @param left : 左の入力の結合キー
+	 * @param right : 右の入力の結合キー
+	 * @throws IllegalArgumentException 左右のキーの数・型・昇順と降順・null の位置が揃っていない場合
+	 */
+	public JoinSpec(JoinType type, SortSpec left, SortSpec right) {
+		if (type == null || left == null || right == null) {
+			throw new IllegalArgumentException("type, left and right must not be null");
+		}
+		List<SortKey> leftKeys = left.getKeys();
+		List<SortKey> rightKeys = right.getKeys();
+		if (leftKeys.size() != rightKeys.size()) {
+			throw new IllegalArgumentException("left and right must have the same number of keys: "
+					+ leftKeys.size() + " != " + rightKeys.size());
+		}
+		for (int i = 0; i < leftKeys.size(); i++) {
+			SortKey l = leftKeys.get(i);
+			SortKey r = rightKeys.get(i);
+			if (l.getType() != r.getType() || l.getDirection() != r.getDirection() || l.getNullOrder() != r.getNullOrder()) {
+				throw new IllegalArgumentException("key " + i + " does not match: " + l + " and " + r);
+			}
+		}
+		this.type = type;
+		this.left = left;
+		this.right = right;
+	}
+
+	public JoinType getType() {
+		return this.type;
+	}
+
+	public SortSpec getLeft() {
+		return this.left;
+	}
+
+	public SortSpec getRight() {
+		return this.right;
+	}
+
+	/**
+	 * 行から結合キーの値を取り出す
+	 *
+	 * @param spec : 左または右の結合キー
+	 * @param row : 行
+	 */
+	static Comparable<?>[] keyOf(SortSpec spec, List<String> row) {
+		List<SortKey> keys = spec.getKeys();
+		Comparable<?>[] values = new Comparable<?>[keys.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = keys.get(i).extract(row);
+		}
+		return values;
+	}
+
+	/**
+	 * 左の行のキーと右の行のキーを比較する
+	 */
+	int compare(Comparable<?>[] leftKey, Comparable<?>[] rightKey) {
+		List<SortKey> keys = this.left.getKeys();
+		for (int i = 0; i < leftKey.length; i++) {
+			int result = keys.get(i).compareValues(leftKey[i], rightKey[i]);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * キーに null の値を含むかどうか
+	 */
+	static boolean hasNull(Comparable<?>[] key) {
+		for (Comparable<?> value : key) {
+			if (value == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return this.type + " JOIN ON " + this.left + " = " + this.right;
+	}
+}
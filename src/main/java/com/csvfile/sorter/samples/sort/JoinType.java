@@ -0,0 +1,99 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 結合（{@link CsvFileSorter#join}）の種類
+ *
+ * 結合した行は、左の行の列の後に右の行の列を並べたものとする。
+ *
+ */
+public enum JoinType {
+
+	/**
+	 * 内部結合。キーが一致する左の行と右の行の組み合わせを全て出力する
+	 */
+	INNER {
+		@Override
+		long matched(List<String> left, List<List<String>> rights, RowWriter out) throws IOException {
+			return writeJoined(left, rights, out);
+		}
+
+		@Override
+		long unmatched(List<String> left, int rightColumns, RowWriter out) {
+			return 0;
+		}
+	},
+
+	/**
+	 * 左外部結合。INNER に加えて、キーが一致する右の行がない左の行を、右の列を空文字列として出力する
+	 */
+	LEFT {
+		@Override
+		long matched(List<String> left, List<List<String>> rights, RowWriter out) throws IOException {
+			return writeJoined(left, rights, out);
+		}
+
+		@Override
+		long unmatched(List<String> left, int rightColumns, RowWriter out) throws IOException {
+			String[] joined = new String[left.size() + rightColumns];
+			for (int i = 0; i < joined.length; i++) {
+				joined[i] = i < left.size() ? left.get(i) : "";
+			}
+			out.write(Arrays.asList(joined));
+			return 1;
+		}
+	},
+
+	/**
+	 * 反結合。キーが一致する右の行がない左の行だけを、左の列のまま出力する
+	 */
+	ANTI {
+		@Override
+		long matched(List<String> left, List<List<String>> rights, RowWriter out) {
+			return 0;
+		}
+
+		@Override
+		long unmatched(List<String> left, int rightColumns, RowWriter out) throws IOException {
+			out.write(left);
+			return 1;
+		}
+	};
+
+	/**
+	 * キーが一致する右の行がある左の行を出力する
+	 *
+	 * @param left : 左の行
+	 * @param rights : キーが一致する右の行（1行以上）
+	 * @param out : 出力先
+	 * @return 書き込んだ行数
+	 */
+	abstract long matched(List<String> left, List<List<String>> rights, RowWriter out) throws IOException;
+
+	/**
+	 * キーが一致する右の行がない左の行を出力する
+	 *
+	 * @param left : 左の行
+	 * @param rightColumns : 右の行の列数（右の入力の先頭の行の列数）
+	 * @param out : 出力先
+	 * @return 書き込んだ行数
+	 */
+	abstract long unmatched(List<String> left, int rightColumns, RowWriter out) throws IOException;
+
+	private static long writeJoined(List<String> left, List<List<String>> rights, RowWriter out) throws IOException {
+		for (List<String> right : rights) {
+			String[] joined = new String[left.size() + right.size()];
+			for (int i = 0; i < left.size(); i++) {
+				joined[i] = left.get(i);
+			}
+			for (int i = 0; i < right.size(); i++) {
+				joined[left.size() + i] = right.get(i);
+			}
+			out.write(Arrays.asList(joined));
+		}
+		return rights.size();
+	}
+}
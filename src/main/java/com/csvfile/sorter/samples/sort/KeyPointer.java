@@ -0,0 +1,279 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * キーとポインタによるソート（{@link SortOptions#setKeyPointer}）で使用する、行の射影と行の取り出し
+ *
+ * 一時ファイルの作成では、入力ファイルの各行をソートキーの列だけの行（射影した行）とし、
+ * 末尾に入力ファイル上の行の位置（バイト数）と長さを加える。ソートとマージは射影した行に対して行うため、
+ * 列の多い行でも一時ファイルの読み書きはキーの列の分だけとなる。
+ *
+ * 最後のマージでは、射影した行を {@link Gatherer} へ書き込む。Gatherer はソート順の行の位置を
+ * GATHER_ROWS 行（または GATHER_BYTES バイト）ずつ集め、入力ファイルを位置の順に読んで行を取り出し、
+ * ソート順に解析して出力ファイルへ書き込む。
+ *
+ * 入力ファイル上の位置を使うため、入力ファイルは圧縮していない CSV 形式で、文字コードは ASCII と互換性がある
+ * （{@link CsvTokenizer#isAsciiCompatible}）必要がある。ソートキー（sortSpec）の指定も必要である。
+ *
+ */
+final class KeyPointer {
+
+	// 1回に取り出す行数の上限
+	static final int GATHER_ROWS = 8192;
+
+	// 1回に取り出す行のバイト数の合計の上限
+	static final int GATHER_BYTES = 8 * 1024 * 1024;
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	private KeyPointer() {
+	}
+
+	/**
+	 * キーとポインタによるソートを使用できるオプションかどうかを確かめる
+	 *
+	 * @throws IllegalArgumentException 使用できない場合
+	 */
+	static void check(SortOptions options) {
+		if (options.getSortSpec() == null) {
+			throw new IllegalArgumentException("keyPointer requires a sortSpec");
+		}
+		if (options.getInputFormat() != FileFormat.CSV || !Codec.NONE.equals(options.getInputCodec())) {
+			throw new IllegalArgumentException("keyPointer requires an uncompressed CSV input");
+		}
+		if (!CsvTokenizer.isAsciiCompatible(options.getCharset())) {
+			throw new IllegalArgumentException("keyPointer requires an ASCII compatible charset: " + options.getCharset());
+		}
+		if (Reduction.of(options) != null) {
+			throw new IllegalArgumentException("keyPointer does not support duplicates or aggregates");
+		}
+		if (options.getJobDirectory() != null || options.isPartitionedOutput()) {
+			throw new IllegalArgumentException("keyPointer does not support jobDirectory or partitionedOutput");
+		}
+	}
+
+	/**
+	 * 射影した行を比較するソートキー。キーの列を射影した行の列の番号に置き換える
+	 *
+	 * @param spec : 入力ファイルの行のソートキー
+	 */
+	static SortSpec project(SortSpec spec) {
+		List<SortKey> keys = new ArrayList<SortKey>();
+		int[] columns = columnsOf(spec);
+		for (SortKey key : spec.getKeys()) {
+			int column = 0;
+			while (columns[column] != key.getColumn()) {
+				column++;
+			}
+			keys.add(new SortKey(column, key.getType(), key.getDirection(), key.getNullOrder(), key.getDatePattern()));
+		}
+		return new SortSpec(keys);
+	}
+
+	/**
+	 * 射影する列（ソートキーの列を、最初に現れた順に重複なく並べたもの）
+	 */
+	private static int[] columnsOf(SortSpec spec) {
+		int[] columns = new int[spec.getKeys().size()];
+		int count = 0;
+		for (SortKey key : spec.getKeys()) {
+			int i = 0;
+			while (i < count && columns[i] != key.getColumn()) {
+				i++;
+			}
+			if (i == count) {
+				columns[count++] = key.getColumn();
+			}
+		}
+		return Arrays.copyOf(columns, count);
+	}
+
+	/**
+	 * 入力ファイルの行を射影した行を読み込む入力元
+	 *
+	 * 入力ファイルではなく射影した行を読み込むため、{@link SortInput#getFile()} は null を返す。
+	 *
+	 * @param file : 入力ファイル
+	 * @param spec : 入力ファイルの行のソートキー
+	 */
+	static SortInput input(final File file, SortSpec spec) {
+		final int[] columns = columnsOf(spec);
+		return new SortInput() {
+			@Override
+			RowReader open(SortOptions options) throws IOException {
+				final CsvTokenizer in;
+				FileInputStream fis = new FileInputStream(file);
+				try {
+					in = new CsvTokenizer(fis, options.getCharset(), options.getDelimiter());
+				} catch (IOException | RuntimeException e) {
+					fis.close();
+					throw e;
+				}
+				return new RowReader() {
+					@Override
+					public List<String> read() throws IOException {
+						long offset = in.position();
+						List<String> row = in.read();
+						if (row == null) {
+							return null;
+						}
+						String[] projected = new String[columns.length + 2];
+						for (int i = 0; i < columns.length; i++) {
+							projected[i] = columns[i] < row.size() ? row.get(columns[i]) : null;
+						}
+						projected[columns.length] = Long.toString(offset);
+						projected[columns.length + 1] = Long.toString(in.position() - offset);
+						return Arrays.asList(projected);
+					}
+
+					@Override
+					public void close() throws IOException {
+						in.close();
+					}
+				};
+			}
+
+			@Override
+			long length() {
+				return file.length();
+			}
+		};
+	}
+
+	/**
+	 * ソート順に受け取った射影した行から、入力ファイルの行を取り出して書き込む {@link RowWriter}
+	 *
+	 * {@link #close()} では残りの行を書き込むだけで、書き込み先は閉じない。
+	 */
+	static final class Gatherer implements RowWriter {
+
+		private final FileChannel channel;
+		private final SortOptions options;
+		private final RowWriter out;
+		private long[] offsets = new long[GATHER_ROWS];
+		private int[] lengths = new int[GATHER_ROWS];
+		private int count = 0;
+		private long bytes = 0;
+		private long rowCount = 0;
+
+		/**
+		 * @param file : 入力ファイル
+		 * @param options : 入力ファイルの文字コード・区切り文字
+		 * @param out : 取り出した行の書き込み先
+		 */
+		Gatherer(File file, SortOptions options, RowWriter out) throws IOException {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			this.options = options;
+			this.out = out;
+		}
+
+		@Override
+		public void write(List<String> row) throws IOException {
+			int size = row.size();
+			long offset = Long.parseLong(row.get(size - 2));
+			int length = Integer.parseInt(row.get(size - 1));
+			if (this.count == GATHER_ROWS || (this.count > 0 && this.bytes + length > GATHER_BYTES)) {
+				flush();
+			}
+			this.offsets[this.count] = offset;
+			this.lengths[this.count] = length;
+			this.count++;
+			this.bytes += length;
+		}
+
+		/**
+		 * 集めた位置の行を入力ファイルから取り出し、ソート順に書き込む
+		 */
+		private void flush() throws IOException {
+			if (this.count == 0) {
+				return;
+			}
+
+			// 取り出した行を、ソート順に改行で区切って並べる
+			int[] starts = new int[this.count];
+			int total = 0;
+			for (int i = 0; i < this.count; i++) {
+				starts[i] = total;
+				total += this.lengths[i] + 1;
+			}
+			byte[] batch = new byte[total];
+
+			// 入力ファイルは位置の順に読む
+			Integer[] order = new Integer[this.count];
+			for (int i = 0; i < this.count; i++) {
+				order[i] = i;
+			}
+			final long[] positions = this.offsets;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i, Integer j) {
+					return Long.compare(positions[i], positions[j]);
+				}
+			});
+			for (Integer i : order) {
+				ByteBuffer buffer = ByteBuffer.wrap(batch, starts[i], this.lengths[i]);
+				long position = this.offsets[i];
+				while (buffer.hasRemaining()) {
+					int n = this.channel.read(buffer, position);
+					if (n < 0) {
+						throw new IOException("input file was truncated at " + position);
+					}
+					position += n;
+				}
+			}
+
+			// 最後の行に改行がない場合に、次の行と続かないよう改行を加える
+			int length = 0;
+			for (int i = 0; i < this.count; i++) {
+				int start = starts[i];
+				int end = start + this.lengths[i];
+				if (end == start || (batch[end - 1] != LF && batch[end - 1] != CR)) {
+					batch[end++] = LF;
+				}
+				System.arraycopy(batch, start, batch, length, end - start);
+				length += end - start;
+			}
+
+			CsvTokenizer rows = new CsvTokenizer(new ByteArrayInputStream(batch, 0, length),
+												 this.options.getCharset(), this.options.getDelimiter());
+			for (int i = 0; i < this.count; i++) {
+				List<String> row = rows.read();
+				if (row == null) {
+					throw new IOException("input file was modified while sorting");
+				}
+				this.out.write(row);
+			}
+			this.rowCount += this.count;
+			this.count = 0;
+			this.bytes = 0;
+		}
+
+		/**
+		 * 書き込んだ行数
+		 */
+		long getRowCount() {
+			return this.rowCount;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				this.channel.close();
+			}
+		}
+	}
+}
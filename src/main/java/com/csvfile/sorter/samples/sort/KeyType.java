@@ -0,0 +1,78 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * ソートキーの型
+ *
+ */
+public enum KeyType {
+
+	/**
+	 * 整数として比較する（{@link Long}）
+	 */
+	LONG {
+		@Override
+		Comparable<?> parse(String value, DateTimeFormatter dateFormat) {
+			return Long.valueOf(value);
+		}
+	},
+
+	/**
+	 * 10進数として比較する（{@link BigDecimal}）。"8" と "8.00" は同じ値とする
+	 */
+	DECIMAL {
+		@Override
+		Comparable<?> parse(String value, DateTimeFormatter dateFormat) {
+			return new BigDecimal(value);
+		}
+	},
+
+	/**
+	 * 日付として比較する（{@link LocalDate}）。書式は {@link SortKey} で指定する
+	 */
+	DATE {
+		@Override
+		Comparable<?> parse(String value, DateTimeFormatter dateFormat) {
+			return LocalDate.parse(value, dateFormat);
+		}
+	},
+
+	/**
+	 * 文字列として比較する（{@link String#compareTo}）
+	 */
+	STRING {
+		@Override
+		String normalize(String value) {
+			return value;
+		}
+
+		@Override
+		Comparable<?> parse(String value, DateTimeFormatter dateFormat) {
+			return value;
+		}
+	};
+
+	/**
+	 * 解析する前の値を整える
+	 *
+	 * 数値と日付は前後の空白を除く。文字列は空白も値の一部として比較するため、そのまま返す。
+	 *
+	 * @param value : 列の値
+	 * @return 整えた値。空の場合は null として扱う
+	 */
+	String normalize(String value) {
+		return value.trim();
+	}
+
+	/**
+	 * 値を解析する
+	 *
+	 * @param value : {@link #normalize} で整えた、空でない値
+	 * @param dateFormat : 日付の書式
+	 * @return 比較に使う値
+	 */
+	abstract Comparable<?> parse(String value, DateTimeFormatter dateFormat);
+}
@@ -0,0 +1,178 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 敗者木（トーナメント木）による k-way マージ
+ *
+ * tree[1] ～ tree[k - 1] は内部節点で、その節点での対戦の敗者（入力の番号）を保持し、tree[0] は勝者を保持する。
+ * 入力 i は葉 k + i に対応する。勝者の行を出力した後は、勝者の葉から根までの節点の敗者とだけ対戦し直すため、
+ * 1行ごとの比較は log2(k) 回となる。
+ *
+ * 同じ入力が続けて勝った場合は、その入力の経路上の敗者の中で最も小さい行（次点）を求めておき、
+ * 以降は次の行を次点と1回比較するだけで勝者のままかどうかを判定する。
+ * 次点に負けた場合に初めて対戦し直す。
+ *
+ * 同じ値の行は {@link BinaryFileBuffer#index} の小さい入力を勝ちとし、{@link java.util.PriorityQueue} によるマージと
+ * 同じ順に出力する。読み終わった入力は、全ての行より大きいものとして扱う。
+ *
+ */
+final class LoserTreeMerger {
+
+	private final BinaryFileBuffer[] buffers;
+	private final Comparator<List<String>> comparator;
+	private final int k;
+	private final int[] tree;
+	// 勝者の次点。求めていない場合は -1
+	private int runnerUp = -1;
+
+	LoserTreeMerger(List<BinaryFileBuffer> buffers, Comparator<List<String>> comparator) {
+		this.buffers = buffers.toArray(new BinaryFileBuffer[buffers.size()]);
+		this.comparator = comparator;
+		this.k = this.buffers.length;
+		this.tree = new int[Math.max(this.k, 1)];
+	}
+
+	/**
+	 * 全ての入力をマージして書き込む
+	 *
+	 * @param out : 出力先
+	 * @return 書き込んだ行数
+	 */
+	long merge(RowWriter out) throws IOException {
+		long rowcounter = 0;
+		try {
+			for (BinaryFileBuffer bfb : this.buffers) {
+				if (bfb.empty()) {
+					bfb.close();
+					bfb.delete();
+				}
+			}
+			if (this.k == 0) {
+				return 0;
+			}
+			build();
+
+			while (true) {
+				int winner = this.tree[0];
+				BinaryFileBuffer bfb = this.buffers[winner];
+				if (bfb.empty()) {
+					// 勝者が読み終わっている場合は、全ての入力を読み終わっている
+					break;
+				}
+				out.write(bfb.pop());
+				++rowcounter;
+
+				if (bfb.empty()) {
+					bfb.close();
+					bfb.delete();
+					this.runnerUp = -1;
+					replay(winner);
+				} else if (this.runnerUp >= 0) {
+					if (!less(winner, this.runnerUp)) {
+						this.runnerUp = -1;
+						replay(winner);
+					}
+				} else {
+					replay(winner);
+					if (this.tree[0] == winner) {
+						// 同じ入力が続けて勝った場合は、次からは次点との比較だけで済ませる
+						this.runnerUp = findRunnerUp(winner);
+					}
+				}
+			}
+		} finally {
+			for (BinaryFileBuffer bfb : this.buffers) {
+				if (!bfb.empty()) {
+					bfb.close();
+				}
+			}
+		}
+		return rowcounter;
+	}
+
+	/**
+	 * 全ての入力の先頭行で対戦し、木を作る
+	 *
+	 * 各節点は、最初に到達した入力を保持して待ち、2番目に到達した入力と対戦する。
+	 */
+	private void build() {
+		for (int t = 1; t < this.k; t++) {
+			this.tree[t] = -1;
+		}
+		if (this.k == 1) {
+			this.tree[0] = 0;
+			return;
+		}
+		for (int i = 0; i < this.k; i++) {
+			int winner = i;
+			int t = (i + this.k) >>> 1;
+			while (t > 0) {
+				if (this.tree[t] < 0) {
+					this.tree[t] = winner;
+					winner = -1;
+					break;
+				}
+				if (less(this.tree[t], winner)) {
+					int loser = winner;
+					winner = this.tree[t];
+					this.tree[t] = loser;
+				}
+				t >>>= 1;
+			}
+			if (winner >= 0) {
+				this.tree[0] = winner;
+			}
+		}
+	}
+
+	/**
+	 * 入力 s の葉から根まで対戦し直す
+	 */
+	private void replay(int s) {
+		int winner = s;
+		for (int t = (s + this.k) >>> 1; t > 0; t >>>= 1) {
+			if (less(this.tree[t], winner)) {
+				int loser = winner;
+				winner = this.tree[t];
+				this.tree[t] = loser;
+			}
+		}
+		this.tree[0] = winner;
+	}
+
+	/**
+	 * 勝者 s の経路上の敗者の中で最も小さいもの（全体の2番目）を求める。入力が1つの場合は -1
+	 */
+	private int findRunnerUp(int s) {
+		int best = -1;
+		for (int t = (s + this.k) >>> 1; t > 0; t >>>= 1) {
+			int loser = this.tree[t];
+			if (best < 0 || less(loser, best)) {
+				best = loser;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * 入力 a の先頭行が入力 b の先頭行より前に出力されるかどうか
+	 */
+	private boolean less(int a, int b) {
+		BinaryFileBuffer x = this.buffers[a];
+		BinaryFileBuffer y = this.buffers[b];
+		if (x.empty()) {
+			return false;
+		}
+		if (y.empty()) {
+			return true;
+		}
+		int result = this.comparator.compare(x.peek(), y.peek());
+		if (result == 0) {
+			return x.index < y.index;
+		}
+		return result < 0;
+	}
+}
@@ -0,0 +1,192 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * 行がヒープ上で使用するバイト数を見積もるクラス
+ *
+ * 実行中の JVM のオブジェクトのレイアウト（圧縮ポインタの有無、Compact Strings の有無）を調べ、
+ * 行の実際の表現（ArrayList と String、{@link CsvRow}、キーを付け加えた {@link WrappedRow}）ごとに見積もる。
+ * オブジェクトの大きさは8バイト単位に切り上げる。
+ *
+ */
+final class MemoryEstimator {
+
+	/**
+	 * 実行中の JVM の見積もり
+	 */
+	static final MemoryEstimator CURRENT = detect();
+
+	private final int objectHeader;
+	private final int arrayHeader;
+	private final int reference;
+	private final boolean compactStrings;
+
+	MemoryEstimator(int objectHeader, int arrayHeader, int reference, boolean compactStrings) {
+		this.objectHeader = objectHeader;
+		this.arrayHeader = arrayHeader;
+		this.reference = reference;
+		this.compactStrings = compactStrings;
+	}
+
+	/**
+	 * 実行中の JVM のレイアウトを調べる
+	 *
+	 * 調べられない項目は、大きめに見積もる側（圧縮ポインタなし）とする。
+	 */
+	static MemoryEstimator detect() {
+		boolean compactStrings = booleanOption("CompactStrings", !System.getProperty("java.specification.version", "").startsWith("1."));
+
+		String arch = System.getProperty("sun.arch.data.model");
+		if (arch != null && arch.indexOf("32") != -1) {
+			return new MemoryEstimator(8, 12, 4, compactStrings);
+		}
+
+		boolean compressedOops = booleanOption("UseCompressedOops", false);
+		boolean compressedClassPointers = booleanOption("UseCompressedClassPointers", false);
+		int objectHeader = compressedClassPointers ? 12 : 16;
+		int arrayHeader = compressedClassPointers ? 16 : 24;
+		return new MemoryEstimator(objectHeader, arrayHeader, compressedOops ? 4 : 8, compactStrings);
+	}
+
+	private static boolean booleanOption(String name, boolean defaultValue) {
+		try {
+			HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+			if (bean == null) {
+				return defaultValue;
+			}
+			return Boolean.parseBoolean(bean.getVMOption(name).getValue());
+		} catch (RuntimeException e) {
+			// HotSpot 以外の JVM や、存在しないオプションの場合
+			return defaultValue;
+		}
+	}
+
+	int getReferenceSize() {
+		return this.reference;
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	/**
+	 * オブジェクトの大きさ
+	 *
+	 * @param references : 参照のフィールドの数
+	 * @param primitiveBytes : 参照以外のフィールドの合計バイト数
+	 */
+	long object(int references, int primitiveBytes) {
+		return align(this.objectHeader + (long) references * this.reference + primitiveBytes);
+	}
+
+	/**
+	 * 基本型の配列の大きさ
+	 */
+	long array(int length, int elementSize) {
+		return align(this.arrayHeader + (long) length * elementSize);
+	}
+
+	/**
+	 * 参照の配列の大きさ
+	 */
+	long referenceArray(int length) {
+		return array(length, this.reference);
+	}
+
+	/**
+	 * String の大きさ（文字列の配列を含む）
+	 */
+	long string(String value) {
+		if (value == null) {
+			return 0;
+		}
+		return string(value.length(), isLatin1(value));
+	}
+
+	/**
+	 * 指定した長さの String の大きさ（文字列の配列を含む）
+	 *
+	 * @param length : 文字数
+	 * @param latin1 : 全ての文字が Latin-1 の範囲かどうか
+	 */
+	long string(int length, boolean latin1) {
+		if (!this.compactStrings) {
+			// char[] value, int hash
+			return object(1, 4) + array(length, 2);
+		}
+		// byte[] value, int hash, byte coder, boolean hashIsZero
+		return object(1, 6) + array(length, latin1 ? 1 : 2);
+	}
+
+	private static boolean isLatin1(String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) > 0xFF) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * {@link SortKey} が解析したキーの大きさ
+	 */
+	long key(Comparable<?> key) {
+		if (key == null) {
+			return 0;
+		}
+		if (key instanceof String) {
+			return string((String) key);
+		}
+		if (key instanceof Long) {
+			// long value
+			return object(0, 8);
+		}
+		if (key instanceof LocalDate) {
+			// int year, short month, short day
+			return object(0, 8);
+		}
+		if (key instanceof BigDecimal) {
+			// BigInteger intVal, String stringCache, int scale, int precision, long intCompact
+			long size = object(2, 16);
+			int precision = ((BigDecimal) key).precision();
+			if (precision > 18) {
+				// long に収まらない場合は BigInteger（int signum, int[] mag と計算結果のキャッシュ用の int 4つ）を持つ
+				size += object(1, 20) + array(precision / 9 + 1, 4);
+			}
+			return size;
+		}
+		// 不明な型は大きめに見積もる
+		return object(4, 16);
+	}
+
+	/**
+	 * 行の大きさ。ブロックのリストの中の参照1つ分を含む
+	 */
+	long row(List<String> row) {
+		return this.reference + rowBody(row);
+	}
+
+	private long rowBody(List<String> row) {
+		if (row instanceof WrappedRow) {
+			WrappedRow wrapped = (WrappedRow) row;
+			return wrapped.overheadSize(this) + rowBody(wrapped.unwrap());
+		}
+		if (row instanceof CsvRow) {
+			return ((CsvRow) row).estimatedSize(this);
+		}
+
+		// ArrayList : Object[] elementData, int size, int modCount
+		long size = object(1, 8) + referenceArray(row.size());
+		for (String value : row) {
+			size += string(value);
+		}
+		return size;
+	}
+}
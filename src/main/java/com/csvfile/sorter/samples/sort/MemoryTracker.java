@@ -0,0 +1,133 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+/**
+ * 一時ファイル作成中のブロックの大きさを決めるクラス
+ *
+ * 1ブロックの大きさは、メモリ使用量の上限（{@link SortOptions#setMemoryBudget}）を
+ * 同時に保持するブロック数で割った値とする。行の大きさは {@link MemoryEstimator} で見積もる。
+ *
+ * ブロックを読み込む前にヒープの使用量を調べ、空きが足りない場合はブロックを小さくする。
+ * 使用量は GC のタイミングに左右されないよう、メモリプールごとの直近の GC 後の使用量を使う。
+ * 空きが十分にある場合は、上限から決めた大きさのまま変えない。
+ *
+ */
+final class MemoryTracker {
+
+	/**
+	 * ヒープの空きが足りない場合でも使用する、1ブロックの最小の大きさ
+	 */
+	static final long MIN_BLOCK_SIZE = 1024 * 1024;
+
+	private final MemoryEstimator estimator;
+	private final long memoryBudget;
+	// 上限から決めた1ブロックの大きさ
+	private final long blockSize;
+	// 実際に使用した最小の1ブロックの大きさ
+	private long minBlockSize;
+
+	/**
+	 * @param estimator : 行の大きさの見積もり
+	 * @param memoryBudget : メモリ上に保持する行の合計の上限
+	 * @param blocks : 同時に保持するブロックの最大数
+	 * @param floor : 1ブロックの最小の大きさ
+	 */
+	MemoryTracker(MemoryEstimator estimator, long memoryBudget, int blocks, long floor) {
+		this.estimator = estimator;
+		this.memoryBudget = memoryBudget;
+		this.blockSize = Math.max(Math.max(memoryBudget / blocks, floor), 1);
+		this.minBlockSize = this.blockSize;
+	}
+
+	/**
+	 * オプションに従ってブロックの大きさを決める
+	 *
+	 * memoryBudget を指定していない場合は最大ヒープサイズの半分を上限とし、
+	 * 一時ファイル数が maxTmpFiles を大きく超えないように、入力ファイルの大きさに応じてブロックを大きくする。
+	 *
+	 * @param inputLength : 入力の大きさ（バイト数）。分からない場合は0
+	 * @param options : ソートのオプション
+	 * @param blocks : 同時に保持するブロックの最大数
+	 */
+	static MemoryTracker create(long inputLength, SortOptions options, int blocks) {
+		long memoryBudget = options.getMemoryBudget();
+		long floor = 0;
+		if (memoryBudget == 0) {
+			memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+
+			// 1バイトを見積もりで4バイトとして、一時ファイル数が maxTmpFiles を超えない大きさ
+			long sizeoffile = inputLength * 4;
+			int maxtmpfiles = options.getMaxTmpFiles();
+			floor = sizeoffile / maxtmpfiles + (sizeoffile % maxtmpfiles == 0 ? 0 : 1);
+		}
+		return new MemoryTracker(MemoryEstimator.CURRENT, memoryBudget, blocks, floor);
+	}
+
+	/**
+	 * 上限から決めた1ブロックの大きさ
+	 */
+	long getBlockSize() {
+		return this.blockSize;
+	}
+
+	/**
+	 * 行の大きさの見積もり
+	 */
+	long sizeOf(List<String> row) {
+		return this.estimator.row(row);
+	}
+
+	/**
+	 * 次に読み込むブロックの大きさを返す
+	 *
+	 * ヒープの空きが上限から決めた大きさに満たない場合は、空きの半分（最小で {@link #MIN_BLOCK_SIZE}）とする。
+	 * 読み込み済みで書き出し中のブロックは、ヒープの使用量に含まれている。
+	 */
+	long nextBlockSize() {
+		long free = Runtime.getRuntime().maxMemory() - usedHeap();
+		long size = this.blockSize;
+		if (free < size) {
+			size = Math.max(free / 2, Math.min(MIN_BLOCK_SIZE, size));
+		}
+		if (size < this.minBlockSize) {
+			this.minBlockSize = size;
+		}
+		return size;
+	}
+
+	/**
+	 * 直近の GC 後のヒープの使用量
+	 *
+	 * GC 後の使用量を取得できないメモリプールは、現在の使用量を使う。
+	 */
+	static long usedHeap() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP || !pool.isValid()) {
+				continue;
+			}
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (usage == null) {
+				usage = pool.getUsage();
+			}
+			if (usage != null) {
+				used += usage.getUsed();
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * 統計情報にメモリ使用量の上限とブロックの大きさを設定する
+	 */
+	void report(SortStats stats) {
+		stats.setMemoryBudget(this.memoryBudget);
+		stats.setBlockSize(this.blockSize);
+		stats.setMinBlockSize(this.minBlockSize);
+	}
+}
@@ -0,0 +1,46 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * ソート済みの一時ファイルをマージする方法
+ *
+ */
+public enum MergeEngine {
+
+	/**
+	 * {@link java.util.PriorityQueue} による k-way マージ（従来の方法）。1行ごとに約 2・log2(k) 回比較する
+	 */
+	HEAP {
+		@Override
+		long merge(List<BinaryFileBuffer> buffers, Comparator<List<String>> comparator, RowWriter out) throws IOException {
+			return CsvFileSorter.merge(buffers, comparator, out);
+		}
+	},
+
+	/**
+	 * 敗者木による k-way マージ（{@link LoserTreeMerger}）。1行ごとに約 log2(k) 回比較し、
+	 * 同じ一時ファイルの行が続く場合は1行ごとに1回の比較で済ませる
+	 */
+	LOSER_TREE {
+		@Override
+		long merge(List<BinaryFileBuffer> buffers, Comparator<List<String>> comparator, RowWriter out) throws IOException {
+			return new LoserTreeMerger(buffers, comparator).merge(out);
+		}
+	};
+
+	/**
+	 * 複数のソート済みの入力をマージして書き込む
+	 *
+	 * 同じ値の行は {@link BinaryFileBuffer#index} の順に出力する。読み終わった入力は閉じ、
+	 * 元の一時ファイルがある場合は削除する。
+	 *
+	 * @param buffers : マージする入力
+	 * @param comparator : 行の比較
+	 * @param out : 出力先
+	 * @return 書き込んだ行数
+	 */
+	abstract long merge(List<BinaryFileBuffer> buffers, Comparator<List<String>> comparator, RowWriter out) throws IOException;
+}
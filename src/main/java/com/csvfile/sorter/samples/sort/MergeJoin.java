@@ -0,0 +1,123 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ソートした2つの入力を結合キーの順に突き合わせる結合（ソートマージ結合）
+ *
+ * 左右の入力は、それぞれの結合キーの順にソート済みであればそのまま読み込み、そうでなければ
+ * {@link CsvFileSorter#sorted(String, SortOptions)} でソートしながら読み込む。
+ * 左の行は1行ずつ出力し、メモリ上に保持するのは、左の行のキーと一致する右の行（1つのキーの分）だけである。
+ *
+ */
+final class MergeJoin {
+
+	private final JoinSpec spec;
+	private final RowReader lefts;
+	private final RowReader rights;
+
+	private MergeJoin(JoinSpec spec, RowReader lefts, RowReader rights) {
+		this.spec = spec;
+		this.lefts = lefts;
+		this.rights = rights;
+	}
+
+	/**
+	 * 2つのファイルを結合して出力ファイルへ書き込む
+	 *
+	 * @param left : 左の入力ファイル
+	 * @param right : 右の入力ファイル
+	 * @param output : 出力ファイル
+	 * @param spec : 結合の指定
+	 * @param options : 入力ファイル・出力ファイルの形式と、ソートのオプション
+	 * @return 書き込んだ行数
+	 */
+	static long join(File left, File right, File output, JoinSpec spec, SortOptions options) throws IOException {
+		RowReader lefts = open(left, spec.getLeft(), options);
+		try {
+			RowReader rights = open(right, spec.getRight(), options);
+			try {
+				RowWriter out = CsvFileSorter.openOutput(output, options);
+				try {
+					return new MergeJoin(spec, lefts, rights).join(out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				rights.close();
+			}
+		} finally {
+			lefts.close();
+		}
+	}
+
+	/**
+	 * 入力ファイルを結合キーの順に読み込む。ソート済みでない場合はソートする
+	 */
+	private static RowReader open(File file, SortSpec keys, SortOptions options) throws IOException {
+		SortOptions sideOptions = options.withSortSpec(keys);
+		if (CsvFileSorter.isSorted(file.getPath(), sideOptions)) {
+			return SortedInputReader.open(file, CsvFileSorter.comparatorOf(sideOptions), sideOptions);
+		}
+		SortedRowIterator rows = CsvFileSorter.sorted(file.getPath(), sideOptions);
+		return SortInput.of(rows, rows).open(sideOptions);
+	}
+
+	/**
+	 * 比較のためのキーを除いた行を読み込む。ソートしながら読み込む場合のソートの例外は、元の IOException として投げる
+	 */
+	private static List<String> read(RowReader reader) throws IOException {
+		List<String> row;
+		try {
+			row = reader.read();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		while (row instanceof WrappedRow) {
+			row = ((WrappedRow) row).unwrap();
+		}
+		return row;
+	}
+
+	private long join(RowWriter out) throws IOException {
+		List<List<String>> group = new ArrayList<List<String>>();
+		Comparable<?>[] groupKey = null;
+		List<String> right = read(this.rights);
+		Comparable<?>[] rightKey = right != null ? JoinSpec.keyOf(this.spec.getRight(), right) : null;
+		int rightColumns = right != null ? right.size() : 0;
+		JoinType type = this.spec.getType();
+
+		long rowcounter = 0;
+		for (List<String> left = read(this.lefts); left != null; left = read(this.lefts)) {
+			Comparable<?>[] leftKey = JoinSpec.keyOf(this.spec.getLeft(), left);
+			if (groupKey == null || this.spec.compare(leftKey, groupKey) != 0) {
+				// 左の行のキーが右の行のキーに追いつくまで、右の行を読み飛ばす
+				group.clear();
+				groupKey = null;
+				while (right != null && this.spec.compare(leftKey, rightKey) > 0) {
+					right = read(this.rights);
+					rightKey = right != null ? JoinSpec.keyOf(this.spec.getRight(), right) : null;
+				}
+				if (right != null && !JoinSpec.hasNull(leftKey) && this.spec.compare(leftKey, rightKey) == 0) {
+					// 同じキーの右の行を全て集める
+					groupKey = rightKey;
+					while (right != null && this.spec.compare(groupKey, rightKey) == 0) {
+						group.add(right);
+						right = read(this.rights);
+						rightKey = right != null ? JoinSpec.keyOf(this.spec.getRight(), right) : null;
+					}
+				}
+			}
+			if (groupKey != null) {
+				rowcounter += type.matched(left, group, out);
+			} else {
+				rowcounter += type.unmatched(left, rightColumns, out);
+			}
+		}
+		return rowcounter;
+	}
+}
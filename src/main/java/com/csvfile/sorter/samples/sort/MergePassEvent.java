@@ -0,0 +1,49 @@
+package com.csvfile.sorter.samples.sort;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * マージパスが1回終わったことを表す JFR のイベント
+ *
+ * マージパスの終了時に記録し、マージパスにかかった時間は Merge Time に記録する。
+ *
+ */
+@Name("com.csvfile.sorter.MergePass")
+@Label("Merge Pass")
+@Category("CSV File Sorter")
+@Description("A merge pass, including the final merge into the output")
+final class MergePassEvent extends Event {
+
+	@Label("Pass")
+	int pass;
+
+	@Label("Input Runs")
+	int inputRuns;
+
+	@Label("Output Runs")
+	int outputRuns;
+
+	@Label("Rows")
+	long rows;
+
+	@Label("Bytes Read")
+	@DataAmount
+	long bytesRead;
+
+	@Label("Bytes Written")
+	@DataAmount
+	long bytesWritten;
+
+	@Label("Heap Depth")
+	int heapDepth;
+
+	@Label("Merge Time")
+	@Timespan
+	long mergeNanos;
+}
@@ -0,0 +1,97 @@
+package com.csvfile.sorter.samples.sort;
+
+/**
+ * 1回のマージパスの統計情報
+ *
+ * 最後のパス（出力ファイルへのマージ）も1回のパスとして数える。
+ * 読み込み・書き込みのバイト数は、ディスク上の（圧縮後の）ファイルの大きさである。
+ * ヒープの深さは、1回のマージで同時にマージした一時ファイルの数から求めた、ヒープ（勝者木・敗者木）の段数である。
+ *
+ */
+public final class MergePassStats {
+
+	private final int pass;
+	private final int inputRuns;
+	private final int outputRuns;
+	private final long rows;
+	private final long bytesRead;
+	private final long bytesWritten;
+	private final int heapDepth;
+	private final long nanos;
+
+	MergePassStats(int pass, int inputRuns, int outputRuns, long rows, long bytesRead, long bytesWritten,
+				   int heapDepth, long nanos) {
+		this.pass = pass;
+		this.inputRuns = inputRuns;
+		this.outputRuns = outputRuns;
+		this.rows = rows;
+		this.bytesRead = bytesRead;
+		this.bytesWritten = bytesWritten;
+		this.heapDepth = heapDepth;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * inputs 個の入力をマージするヒープの段数
+	 */
+	static int depthOf(int inputs) {
+		return inputs > 1 ? 32 - Integer.numberOfLeadingZeros(inputs - 1) : 0;
+	}
+
+	/**
+	 * パスの番号（1から始まる）
+	 */
+	public int getPass() {
+		return this.pass;
+	}
+
+	/**
+	 * パス開始時の一時ファイル数
+	 */
+	public int getInputRuns() {
+		return this.inputRuns;
+	}
+
+	/**
+	 * パス終了時の一時ファイル数（最後のパスでは出力ファイル数）
+	 */
+	public int getOutputRuns() {
+		return this.outputRuns;
+	}
+
+	/**
+	 * パスで書き込んだ行数
+	 */
+	public long getRows() {
+		return this.rows;
+	}
+
+	public long getBytesRead() {
+		return this.bytesRead;
+	}
+
+	public long getBytesWritten() {
+		return this.bytesWritten;
+	}
+
+	/**
+	 * マージのヒープの段数。1回のマージで比較する回数は、1行あたりおよそこの値となる
+	 */
+	public int getHeapDepth() {
+		return this.heapDepth;
+	}
+
+	/**
+	 * パスにかかった時間（ナノ秒）
+	 */
+	public long getNanos() {
+		return this.nanos;
+	}
+
+	@Override
+	public String toString() {
+		return "pass " + this.pass + ": " + this.inputRuns + " -> " + this.outputRuns + " runs, "
+				+ this.rows + " rows, " + this.bytesRead + " bytes read, " + this.bytesWritten + " bytes written, "
+				+ "heap depth " + this.heapDepth + ", " + this.nanos / 1000000 + " ms";
+	}
+}
@@ -0,0 +1,198 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 一時ファイルが多すぎる場合に、途中のマージパスを計画・実行するクラス
+ *
+ * 1回のマージで同時に開く一時ファイルの数（ファンイン）を制限し、
+ * 一時ファイル数がファンインを超える場合は、隣り合う一時ファイルをまとめてマージして数を減らす。
+ * 隣り合う一時ファイルだけをまとめるため、同じ値の行の順番（入力の順）は変わらない。
+ *
+ * ファンインを指定しない場合は、ファイルディスクリプタの空き数と空きメモリから決める。
+ *
+ */
+final class MergePlanner {
+
+	// 最小のファンイン
+	static final int MIN_FAN_IN = 2;
+
+	// 一時ファイルを1つ開くのに必要なメモリの見積もり（圧縮・展開のバッファ、行の読み込みバッファ）
+	static final long READER_MEMORY = 96 * 1024;
+
+	private MergePlanner() {
+	}
+
+	/**
+	 * ファンインを決める
+	 *
+	 * 指定がない場合は、空いているファイルディスクリプタの半分と、空きメモリの半分で開ける数の小さい方とする。
+	 * 並列マージでは各スレッドが全ての一時ファイルを開くため、スレッド数で割る。
+	 *
+	 * @param options : ソートのオプション
+	 * @return ファンイン
+	 */
+	static int chooseFanIn(SortOptions options) {
+		if (options.getMaxFanIn() > 0) {
+			return Math.max(MIN_FAN_IN, options.getMaxFanIn());
+		}
+
+		long fanIn = Math.min(availableFileDescriptors() / 2, availableMemory() / 2 / READER_MEMORY);
+		fanIn /= options.getMergeParallelism();
+		return (int) Math.max(MIN_FAN_IN, Math.min(fanIn, CsvFileSorter.DEFAULTMAXTEMPFILES));
+	}
+
+	private static long availableFileDescriptors() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+			com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+			return unix.getMaxFileDescriptorCount() - unix.getOpenFileDescriptorCount();
+		}
+		// 取得できない場合は、従来どおり全ての一時ファイルを開けるものとする
+		return 2L * CsvFileSorter.DEFAULTMAXTEMPFILES;
+	}
+
+	private static long availableMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	/**
+	 * 一時ファイル数がファンイン以下になるまで、途中のマージパスを行う
+	 *
+	 * 1回のパスで全てをまとめても一時ファイル数がファンインを超える場合は、
+	 * 先頭から fanIn 個ずつまとめる。そうでない場合は、ファンイン以下になるのに必要な分だけをまとめ、
+	 * 残りの一時ファイルはそのまま最後のマージに回す。
+	 *
+	 * @param runs : 一時ファイル
+	 * @param comparator : 行の比較
+	 * @param fanIn : ファンイン
+	 * @param stats : パスの統計情報の出力先
+	 * @return ファンイン以下になった一時ファイル
+	 */
+	static List<SortedRun> reduce(List<SortedRun> runs,
+								  Comparator<List<String>> comparator,
+								  int fanIn,
+								  SortStats stats) throws IOException {
+
+		while (runs.size() > fanIn) {
+			int pass = stats.getMergePassCount() + 1;
+			long start = System.nanoTime();
+			SortMetrics metrics = runs.get(0).getSession().getMetrics();
+			int widest = 0;
+			long bytesRead = 0;
+			long bytesWritten = 0;
+			long rows = 0;
+
+			// まとめて減らす必要がある一時ファイル数。fanIn 個をまとめると fanIn - 1 個減る
+			int excess = runs.size() - fanIn;
+			if (ceil(runs.size(), fanIn) > fanIn) {
+				excess = runs.size();
+			}
+
+			List<SortedRun> next = new ArrayList<SortedRun>();
+			int i = 0;
+			while (i < runs.size()) {
+				int group = Math.min(fanIn, Math.min(excess + 1, runs.size() - i));
+				if (group < 2) {
+					next.add(runs.get(i));
+					i++;
+					continue;
+				}
+
+				List<SortedRun> inputs = runs.subList(i, i + group);
+				widest = Math.max(widest, group);
+				bytesRead += totalBytes(inputs);
+				SortedRun merged = mergeToRun(inputs, comparator);
+				// 再開できるジョブでは、まとめた一時ファイルを記録してから元の一時ファイルを削除する
+				merged.getSession().replaceRuns(inputs, merged);
+				for (SortedRun input : inputs) {
+					input.delete();
+				}
+				bytesWritten += merged.getFile().length();
+				rows += merged.getRowCount();
+				next.add(merged);
+
+				excess -= group - 1;
+				i += group;
+			}
+
+			metrics.mergePass(stats, new MergePassStats(pass, runs.size(), next.size(), rows, bytesRead, bytesWritten,
+					MergePassStats.depthOf(widest), System.nanoTime() - start));
+			runs = next;
+		}
+		return runs;
+	}
+
+	private static int ceil(int n, int d) {
+		return (n + d - 1) / d;
+	}
+
+	/**
+	 * 一時ファイルをまとめて1つの一時ファイルへマージする。マージした一時ファイルは削除する。
+	 * 同じキーの行をまとめる場合は、まとめた行を書き込む。
+	 */
+	private static SortedRun mergeToRun(List<SortedRun> inputs, Comparator<List<String>> comparator) throws IOException {
+		return mergeToRun(inputs, comparator, Long.MAX_VALUE);
+	}
+
+	/**
+	 * 一時ファイルをまとめて1つの一時ファイルへ、先頭から limit 行までマージする。マージした一時ファイルは削除する。
+	 */
+	static SortedRun mergeToRun(List<SortedRun> inputs, Comparator<List<String>> comparator, long limit) throws IOException {
+		List<BinaryFileBuffer> buffers = new ArrayList<BinaryFileBuffer>();
+		try {
+			for (int i = 0; i < inputs.size(); i++) {
+				buffers.add(new BinaryFileBuffer(new RunReader(inputs.get(i), comparator), i, inputs.get(i)));
+			}
+		} catch (IOException e) {
+			for (BinaryFileBuffer bfb : buffers) {
+				bfb.close();
+			}
+			throw e;
+		}
+
+		RunWriter out;
+		try {
+			out = new RunWriter(inputs.get(0).getSession(), "mergePass", comparator);
+		} catch (IOException e) {
+			for (BinaryFileBuffer bfb : buffers) {
+				bfb.close();
+			}
+			throw e;
+		}
+		boolean completed = false;
+		try {
+			ReducingRowWriter reducer = limit == Long.MAX_VALUE ? inputs.get(0).getSession().reducer(comparator, out) : null;
+			if (reducer != null) {
+				CsvFileSorter.merge(buffers, comparator, reducer, limit);
+				reducer.finish();
+			} else {
+				CsvFileSorter.merge(buffers, comparator, out, limit);
+			}
+			completed = true;
+		} finally {
+			out.close();
+			if (!completed) {
+				out.toSortedRun().delete();
+			}
+		}
+		return out.toSortedRun();
+	}
+
+	/**
+	 * 一時ファイルの合計の大きさ
+	 */
+	static long totalBytes(List<SortedRun> runs) {
+		long bytes = 0;
+		for (SortedRun run : runs) {
+			bytes += run.getFile().length();
+		}
+		return bytes;
+	}
+}
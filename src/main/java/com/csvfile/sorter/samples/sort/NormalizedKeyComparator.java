@@ -0,0 +1,328 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 正規化したキーのバイト列を比較する比較
+ *
+ * 行を読み込んだときに、キーの列を順序を保ったバイト列（正規化キー）へ1度だけ変換し、
+ * 以降の比較は正規化キーの符号なしバイト列としての比較（memcmp と同じ）だけで行う。
+ * 正規化キーは先頭8バイトを long としても保持し、ほとんどの比較を long の比較1回で済ませる。
+ *
+ * 正規化キーは一時ファイルにも行と一緒に書き込むため、マージで再計算する必要はない。
+ *
+ * 比較結果は元の比較（{@link SortSpec}、または {@link CsvFileSorter#DEFAULT_COMPARATOR}）と同じになる。
+ *
+ * 正規化キーの形式
+ *
+ * 文字列 : 各文字（UTF-16 の値 c）を、c < 0x7F は [c + 1]、c < 0x207F は [0x80 | (v >> 8)][v & 0xFF]（v = c - 0x7F）、
+ * それ以外は [0xA0][v >> 8][v & 0xFF]（v = c - 0x207F）とし、最後に [0x00] を付ける。{@link String#compareTo} と同じ順序になる。
+ * 整数・日付 : 符号ビットを反転した8バイトのビッグエンディアン（日付はエポックからの日数）。
+ * 10進数 : 負・0・正を [0x01]・[0x02]・[0x03] で表し、0以外は 0.d1d2... × 10^e の e を符号ビットを反転した4バイト、
+ * 各桁を [d + 1]、最後に [0x00] とする（末尾の0は除く）。負の場合は、絶対値の e 以降のバイト列を反転する。
+ *
+ * {@link SortSpec} のキーは、null の位置を表す1バイト（先頭なら null が 0x00、値が 0x01、末尾なら逆）に続けて値を書き込み、
+ * 降順の場合は値のバイト列を反転する。
+ * 既定の比較では、各列を [0x01] に続けて文字列（null は空文字列）として書き込み、最後に [0x00] を付ける。
+ *
+ */
+final class NormalizedKeyComparator implements RowKeyComparator {
+
+	// 正規化キーの作成に使うバッファ。並列ソートで複数のスレッドから使われるため、スレッドごとに持つ
+	private static final ThreadLocal<KeyBuilder> BUILDER = new ThreadLocal<KeyBuilder>() {
+		@Override
+		protected KeyBuilder initialValue() {
+			return new KeyBuilder();
+		}
+	};
+
+	// キーの指定。null の場合は既定の比較と同じ順序とする
+	private final SortSpec spec;
+
+	NormalizedKeyComparator(SortSpec spec) {
+		this.spec = spec;
+	}
+
+	/**
+	 * 比較が正規化キーの比較（回数を数える比較で包んだ場合を含む）の場合は、その比較を返す
+	 *
+	 * @return 正規化キーの比較でない場合は null
+	 */
+	static NormalizedKeyComparator of(Comparator<List<String>> comparator) {
+		if (comparator instanceof CountingComparator) {
+			comparator = ((CountingComparator) comparator).getComparator();
+		}
+		return comparator instanceof NormalizedKeyComparator ? (NormalizedKeyComparator) comparator : null;
+	}
+
+	SortSpec getSortSpec() {
+		return this.spec;
+	}
+
+	@Override
+	public List<String> prepare(List<String> row) {
+		if (row instanceof NormalizedRow && ((NormalizedRow) row).comparator == this) {
+			return row;
+		}
+		return new NormalizedRow(row, this, encode(row));
+	}
+
+	/**
+	 * 一時ファイルから読み込んだ正規化キーと行を組み合わせる
+	 *
+	 * @param row : 行
+	 * @param key : 行と一緒に書き込まれていた正規化キー
+	 * @return 比較の準備をした行
+	 */
+	List<String> withKey(List<String> row, byte[] key) {
+		return new NormalizedRow(row, this, key);
+	}
+
+	/**
+	 * 行の正規化キーを返す
+	 */
+	byte[] keyOf(List<String> row) {
+		if (row instanceof NormalizedRow && ((NormalizedRow) row).comparator == this) {
+			return ((NormalizedRow) row).key;
+		}
+		return encode(row);
+	}
+
+	/**
+	 * 行を正規化キーへ変換する
+	 */
+	byte[] encode(List<String> row) {
+		KeyBuilder builder = BUILDER.get();
+		builder.reset();
+
+		if (this.spec == null) {
+			for (String value : row) {
+				builder.put(0x01);
+				builder.putString(value == null ? "" : value);
+			}
+			builder.put(0x00);
+			return builder.toByteArray();
+		}
+
+		for (SortKey key : this.spec.getKeys()) {
+			Comparable<?> value = key.extract(row);
+			boolean nullsFirst = key.getNullOrder() == SortKey.NullOrder.NULLS_FIRST;
+			if (value == null) {
+				builder.put(nullsFirst ? 0x00 : 0x01);
+				continue;
+			}
+			builder.put(nullsFirst ? 0x01 : 0x00);
+
+			int start = builder.size();
+			switch (key.getType()) {
+			case LONG:
+				builder.putLong((Long) value);
+				break;
+			case DATE:
+				builder.putLong(((LocalDate) value).toEpochDay());
+				break;
+			case DECIMAL:
+				builder.putDecimal((BigDecimal) value);
+				break;
+			default:
+				builder.putString((String) value);
+				break;
+			}
+			if (key.getDirection() == SortKey.Direction.DESC) {
+				builder.invert(start);
+			}
+		}
+		return builder.toByteArray();
+	}
+
+	@Override
+	public int compare(List<String> r1, List<String> r2) {
+		if (r1 instanceof NormalizedRow && r2 instanceof NormalizedRow
+				&& ((NormalizedRow) r1).comparator == this && ((NormalizedRow) r2).comparator == this) {
+			NormalizedRow n1 = (NormalizedRow) r1;
+			NormalizedRow n2 = (NormalizedRow) r2;
+			if (n1.prefix != n2.prefix) {
+				return Long.compareUnsigned(n1.prefix, n2.prefix);
+			}
+			return compareBytes(n1.key, n2.key, 8);
+		}
+		return compareBytes(keyOf(r1), keyOf(r2), 0);
+	}
+
+	/**
+	 * バイト列を符号なしとして辞書順に比較する
+	 *
+	 * @param from : 比較を開始する位置（それより前は同じであることが分かっている）
+	 */
+	static int compareBytes(byte[] b1, byte[] b2, int from) {
+		int length = Math.min(b1.length, b2.length);
+		for (int i = from; i < length; i++) {
+			int result = (b1[i] & 0xFF) - (b2[i] & 0xFF);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return b1.length - b2.length;
+	}
+
+	/**
+	 * 先頭8バイトを符号なしの long として返す。8バイトに満たない場合は0で埋める
+	 */
+	static long prefixOf(byte[] key) {
+		long prefix = 0;
+		for (int i = 0; i < 8; i++) {
+			prefix <<= 8;
+			if (i < key.length) {
+				prefix |= key[i] & 0xFF;
+			}
+		}
+		return prefix;
+	}
+
+	/**
+	 * 正規化キーを保持する行
+	 *
+	 * 内容は元の行と同じであり、書き込み時には元の行として扱われる。
+	 */
+	static final class NormalizedRow extends AbstractList<String> implements RandomAccess, WrappedRow {
+
+		private final List<String> row;
+		private final NormalizedKeyComparator comparator;
+		final byte[] key;
+		final long prefix;
+
+		NormalizedRow(List<String> row, NormalizedKeyComparator comparator, byte[] key) {
+			this.row = row;
+			this.comparator = comparator;
+			this.key = key;
+			this.prefix = prefixOf(key);
+		}
+
+		@Override
+		public String get(int index) {
+			return this.row.get(index);
+		}
+
+		@Override
+		public int size() {
+			return this.row.size();
+		}
+
+		@Override
+		public List<String> unwrap() {
+			return this.row;
+		}
+
+		@Override
+		public long overheadSize(MemoryEstimator estimator) {
+			// List row, NormalizedKeyComparator comparator, byte[] key, long prefix
+			return estimator.object(3, 8) + estimator.array(this.key.length, 1);
+		}
+	}
+
+	/**
+	 * 正規化キーを組み立てるバッファ
+	 */
+	private static final class KeyBuilder {
+
+		private byte[] buf = new byte[64];
+		private int count = 0;
+
+		void reset() {
+			this.count = 0;
+		}
+
+		int size() {
+			return this.count;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(this.buf, this.count);
+		}
+
+		private void ensure(int size) {
+			if (this.buf.length - this.count < size) {
+				this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.count + size));
+			}
+		}
+
+		void put(int b) {
+			ensure(1);
+			this.buf[this.count++] = (byte) b;
+		}
+
+		void putLong(long value) {
+			ensure(8);
+			value ^= Long.MIN_VALUE;
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				this.buf[this.count++] = (byte) (value >>> shift);
+			}
+		}
+
+		void putInt(int value) {
+			ensure(4);
+			value ^= Integer.MIN_VALUE;
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				this.buf[this.count++] = (byte) (value >>> shift);
+			}
+		}
+
+		void putString(String value) {
+			int length = value.length();
+			ensure(length * 3 + 1);
+			byte[] b = this.buf;
+			int pos = this.count;
+			for (int i = 0; i < length; i++) {
+				int c = value.charAt(i);
+				if (c < 0x7F) {
+					b[pos++] = (byte) (c + 1);
+				} else if (c < 0x207F) {
+					int v = c - 0x7F;
+					b[pos++] = (byte) (0x80 | (v >>> 8));
+					b[pos++] = (byte) v;
+				} else {
+					int v = c - 0x207F;
+					b[pos++] = (byte) 0xA0;
+					b[pos++] = (byte) (v >>> 8);
+					b[pos++] = (byte) v;
+				}
+			}
+			b[pos++] = 0x00;
+			this.count = pos;
+		}
+
+		void putDecimal(BigDecimal value) {
+			int signum = value.signum();
+			if (signum == 0) {
+				put(0x02);
+				return;
+			}
+			put(signum < 0 ? 0x01 : 0x03);
+
+			BigDecimal abs = value.abs().stripTrailingZeros();
+			String digits = abs.unscaledValue().toString();
+			int start = this.count;
+			putInt(abs.precision() - abs.scale());
+			ensure(digits.length() + 1);
+			for (int i = 0; i < digits.length(); i++) {
+				this.buf[this.count++] = (byte) (digits.charAt(i) - '0' + 1);
+			}
+			this.buf[this.count++] = 0x00;
+			if (signum < 0) {
+				invert(start);
+			}
+		}
+
+		void invert(int from) {
+			for (int i = from; i < this.count; i++) {
+				this.buf[i] = (byte) ~this.buf[i];
+			}
+		}
+	}
+}
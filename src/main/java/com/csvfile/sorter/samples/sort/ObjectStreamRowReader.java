@@ -0,0 +1,63 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.io.SequenceInputStream;
+import java.util.List;
+
+import com.csvfile.sorter.samples.serialize.ListOfStringSerializer;
+
+/**
+ * 入力ファイル（{@link ListOfStringSerializer} のストリーム）を読み込むクラス
+ *
+ */
+final class ObjectStreamRowReader implements RowReader {
+
+	// ObjectOutputStream がストリームの先頭に書き込むヘッダ
+	private static final byte[] STREAM_HEADER = {
+		(byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8), (byte) ObjectStreamConstants.STREAM_MAGIC,
+		(byte) (ObjectStreamConstants.STREAM_VERSION >>> 8), (byte) ObjectStreamConstants.STREAM_VERSION,
+	};
+
+	private final ObjectInputStream ois;
+
+	/**
+	 * @param in : 展開済みの入力ファイルのストリーム
+	 */
+	ObjectStreamRowReader(InputStream in) throws IOException {
+		this(in, true);
+	}
+
+	/**
+	 * @param in : 展開済みの入力ファイルのストリーム
+	 * @param header : ストリームにヘッダがあるかどうか。false の場合は、ヘッダを書き込まずに書き込んだ続きのストリーム
+	 *                 （{@link ObjectStreamRowWriter#ObjectStreamRowWriter(java.io.OutputStream, boolean)}）として読み込む
+	 */
+	ObjectStreamRowReader(InputStream in, boolean header) throws IOException {
+		if (!header) {
+			in = new SequenceInputStream(new ByteArrayInputStream(STREAM_HEADER), in);
+		}
+		this.ois = new ObjectInputStream(new BufferedInputStream(in, CsvFileSorter.BUFFER_SIZE));
+	}
+
+	@Override
+	public List<String> read() throws IOException {
+		try {
+			return ((ListOfStringSerializer) this.ois.readObject()).getData();
+		} catch (EOFException eof) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.ois.close();
+	}
+}
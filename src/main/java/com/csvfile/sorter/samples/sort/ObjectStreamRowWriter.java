@@ -0,0 +1,81 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.csvfile.sorter.samples.serialize.ListOfStringSerializer;
+
+/**
+ * 出力ファイル（{@link ListOfStringSerializer} のストリーム）を書き込むクラス
+ *
+ * {@link ObjectOutputStream} は書き込んだオブジェクトへの参照を保持し続けるため、
+ * FLUSH_INTERVAL 行ごとに reset して参照を解放する。
+ *
+ * 閉じるときにも reset するため、ストリームのヘッダを書き込まない続きのストリーム（header = false）を後ろに連結すると、
+ * 連結したものは1つのストリームとして {@link ObjectStreamRowReader} で読み込める。
+ *
+ */
+final class ObjectStreamRowWriter implements RowWriter {
+
+	private static final int FLUSH_INTERVAL = 10000;
+
+	private final ObjectOutputStream oos;
+
+	private int writeCount = 0;
+
+	/**
+	 * @param out : 出力ファイルへ（必要に応じて圧縮して）書き込むストリーム
+	 */
+	ObjectStreamRowWriter(OutputStream out) throws IOException {
+		this(out, true);
+	}
+
+	/**
+	 * @param out : 出力ファイルへ（必要に応じて圧縮して）書き込むストリーム
+	 * @param header : ストリームのヘッダを書き込むかどうか。false の場合は、前のストリームに連結する続きとして書き込む
+	 */
+	ObjectStreamRowWriter(OutputStream out, boolean header) throws IOException {
+		OutputStream buffered = new BufferedOutputStream(out, CsvFileSorter.BUFFER_SIZE);
+		this.oos = header ? new ObjectOutputStream(buffered) : new ContinuedObjectOutputStream(buffered);
+	}
+
+	@Override
+	public void write(List<String> row) throws IOException {
+		this.oos.writeObject(new ListOfStringSerializer(row));
+
+		this.writeCount++;
+		if (this.writeCount % FLUSH_INTERVAL == 0) {
+			this.oos.flush();
+			this.oos.reset();
+			this.writeCount = 0;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.oos.flush();
+			this.oos.reset();
+		} finally {
+			this.oos.close();
+		}
+	}
+
+	/**
+	 * ストリームのヘッダを書き込まない {@link ObjectOutputStream}
+	 */
+	private static final class ContinuedObjectOutputStream extends ObjectOutputStream {
+
+		ContinuedObjectOutputStream(OutputStream out) throws IOException {
+			super(out);
+		}
+
+		@Override
+		protected void writeStreamHeader() {
+			// 前のストリームのヘッダを使う
+		}
+	}
+}
@@ -0,0 +1,416 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 一時ファイルのマージを、値の範囲ごとに分割して並列に行うクラス
+ *
+ * 各一時ファイルのセグメントの先頭行をサンプルとして境界値を選び、値の範囲を分割する。
+ * 各範囲は別々のスレッドでマージし、範囲ごとの結果を範囲の順に連結して、1つの出力ファイルへ書き込む。
+ * 範囲ごとに別の出力ファイルとすることもできる。
+ *
+ * 同じ値の行は必ず同じ範囲に入り、範囲内のマージでは同じ値の行を一時ファイルの順に出力するため、
+ * 連結した結果は {@link CsvFileSorter} の逐次マージの結果とバイト単位で一致する。
+ *
+ * 各スレッドは全ての一時ファイルを開くため、同時に開くファイル数は最大で 一時ファイル数 × スレッド数 となる。
+ * 書き込みを待つ行は、メモリ使用量の上限を範囲で分けた大きさまでメモリ上に保持し、超えた分は一時ファイルへ書き出す。
+ *
+ */
+final class PartitionedMerge {
+
+	// 範囲ごとに出力する場合の出力ファイル名の接尾辞
+	static final String PARTITION_SUFFIX_FORMAT = ".%05d";
+
+	private PartitionedMerge() {
+	}
+
+	/**
+	 * 範囲ごとに出力する場合の出力ファイル
+	 *
+	 * @param outputfile : 出力ファイル
+	 * @param partition : 範囲の番号
+	 * @return 範囲の出力ファイル
+	 */
+	static File partitionFile(File outputfile, int partition) {
+		return new File(outputfile.getPath() + String.format(PARTITION_SUFFIX_FORMAT, partition));
+	}
+
+	/**
+	 * 一時ファイルを範囲ごとに並列にマージする
+	 *
+	 * @param files : マージする一時ファイル
+	 * @param outputfile : 出力ファイル
+	 * @param comparator : 行の比較
+	 * @param options : 範囲の数（スレッド数）、範囲ごとに別の出力ファイル（{@link #partitionFile}）とするかどうか、出力ファイルの形式
+	 * @param session : 同じキーの行の扱いを指定したソート処理
+	 * @param stats : マージパスの統計情報の出力先
+	 * @return 出力した行数
+	 */
+	static long mergeSortedFiles(final List<SortedRun> files,
+								 File outputfile,
+								 final Comparator<List<String>> comparator,
+								 SortOptions options,
+								 SortSession session,
+								 SortStats stats) throws IOException {
+		return mergeSortedFiles(files, outputfile, null, comparator, options, session, stats);
+	}
+
+	/**
+	 * 一時ファイルを範囲ごとに並列にマージし、範囲の順に out へ書き込む
+	 *
+	 * 書き込んだバイト数は分からないため、統計情報には0を記録する。
+	 *
+	 * @param files : マージする一時ファイル
+	 * @param out : 出力先。閉じない
+	 * @param comparator : 行の比較
+	 * @param options : 範囲の数（スレッド数）。範囲ごとの出力（partitionedOutput）は使用しない
+	 * @param session : 同じキーの行の扱いを指定したソート処理
+	 * @param stats : マージパスの統計情報の出力先
+	 * @return 出力した行数
+	 */
+	static long mergeSortedFiles(final List<SortedRun> files,
+								 RowWriter out,
+								 final Comparator<List<String>> comparator,
+								 SortOptions options,
+								 SortSession session,
+								 SortStats stats) throws IOException {
+		return mergeSortedFiles(files, null, out, comparator, options, session, stats);
+	}
+
+	/**
+	 * @param outputfile : 出力ファイル。out に書き込む場合は null
+	 * @param out : 出力先。出力ファイルに書き込む場合は null
+	 */
+	private static long mergeSortedFiles(final List<SortedRun> files,
+										 File outputfile,
+										 RowWriter out,
+										 final Comparator<List<String>> comparator,
+										 SortOptions options,
+										 SortSession session,
+										 SortStats stats) throws IOException {
+
+		int parallelism = options.getMergeParallelism();
+		boolean partitioned = out == null && options.isPartitionedOutput();
+
+		List<List<String>> splitters = chooseSplitters(files, comparator, parallelism);
+		int partitions = splitters.size() + 1;
+		long bytesRead = MergePlanner.totalBytes(files);
+		long start = System.nanoTime();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, partitions));
+		try {
+			long rowcounter;
+			long bytesWritten = 0;
+			if (partitioned) {
+				rowcounter = mergePartitioned(files, outputfile, comparator, splitters, options, session, executor);
+				for (int p = 0; p < partitions; p++) {
+					bytesWritten += partitionFile(outputfile, p).length();
+				}
+			} else if (out != null) {
+				rowcounter = mergeConcatenated(files, out, comparator, splitters, options, session, executor);
+			} else {
+				RowWriter fileOut = CsvFileSorter.openOutput(outputfile, options);
+				try {
+					rowcounter = mergeConcatenated(files, fileOut, comparator, splitters, options, session, executor);
+				} finally {
+					fileOut.close();
+				}
+				bytesWritten = outputfile.length();
+			}
+			session.getMetrics().mergePass(stats, new MergePassStats(stats.getMergePassCount() + 1, files.size(),
+					partitioned ? partitions : 1, rowcounter, bytesRead, bytesWritten,
+					MergePassStats.depthOf(files.size()), System.nanoTime() - start));
+			return rowcounter;
+		} finally {
+			executor.shutdownNow();
+			CsvFileSorter.awaitTermination(executor);
+			for (SortedRun run : files) {
+				run.delete();
+			}
+		}
+	}
+
+	/**
+	 * 範囲ごとに別の出力ファイルへマージする
+	 */
+	private static long mergePartitioned(final List<SortedRun> files,
+										 final File outputfile,
+										 final Comparator<List<String>> comparator,
+										 final List<List<String>> splitters,
+										 final SortOptions options,
+										 final SortSession session,
+										 ExecutorService executor) throws IOException {
+
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		for (int p = 0; p <= splitters.size(); p++) {
+			final int partition = p;
+			futures.add(executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws IOException {
+					RowWriter out = CsvFileSorter.openOutput(partitionFile(outputfile, partition), options);
+					long rows;
+					try {
+						rows = mergeRange(files, comparator, splitters, partition, options.getMergeEngine(), session, out);
+					} finally {
+						out.close();
+					}
+					session.getMetrics().rangeMerged(partition, rows);
+					return rows;
+				}
+			}));
+		}
+
+		long rowcounter = 0;
+		for (Long rows : CsvFileSorter.collect(futures)) {
+			rowcounter += rows;
+		}
+		return rowcounter;
+	}
+
+	/**
+	 * 範囲ごとにマージし、範囲の順に連結して out へ書き込む
+	 *
+	 * 最初の範囲は out へ直接書き込み、残りの範囲は {@link PartitionBuffer} に書き込んで、全ての範囲を同時にマージする。
+	 * 最初の範囲のマージが終わった後、残りの範囲の結果を範囲の順に取り出して out へ書き込む。out は閉じない。
+	 */
+	private static long mergeConcatenated(final List<SortedRun> files,
+										  final RowWriter out,
+										  final Comparator<List<String>> comparator,
+										  final List<List<String>> splitters,
+										  SortOptions options,
+										  final SortSession session,
+										  ExecutorService executor) throws IOException {
+
+		final MergeEngine engine = options.getMergeEngine();
+		// 残りの範囲の結果は、メモリ使用量の上限を範囲の数で分けた大きさまでメモリ上に保持する
+		MemoryTracker tracker = MemoryTracker.create(0, options, Math.max(splitters.size(), 1));
+		List<PartitionBuffer> buffers = new ArrayList<PartitionBuffer>();
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		boolean completed = false;
+		try {
+			Future<Long> first = executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws IOException {
+					long rows = mergeRange(files, comparator, splitters, 0, engine, session, out);
+					session.getMetrics().rangeMerged(0, rows);
+					return rows;
+				}
+			});
+			for (int p = 1; p <= splitters.size(); p++) {
+				final int partition = p;
+				final PartitionBuffer buffer = new PartitionBuffer(session, tracker);
+				buffers.add(buffer);
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						long rows;
+						try {
+							rows = mergeRange(files, comparator, splitters, partition, engine, session, buffer);
+						} finally {
+							buffer.close();
+						}
+						session.getMetrics().rangeMerged(partition, rows);
+						return rows;
+					}
+				}));
+			}
+
+			long rowcounter = CsvFileSorter.collect(Collections.singletonList(first)).get(0);
+			for (int i = 0; i < buffers.size(); i++) {
+				CsvFileSorter.collect(Collections.singletonList(futures.get(i)));
+				rowcounter += buffers.get(i).drainTo(out);
+			}
+			completed = true;
+			return rowcounter;
+		} finally {
+			if (!completed) {
+				executor.shutdownNow();
+				CsvFileSorter.awaitTermination(executor);
+				for (PartitionBuffer buffer : buffers) {
+					buffer.discard();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 1つの範囲をマージする
+	 *
+	 * @param files : マージする一時ファイル
+	 * @param comparator : 行の比較
+	 * @param splitters : 範囲の境界値
+	 * @param partition : 範囲の番号
+	 * @param engine : マージの方法
+	 * @param session : 同じキーの行の扱いを指定したソート処理
+	 * @param out : 出力先
+	 * @return 出力した行数
+	 */
+	private static long mergeRange(List<SortedRun> files,
+								   Comparator<List<String>> comparator,
+								   List<List<String>> splitters,
+								   int partition,
+								   MergeEngine engine,
+								   SortSession session,
+								   RowWriter out) throws IOException {
+
+		List<String> lower = partition == 0 ? null : splitters.get(partition - 1);
+		List<String> upper = partition == splitters.size() ? null : splitters.get(partition);
+
+		List<BinaryFileBuffer> buffers = new ArrayList<BinaryFileBuffer>();
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				// 一時ファイルは全ての範囲のマージが終わった後に削除する
+				buffers.add(new BinaryFileBuffer(new RunReader(files.get(i), comparator, lower, upper), i, null));
+			}
+		} catch (IOException e) {
+			for (BinaryFileBuffer bfb : buffers) {
+				bfb.close();
+			}
+			throw e;
+		}
+		return CsvFileSorter.mergeAndReduce(engine, buffers, comparator, out, session);
+	}
+
+	/**
+	 * 範囲の境界値を選ぶ
+	 *
+	 * 各一時ファイルのセグメントの先頭行をサンプルとしてソートし、等間隔に選ぶ。
+	 * 同じ値の境界値は1つにまとめるため、返す境界値の数は parallelism - 1 個以下となる。
+	 *
+	 * @return 昇順に並んだ境界値
+	 */
+	static List<List<String>> chooseSplitters(List<SortedRun> files,
+											  Comparator<List<String>> comparator,
+											  int parallelism) {
+
+		List<List<String>> samples = new ArrayList<List<String>>();
+		for (SortedRun run : files) {
+			samples.addAll(run.getSegmentFirstRows());
+		}
+		Collections.sort(samples, comparator);
+
+		List<List<String>> splitters = new ArrayList<List<String>>();
+		for (int p = 1; p < parallelism; p++) {
+			int i = (int) ((long) samples.size() * p / parallelism);
+			if (i == 0 || i >= samples.size()) {
+				continue;
+			}
+			List<String> splitter = samples.get(i);
+			if (splitters.isEmpty() || comparator.compare(splitters.get(splitters.size() - 1), splitter) < 0) {
+				splitters.add(splitter);
+			}
+		}
+		return splitters;
+	}
+
+	/**
+	 * 1つの範囲のマージの結果を、out へ書き込めるようになるまで保持する {@link RowWriter}
+	 *
+	 * 行はメモリ上に保持し、見積もった大きさが上限を超えたら一時ファイル（{@link RunWriter}）へ書き出すため、
+	 * マージのスレッドは書き込みを待たない。マージのスレッドが {@link #write} と {@link #close} を呼び、
+	 * マージが終わった後に書き込むスレッドが {@link #drainTo} を呼ぶ。
+	 */
+	private static final class PartitionBuffer implements RowWriter {
+
+		private final SortSession session;
+		private final MemoryTracker tracker;
+		private List<List<String>> rows = new ArrayList<List<String>>();
+		private long size = 0;
+		// 書き出した行の一時ファイル。書き出していない場合は null
+		private RunWriter spill = null;
+		private SortedRun run = null;
+
+		/**
+		 * @param session : 書き出す一時ファイルを作成するソート処理
+		 * @param tracker : 行の大きさの見積もりと、メモリ上に保持する大きさの上限（1ブロックの大きさ）
+		 */
+		PartitionBuffer(SortSession session, MemoryTracker tracker) {
+			this.session = session;
+			this.tracker = tracker;
+		}
+
+		@Override
+		public void write(List<String> row) throws IOException {
+			this.rows.add(row);
+			this.size += this.tracker.sizeOf(row);
+			if (this.size > this.tracker.getBlockSize()) {
+				spill();
+			}
+		}
+
+		/**
+		 * メモリ上の行を一時ファイルへ書き出す
+		 */
+		private void spill() throws IOException {
+			if (this.spill == null) {
+				this.spill = new RunWriter(this.session, "mergeRange", null);
+			}
+			for (List<String> row : this.rows) {
+				this.spill.write(row);
+			}
+			this.rows = new ArrayList<List<String>>();
+			this.size = 0;
+		}
+
+		/**
+		 * 一時ファイルを閉じる。残りの行はメモリ上に保持する
+		 */
+		@Override
+		public void close() throws IOException {
+			if (this.spill != null) {
+				this.spill.close();
+				this.run = this.spill.toSortedRun();
+			}
+		}
+
+		/**
+		 * 一時ファイルの行、メモリ上の行の順に out へ書き込み、一時ファイルを削除する
+		 *
+		 * @param out : 書き込み先
+		 * @return 書き込んだ行数
+		 */
+		long drainTo(RowWriter out) throws IOException {
+			long rowcounter = 0;
+			if (this.run != null) {
+				RunReader reader = new RunReader(this.run);
+				try {
+					List<String> row;
+					while ((row = reader.read()) != null) {
+						out.write(row);
+						rowcounter++;
+					}
+				} finally {
+					reader.close();
+					this.run.delete();
+					this.run = null;
+				}
+			}
+			for (List<String> row : this.rows) {
+				out.write(row);
+			}
+			rowcounter += this.rows.size();
+			this.rows = null;
+			return rowcounter;
+		}
+
+		/**
+		 * マージが失敗した場合に、書き出した一時ファイルを削除する
+		 */
+		void discard() {
+			if (this.run != null) {
+				this.run.delete();
+				this.run = null;
+			}
+			this.rows = null;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 別のスレッドで行をまとめて先読みする {@link RowReader}
+ *
+ * 読み込んだ行は一定の大きさ（バイト数の見積もり）ごとのバッチとし、最大2つのバッチを保持する（ダブルバッファ）。
+ * 一方のバッチを返している間に、もう一方のバッチを先読みする。
+ * 先読みは1バッチずつのタスクとして共有のスレッドプールで実行するため、ラン数だけスレッドを作成することはない。
+ *
+ */
+final class PrefetchingRowReader implements RowReader {
+
+	// 保持するバッチの最大数
+	private static final int BATCHES = 2;
+
+	private final RowReader in;
+	private final Executor executor;
+	private final long batchBytes;
+	private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(BATCHES);
+
+	// 以下は this で同期する
+	private boolean scheduled = false;
+	private boolean eof = false;
+	private boolean closed = false;
+
+	// 読み込み中のバッチ
+	private List<List<String>> current = Collections.emptyList();
+	private int position = 0;
+	private boolean last = false;
+	// 読み込み中のバッチの後に投げる例外
+	private IOException error = null;
+
+	/**
+	 * 作成と同時に先読みを開始する
+	 *
+	 * @param in : 読み込む入力
+	 * @param executor : 先読みを行うスレッドプール
+	 * @param batchBytes : 1バッチの大きさ（バイト数の見積もり）
+	 */
+	PrefetchingRowReader(RowReader in, Executor executor, long batchBytes) {
+		this.in = in;
+		this.executor = executor;
+		this.batchBytes = batchBytes;
+		schedule();
+	}
+
+	/**
+	 * 先読みのタスクを実行していない場合、空きがあれば次のバッチの先読みを開始する
+	 */
+	private synchronized void schedule() {
+		if (this.scheduled || this.eof || this.closed || this.queue.remainingCapacity() == 0) {
+			return;
+		}
+		this.scheduled = true;
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					fill();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// スレッドプールが終了している場合は、読み込み側へ例外を渡す
+			this.scheduled = false;
+			this.eof = true;
+			this.queue.add(new Batch(Collections.<List<String>>emptyList(), true, new IOException("read-ahead has stopped", e)));
+		}
+	}
+
+	/**
+	 * 1バッチ分の行を読み込む。読み込み中の例外は、バッチとして読み込み側へ渡す
+	 */
+	private void fill() {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		Batch batch;
+		try {
+			long bytes = 0;
+			boolean end = false;
+			while (bytes < this.batchBytes) {
+				List<String> row = this.in.read();
+				if (row == null) {
+					end = true;
+					break;
+				}
+				rows.add(row);
+				bytes += MemoryEstimator.CURRENT.row(row);
+			}
+			batch = new Batch(rows, end, null);
+		} catch (IOException e) {
+			batch = new Batch(rows, true, e);
+		} catch (RuntimeException e) {
+			batch = new Batch(rows, true, new IOException(e));
+		}
+
+		synchronized (this) {
+			// schedule() で空きを確認しているため、必ず追加できる
+			this.queue.add(batch);
+			this.eof = batch.last;
+			this.scheduled = false;
+			notifyAll();
+		}
+		schedule();
+	}
+
+	@Override
+	public List<String> read() throws IOException {
+		while (this.position == this.current.size()) {
+			if (this.error != null) {
+				throw this.error;
+			}
+			if (this.last) {
+				return null;
+			}
+			Batch batch;
+			try {
+				batch = this.queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("read-ahead was interrupted");
+			}
+			schedule();
+			this.current = batch.rows;
+			this.position = 0;
+			this.last = batch.last;
+			this.error = batch.error;
+		}
+		return this.current.get(this.position++);
+	}
+
+	/**
+	 * 実行中の先読みの終了を待ってから、入力を閉じる
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			this.closed = true;
+			boolean interrupted = false;
+			while (this.scheduled) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			this.queue.clear();
+		}
+		this.in.close();
+	}
+
+	/**
+	 * 先読みした行のまとまり
+	 */
+	private static final class Batch {
+
+		final List<List<String>> rows;
+		// 入力の最後のバッチかどうか
+		final boolean last;
+		// rows の後で発生した例外。発生していない場合は null
+		final IOException error;
+
+		Batch(List<List<String>> rows, boolean last, IOException error) {
+			this.rows = rows;
+			this.last = last;
+			this.error = error;
+		}
+	}
+}
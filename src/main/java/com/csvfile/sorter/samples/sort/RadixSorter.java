@@ -0,0 +1,246 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 正規化キー（バイト列）の安定ソート
+ *
+ * 大きな範囲は MSD 基数ソート（先頭のバイトから1バイトずつ、257個のバケットに安定に振り分ける）で分け、
+ * RADIX_THRESHOLD 行未満の範囲はマルチキークイックソート（1バイトを3分割で分ける）、
+ * INSERTION_THRESHOLD 行未満の範囲は挿入ソートでソートする。
+ * 共通の接頭辞が長いキーでも、接頭辞の各バイトは範囲ごとに1回しか見ない。
+ *
+ * キーが同じ行は元の位置の順に並べ、{@link java.util.Collections#sort} と同じ安定ソートの結果とする。
+ * 基数ソートの振り分けは安定であり、マルチキークイックソートと挿入ソートでは、キーが同じ場合に元の位置で比較する。
+ *
+ * 並列版では、PARALLEL_THRESHOLD 行以上のバケットを {@link ForkJoinPool#commonPool()} で並列にソートする。
+ *
+ */
+final class RadixSorter {
+
+	static final int RADIX_THRESHOLD = 1024;
+	static final int INSERTION_THRESHOLD = 16;
+	static final int PARALLEL_THRESHOLD = 16 * 1024;
+
+	// キーの終わりを表すバケットを含めたバケットの数
+	private static final int BUCKETS = 257;
+
+	private final byte[][] keys;
+	// 元の位置
+	private final int[] index;
+	// 振り分けの作業領域
+	private final byte[][] workKeys;
+	private final int[] workIndex;
+
+	private RadixSorter(byte[][] keys) {
+		this.keys = keys.clone();
+		this.index = new int[keys.length];
+		for (int i = 0; i < this.index.length; i++) {
+			this.index[i] = i;
+		}
+		this.workKeys = new byte[keys.length][];
+		this.workIndex = new int[keys.length];
+	}
+
+	/**
+	 * キーをソートした順に、元の位置を返す
+	 *
+	 * @param keys : 正規化キー
+	 * @param parallel : 並列にソートする場合は true
+	 * @return ソート後の i 番目のキーの、元の位置
+	 */
+	static int[] sort(byte[][] keys, boolean parallel) {
+		RadixSorter sorter = new RadixSorter(keys);
+		if (parallel && keys.length >= PARALLEL_THRESHOLD) {
+			ForkJoinPool.commonPool().invoke(sorter.new RadixTask(0, keys.length, 0));
+		} else {
+			sorter.sort(0, keys.length, 0);
+		}
+		return sorter.index;
+	}
+
+	private static int byteAt(byte[] key, int depth) {
+		return depth < key.length ? key[depth] & 0xFF : -1;
+	}
+
+	/**
+	 * [low, high) を、先頭 depth バイトが同じキーとしてソートする
+	 */
+	private void sort(int low, int high, int depth) {
+		if (high - low < RADIX_THRESHOLD) {
+			multikeyQuicksort(low, high, depth);
+			return;
+		}
+		int[] bounds = distribute(low, high, depth);
+		if (bounds == null) {
+			return;
+		}
+		int next = bounds[BUCKETS + 1] + 1;
+		for (int b = 1; b < BUCKETS; b++) {
+			if (bounds[b + 1] - bounds[b] > 1) {
+				sort(bounds[b], bounds[b + 1], next);
+			}
+		}
+	}
+
+	/**
+	 * [low, high) を depth バイト目で安定に振り分ける。全てのキーが同じバケットの場合は、次のバイトへ進んで振り分け直す
+	 *
+	 * @return バケット b の範囲を [bounds[b], bounds[b + 1]) とし、bounds[BUCKETS + 1] を振り分けたバイトの位置とする配列
+	 *		   （b = 0 はキーの終わり）。全てのキーが同じ（キーの終わりに達した）場合は null
+	 */
+	private int[] distribute(int low, int high, int depth) {
+		while (true) {
+			int[] counts = new int[BUCKETS + 1];
+			for (int i = low; i < high; i++) {
+				counts[byteAt(this.keys[i], depth) + 2]++;
+			}
+			if (counts[1] == high - low) {
+				// 全てのキーが終わった。振り分けは安定なので、元の位置の順に並んでいる
+				return null;
+			}
+			boolean single = false;
+			for (int b = 2; b <= BUCKETS; b++) {
+				if (counts[b] == high - low) {
+					single = true;
+					break;
+				}
+			}
+			if (single) {
+				// 共通の接頭辞は振り分けずに読み飛ばす
+				depth++;
+				continue;
+			}
+
+			int[] bounds = new int[BUCKETS + 2];
+			bounds[0] = low;
+			for (int b = 0; b < BUCKETS; b++) {
+				bounds[b + 1] = bounds[b] + counts[b + 1];
+			}
+			bounds[BUCKETS + 1] = depth;
+			int[] next = Arrays.copyOf(bounds, BUCKETS);
+			for (int i = low; i < high; i++) {
+				int to = next[byteAt(this.keys[i], depth) + 1]++;
+				this.workKeys[to] = this.keys[i];
+				this.workIndex[to] = this.index[i];
+			}
+			System.arraycopy(this.workKeys, low, this.keys, low, high - low);
+			System.arraycopy(this.workIndex, low, this.index, low, high - low);
+			return bounds;
+		}
+	}
+
+	/**
+	 * マルチキークイックソート。depth バイト目で3分割し、同じ値の範囲は次のバイトへ進む
+	 */
+	private void multikeyQuicksort(int low, int high, int depth) {
+		while (high - low >= INSERTION_THRESHOLD) {
+			int pivot = medianOf3(byteAt(this.keys[low], depth),
+								  byteAt(this.keys[(low + high) >>> 1], depth),
+								  byteAt(this.keys[high - 1], depth));
+			int lt = low;
+			int gt = high;
+			int i = low;
+			while (i < gt) {
+				int c = byteAt(this.keys[i], depth);
+				if (c < pivot) {
+					swap(lt++, i++);
+				} else if (c > pivot) {
+					swap(i, --gt);
+				} else {
+					i++;
+				}
+			}
+			multikeyQuicksort(low, lt, depth);
+			multikeyQuicksort(gt, high, depth);
+			if (pivot < 0) {
+				// キーが終わった範囲は全て同じキーなので、元の位置の順に並べる
+				Arrays.sort(this.index, lt, gt);
+				return;
+			}
+			low = lt;
+			high = gt;
+			depth++;
+		}
+		insertionSort(low, high, depth);
+	}
+
+	private static int medianOf3(int a, int b, int c) {
+		if (a < b) {
+			return b < c ? b : (a < c ? c : a);
+		}
+		return a < c ? a : (b < c ? c : b);
+	}
+
+	private void insertionSort(int low, int high, int depth) {
+		for (int i = low + 1; i < high; i++) {
+			for (int j = i; j > low && compare(j - 1, j, depth) > 0; j--) {
+				swap(j - 1, j);
+			}
+		}
+	}
+
+	/**
+	 * 先頭 depth バイトが同じ2つのキーを比較する。キーが同じ場合は元の位置で比較する
+	 */
+	private int compare(int i, int j, int depth) {
+		byte[] k1 = this.keys[i];
+		byte[] k2 = this.keys[j];
+		int result = Arrays.compareUnsigned(k1, Math.min(depth, k1.length), k1.length,
+											k2, Math.min(depth, k2.length), k2.length);
+		if (result == 0) {
+			result = Integer.compare(this.index[i], this.index[j]);
+		}
+		return result;
+	}
+
+	private void swap(int i, int j) {
+		byte[] key = this.keys[i];
+		this.keys[i] = this.keys[j];
+		this.keys[j] = key;
+		int position = this.index[i];
+		this.index[i] = this.index[j];
+		this.index[j] = position;
+	}
+
+	/**
+	 * 範囲を振り分け、大きなバケットを並列にソートするタスク
+	 */
+	private final class RadixTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int low;
+		private final int high;
+		private final int depth;
+
+		RadixTask(int low, int high, int depth) {
+			this.low = low;
+			this.high = high;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			int[] bounds = distribute(this.low, this.high, this.depth);
+			if (bounds == null) {
+				return;
+			}
+			int next = bounds[BUCKETS + 1] + 1;
+			List<RadixTask> tasks = new ArrayList<RadixTask>();
+			for (int b = 1; b < BUCKETS; b++) {
+				int size = bounds[b + 1] - bounds[b];
+				if (size >= PARALLEL_THRESHOLD) {
+					tasks.add(new RadixTask(bounds[b], bounds[b + 1], next));
+				} else if (size > 1) {
+					sort(bounds[b], bounds[b + 1], next);
+				}
+			}
+			invokeAll(tasks);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * マージの先読みと非同期の書き込みに使用するスレッドプール
+ *
+ * 先読みに使用するメモリの上限（{@link SortOptions#setReadAhead}）をラン数で均等に分け、
+ * 各ランは分けた大きさの半分ずつのバッチを2つまで先読みする（{@link PrefetchingRowReader}）。
+ * 出力ファイルへの書き込みは、スレッドを1つ使って非同期に行う（{@link AsyncRowWriter}）。
+ *
+ */
+final class ReadAhead implements Closeable {
+
+	/**
+	 * 1バッチの最小の大きさ
+	 */
+	static final long MIN_BATCH_BYTES = 16 * 1024;
+
+	private final ExecutorService executor;
+	private final long batchBytes;
+
+	/**
+	 * @param readAhead : 先読みに使用するメモリの上限（バイト数）
+	 * @param runs : マージするラン数
+	 */
+	ReadAhead(long readAhead, int runs) {
+		this.batchBytes = Math.max(readAhead / runs / 2, MIN_BATCH_BYTES);
+		// 先読み用のスレッドと、書き込み用のスレッド1つ
+		int threads = Math.min(runs, Runtime.getRuntime().availableProcessors());
+		this.executor = Executors.newFixedThreadPool(threads + 1);
+	}
+
+	long getBatchBytes() {
+		return this.batchBytes;
+	}
+
+	/**
+	 * 入力を先読みする {@link RowReader} を返す。先読みはすぐに開始する
+	 */
+	RowReader prefetch(RowReader in) {
+		return new PrefetchingRowReader(in, this.executor, this.batchBytes);
+	}
+
+	/**
+	 * 非同期に書き込む {@link RowWriter} を返す
+	 */
+	RowWriter writeBehind(RowWriter out) {
+		return new AsyncRowWriter(out, this.executor);
+	}
+
+	/**
+	 * スレッドプールを終了する。先読みした入力と書き込み先を閉じた後に呼び出すこと
+	 */
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+	}
+}
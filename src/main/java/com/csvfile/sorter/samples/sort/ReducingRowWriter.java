@@ -0,0 +1,120 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ソート済みの行のうち、同じキーの行を {@link Reduction} の指定に従ってまとめて書き込むクラス
+ *
+ * 同じキーの行は隣り合っているため、保持するのは現在のキーの行だけとなる。
+ * ただし {@link Duplicates#DROP_EXACT} では、現在のキーで出力した行を全て保持する。
+ *
+ */
+final class ReducingRowWriter implements RowWriter {
+
+	private final Duplicates duplicates;
+	private final List<Aggregate> aggregates;
+	private final Comparator<List<String>> comparator;
+	private final RowWriter out;
+
+	// 現在のキーの最初の行。キーの比較に使う
+	private List<String> first = null;
+	// 現在のキーについて、キーが変わったときに書き込む行。書き込む行がない場合は null
+	private List<String> pending = null;
+	// 現在のキーの集計値
+	private final String[] values;
+	// 現在のキーで書き込んだ行（DROP_EXACT の場合）
+	private final Set<List<String>> seen = new HashSet<List<String>>();
+	private long rowCount = 0;
+
+	ReducingRowWriter(Reduction reduction, Comparator<List<String>> comparator, RowWriter out) {
+		this.duplicates = reduction.getDuplicates();
+		this.aggregates = reduction.getAggregates();
+		this.comparator = comparator;
+		this.out = out;
+		this.values = new String[this.aggregates.size()];
+	}
+
+	@Override
+	public void write(List<String> row) throws IOException {
+		boolean sameKey = this.first != null && this.comparator.compare(this.first, row) == 0;
+		if (!sameKey) {
+			flushGroup();
+			this.first = row;
+			this.seen.clear();
+		}
+
+		if (!this.aggregates.isEmpty()) {
+			if (!sameKey || this.duplicates == Duplicates.LAST_PER_KEY) {
+				this.pending = row;
+			}
+			for (int i = 0; i < this.values.length; i++) {
+				String value = valueOf(row, this.aggregates.get(i).getColumn());
+				this.values[i] = sameKey ? this.aggregates.get(i).combine(this.values[i], value) : value;
+			}
+		} else if (this.duplicates == Duplicates.DROP_EXACT) {
+			if (this.seen.add(new ArrayList<String>(row))) {
+				emit(row);
+			}
+		} else if (this.duplicates == Duplicates.FIRST_PER_KEY) {
+			if (!sameKey) {
+				emit(row);
+			}
+		} else {
+			this.pending = row;
+		}
+	}
+
+	private static String valueOf(List<String> row, int column) {
+		return column < row.size() ? row.get(column) : null;
+	}
+
+	/**
+	 * 現在のキーの行を書き込む
+	 */
+	private void flushGroup() throws IOException {
+		if (this.pending == null) {
+			return;
+		}
+		List<String> row = this.pending;
+		this.pending = null;
+		if (!this.aggregates.isEmpty()) {
+			List<String> aggregated = new ArrayList<String>(row);
+			for (int i = 0; i < this.values.length; i++) {
+				Reduction.set(aggregated, this.aggregates.get(i).getColumn(), this.values[i] == null ? "" : this.values[i]);
+			}
+			row = aggregated;
+		}
+		emit(row);
+	}
+
+	private void emit(List<String> row) throws IOException {
+		this.out.write(row);
+		this.rowCount++;
+	}
+
+	/**
+	 * 現在のキーの行を書き込み、書き込み先は閉じずに終了する
+	 *
+	 * @return 書き込み先へ書き込んだ行数
+	 */
+	long finish() throws IOException {
+		flushGroup();
+		this.first = null;
+		this.seen.clear();
+		return this.rowCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			this.out.close();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 同じキーの行の扱い（{@link Duplicates}）と集計（{@link Aggregate}）の指定
+ *
+ * 一時ファイルとマージの出力には、同じキーの行を {@link ReducingRowWriter} でまとめた行を書き込む。
+ * 一時ファイルの行は何度マージしてもよいように、集計の途中の値を保持する。
+ * 行数（{@link Aggregate.Function#COUNT}）は、入力ファイルから読み込んだ行の列に1を設定しておき、
+ * 以降は合計する。
+ *
+ */
+final class Reduction {
+
+	private final Duplicates duplicates;
+	private final List<Aggregate> aggregates;
+	private final boolean counting;
+
+	private Reduction(Duplicates duplicates, List<Aggregate> aggregates) {
+		this.duplicates = duplicates;
+		this.aggregates = aggregates;
+		boolean counting = false;
+		for (Aggregate aggregate : aggregates) {
+			counting |= aggregate.getFunction() == Aggregate.Function.COUNT;
+		}
+		this.counting = counting;
+	}
+
+	/**
+	 * オプションの指定を返す
+	 *
+	 * @param options : 同じキーの行の扱いと集計、ソートキー
+	 * @return 全ての行をそのまま出力する場合は null
+	 * @throws IllegalArgumentException 集計する列がソートキーの列の場合など、指定が正しくない場合
+	 */
+	static Reduction of(SortOptions options) {
+		Duplicates duplicates = options.getDuplicates();
+		List<Aggregate> aggregates = options.getAggregates();
+		if (aggregates.isEmpty()) {
+			return duplicates == Duplicates.KEEP ? null : new Reduction(duplicates, aggregates);
+		}
+
+		if (duplicates == Duplicates.DROP_EXACT) {
+			throw new IllegalArgumentException("aggregates cannot be used with " + duplicates);
+		}
+		if (options.getSortSpec() == null) {
+			// 全ての列を比較する場合は、集計した列が順序を変えてしまう
+			throw new IllegalArgumentException("aggregates need a sort spec");
+		}
+		for (Aggregate aggregate : aggregates) {
+			for (SortKey key : options.getSortSpec().getKeys()) {
+				if (key.getColumn() == aggregate.getColumn()) {
+					throw new IllegalArgumentException("column " + aggregate.getColumn() + " is a sort key");
+				}
+			}
+		}
+		return new Reduction(duplicates == Duplicates.KEEP ? Duplicates.FIRST_PER_KEY : duplicates, aggregates);
+	}
+
+	Duplicates getDuplicates() {
+		return this.duplicates;
+	}
+
+	List<Aggregate> getAggregates() {
+		return this.aggregates;
+	}
+
+	/**
+	 * 入力ファイルから読み込む行に、行数の集計の初期値を設定する
+	 *
+	 * @param in : 入力ファイル
+	 * @return 行数を集計しない場合は in
+	 */
+	RowReader prepareInput(final RowReader in) {
+		if (!this.counting) {
+			return in;
+		}
+		return new RowReader() {
+			@Override
+			public List<String> read() throws IOException {
+				List<String> row = in.read();
+				if (row == null) {
+					return null;
+				}
+				List<String> counted = new ArrayList<String>(row);
+				for (Aggregate aggregate : Reduction.this.aggregates) {
+					if (aggregate.getFunction() == Aggregate.Function.COUNT) {
+						set(counted, aggregate.getColumn(), "1");
+					}
+				}
+				return counted;
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+
+	/**
+	 * 同じキーの行をまとめて out へ書き込む {@link ReducingRowWriter} を返す
+	 *
+	 * @param comparator : 同じキーかどうかの判定に使う比較
+	 * @param out : 書き込み先
+	 */
+	ReducingRowWriter writer(Comparator<List<String>> comparator, RowWriter out) {
+		return new ReducingRowWriter(this, comparator, out);
+	}
+
+	/**
+	 * 列に値を設定する。列が足りない場合は空の列を追加する
+	 */
+	static void set(List<String> row, int column, String value) {
+		while (row.size() <= column) {
+			row.add("");
+		}
+		row.set(column, value);
+	}
+
+	@Override
+	public String toString() {
+		return this.aggregates.isEmpty()
+				? this.duplicates.toString()
+				: this.duplicates + " " + Collections.unmodifiableList(this.aggregates);
+	}
+}
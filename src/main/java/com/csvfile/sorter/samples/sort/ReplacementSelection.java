@@ -0,0 +1,202 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 置換選択によって一時ファイル（ラン）を作成するクラス
+ *
+ * メモリ使用量の上限まで行をヒープに読み込み、最小の行を現在のランへ書き込むごとに次の行を読み込む。
+ * 読み込んだ行が最後に書き込んだ行以上であれば現在のランに、そうでなければ次のランに加える。
+ * ランダムな入力ではランの大きさはメモリ使用量の上限の約2倍となり、整列済みの入力では1つのランとなる。
+ *
+ * ヒープでは同じ値の行を読み込んだ順に並べる。また、ある行が次のランに回されるのは最後に書き込んだ行より
+ * 小さい場合だけであり、それより後に読み込んだ同じ値の行も必ず次以降のランに回される。
+ * そのため、同じ値の行は入力の順にランの番号の小さい方から並び、マージ後の出力はブロックごとのソートと同じになる。
+ *
+ * 読み込みと同時に入力ファイルが整列済みかどうかを判定する。
+ *
+ */
+final class ReplacementSelection {
+
+	private final Comparator<List<String>> comparator;
+	private final MemoryTracker tracker;
+	private final SortSession session;
+	// ヒープの1要素あたりの大きさ（行を除く）
+	private final long entryOverhead = MemoryEstimator.CURRENT.object(1, 16);
+
+	private boolean sorted = true;
+	private List<String> previous = null;
+	private long seq = 0;
+
+	ReplacementSelection(Comparator<List<String>> comparator, MemoryTracker tracker, SortSession session) {
+		this.comparator = comparator;
+		this.tracker = tracker;
+		this.session = session;
+	}
+
+	/**
+	 * 入力元からランを作成する
+	 *
+	 * @param input : 入力元
+	 * @param comparator : 行の比較
+	 * @param session : 一時ファイルを作成するソート処理
+	 * @param options : メモリ使用量の上限、入力ファイルの形式
+	 * @param stats : 選択したブロックの大きさと、入力ファイルが整列済みかどうかを設定する統計情報
+	 * @return 作成した一時ファイル
+	 */
+	static List<SortedRun> generate(SortInput input,
+									Comparator<List<String>> comparator,
+									SortSession session,
+									SortOptions options,
+									SortStats stats) throws IOException {
+
+		MemoryTracker tracker = MemoryTracker.create(input.length(), options, 1);
+		ReplacementSelection selection = new ReplacementSelection(comparator, tracker, session);
+		RowReader in = session.prepareInput(input.open(options));
+		try {
+			List<SortedRun> runs = selection.generate(in, tracker.nextBlockSize());
+			tracker.report(stats);
+			stats.setInputSorted(selection.sorted);
+			return runs;
+		} finally {
+			in.close();
+		}
+	}
+
+	private List<SortedRun> generate(RowReader in, long limit) throws IOException {
+		PriorityQueue<Entry> heap = new PriorityQueue<Entry>(1024, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e1, Entry e2) {
+				if (e1.run != e2.run) {
+					return e1.run < e2.run ? -1 : 1;
+				}
+				int result = ReplacementSelection.this.comparator.compare(e1.row, e2.row);
+				if (result == 0) {
+					result = e1.seq < e2.seq ? -1 : (e1.seq == e2.seq ? 0 : 1);
+				}
+				return result;
+			}
+		});
+
+		List<SortedRun> runs = new ArrayList<SortedRun>();
+		RunWriter out = null;
+		// out へ書き込む。同じキーの行をまとめる場合は、まとめてから out へ書き込む
+		RowWriter writer = null;
+		boolean completed = false;
+		try {
+			long bytes = 0;
+			boolean eof = false;
+			int currentRun = 0;
+			List<String> last = null;
+			// 前回通知してから読み込んだ行数と、読み込みにかかった時間
+			long readRows = 0;
+			long readNanos = 0;
+
+			while (true) {
+				// 上限まで読み込む。最初以外は、書き込んだ行の分だけ空いている
+				while (!eof && bytes < limit) {
+					long start = System.nanoTime();
+					List<String> row = read(in);
+					readNanos += System.nanoTime() - start;
+					if (row == null) {
+						eof = true;
+						break;
+					}
+					readRows++;
+					int run = last == null || this.comparator.compare(row, last) >= 0 ? currentRun : currentRun + 1;
+					Entry entry = new Entry(row, run, this.seq++, (int) Math.min(this.tracker.sizeOf(row) + this.entryOverhead, Integer.MAX_VALUE));
+					heap.add(entry);
+					bytes += entry.size;
+				}
+
+				Entry entry = heap.poll();
+				if (entry == null) {
+					break;
+				}
+				bytes -= entry.size;
+
+				if (out == null || entry.run != currentRun) {
+					if (out != null) {
+						writer.close();
+						runs.add(out.toSortedRun());
+						this.session.getMetrics().runWritten(out.toSortedRun());
+					}
+					this.session.getMetrics().read(readRows, readNanos);
+					readRows = 0;
+					readNanos = 0;
+					currentRun = entry.run;
+					out = new RunWriter(this.session, "sortInBatch", this.comparator);
+					ReducingRowWriter reducer = this.session.reducer(this.comparator, out);
+					writer = reducer != null ? reducer : out;
+				}
+				writer.write(entry.row);
+				last = entry.row;
+			}
+
+			if (out != null) {
+				writer.close();
+				runs.add(out.toSortedRun());
+				this.session.getMetrics().runWritten(out.toSortedRun());
+				out = null;
+			}
+			this.session.getMetrics().read(readRows, readNanos);
+			completed = true;
+			return runs;
+		} finally {
+			if (!completed) {
+				if (out != null) {
+					writer.close();
+					runs.add(out.toSortedRun());
+				}
+				for (SortedRun run : runs) {
+					run.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 1行読み込み、比較の準備をする。入力が整列済みかどうかも判定する
+	 */
+	private List<String> read(RowReader in) throws IOException {
+		List<String> line = in.read();
+		if (line == null) {
+			return null;
+		}
+		List<String> row = CsvFileSorter.prepare(this.comparator, line);
+		if (this.sorted) {
+			if (this.previous != null && this.comparator.compare(this.previous, row) > 0) {
+				this.sorted = false;
+				this.previous = null;
+			} else {
+				this.previous = row;
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * ヒープの要素
+	 */
+	private static final class Entry {
+
+		final List<String> row;
+		// 書き込むランの番号
+		final int run;
+		// 読み込んだ順番
+		final long seq;
+		// 行を含む大きさの見積もり
+		final int size;
+
+		Entry(List<String> row, int run, long seq, int size) {
+			this.row = row;
+			this.run = run;
+			this.seq = seq;
+			this.size = size;
+		}
+	}
+}
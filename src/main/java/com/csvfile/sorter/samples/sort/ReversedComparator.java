@@ -0,0 +1,37 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 元の比較と逆の順序とする比較
+ *
+ * 元の比較が {@link RowKeyComparator} の場合は、キーの計算（{@link #prepare}）も元の比較に任せる。
+ * 元の比較と同じ型ではないため、正規化キーは一時ファイルに書き込まない。
+ *
+ */
+final class ReversedComparator implements RowKeyComparator {
+
+	private final Comparator<List<String>> comparator;
+
+	ReversedComparator(Comparator<List<String>> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * 元の比較
+	 */
+	Comparator<List<String>> getComparator() {
+		return this.comparator;
+	}
+
+	@Override
+	public List<String> prepare(List<String> row) {
+		return CsvFileSorter.prepare(this.comparator, row);
+	}
+
+	@Override
+	public int compare(List<String> r1, List<String> r2) {
+		return this.comparator.compare(r2, r1);
+	}
+}
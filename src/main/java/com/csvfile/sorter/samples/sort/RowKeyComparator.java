@@ -0,0 +1,26 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 比較に使うキーを行ごとに事前に計算しておく比較
+ *
+ * ソート処理は、入力ファイルや一時ファイルから行を読み込んだときに1度だけ {@link #prepare} を呼び出し、
+ * 返された行をブロックのソートとマージの両方で比較に使用する。
+ * キーの解析を比較のたびに行わずに済む。
+ *
+ */
+public interface RowKeyComparator extends Comparator<List<String>> {
+
+	/**
+	 * 比較に使うキーを計算した行を返す
+	 *
+	 * 返す行は、元の行と同じ内容（同じ列数・同じ値）でなければならない。
+	 * {@link #compare} は、このメソッドを通していない行も比較できなければならない。
+	 *
+	 * @param row : 読み込んだ行
+	 * @return キーを計算した行
+	 */
+	List<String> prepare(List<String> row);
+}
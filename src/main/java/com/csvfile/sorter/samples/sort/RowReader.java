@@ -0,0 +1,19 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 行を順に読み込むためのインタフェース
+ *
+ */
+interface RowReader extends Closeable {
+
+	/**
+	 * 次の行を読み込む
+	 *
+	 * @return 読み込んだ行。終端に達した場合は null
+	 */
+	List<String> read() throws IOException;
+}
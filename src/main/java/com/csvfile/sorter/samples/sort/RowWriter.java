@@ -0,0 +1,19 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 行を順に書き込むためのインタフェース
+ *
+ */
+interface RowWriter extends Closeable {
+
+	/**
+	 * 行を書き込む
+	 *
+	 * @param row : 書き込む行
+	 */
+	void write(List<String> row) throws IOException;
+}
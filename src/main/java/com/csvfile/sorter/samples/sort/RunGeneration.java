@@ -0,0 +1,20 @@
+package com.csvfile.sorter.samples.sort;
+
+/**
+ * 入力ファイルから一時ファイル（ラン）を作成する方法
+ *
+ */
+public enum RunGeneration {
+
+	/**
+	 * 入力をメモリ使用量の上限ごとのブロックに分け、ブロックごとにソートする（従来の方法）。
+	 * ラン数は常に入力の大きさをブロックの大きさで割った数となる
+	 */
+	BLOCK_SORT,
+
+	/**
+	 * 置換選択（{@link ReplacementSelection}）。ランダムな入力ではメモリ使用量の上限の約2倍の大きさのランを作成し、
+	 * ほぼ整列済みの入力では1つのランとなる
+	 */
+	REPLACEMENT_SELECTION
+}
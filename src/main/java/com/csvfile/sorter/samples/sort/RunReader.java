@@ -0,0 +1,263 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+
+import com.csvfile.sorter.samples.serialize.CompactRowReader;
+
+/**
+ * {@link RunWriter} で書き込んだ一時ファイル（ラン）を読み込むクラス
+ *
+ * 範囲を指定した場合は、lower 以上 upper 未満の行だけを読み込む。
+ * 読み込みは lower より前の行を含む可能性がある最後のセグメントから開始するため、
+ * 範囲の前にある行を全て読み飛ばす必要はない。
+ *
+ * セグメントは {@link FileChannel} から {@link SortSession} で借りたダイレクトバッファへ読み込むか、
+ * {@link SortSession#isMappedRuns()} の場合はセグメントごとにメモリマップして読み込む。
+ *
+ */
+final class RunReader implements RowReader {
+
+	// 行の読み込みバッファの大きさ。圧縮している場合、展開済みのデータは展開のストリームが保持しているため小さくてよい
+	static final int BUFFER_SIZE = 8192;
+
+	private final SortedRun run;
+	private final FileChannel channel;
+	// 読み込みバッファ。メモリマップする場合は null
+	private final ByteBuffer buffer;
+	private final Comparator<List<String>> comparator;
+	// 一緒に書き込まれている正規化キーを使う場合の比較。使わない場合は null
+	private final NormalizedKeyComparator keys;
+	private List<String> lower;
+	private final List<String> upper;
+	private int segmentIndex;
+	private CompactRowReader segment = null;
+	private boolean finished = false;
+
+	RunReader(SortedRun run) throws IOException {
+		this(run, null, null, null);
+	}
+
+	/**
+	 * @param run : 読み込む一時ファイル
+	 * @param comparator : 読み込んだ行の比較の準備（{@link RowKeyComparator#prepare}）に使用する比較
+	 */
+	RunReader(SortedRun run, Comparator<List<String>> comparator) throws IOException {
+		this(run, comparator, null, null);
+	}
+
+	/**
+	 * @param run : 読み込む一時ファイル
+	 * @param comparator : 範囲の判定と、読み込んだ行の比較の準備に使用する比較
+	 * @param lower : 範囲の下限（この行を含む）。null の場合は先頭から
+	 * @param upper : 範囲の上限（この行を含まない）。null の場合は終端まで
+	 */
+	RunReader(SortedRun run,
+			  Comparator<List<String>> comparator,
+			  List<String> lower,
+			  List<String> upper) throws IOException {
+		this.run = run;
+		this.comparator = comparator;
+		this.keys = NormalizedKeyComparator.of(comparator);
+		this.lower = lower;
+		this.upper = upper;
+		this.segmentIndex = lower == null ? 0 : firstSegment(run, comparator, lower);
+		this.channel = FileChannel.open(run.getFile().toPath(), StandardOpenOption.READ);
+		this.buffer = run.getSession().isMappedRuns() ? null : run.getSession().acquireReadBuffer();
+	}
+
+	/**
+	 * lower と同じ値の行はセグメントの境界をまたいで並んでいる可能性があるため、
+	 * 先頭行が lower より小さい最後のセグメントを探す
+	 */
+	private static int firstSegment(SortedRun run, Comparator<List<String>> comparator, List<String> lower) {
+		List<List<String>> firstRows = run.getSegmentFirstRows();
+		int low = 0;
+		int high = firstRows.size() - 1;
+		int found = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (comparator.compare(firstRows.get(mid), lower) < 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public List<String> read() throws IOException {
+		while (!this.finished) {
+			if (this.segment == null && !openSegment()) {
+				this.finished = true;
+				break;
+			}
+
+			List<String> row = this.segment.read();
+			if (row == null) {
+				this.segment = null;
+				this.segmentIndex++;
+				continue;
+			}
+			if (this.run.isKeyed() && this.keys != null) {
+				// 一緒に書き込まれている正規化キーを使い、再計算しない
+				row = this.keys.withKey(row, this.segment.lastKey());
+			} else if (this.comparator != null) {
+				row = CsvFileSorter.prepare(this.comparator, row);
+			}
+
+			if (this.lower != null) {
+				if (this.comparator.compare(row, this.lower) < 0) {
+					continue;
+				}
+				// 一度下限に達した後は、比較する必要はない
+				this.lower = null;
+			}
+			if (this.upper != null && this.comparator.compare(row, this.upper) >= 0) {
+				this.finished = true;
+				break;
+			}
+			return row;
+		}
+		return null;
+	}
+
+	private boolean openSegment() throws IOException {
+		if (this.segmentIndex >= this.run.getSegmentCount()) {
+			return false;
+		}
+		long offset = this.run.getSegmentOffset(this.segmentIndex);
+		long length = this.run.getSegmentLength(this.segmentIndex);
+		InputStream in;
+		if (this.buffer == null && length <= Integer.MAX_VALUE) {
+			in = new MappedInputStream(this.channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+		} else {
+			in = new ChannelInputStream(this.channel, offset, length,
+										this.buffer != null ? this.buffer : ByteBuffer.allocate(BUFFER_SIZE));
+		}
+		this.segment = new CompactRowReader(this.run.getCodec().decompress(in), BUFFER_SIZE, this.run.isKeyed());
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.channel.close();
+		} finally {
+			if (this.buffer != null) {
+				this.run.getSession().release(this.buffer);
+			}
+		}
+	}
+
+	/**
+	 * メモリマップしたセグメントを読み込むストリーム
+	 */
+	private static final class MappedInputStream extends InputStream {
+
+		private final ByteBuffer mapped;
+
+		MappedInputStream(ByteBuffer mapped) {
+			this.mapped = mapped;
+		}
+
+		@Override
+		public int read() {
+			return this.mapped.hasRemaining() ? this.mapped.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!this.mapped.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, this.mapped.remaining());
+			this.mapped.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(Math.min(n, this.mapped.remaining()), 0);
+			this.mapped.position(this.mapped.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return this.mapped.remaining();
+		}
+	}
+
+	/**
+	 * セグメントの範囲だけを、位置を指定して {@link FileChannel} から読み込むストリーム
+	 *
+	 * 閉じてもファイルは閉じない。
+	 */
+	private static final class ChannelInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private long position;
+		private long remaining;
+
+		ChannelInputStream(FileChannel channel, long offset, long length, ByteBuffer buffer) {
+			this.channel = channel;
+			this.buffer = buffer;
+			this.position = offset;
+			this.remaining = length;
+			buffer.clear().limit(0);
+		}
+
+		private boolean fill() throws IOException {
+			if (this.buffer.hasRemaining()) {
+				return true;
+			}
+			if (this.remaining <= 0) {
+				return false;
+			}
+			this.buffer.clear();
+			if (this.buffer.capacity() > this.remaining) {
+				this.buffer.limit((int) this.remaining);
+			}
+			int n = this.channel.read(this.buffer, this.position);
+			if (n < 0) {
+				throw new IOException("unexpected end of run");
+			}
+			this.position += n;
+			this.remaining -= n;
+			this.buffer.flip();
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return this.buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.csvfile.sorter.samples.serialize.CompactRowWriter;
+
+/**
+ * ソート済みの行を一時ファイル（ラン）へ書き込むクラス
+ *
+ * SEGMENT_ROWS 行ごとに、独立した圧縮のストリーム（セグメント）として書き込む。
+ * 行は {@link CompactRowWriter} の形式で書き込む。
+ * 比較が {@link NormalizedKeyComparator} の場合は、各行の正規化キーも一緒に書き込む。
+ *
+ * 一時ファイルは {@link SortSession} のディレクトリに作成し、{@link SortSession} から借りた
+ * ダイレクトバッファを通して {@link FileChannel} へ書き込む。
+ * 書き込みと同時にファイル全体の CRC32 を計算する（再開できるジョブでの検証に使用する）。
+ *
+ * 圧縮とファイルへの書き込みにかかった時間は、バッファ単位で計測する。行の直列化にかかった時間は、
+ * 詳細な統計情報（{@link SortOptions#setDetailedStats}）を指定した場合だけ行ごとに計測する。
+ * 閉じたときに、計測値を {@link SortMetrics} へ渡して JFR のイベント（{@link SpillEvent}）として記録する。
+ *
+ */
+final class RunWriter implements RowWriter {
+
+	static final int SEGMENT_ROWS = 10000;
+
+	private final SortSession session;
+	private final File file;
+	private final FileChannel channel;
+	private final ChannelOutputStream out;
+	// 正規化キーを一緒に書き込む場合の比較。書き込まない場合は null
+	private final NormalizedKeyComparator keys;
+	private final Codec codec;
+	private final String prefix;
+	private final SpillEvent event = new SpillEvent();
+	// 行の直列化の時間を計測するかどうか
+	private final boolean detailed;
+	// 圧縮のストリームの呼び出しにかかった時間（その中でのファイルへの書き込みを含む）
+	private long compressionNanos = 0;
+	private long serializationNanos = 0;
+	private CompactRowWriter segment = null;
+	private int segmentRows = 0;
+	private long rowCount = 0;
+	private final List<Long> segmentOffsets = new ArrayList<Long>();
+	private final List<List<String>> segmentFirstRows = new ArrayList<List<String>>();
+
+	/**
+	 * @param session : 一時ファイルを作成するソート処理。セグメントは session の圧縮方式で圧縮する
+	 * @param prefix : 一時ファイル名の接頭辞
+	 * @param comparator : 行の比較。{@link NormalizedKeyComparator} の場合は正規化キーも書き込む
+	 */
+	RunWriter(SortSession session, String prefix, Comparator<List<String>> comparator) throws IOException {
+		this.session = session;
+		this.file = session.newRunFile(prefix);
+		this.keys = NormalizedKeyComparator.of(comparator);
+		this.codec = session.getSpillCodec();
+		this.prefix = prefix;
+		this.detailed = session.getMetrics().isDetailed();
+		this.event.begin();
+		this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.WRITE);
+		this.out = new ChannelOutputStream(this.channel, session.acquireWriteBuffer());
+	}
+
+	@Override
+	public void write(List<String> row) throws IOException {
+		long start = this.detailed ? System.nanoTime() : 0;
+		long compression = this.compressionNanos;
+		if (this.segment == null) {
+			startSegment(row);
+		}
+
+		if (this.keys != null) {
+			this.segment.write(row, this.keys.keyOf(row));
+		} else {
+			this.segment.write(row);
+		}
+		// 書き込みで作成した列の文字列を、ブロック全体を書き終えるまで残さない
+		CsvRow.release(row);
+		finishRow();
+		if (this.detailed) {
+			this.serializationNanos += System.nanoTime() - start - (this.compressionNanos - compression);
+		}
+	}
+
+	/**
+	 * {@link ArenaRunBuffer} 上の符号化済みの行を、行を作成せずに書き込む
+	 *
+	 * @param buffer : 行を格納しているバッファ
+	 * @param offset : 行の位置
+	 */
+	void writeEncoded(ArenaRunBuffer buffer, int offset) throws IOException {
+		long start = this.detailed ? System.nanoTime() : 0;
+		long compression = this.compressionNanos;
+		if (this.segment == null) {
+			startSegment(buffer.rowAt(offset, this.keys));
+		}
+		this.segment.writeEncoded(buffer.arena, offset);
+		finishRow();
+		if (this.detailed) {
+			this.serializationNanos += System.nanoTime() - start - (this.compressionNanos - compression);
+		}
+	}
+
+	private void startSegment(List<String> firstRow) throws IOException {
+		this.segmentOffsets.add(this.out.position());
+		this.segmentFirstRows.add(firstRow);
+		this.segment = new CompactRowWriter(new TimedOutputStream(this.codec.compress(this.out)),
+											CompactRowWriter.BUFFER_SIZE,
+											this.keys != null);
+	}
+
+	private void finishRow() throws IOException {
+		this.rowCount++;
+		if (++this.segmentRows == SEGMENT_ROWS) {
+			finishSegment();
+		}
+	}
+
+	private void finishSegment() throws IOException {
+		if (this.segment != null) {
+			this.segment.close();
+			this.segment = null;
+			this.segmentRows = 0;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		long compressionIoNanos;
+		try {
+			finishSegment();
+			// 最後の書き込み以外は、圧縮のストリームの中で行われる
+			compressionIoNanos = this.out.ioNanos;
+			this.out.flush();
+		} finally {
+			this.channel.close();
+			this.session.release(this.out.buffer);
+		}
+		this.event.end();
+		this.event.kind = this.prefix;
+		this.event.rows = this.rowCount;
+		this.event.bytes = this.out.bytesWritten;
+		this.event.codec = this.codec.toString();
+		this.event.compressionNanos = this.compressionNanos - compressionIoNanos;
+		this.event.serializationNanos = this.serializationNanos;
+		this.event.ioNanos = this.out.ioNanos;
+		this.session.getMetrics().spilled(this.event);
+	}
+
+	/**
+	 * 書き込んだ一時ファイルの情報を返す。{@link #close()} の後に呼び出すこと。
+	 */
+	SortedRun toSortedRun() {
+		long[] offsets = new long[this.segmentOffsets.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = this.segmentOffsets.get(i);
+		}
+		return new SortedRun(this.file, this.rowCount, offsets, this.segmentFirstRows, this.keys != null,
+							 this.codec, this.out.checksum.getValue(), this.session);
+	}
+
+	/**
+	 * 圧縮のストリームの呼び出しにかかった時間を計測するストリーム
+	 *
+	 * {@link CompactRowWriter} はバッファ単位で書き込むため、計測もバッファ単位となる。
+	 */
+	private final class TimedOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		TimedOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			long start = System.nanoTime();
+			try {
+				this.out.write(b);
+			} finally {
+				RunWriter.this.compressionNanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			try {
+				this.out.write(b, off, len);
+			} finally {
+				RunWriter.this.compressionNanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			long start = System.nanoTime();
+			try {
+				this.out.flush();
+			} finally {
+				RunWriter.this.compressionNanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			long start = System.nanoTime();
+			try {
+				this.out.close();
+			} finally {
+				RunWriter.this.compressionNanos += System.nanoTime() - start;
+			}
+		}
+	}
+
+	/**
+	 * ダイレクトバッファに溜めて {@link FileChannel} へ書き込むストリーム
+	 *
+	 * セグメントのストリームを閉じてもファイルを閉じないよう、close() では溜めた内容を書き込むだけとする。
+	 */
+	private static final class ChannelOutputStream extends OutputStream {
+
+		private final FileChannel channel;
+		final ByteBuffer buffer;
+		final CRC32 checksum = new CRC32();
+		// ファイルへの書き込みにかかった時間
+		long ioNanos = 0;
+		long bytesWritten = 0;
+
+		ChannelOutputStream(FileChannel channel, ByteBuffer buffer) {
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+
+		/**
+		 * 溜めている内容を含めた、次に書き込む位置
+		 */
+		long position() throws IOException {
+			return this.channel.position() + this.buffer.position();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!this.buffer.hasRemaining()) {
+				flush();
+			}
+			this.buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!this.buffer.hasRemaining()) {
+					flush();
+				}
+				int n = Math.min(len, this.buffer.remaining());
+				this.buffer.put(b, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.buffer.flip();
+			this.checksum.update(this.buffer.duplicate());
+			this.bytesWritten += this.buffer.remaining();
+			long start = System.nanoTime();
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.ioNanos += System.nanoTime() - start;
+			this.buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 一時ファイルを作成する前に、1ブロック分の行をメモリ上でソートする方法
+ *
+ * どの方法でも、同じ値の行は読み込んだ順のまま（{@link Collections#sort} と同じ安定ソート）となり、結果は同じになる。
+ *
+ */
+public enum SortEngine {
+
+	/**
+	 * {@link Collections#sort}（TimSort）による比較ソート（従来の方法）
+	 */
+	TIMSORT {
+		@Override
+		void sort(List<List<String>> rows, Comparator<List<String>> comparator) {
+			Collections.sort(rows, comparator);
+		}
+	},
+
+	/**
+	 * 正規化キーの MSD 基数ソート（{@link RadixSorter}）。小さな範囲はマルチキークイックソートでソートする
+	 *
+	 * 行を比較せずにキーのバイトで振り分けるため、共通の接頭辞が長い文字列のキーに向く。
+	 * 正規化キー（normalizedKeys）を使わない場合は、ソートの前に各行の正規化キーを作成する。
+	 * 詳細な統計情報（detailedStats）の比較の回数には数えない。
+	 */
+	RADIX {
+		@Override
+		void sort(List<List<String>> rows, Comparator<List<String>> comparator) {
+			radixSort(rows, comparator, false);
+		}
+	},
+
+	/**
+	 * RADIX の並列版。大きなバケットを {@link java.util.concurrent.ForkJoinPool#commonPool()} で並列にソートする
+	 */
+	PARALLEL_RADIX {
+		@Override
+		void sort(List<List<String>> rows, Comparator<List<String>> comparator) {
+			radixSort(rows, comparator, true);
+		}
+	};
+
+	/**
+	 * 行をソートする
+	 *
+	 * @param rows : ソートする行。ソートした順に並べ替える
+	 * @param comparator : 行の比較
+	 */
+	abstract void sort(List<List<String>> rows, Comparator<List<String>> comparator);
+
+	/**
+	 * 正規化キーで基数ソートする。比較から正規化キーを作れない場合（逆順の比較など）は TIMSORT でソートする
+	 */
+	private static void radixSort(List<List<String>> rows, Comparator<List<String>> comparator, boolean parallel) {
+		NormalizedKeyComparator keys = keysOf(comparator);
+		if (keys == null) {
+			TIMSORT.sort(rows, comparator);
+			return;
+		}
+		byte[][] encoded = new byte[rows.size()][];
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = keys.keyOf(rows.get(i));
+		}
+		int[] order = RadixSorter.sort(encoded, parallel);
+		List<List<String>> unsorted = new ArrayList<List<String>>(rows);
+		for (int i = 0; i < order.length; i++) {
+			rows.set(i, unsorted.get(order[i]));
+		}
+	}
+
+	/**
+	 * 比較と同じ順序になる正規化キーの比較
+	 *
+	 * @return 正規化キーで表せない比較の場合は null
+	 */
+	private static NormalizedKeyComparator keysOf(Comparator<List<String>> comparator) {
+		NormalizedKeyComparator keys = NormalizedKeyComparator.of(comparator);
+		if (keys != null) {
+			return keys;
+		}
+		if (comparator instanceof CountingComparator) {
+			comparator = ((CountingComparator) comparator).getComparator();
+		}
+		if (comparator instanceof SortSpec) {
+			return new NormalizedKeyComparator((SortSpec) comparator);
+		}
+		if (comparator == CsvFileSorter.DEFAULT_COMPARATOR) {
+			return new NormalizedKeyComparator(null);
+		}
+		return null;
+	}
+}
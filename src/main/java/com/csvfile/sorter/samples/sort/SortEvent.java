@@ -0,0 +1,65 @@
+package com.csvfile.sorter.samples.sort;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * ソート処理が正常に終わったことを表す JFR のイベント
+ *
+ * イベントの期間は、ソート処理の開始から終了までである。各フェーズの時間は {@link SortStats} と同じ。
+ *
+ */
+@Name("com.csvfile.sorter.Sort")
+@Label("Sort")
+@Category("CSV File Sorter")
+@Description("A completed external sort")
+final class SortEvent extends Event {
+
+	@Label("Input Rows")
+	long inputRows;
+
+	@Label("Output Rows")
+	long rows;
+
+	@Label("Runs")
+	int runs;
+
+	@Label("Merge Passes")
+	int mergePasses;
+
+	@Label("Block Size")
+	@DataAmount
+	long blockSize;
+
+	@Label("Spilled Bytes")
+	@DataAmount
+	long spilledBytes;
+
+	@Label("Read Time")
+	@Timespan
+	long readNanos;
+
+	@Label("Sort Time")
+	@Timespan
+	long sortNanos;
+
+	@Label("Compression Time")
+	@Timespan
+	long compressionNanos;
+
+	@Label("Serialization Time")
+	@Timespan
+	long serializationNanos;
+
+	@Label("Merge Time")
+	@Timespan
+	long mergeNanos;
+
+	@Label("Comparisons")
+	long comparisons;
+}
@@ -0,0 +1,103 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ソートする行の入力元
+ *
+ * 入力ファイルのほか、呼び出し元が渡す {@link Iterator} の行も入力とする。
+ * Iterator の行は1度しか読み込めないため、{@link #open} は1回だけ呼び出すこと。
+ *
+ */
+abstract class SortInput {
+
+	/**
+	 * 入力元の行を読み込む {@link RowReader} を開く
+	 *
+	 * @param options : 入力ファイルの形式・圧縮方式・文字コード・区切り文字
+	 */
+	abstract RowReader open(SortOptions options) throws IOException;
+
+	/**
+	 * 入力元の大きさ（バイト数）。分からない場合は0
+	 */
+	abstract long length();
+
+	/**
+	 * 入力ファイル。入力ファイルでない場合は null
+	 */
+	File getFile() {
+		return null;
+	}
+
+	/**
+	 * 入力ファイルを入力元とする
+	 */
+	static SortInput of(final File file) {
+		return new SortInput() {
+			@Override
+			RowReader open(SortOptions options) throws IOException {
+				return CsvFileSorter.openInput(file, options);
+			}
+
+			@Override
+			long length() {
+				return file.length();
+			}
+
+			@Override
+			File getFile() {
+				return file;
+			}
+		};
+	}
+
+	/**
+	 * Iterator の行を入力元とする。行はソートが終わるまで保持するため、渡した後に変更しないこと
+	 *
+	 * @param rows : ソートする行
+	 * @param source : 読み込み終わったときに閉じる、行の元になったもの。閉じるものがない場合は null
+	 */
+	static SortInput of(final Iterator<? extends List<String>> rows, final AutoCloseable source) {
+		return new SortInput() {
+			@Override
+			RowReader open(SortOptions options) {
+				return new RowReader() {
+					@Override
+					public List<String> read() {
+						if (!rows.hasNext()) {
+							return null;
+						}
+						List<String> row = rows.next();
+						if (row == null) {
+							throw new IllegalArgumentException("rows must not contain null");
+						}
+						return row;
+					}
+
+					@Override
+					public void close() throws IOException {
+						if (source == null) {
+							return;
+						}
+						try {
+							source.close();
+						} catch (IOException | RuntimeException e) {
+							throw e;
+						} catch (Exception e) {
+							throw new IOException(e);
+						}
+					}
+				};
+			}
+
+			@Override
+			long length() {
+				return 0;
+			}
+		};
+	}
+}
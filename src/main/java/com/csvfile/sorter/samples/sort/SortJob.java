@@ -0,0 +1,393 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.csvfile.sorter.samples.serialize.CompactRowReader;
+import com.csvfile.sorter.samples.serialize.CompactRowWriter;
+
+/**
+ * 途中で異常終了しても再開できるソート処理（ジョブ）の状態を、マニフェストに記録するクラス
+ *
+ * マニフェスト（{@link #MANIFEST}）には、記録済みの一時ファイルの一覧（ファイル名・行数・CRC32・
+ * セグメントの位置と先頭行・圧縮方式）と、一時ファイルの作成で読み込み済みの入力ファイルの行数を記録する。
+ * 一時ファイルの作成中は、入力の先頭から途切れずに書き終えたブロックの一時ファイルだけを記録する。
+ * 途中のマージパスでは、まとめた一時ファイルを記録してから、元の一時ファイルを削除する。
+ * マニフェストは別のファイルに書き込んでから置き換えるため、書き込み中に異常終了しても前の内容が残る。
+ *
+ * 再開時は、入力ファイル（パス・大きさ・更新日時）とオプションが記録と同じ場合に、
+ * 全ての一時ファイルの CRC32 を検証して引き継ぐ。一致しない場合は最初からやり直す。
+ *
+ */
+final class SortJob {
+
+	// マニフェストのファイル名
+	static final String MANIFEST = "manifest.properties";
+
+	// 一時ファイルの拡張子
+	private static final String RUN_SUFFIX = ".run";
+
+	// 一時ファイルの作成中
+	private static final String GENERATING = "generating";
+
+	// 一時ファイルの作成が終わり、マージ中
+	private static final String MERGING = "merging";
+
+	private final File directory;
+	private final String fingerprint;
+	// 記録済みの一時ファイル（入力の順）
+	private final List<SortedRun> runs = new ArrayList<SortedRun>();
+	// 一時ファイルの作成中は、各一時ファイルまでに読み込んだ入力ファイルの行数
+	private final List<Long> runInputRows = new ArrayList<Long>();
+	private boolean generated = false;
+	private long inputRows = 0;
+	// 書き終えたが、前のブロックが書き終わっていないため記録していない一時ファイル
+	private final Map<Integer, Block> pending = new HashMap<Integer, Block>();
+	private int nextBlock = 0;
+	private int resumedRunCount = 0;
+	private long resumedInputRows = 0;
+	private boolean completed = false;
+
+	/**
+	 * @param directory : ジョブのディレクトリ
+	 * @param file : 入力ファイル
+	 * @param options : ソートのオプション。結果に影響するオプションをマニフェストと照合する
+	 */
+	SortJob(File directory, File file, SortOptions options) {
+		this.directory = directory;
+		this.fingerprint = fingerprint(file, options);
+	}
+
+	/**
+	 * 入力ファイルとオプションを表す文字列。一時ファイルを引き継げるかどうかの判定に使う
+	 */
+	private static String fingerprint(File file, SortOptions options) {
+		return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified()
+				+ "|" + options.getInputFormat() + "|" + options.getInputCodec() + "|" + options.getCharset()
+				+ "|" + options.getDelimiter() + "|" + options.getSortSpec() + "|" + options.isNormalizedKeys()
+				+ "|" + Reduction.of(options);
+	}
+
+	/**
+	 * マニフェストを読み込み、引き継げる一時ファイルを検証する。記録していない一時ファイルは削除する
+	 *
+	 * @param session : 引き継いだ一時ファイルを管理するソート処理
+	 * @param comparator : 行の比較。セグメントの先頭行の比較の準備に使う
+	 */
+	synchronized void open(SortSession session, Comparator<List<String>> comparator) throws IOException {
+		File manifest = new File(this.directory, MANIFEST);
+		if (manifest.isFile()) {
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(manifest);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			if (this.fingerprint.equals(properties.getProperty("fingerprint"))) {
+				try {
+					restore(properties, session, comparator);
+				} catch (IOException | RuntimeException e) {
+					// 壊れている場合は最初からやり直す
+					this.runs.clear();
+					this.runInputRows.clear();
+					this.generated = false;
+					this.inputRows = 0;
+				}
+			}
+		}
+		this.resumedRunCount = this.runs.size();
+		this.resumedInputRows = this.generated ? 0 : this.inputRows;
+
+		Set<String> names = new HashSet<String>();
+		for (SortedRun run : this.runs) {
+			names.add(run.getFile().getName());
+		}
+		File[] files = this.directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(RUN_SUFFIX) && !names.contains(file.getName())) {
+					file.delete();
+				}
+			}
+		}
+		save();
+	}
+
+	private void restore(Properties properties, SortSession session, Comparator<List<String>> comparator)
+			throws IOException {
+		this.generated = MERGING.equals(properties.getProperty("stage"));
+		this.inputRows = Long.parseLong(properties.getProperty("input.rows"));
+		int count = Integer.parseInt(properties.getProperty("runs"));
+		for (int i = 0; i < count; i++) {
+			String prefix = "run." + i + ".";
+			File file = new File(this.directory, properties.getProperty(prefix + "file"));
+			long checksum = Long.parseLong(properties.getProperty(prefix + "checksum"));
+			if (!file.isFile() || checksum(file) != checksum) {
+				throw new IOException("run is missing or corrupt: " + file);
+			}
+			String[] values = properties.getProperty(prefix + "offsets").split(",");
+			long[] offsets = new long[values.length];
+			for (int j = 0; j < offsets.length; j++) {
+				offsets[j] = Long.parseLong(values[j]);
+			}
+			List<List<String>> firstRows = decode(properties.getProperty(prefix + "firstRows"));
+			for (int j = 0; j < firstRows.size(); j++) {
+				firstRows.set(j, CsvFileSorter.prepare(comparator, firstRows.get(j)));
+			}
+			this.runs.add(new SortedRun(file, Long.parseLong(properties.getProperty(prefix + "rows")), offsets, firstRows,
+										Boolean.parseBoolean(properties.getProperty(prefix + "keyed")),
+										Codec.forName(properties.getProperty(prefix + "codec")), checksum, session));
+			this.runInputRows.add(Long.parseLong(properties.getProperty(prefix + "input", "0")));
+		}
+	}
+
+	/**
+	 * 一時ファイル全体の CRC32 を計算する
+	 */
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[RunReader.BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				crc.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * 一時ファイルの作成が終わっているかどうか
+	 */
+	synchronized boolean isGenerated() {
+		return this.generated;
+	}
+
+	/**
+	 * 記録済みの一時ファイル
+	 */
+	synchronized List<SortedRun> getRuns() {
+		return new ArrayList<SortedRun>(this.runs);
+	}
+
+	/**
+	 * 再開時に引き継いだ一時ファイルの数
+	 */
+	int getResumedRunCount() {
+		return this.resumedRunCount;
+	}
+
+	/**
+	 * 再開時に、一時ファイルの作成で読み飛ばす入力ファイルの行数
+	 */
+	long getResumedInputRows() {
+		return this.resumedInputRows;
+	}
+
+	/**
+	 * 一時ファイルの作成で、1ブロックを一時ファイルに書き終えたことを記録する
+	 *
+	 * 前のブロックが全て書き終わっている場合に、マニフェストに記録する。
+	 *
+	 * @param block : 今回の実行で読み込んだブロックの番号（0から）
+	 * @param run : 書き終えた一時ファイル
+	 * @param rows : ブロックの入力ファイルの行数
+	 */
+	synchronized void checkpoint(int block, SortedRun run, long rows) throws IOException {
+		this.pending.put(block, new Block(run, rows));
+		boolean changed = false;
+		Block next;
+		while ((next = this.pending.remove(this.nextBlock)) != null) {
+			this.inputRows += next.rows;
+			this.runs.add(next.run);
+			this.runInputRows.add(this.inputRows);
+			this.nextBlock++;
+			changed = true;
+		}
+		if (changed) {
+			save();
+		}
+	}
+
+	/**
+	 * 一時ファイルの作成が終わったことを記録する
+	 *
+	 * @param all : 引き継いだ一時ファイルを含む、全ての一時ファイル（入力の順）
+	 */
+	synchronized void generated(List<SortedRun> all) throws IOException {
+		this.runs.clear();
+		this.runs.addAll(all);
+		this.runInputRows.clear();
+		this.pending.clear();
+		this.generated = true;
+		save();
+	}
+
+	/**
+	 * 途中のマージパスで、隣り合う一時ファイルを1つにまとめたことを記録する
+	 *
+	 * @param inputs : まとめた一時ファイル
+	 * @param merged : まとめた結果の一時ファイル
+	 */
+	synchronized void replace(List<SortedRun> inputs, SortedRun merged) throws IOException {
+		int index = indexOf(inputs.get(0));
+		if (index < 0 || index + inputs.size() > this.runs.size()) {
+			throw new IllegalStateException("runs are not recorded");
+		}
+		for (int i = 0; i < inputs.size(); i++) {
+			if (this.runs.get(index + i) != inputs.get(i)) {
+				throw new IllegalStateException("runs are not adjacent");
+			}
+		}
+		this.runs.subList(index, index + inputs.size()).clear();
+		this.runs.add(index, merged);
+		save();
+	}
+
+	private int indexOf(SortedRun run) {
+		for (int i = 0; i < this.runs.size(); i++) {
+			if (this.runs.get(i) == run) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 一時ファイルを記録しているかどうか。記録している一時ファイルは削除しない
+	 */
+	synchronized boolean holds(SortedRun run) {
+		return !this.completed && indexOf(run) >= 0;
+	}
+
+	/**
+	 * ソート処理が正常に終了したことを記録する
+	 */
+	synchronized void complete() {
+		this.completed = true;
+	}
+
+	synchronized boolean isCompleted() {
+		return this.completed;
+	}
+
+	/**
+	 * 一時ファイルとマニフェストを削除する。ディレクトリは空になった場合だけ削除する
+	 */
+	synchronized void delete() {
+		File[] files = this.directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(RUN_SUFFIX) || file.getName().startsWith(MANIFEST)) {
+					file.delete();
+				}
+			}
+		}
+		this.directory.delete();
+	}
+
+	/**
+	 * マニフェストを書き込む
+	 */
+	private void save() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("fingerprint", this.fingerprint);
+		properties.setProperty("stage", this.generated ? MERGING : GENERATING);
+		properties.setProperty("input.rows", String.valueOf(this.inputRows));
+		properties.setProperty("runs", String.valueOf(this.runs.size()));
+		for (int i = 0; i < this.runs.size(); i++) {
+			SortedRun run = this.runs.get(i);
+			String prefix = "run." + i + ".";
+			properties.setProperty(prefix + "file", run.getFile().getName());
+			properties.setProperty(prefix + "rows", String.valueOf(run.getRowCount()));
+			properties.setProperty(prefix + "checksum", String.valueOf(run.getChecksum()));
+			properties.setProperty(prefix + "keyed", String.valueOf(run.isKeyed()));
+			properties.setProperty(prefix + "codec", run.getCodec().getName());
+			StringBuilder offsets = new StringBuilder();
+			for (int j = 0; j < run.getSegmentCount(); j++) {
+				offsets.append(j == 0 ? "" : ",").append(run.getSegmentOffset(j));
+			}
+			properties.setProperty(prefix + "offsets", offsets.toString());
+			properties.setProperty(prefix + "firstRows", encode(run.getSegmentFirstRows()));
+			if (!this.generated) {
+				properties.setProperty(prefix + "input", String.valueOf(this.runInputRows.get(i)));
+			}
+		}
+
+		File tmp = new File(this.directory, MANIFEST + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			properties.store(out, "csvsort job");
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), new File(this.directory, MANIFEST).toPath(),
+				   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * セグメントの先頭行を、比較のためのキーを除いて {@link CompactRowWriter} の形式の Base64 にする
+	 */
+	private static String encode(List<List<String>> rows) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompactRowWriter out = new CompactRowWriter(bytes, 1024);
+		for (List<String> row : rows) {
+			while (row instanceof WrappedRow) {
+				row = ((WrappedRow) row).unwrap();
+			}
+			out.write(row);
+		}
+		out.close();
+		return Base64.getEncoder().encodeToString(bytes.toByteArray());
+	}
+
+	private static List<List<String>> decode(String value) throws IOException {
+		CompactRowReader in = new CompactRowReader(new ByteArrayInputStream(Base64.getDecoder().decode(value)), 1024);
+		List<List<String>> rows = new ArrayList<List<String>>();
+		try {
+			List<String> row;
+			while ((row = in.read()) != null) {
+				rows.add(row);
+			}
+		} finally {
+			in.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * 書き終えたブロックの一時ファイルと入力ファイルの行数
+	 */
+	private static final class Block {
+
+		final SortedRun run;
+		final long rows;
+
+		Block(SortedRun run, long rows) {
+			this.run = run;
+			this.rows = rows;
+		}
+	}
+}
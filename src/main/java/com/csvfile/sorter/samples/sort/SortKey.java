@@ -0,0 +1,144 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * ソートキー（1つの列）の指定
+ *
+ * 列の番号、型、昇順・降順、null の位置を指定する。
+ * 空文字列と、列数が足りずに存在しない列は null として扱う。
+ * 数値と日付の列は前後の空白を除いてから解析し（空白だけの値は null）、文字列の列は空白も含めて比較する。
+ * null の位置は昇順・降順に関係なく、指定した位置（先頭・末尾）となる。
+ *
+ */
+public final class SortKey {
+
+	/**
+	 * ソートの方向
+	 */
+	public enum Direction {
+		ASC, DESC
+	}
+
+	/**
+	 * null の位置
+	 */
+	public enum NullOrder {
+		NULLS_FIRST, NULLS_LAST
+	}
+
+	// 日付の書式の既定値
+	public static final String DEFAULT_DATE_PATTERN = "yyyy-MM-dd";
+
+	private final int column;
+	private final KeyType type;
+	private final Direction direction;
+	private final NullOrder nullOrder;
+	private final String datePattern;
+	private final DateTimeFormatter dateFormat;
+
+	public SortKey(int column, KeyType type) {
+		this(column, type, Direction.ASC);
+	}
+
+	public SortKey(int column, KeyType type, Direction direction) {
+		this(column, type, direction, NullOrder.NULLS_FIRST);
+	}
+
+	public SortKey(int column, KeyType type, Direction direction, NullOrder nullOrder) {
+		this(column, type, direction, nullOrder, DEFAULT_DATE_PATTERN);
+	}
+
+	/**
+	 * @param column : 列の番号（0から始まる）
+	 * @param type : 型
+	 * @param direction : 昇順・降順
+	 * @param nullOrder : null の位置
+	 * @param datePattern : 型が {@link KeyType#DATE} の場合の書式（{@link DateTimeFormatter#ofPattern}）
+	 */
+	public SortKey(int column, KeyType type, Direction direction, NullOrder nullOrder, String datePattern) {
+		if (column < 0) {
+			throw new IllegalArgumentException("column must not be negative: " + column);
+		}
+		if (type == null || direction == null || nullOrder == null || datePattern == null) {
+			throw new IllegalArgumentException("type, direction, nullOrder and datePattern must not be null");
+		}
+		this.column = column;
+		this.type = type;
+		this.direction = direction;
+		this.nullOrder = nullOrder;
+		this.datePattern = datePattern;
+		this.dateFormat = DateTimeFormatter.ofPattern(datePattern);
+	}
+
+	public int getColumn() {
+		return this.column;
+	}
+
+	public KeyType getType() {
+		return this.type;
+	}
+
+	public Direction getDirection() {
+		return this.direction;
+	}
+
+	public NullOrder getNullOrder() {
+		return this.nullOrder;
+	}
+
+	public String getDatePattern() {
+		return this.datePattern;
+	}
+
+	/**
+	 * 行からキーの値を取り出して解析する
+	 *
+	 * @param row : 行
+	 * @return キーの値。null の場合は null
+	 * @throws IllegalArgumentException 値を型に合わせて解析できない場合
+	 */
+	Comparable<?> extract(List<String> row) {
+		if (this.column >= row.size()) {
+			return null;
+		}
+		String value = row.get(this.column);
+		if (value == null) {
+			return null;
+		}
+		value = this.type.normalize(value);
+		if (value.isEmpty()) {
+			return null;
+		}
+		try {
+			return this.type.parse(value, this.dateFormat);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("column " + this.column + ": cannot parse '" + value + "' as " + this.type, e);
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("column " + this.column + ": cannot parse '" + value + "' as " + this.type, e);
+		}
+	}
+
+	/**
+	 * 解析済みのキーの値を比較する
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	int compareValues(Comparable<?> v1, Comparable<?> v2) {
+		if (v1 == null || v2 == null) {
+			if (v1 == v2) {
+				return 0;
+			}
+			boolean first = v1 == null;
+			return (this.nullOrder == NullOrder.NULLS_FIRST) == first ? -1 : 1;
+		}
+		int result = ((Comparable) v1).compareTo(v2);
+		return this.direction == Direction.ASC ? result : -result;
+	}
+
+	@Override
+	public String toString() {
+		return "column " + this.column + " " + this.type + " " + this.direction + " " + this.nullOrder;
+	}
+}
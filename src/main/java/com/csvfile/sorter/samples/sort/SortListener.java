@@ -0,0 +1,58 @@
+package com.csvfile.sorter.samples.sort;
+
+/**
+ * ソート処理の進み具合を受け取るリスナー
+ *
+ * {@link SortOptions#setListener} で設定する。必要なメソッドだけを実装すればよい。
+ * リスナーはソート処理のスレッドで呼び出されるため、時間のかかる処理は行わないこと。
+ * 並列に一時ファイルの作成やマージを行う場合は、複数のスレッドから同時に呼び出される。
+ *
+ */
+public interface SortListener {
+
+	/**
+	 * 入力元から1ブロック分の行を読み込んだ
+	 *
+	 * @param rows : これまでに読み込んだ行数の合計
+	 * @param nanos : これまでの読み込みと解析にかかった時間の合計（ナノ秒）
+	 */
+	default void inputRead(long rows, long nanos) {
+	}
+
+	/**
+	 * 入力元から一時ファイル（ラン）を1つ作成した
+	 *
+	 * @param runs : これまでに作成した一時ファイルの数
+	 * @param rows : 作成した一時ファイルの行数
+	 * @param bytes : 作成した一時ファイルの大きさ（バイト数）
+	 */
+	default void runWritten(int runs, long rows, long bytes) {
+	}
+
+	/**
+	 * 並列マージ（{@link SortOptions#setMergeParallelism}）で、1つの範囲のマージが終わった
+	 *
+	 * 範囲を連結して1つの出力ファイルとする場合は、出力ファイルへの書き込みが終わる前に呼び出すことがある。
+	 *
+	 * @param partition : 範囲の番号
+	 * @param rows : 範囲の行数
+	 */
+	default void rangeMerged(int partition, long rows) {
+	}
+
+	/**
+	 * マージパスが1回終わった（最後の出力ファイルへのマージを含む）
+	 *
+	 * @param pass : マージパスの統計情報
+	 */
+	default void mergePassCompleted(MergePassStats pass) {
+	}
+
+	/**
+	 * ソート処理が正常に終わった
+	 *
+	 * @param stats : ソート処理の統計情報
+	 */
+	default void sortCompleted(SortStats stats) {
+	}
+}
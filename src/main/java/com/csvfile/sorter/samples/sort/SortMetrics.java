@@ -0,0 +1,180 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 1回のソート処理の計測値を集計するクラス
+ *
+ * {@link SortSession} ごとに1つ作成し、一時ファイルの作成（読み込み・ソート・書き込み）とマージパスの計測値を受け取る。
+ * 受け取った計測値はリスナー（{@link SortOptions#setListener}）に通知し、JFR のイベントとして記録する。
+ * 一時ファイルの作成は並列に行うことがあるため、計測値は複数のスレッドから受け取る。
+ * ソート処理が終わったら {@link #finish} で {@link SortStats} に設定する。
+ *
+ */
+final class SortMetrics {
+
+	private final SortListener listener;
+	private final boolean detailed;
+	private final SortEvent event = new SortEvent();
+
+	private final LongAdder inputRows = new LongAdder();
+	private final LongAdder readNanos = new LongAdder();
+	private final LongAdder sortNanos = new LongAdder();
+	private final LongAdder spilledRows = new LongAdder();
+	private final LongAdder spilledBytes = new LongAdder();
+	private final LongAdder compressionNanos = new LongAdder();
+	private final LongAdder serializationNanos = new LongAdder();
+	private final LongAdder spillIoNanos = new LongAdder();
+	private final AtomicInteger runs = new AtomicInteger();
+	private final List<Long> runSizes = new ArrayList<Long>();
+
+	/**
+	 * @param options : リスナーと、詳細な統計情報を計測するかどうか
+	 */
+	SortMetrics(SortOptions options) {
+		this.listener = options.getListener();
+		this.detailed = options.isDetailedStats();
+		this.event.begin();
+	}
+
+	/**
+	 * 行の直列化の時間を計測するかどうか
+	 */
+	boolean isDetailed() {
+		return this.detailed;
+	}
+
+	/**
+	 * 入力元から1ブロック分の行を読み込んだ
+	 *
+	 * @param rows : 読み込んだ行数
+	 * @param nanos : 読み込みと解析にかかった時間
+	 */
+	void read(long rows, long nanos) {
+		this.inputRows.add(rows);
+		this.readNanos.add(nanos);
+		if (this.listener != null && rows > 0) {
+			this.listener.inputRead(this.inputRows.sum(), this.readNanos.sum());
+		}
+	}
+
+	/**
+	 * 1ブロックをソートした
+	 *
+	 * @param nanos : ソートにかかった時間
+	 */
+	void sorted(long nanos) {
+		this.sortNanos.add(nanos);
+	}
+
+	/**
+	 * 一時ファイルを1つ書き込んだ（途中のマージパスを含む）
+	 *
+	 * @param event : 書き込みの計測値を設定した JFR のイベント。記録する
+	 */
+	void spilled(SpillEvent event) {
+		this.spilledRows.add(event.rows);
+		this.spilledBytes.add(event.bytes);
+		this.compressionNanos.add(event.compressionNanos);
+		this.serializationNanos.add(event.serializationNanos);
+		this.spillIoNanos.add(event.ioNanos);
+		event.commit();
+	}
+
+	/**
+	 * 入力元から一時ファイルを1つ作成した
+	 */
+	void runWritten(SortedRun run) {
+		long bytes = run.getFile().length();
+		int count;
+		synchronized (this.runSizes) {
+			this.runSizes.add(bytes);
+			count = this.runs.incrementAndGet();
+		}
+		if (this.listener != null) {
+			this.listener.runWritten(count, run.getRowCount(), bytes);
+		}
+	}
+
+	/**
+	 * マージパスが1回終わった
+	 *
+	 * @param stats : パスの統計情報を追加するソート処理の統計情報
+	 * @param pass : パスの統計情報
+	 */
+	void mergePass(SortStats stats, MergePassStats pass) {
+		stats.addMergePass(pass);
+		MergePassEvent event = new MergePassEvent();
+		if (event.shouldCommit()) {
+			event.pass = pass.getPass();
+			event.inputRuns = pass.getInputRuns();
+			event.outputRuns = pass.getOutputRuns();
+			event.rows = pass.getRows();
+			event.bytesRead = pass.getBytesRead();
+			event.bytesWritten = pass.getBytesWritten();
+			event.heapDepth = pass.getHeapDepth();
+			event.mergeNanos = pass.getNanos();
+			event.commit();
+		}
+		if (this.listener != null) {
+			this.listener.mergePassCompleted(pass);
+		}
+	}
+
+	/**
+	 * 並列マージで、1つの範囲のマージが終わった
+	 *
+	 * @param partition : 範囲の番号
+	 * @param rows : 範囲の行数
+	 */
+	void rangeMerged(int partition, long rows) {
+		if (this.listener != null) {
+			this.listener.rangeMerged(partition, rows);
+		}
+	}
+
+	/**
+	 * ソート処理が正常に終わった。計測値を stats に設定し、リスナーへの通知と JFR のイベントの記録を行う
+	 *
+	 * @param stats : ソート処理の統計情報
+	 * @param comparator : ソートに使用した比較。{@link CountingComparator} の場合は比較の回数も設定する
+	 */
+	void finish(SortStats stats, Comparator<List<String>> comparator) {
+		stats.setInputRows(this.inputRows.sum());
+		stats.setReadNanos(this.readNanos.sum());
+		stats.setSortNanos(this.sortNanos.sum());
+		stats.setSpilledRows(this.spilledRows.sum());
+		stats.setSpilledBytes(this.spilledBytes.sum());
+		stats.setCompressionNanos(this.compressionNanos.sum());
+		stats.setSerializationNanos(this.serializationNanos.sum());
+		stats.setSpillIoNanos(this.spillIoNanos.sum());
+		stats.setComparisonCount(CountingComparator.countOf(comparator));
+		synchronized (this.runSizes) {
+			stats.setRunSizes(this.runSizes);
+		}
+
+		this.event.end();
+		if (this.event.shouldCommit()) {
+			this.event.inputRows = stats.getInputRows();
+			this.event.rows = stats.getRowCount();
+			this.event.runs = stats.getRunCount();
+			this.event.mergePasses = stats.getMergePassCount();
+			this.event.blockSize = stats.getBlockSize();
+			this.event.spilledBytes = stats.getSpilledBytes();
+			this.event.readNanos = stats.getReadNanos();
+			this.event.sortNanos = stats.getSortNanos();
+			this.event.compressionNanos = stats.getCompressionNanos();
+			this.event.serializationNanos = stats.getSerializationNanos();
+			this.event.mergeNanos = stats.getMergeNanos();
+			this.event.comparisons = stats.getComparisonCount();
+			this.event.commit();
+		}
+		if (this.listener != null) {
+			this.listener.sortCompleted(stats);
+		}
+	}
+}
@@ -0,0 +1,698 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ソート処理の動作を指定するオプションクラス
+ *
+ * {@link CsvFileSorter#sort(String, String, SortOptions)} に渡して使用する。
+ * 何も設定しない場合は、従来の {@link CsvFileSorter#sort(String, String)} と同じ動作となる。
+ *
+ */
+public class SortOptions implements Cloneable {
+
+	// 一時ファイルの最大数
+	private int maxTmpFiles = CsvFileSorter.DEFAULTMAXTEMPFILES;
+
+	// CSV 形式の入力ファイル・出力ファイルの文字コード
+	private Charset charset = Charset.forName("UTF-8");
+
+	// 入力ファイルの形式
+	private FileFormat inputFormat = FileFormat.SERIALIZED;
+
+	// 出力ファイルの形式
+	private FileFormat outputFormat = FileFormat.SERIALIZED;
+
+	// CSV 形式の区切り文字
+	private char delimiter = ',';
+
+	// CSV 形式で出力する場合の改行
+	private String lineSeparator = "\n";
+
+	// 一時ファイル作成（ソート・書き出し）を並列に行うスレッド数。1の場合はシングルスレッドで処理する
+	private int parallelism = 1;
+
+	// マージを値の範囲ごとに並列に行うスレッド数。1の場合はシングルスレッドでマージする
+	private int mergeParallelism = 1;
+
+	// 並列マージの結果を範囲ごとに別の出力ファイルとするかどうか
+	private boolean partitionedOutput = false;
+
+	// 1回のマージで同時に開く一時ファイルの最大数。0の場合はファイルディスクリプタと空きメモリから決める
+	private int maxFanIn = 0;
+
+	// ソートキーの指定。null の場合は全ての列を文字列として先頭から比較する
+	private SortSpec sortSpec = null;
+
+	// 正規化キー（バイト列）で比較するかどうか
+	private boolean normalizedKeys = false;
+
+	// 一時ファイル作成中にメモリ上に保持する行の合計の上限（バイト数）。0の場合は最大ヒープサイズから決める
+	private long memoryBudget = 0;
+
+	// 一時ファイル作成中の行を、行ごとのオブジェクトではなく1つのバイト配列に格納するかどうか
+	private boolean arenaBuffer = false;
+
+	// マージで一時ファイルを先読みするメモリの上限（バイト数）。0の場合は先読みしない
+	private long readAhead = 0;
+
+	// 出力ファイルへのマージの方法
+	private MergeEngine mergeEngine = MergeEngine.HEAP;
+
+	// 一時ファイルを作成する前の、メモリ上のソートの方法
+	private SortEngine sortEngine = SortEngine.TIMSORT;
+
+	// 一時ファイルの作成の方法
+	private RunGeneration runGeneration = RunGeneration.BLOCK_SORT;
+
+	// 入力ファイルの圧縮方式。null の場合は入力ファイルの形式の既定
+	private Codec inputCodec = null;
+
+	// 一時ファイルの圧縮方式
+	private Codec spillCodec = Codec.SNAPPY;
+
+	// 一時ファイルの圧縮方式を、入力ファイルの一部で計測して選ぶかどうか
+	private boolean autoSpillCodec = false;
+
+	// 出力ファイルの圧縮方式。null の場合は出力ファイルの形式の既定
+	private Codec outputCodec = null;
+
+	// 出力ファイルをブロックに分けて書き込む場合の、1ブロックの圧縮前の大きさ（文字数）。0の場合は分けない
+	private long outputBlockSize = 0;
+
+	// 一時ファイルを作成するディレクトリ。空の場合は java.io.tmpdir
+	private List<File> spillDirectories = Collections.emptyList();
+
+	// 一時ファイルをメモリマップして読み込むかどうか
+	private boolean mappedRuns = false;
+
+	// 再開できるジョブのディレクトリ。null の場合は再開できない
+	private File jobDirectory = null;
+
+	// 同じキーの行の扱い
+	private Duplicates duplicates = Duplicates.KEEP;
+
+	// 同じキーの行をまとめるときの集計。空の場合は集計しない
+	private List<Aggregate> aggregates = Collections.emptyList();
+
+	// 一時ファイルにソートキーの列と入力ファイル上の行の位置だけを書き込むかどうか
+	private boolean keyPointer = false;
+
+	// ソート処理の進み具合を受け取るリスナー。null の場合は通知しない
+	private SortListener listener = null;
+
+	// 比較回数と行の直列化の時間を計測するかどうか
+	private boolean detailedStats = false;
+
+	public int getMaxTmpFiles() {
+		return this.maxTmpFiles;
+	}
+
+	public void setMaxTmpFiles(int maxTmpFiles) {
+		if (maxTmpFiles < 1) {
+			throw new IllegalArgumentException("maxTmpFiles must be positive: " + maxTmpFiles);
+		}
+		this.maxTmpFiles = maxTmpFiles;
+	}
+
+	public Charset getCharset() {
+		return this.charset;
+	}
+
+	/**
+	 * CSV 形式の入力ファイル・出力ファイルの文字コードを設定する
+	 *
+	 * 一時ファイルは常に UTF-8 で書き込むため、{@link FileFormat#SERIALIZED} の場合は使用しない。
+	 *
+	 * @param charset : 文字コード
+	 */
+	public void setCharset(Charset charset) {
+		if (charset == null) {
+			throw new IllegalArgumentException("charset must not be null");
+		}
+		this.charset = charset;
+	}
+
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * 一時ファイル作成のスレッド数を設定する
+	 *
+	 * 2以上を指定した場合、入力ファイルの読み込みは1スレッドで行い、
+	 * 読み込んだブロックのソートと一時ファイルへの書き出しを指定数のスレッドで並列に行う。
+	 * 同時にメモリ上に保持するブロックは最大で parallelism + 1 個となるため、
+	 * 1ブロックあたりの大きさはシングルスレッド時のブロックサイズを parallelism + 1 で割った値となる。
+	 *
+	 * @param parallelism : スレッド数
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	public int getMergeParallelism() {
+		return this.mergeParallelism;
+	}
+
+	/**
+	 * マージのスレッド数を設定する
+	 *
+	 * 2以上を指定した場合、一時ファイルのサンプルから値の範囲を最大で mergeParallelism 個に分割し、
+	 * 範囲ごとに並列にマージする。結果はシングルスレッドでマージした場合と同じになる。
+	 *
+	 * @param mergeParallelism : スレッド数
+	 */
+	public void setMergeParallelism(int mergeParallelism) {
+		if (mergeParallelism < 1) {
+			throw new IllegalArgumentException("mergeParallelism must be positive: " + mergeParallelism);
+		}
+		this.mergeParallelism = mergeParallelism;
+	}
+
+	public boolean isPartitionedOutput() {
+		return this.partitionedOutput;
+	}
+
+	/**
+	 * 並列マージの結果を範囲ごとに別の出力ファイルとするかどうかを設定する
+	 *
+	 * true の場合、出力ファイル名に ".00000", ".00001", ... を付けたファイルへ範囲の順に出力し、
+	 * 範囲の連結は行わない。mergeParallelism が1の場合は無視する。
+	 *
+	 * @param partitionedOutput : 範囲ごとに出力する場合は true
+	 */
+	public void setPartitionedOutput(boolean partitionedOutput) {
+		this.partitionedOutput = partitionedOutput;
+	}
+
+	public int getMaxFanIn() {
+		return this.maxFanIn;
+	}
+
+	/**
+	 * 1回のマージで同時に開く一時ファイルの最大数を設定する
+	 *
+	 * 一時ファイル数がこの値を超える場合は、途中のマージパスで一時ファイルをまとめてから出力ファイルへマージする。
+	 * 0を指定した場合は、空いているファイルディスクリプタ数と空きメモリから決める。
+	 *
+	 * @param maxFanIn : 最大数。0 または 2以上
+	 */
+	public void setMaxFanIn(int maxFanIn) {
+		if (maxFanIn != 0 && maxFanIn < MergePlanner.MIN_FAN_IN) {
+			throw new IllegalArgumentException("maxFanIn must be 0 or at least " + MergePlanner.MIN_FAN_IN + ": " + maxFanIn);
+		}
+		this.maxFanIn = maxFanIn;
+	}
+
+	public long getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	/**
+	 * 一時ファイル作成中にメモリ上に保持する行の合計の上限を設定する
+	 *
+	 * 読み込んだ行の大きさは、実行中の JVM のオブジェクトのレイアウトと行の表現から見積もる。
+	 * 並列に処理する場合は、同時に保持する全てのブロックの合計がこの値に収まるようにする。
+	 * ヒープの空きが足りない場合は、この値より小さいブロックで一時ファイルを作成する。
+	 *
+	 * 0を指定した場合は最大ヒープサイズの半分とし、一時ファイル数が maxTmpFiles 程度に収まるようにする。
+	 *
+	 * @param memoryBudget : 上限のバイト数。0 または正の値
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		if (memoryBudget < 0) {
+			throw new IllegalArgumentException("memoryBudget must not be negative: " + memoryBudget);
+		}
+		this.memoryBudget = memoryBudget;
+	}
+
+	public boolean isArenaBuffer() {
+		return this.arenaBuffer;
+	}
+
+	/**
+	 * 一時ファイル作成中の行を、1つの大きなバイト配列（アリーナ）に格納するかどうかを設定する
+	 *
+	 * true の場合、読み込んだ行は正規化キーと一緒にバイト配列へ追記し、行ごとの List と String を保持しない。
+	 * 同じメモリ使用量の上限でも1ブロックに格納できる行数が増え、GC の負荷も小さくなる。
+	 * ソートは (正規化キーの先頭8バイト, 位置) の組の配列で行うため、normalizedKeys の指定に関わらず
+	 * 正規化キーを作成する。出力結果は false の場合と同じになる。
+	 *
+	 * @param arenaBuffer : バイト配列に格納する場合は true
+	 */
+	public void setArenaBuffer(boolean arenaBuffer) {
+		this.arenaBuffer = arenaBuffer;
+	}
+
+	public long getReadAhead() {
+		return this.readAhead;
+	}
+
+	/**
+	 * マージで一時ファイルを先読みするメモリの上限を設定する
+	 *
+	 * 0より大きい場合、出力ファイルへのマージでは各一時ファイルを別のスレッドで先読みし、
+	 * 出力ファイルへの書き込みも別のスレッドで行う。マージするスレッドは行の比較だけを行う。
+	 * 上限は一時ファイル数で均等に分け、各一時ファイルは分けた大きさの半分ずつを2つまで先読みする。
+	 *
+	 * 並列マージ（mergeParallelism が2以上）の場合は使用しない。
+	 *
+	 * @param readAhead : 上限のバイト数。0の場合は先読みしない
+	 */
+	public void setReadAhead(long readAhead) {
+		if (readAhead < 0) {
+			throw new IllegalArgumentException("readAhead must not be negative: " + readAhead);
+		}
+		this.readAhead = readAhead;
+	}
+
+	public MergeEngine getMergeEngine() {
+		return this.mergeEngine;
+	}
+
+	/**
+	 * 出力ファイルへのマージの方法を設定する
+	 *
+	 * 並列マージ（mergeParallelism が2以上）の場合は、各範囲のマージに使用する。
+	 * どの方法でも出力結果は同じになる。
+	 *
+	 * @param mergeEngine : マージの方法
+	 */
+	public void setMergeEngine(MergeEngine mergeEngine) {
+		if (mergeEngine == null) {
+			throw new IllegalArgumentException("mergeEngine must not be null");
+		}
+		this.mergeEngine = mergeEngine;
+	}
+
+	public SortEngine getSortEngine() {
+		return this.sortEngine;
+	}
+
+	/**
+	 * 一時ファイルを作成する前に、1ブロック分の行をメモリ上でソートする方法を設定する
+	 *
+	 * 行を1つのバイト配列に格納する場合（arenaBuffer）と、置換選択で一時ファイルを作成する場合は使用しない。
+	 * どの方法でも出力結果は同じになる。
+	 *
+	 * @param sortEngine : メモリ上のソートの方法
+	 */
+	public void setSortEngine(SortEngine sortEngine) {
+		if (sortEngine == null) {
+			throw new IllegalArgumentException("sortEngine must not be null");
+		}
+		this.sortEngine = sortEngine;
+	}
+
+	public RunGeneration getRunGeneration() {
+		return this.runGeneration;
+	}
+
+	/**
+	 * 入力ファイルから一時ファイルを作成する方法を設定する
+	 *
+	 * {@link RunGeneration#REPLACEMENT_SELECTION} の場合は1つのスレッドで作成し、parallelism と arenaBuffer は使用しない。
+	 * 入力ファイルが整列済みで、入力ファイルと出力ファイルが同じ形式の場合はマージを行わず、
+	 * 入力ファイルをそのまま書き写す（CSV の場合、囲み文字と改行も入力ファイルのままとなる）。
+	 *
+	 * @param runGeneration : 一時ファイルの作成の方法
+	 */
+	public void setRunGeneration(RunGeneration runGeneration) {
+		if (runGeneration == null) {
+			throw new IllegalArgumentException("runGeneration must not be null");
+		}
+		this.runGeneration = runGeneration;
+	}
+
+	/**
+	 * 入力ファイルの圧縮方式。指定していない場合は入力ファイルの形式の既定（{@link FileFormat#defaultCodec()}）
+	 */
+	public Codec getInputCodec() {
+		return this.inputCodec != null ? this.inputCodec : this.inputFormat.defaultCodec();
+	}
+
+	/**
+	 * 入力ファイルの圧縮方式を設定する
+	 *
+	 * @param inputCodec : 圧縮方式。null の場合は入力ファイルの形式の既定
+	 */
+	public void setInputCodec(Codec inputCodec) {
+		this.inputCodec = inputCodec;
+	}
+
+	public Codec getSpillCodec() {
+		return this.spillCodec;
+	}
+
+	/**
+	 * 一時ファイルの圧縮方式を設定する
+	 *
+	 * 高速なディスクでは圧縮しない方が（{@link Codec#NONE}）、低速なディスクやネットワーク上の
+	 * ファイルシステムでは圧縮率の高い方式（{@link Codec#zstd(int)}）の方が速くなることがある。
+	 * autoSpillCodec が true の場合は使用しない。
+	 *
+	 * @param spillCodec : 圧縮方式
+	 */
+	public void setSpillCodec(Codec spillCodec) {
+		if (spillCodec == null) {
+			throw new IllegalArgumentException("spillCodec must not be null");
+		}
+		this.spillCodec = spillCodec;
+	}
+
+	public boolean isAutoSpillCodec() {
+		return this.autoSpillCodec;
+	}
+
+	/**
+	 * 一時ファイルの圧縮方式を自動で選ぶかどうかを設定する
+	 *
+	 * true の場合、入力ファイルの先頭の行で各方式の圧縮・展開の速さと圧縮率を計測し、
+	 * 一時ファイルのディレクトリへの書き込みの速さと合わせて、書き込みと読み込みにかかる時間が
+	 * 最も短い方式を選ぶ。選んだ方式は {@link SortStats#getSpillCodec()} で確認できる。
+	 *
+	 * @param autoSpillCodec : 自動で選ぶ場合は true
+	 */
+	public void setAutoSpillCodec(boolean autoSpillCodec) {
+		this.autoSpillCodec = autoSpillCodec;
+	}
+
+	/**
+	 * 出力ファイルの圧縮方式。指定していない場合は出力ファイルの形式の既定（{@link FileFormat#defaultCodec()}）
+	 */
+	public Codec getOutputCodec() {
+		return this.outputCodec != null ? this.outputCodec : this.outputFormat.defaultCodec();
+	}
+
+	/**
+	 * 出力ファイルの圧縮方式を設定する
+	 *
+	 * @param outputCodec : 圧縮方式。null の場合は出力ファイルの形式の既定
+	 */
+	public void setOutputCodec(Codec outputCodec) {
+		this.outputCodec = outputCodec;
+	}
+
+	public long getOutputBlockSize() {
+		return this.outputBlockSize;
+	}
+
+	/**
+	 * 出力ファイルを、独立した圧縮のストリーム（ブロック）に分けて書き込むかどうかと、1ブロックの大きさを設定する
+	 *
+	 * 1以上の場合、各ブロックは圧縮前の大きさ（行の文字数で見積もる）がおおよそ outputBlockSize となり、出力ファイル名に ".idx" を付けたファイルに
+	 * ブロックごとの先頭の行・位置・行数のインデックスを書き込む。{@link IndexedSortedFile} で、キーを指定して
+	 * 出力ファイルの途中から読み込める。出力ファイルの形式・圧縮方式は outputFormat・outputCodec に従い、
+	 * ブロックに分けない場合と同じように、ソート・マージの入力としても先頭から読み込める。
+	 *
+	 * @param outputBlockSize : 1ブロックの圧縮前の大きさ（文字数）。0の場合はブロックに分けない
+	 */
+	public void setOutputBlockSize(long outputBlockSize) {
+		if (outputBlockSize < 0) {
+			throw new IllegalArgumentException("outputBlockSize must not be negative: " + outputBlockSize);
+		}
+		this.outputBlockSize = outputBlockSize;
+	}
+
+	public List<File> getSpillDirectories() {
+		return this.spillDirectories;
+	}
+
+	/**
+	 * 一時ファイルを作成するディレクトリを設定する
+	 *
+	 * 複数指定した場合は、一時ファイルを作成するたびに順番に（ラウンドロビンで）ディレクトリを変え、
+	 * 読み書きを複数のディスクに分散する。各ディレクトリにはソート処理ごとの専用のディレクトリを作成し、
+	 * ソート処理の終了時に中身ごと削除する。
+	 *
+	 * @param spillDirectories : 存在するディレクトリ。空の場合は java.io.tmpdir
+	 */
+	public void setSpillDirectories(List<File> spillDirectories) {
+		if (spillDirectories == null) {
+			throw new IllegalArgumentException("spillDirectories must not be null");
+		}
+		List<File> directories = new ArrayList<File>(spillDirectories);
+		for (File directory : directories) {
+			if (directory == null || !directory.isDirectory()) {
+				throw new IllegalArgumentException("not a directory: " + directory);
+			}
+		}
+		this.spillDirectories = Collections.unmodifiableList(directories);
+	}
+
+	public boolean isMappedRuns() {
+		return this.mappedRuns;
+	}
+
+	/**
+	 * 一時ファイルをメモリマップして読み込むかどうかを設定する
+	 *
+	 * true の場合、マージでは一時ファイルのセグメントごとにメモリマップし、読み込みバッファを使わない。
+	 * false の場合はダイレクトバッファへ読み込む。書き込みはどちらの場合もダイレクトバッファを使う。
+	 *
+	 * @param mappedRuns : メモリマップする場合は true
+	 */
+	public void setMappedRuns(boolean mappedRuns) {
+		this.mappedRuns = mappedRuns;
+	}
+
+	public File getJobDirectory() {
+		return this.jobDirectory;
+	}
+
+	/**
+	 * ソート処理を、途中で異常終了しても再開できるジョブとして行うように設定する
+	 *
+	 * 一時ファイルは spillDirectories ではなくこのディレクトリに作成し、作成した一時ファイル
+	 * （行数・CRC32・読み込み済みの入力ファイルの行数）をマニフェストに記録する。
+	 * 同じ入力ファイル・同じオプションで再実行すると、記録済みの一時ファイルを検証して引き継ぎ、
+	 * 一時ファイルの作成の続き（またはマージ）から再開する。正常に終了した場合は一時ファイルとマニフェストを削除する。
+	 * {@link CsvFileSorter#sort(String, String, SortOptions)} でのみ使用できる。
+	 *
+	 * @param jobDirectory : ジョブのディレクトリ（存在しない場合は作成する）。null の場合は再開できない
+	 */
+	public void setJobDirectory(File jobDirectory) {
+		if (jobDirectory != null && jobDirectory.isFile()) {
+			throw new IllegalArgumentException("not a directory: " + jobDirectory);
+		}
+		this.jobDirectory = jobDirectory;
+	}
+
+	public Duplicates getDuplicates() {
+		return this.duplicates;
+	}
+
+	/**
+	 * 同じキーの行（比較が同じ行）の扱いを設定する
+	 *
+	 * 一時ファイルへの書き込みとマージで適用するため、ソート後に別のパスで重複を除く必要はない。
+	 * {@link Duplicates#KEEP} 以外の場合は、入力ファイルが整列済みでも入力ファイルを書き写さずにマージする。
+	 *
+	 * @param duplicates : 同じキーの行の扱い
+	 */
+	public void setDuplicates(Duplicates duplicates) {
+		if (duplicates == null) {
+			throw new IllegalArgumentException("duplicates must not be null");
+		}
+		this.duplicates = duplicates;
+	}
+
+	public List<Aggregate> getAggregates() {
+		return this.aggregates;
+	}
+
+	/**
+	 * 同じキーの行を1行にまとめて集計するように設定する
+	 *
+	 * 指定した場合、同じキーの行は最初の行（duplicates が {@link Duplicates#LAST_PER_KEY} の場合は最後の行）に
+	 * 集計した値を書き込んだ1行となる。ソートキー（sortSpec）の指定が必要で、ソートキーの列は集計できない。
+	 * duplicates が {@link Duplicates#DROP_EXACT} の場合は使用できない。
+	 *
+	 * @param aggregates : 集計の指定。指定しない場合は集計しない
+	 */
+	public void setAggregates(Aggregate... aggregates) {
+		List<Aggregate> list = new ArrayList<Aggregate>();
+		for (Aggregate aggregate : aggregates) {
+			if (aggregate == null) {
+				throw new IllegalArgumentException("aggregate must not be null");
+			}
+			list.add(aggregate);
+		}
+		this.aggregates = Collections.unmodifiableList(list);
+	}
+
+	public SortSpec getSortSpec() {
+		return this.sortSpec;
+	}
+
+	/**
+	 * ソートキーを設定する
+	 *
+	 * 指定しない場合（null の場合）は、全ての列を文字列として先頭から比較する。
+	 *
+	 * @param sortSpec : ソートキー
+	 */
+	public void setSortSpec(SortSpec sortSpec) {
+		this.sortSpec = sortSpec;
+	}
+
+	public boolean isNormalizedKeys() {
+		return this.normalizedKeys;
+	}
+
+	/**
+	 * 正規化キーで比較するかどうかを設定する
+	 *
+	 * true の場合、行を読み込んだときにキーの列を順序を保ったバイト列へ1度だけ変換し、
+	 * ブロックのソートとマージはバイト列の比較だけで行う。バイト列は一時ファイルにも書き込む。
+	 * ソート結果は false の場合と同じになる。
+	 *
+	 * @param normalizedKeys : 正規化キーで比較する場合は true
+	 */
+	public void setNormalizedKeys(boolean normalizedKeys) {
+		this.normalizedKeys = normalizedKeys;
+	}
+
+	public FileFormat getInputFormat() {
+		return this.inputFormat;
+	}
+
+	public void setInputFormat(FileFormat inputFormat) {
+		if (inputFormat == null) {
+			throw new IllegalArgumentException("inputFormat must not be null");
+		}
+		this.inputFormat = inputFormat;
+	}
+
+	public FileFormat getOutputFormat() {
+		return this.outputFormat;
+	}
+
+	public void setOutputFormat(FileFormat outputFormat) {
+		if (outputFormat == null) {
+			throw new IllegalArgumentException("outputFormat must not be null");
+		}
+		this.outputFormat = outputFormat;
+	}
+
+	public char getDelimiter() {
+		return this.delimiter;
+	}
+
+	/**
+	 * CSV 形式の区切り文字を設定する
+	 *
+	 * @param delimiter : 区切り文字。ASCII の文字で、" と改行以外
+	 */
+	public void setDelimiter(char delimiter) {
+		if (delimiter >= 0x80 || delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+			throw new IllegalArgumentException("invalid delimiter: " + delimiter);
+		}
+		this.delimiter = delimiter;
+	}
+
+	public String getLineSeparator() {
+		return this.lineSeparator;
+	}
+
+	/**
+	 * CSV 形式で出力する場合の改行を設定する。読み込みでは LF・CRLF・CR のいずれも改行とする
+	 *
+	 * @param lineSeparator : 改行（"\n" または "\r\n" など）
+	 */
+	public void setLineSeparator(String lineSeparator) {
+		if (lineSeparator == null || lineSeparator.isEmpty()) {
+			throw new IllegalArgumentException("lineSeparator must not be empty");
+		}
+		this.lineSeparator = lineSeparator;
+	}
+
+	public SortListener getListener() {
+		return this.listener;
+	}
+
+	/**
+	 * ソート処理の進み具合を受け取るリスナーを設定する
+	 *
+	 * 並列に一時ファイルを作成する場合、リスナーは複数のスレッドから呼び出される。
+	 *
+	 * @param listener : リスナー。null の場合は通知しない
+	 */
+	public void setListener(SortListener listener) {
+		this.listener = listener;
+	}
+
+	public boolean isDetailedStats() {
+		return this.detailedStats;
+	}
+
+	/**
+	 * 比較回数と、一時ファイルへの書き込みでの行の直列化の時間も計測するかどうかを設定する
+	 *
+	 * 比較と行の書き込みのたびに計測するため、ソートが遅くなる。
+	 * false の場合、{@link SortStats#getComparisonCount()} と {@link SortStats#getSerializationNanos()} は0となる。
+	 *
+	 * @param detailedStats : 計測する場合は true
+	 */
+	public void setDetailedStats(boolean detailedStats) {
+		this.detailedStats = detailedStats;
+	}
+
+	public boolean isKeyPointer() {
+		return this.keyPointer;
+	}
+
+	/**
+	 * キーとポインタによるソートを行うかどうかを設定する
+	 *
+	 * true の場合、一時ファイルには各行のソートキーの列と、入力ファイル上の行の位置・長さだけを書き込み、
+	 * ソートとマージはそれらに対して行う。最後のマージでソート順の行の位置を集め、入力ファイルを位置の順に読んで
+	 * 行を取り出す。列が多くソートキーの列が少ない場合に、一時ファイルの読み書きを大きく減らせる。
+	 *
+	 * 入力ファイルは圧縮していない CSV 形式で、文字コードは ASCII と互換性があり、ソートキー（sortSpec）の指定が必要である。
+	 * 同じキーの行の扱い（duplicates）・集計（aggregates）・再開できるジョブ（jobDirectory）・範囲ごとの出力（partitionedOutput）
+	 * とは一緒に指定できない。{@link CsvFileSorter#sort(String, String, SortOptions)} でのみ使用できる。
+	 *
+	 * @param keyPointer : キーとポインタによるソートを行う場合は true
+	 */
+	public void setKeyPointer(boolean keyPointer) {
+		this.keyPointer = keyPointer;
+	}
+
+	/**
+	 * ソートキーだけを変更したオプションの複製
+	 *
+	 * @param sortSpec : ソートキー
+	 */
+	SortOptions withSortSpec(SortSpec sortSpec) {
+		SortOptions options = copy();
+		options.setSortSpec(sortSpec);
+		return options;
+	}
+
+	/**
+	 * 出力ファイルの形式・圧縮方式を、入力ファイルの形式・圧縮方式としたオプションの複製。以前の出力ファイルを読み込むときに使用する
+	 */
+	SortOptions forReadingOutput() {
+		SortOptions options = copy();
+		options.setInputFormat(this.outputFormat);
+		options.setInputCodec(getOutputCodec());
+		return options;
+	}
+
+	private SortOptions copy() {
+		try {
+			return (SortOptions) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
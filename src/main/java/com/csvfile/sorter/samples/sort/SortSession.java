@@ -0,0 +1,313 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1回のソート処理で作成する一時ファイルを管理するクラス
+ *
+ * 一時ファイルのディレクトリ（{@link SortOptions#getSpillDirectories()}）ごとにこのソート処理専用の
+ * ディレクトリを作成し、一時ファイルはそれらのディレクトリに順番に（ラウンドロビンで）作成する。
+ * {@link #close()} で専用のディレクトリを中身ごと削除する。close() を呼ばずに JVM が終了する場合も、
+ * シャットダウンフックで削除する。
+ *
+ * 一時ファイルの読み書きに使用するダイレクトバッファも、このソート処理の間だけ使い回す。
+ * ソート処理の計測値は {@link SortMetrics} に集める。
+ *
+ * 再開できるジョブ（{@link SortOptions#setJobDirectory}）の場合は、一時ファイルをジョブのディレクトリに作成し、
+ * 異常終了時に削除しないようシャットダウンフックを使わない。一時ファイルは {@link SortJob} が正常に終了した
+ * 場合にだけ、{@link #close()} で削除する。
+ *
+ */
+final class SortSession implements Closeable {
+
+	// 一時ファイルへの書き込みバッファの大きさ
+	static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+	// 一時ファイルからの読み込みバッファの大きさ（メモリマップしない場合）
+	static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final List<File> directories;
+	private final AtomicInteger next = new AtomicInteger();
+	private Codec spillCodec;
+	private final boolean mappedRuns;
+	private final Reduction reduction;
+	private final SortMetrics metrics;
+	// 再開できるジョブの場合のジョブ。それ以外は null
+	private SortJob job = null;
+	private final boolean durable;
+	private final Queue<ByteBuffer> writeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final Queue<ByteBuffer> readBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final Thread shutdownHook;
+	private boolean closed = false;
+
+	/**
+	 * @param options : 一時ファイルのディレクトリ、メモリマップで読み込むかどうか、同じキーの行の扱い
+	 * @param spillCodec : 一時ファイルの圧縮方式
+	 */
+	SortSession(SortOptions options, Codec spillCodec) throws IOException {
+		Reduction reduction = Reduction.of(options);
+		this.spillCodec = spillCodec;
+		this.mappedRuns = options.isMappedRuns();
+		this.reduction = reduction;
+		this.metrics = new SortMetrics(options);
+
+		this.durable = options.getJobDirectory() != null;
+		if (this.durable) {
+			Files.createDirectories(options.getJobDirectory().toPath());
+			this.directories = Collections.singletonList(options.getJobDirectory());
+			this.shutdownHook = null;
+			return;
+		}
+
+		List<File> parents = options.getSpillDirectories();
+		if (parents.isEmpty()) {
+			parents = Collections.singletonList(new File(System.getProperty("java.io.tmpdir")));
+		}
+		List<File> created = new ArrayList<File>();
+		try {
+			for (File parent : parents) {
+				created.add(Files.createTempDirectory(parent.toPath(), "csvsort").toFile());
+			}
+		} catch (IOException e) {
+			deleteAll(created);
+			throw e;
+		}
+		this.directories = Collections.unmodifiableList(created);
+
+		this.shutdownHook = new Thread("csvsort-cleanup") {
+			@Override
+			public void run() {
+				deleteAll(SortSession.this.directories);
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+	}
+
+	/**
+	 * このソート処理専用のディレクトリ
+	 */
+	List<File> getDirectories() {
+		return this.directories;
+	}
+
+	/**
+	 * 一時ファイルの圧縮方式
+	 */
+	Codec getSpillCodec() {
+		return this.spillCodec;
+	}
+
+	/**
+	 * 一時ファイルの圧縮方式を変更する。一時ファイルを作成する前に呼び出すこと
+	 */
+	void setSpillCodec(Codec spillCodec) {
+		this.spillCodec = spillCodec;
+	}
+
+	/**
+	 * 一時ファイルをメモリマップして読み込むかどうか
+	 */
+	boolean isMappedRuns() {
+		return this.mappedRuns;
+	}
+
+	/**
+	 * このソート処理の計測値
+	 */
+	SortMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * 同じキーの行をまとめるかどうか
+	 */
+	boolean isReducing() {
+		return this.reduction != null;
+	}
+
+	/**
+	 * 入力ファイルから読み込む行を、同じキーの行をまとめるための準備をした行にする
+	 */
+	RowReader prepareInput(RowReader in) {
+		if (this.job != null && this.job.getResumedInputRows() > 0 && !this.job.isGenerated()) {
+			in = skip(in, this.job.getResumedInputRows());
+		}
+		return this.reduction != null ? this.reduction.prepareInput(in) : in;
+	}
+
+	/**
+	 * 先頭の rows 行を読み飛ばす {@link RowReader} を返す
+	 */
+	private static RowReader skip(final RowReader in, final long rows) {
+		return new RowReader() {
+			private long remaining = rows;
+
+			@Override
+			public List<String> read() throws IOException {
+				while (this.remaining > 0) {
+					if (in.read() == null) {
+						throw new IOException("input has fewer rows than the job has read");
+					}
+					this.remaining--;
+				}
+				return in.read();
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+
+	/**
+	 * 同じキーの行をまとめて out へ書き込む {@link ReducingRowWriter} を返す
+	 *
+	 * @param comparator : 同じキーかどうかの判定に使う比較
+	 * @param out : 書き込み先
+	 * @return まとめない場合は null
+	 */
+	ReducingRowWriter reducer(Comparator<List<String>> comparator, RowWriter out) {
+		return this.reduction != null ? this.reduction.writer(comparator, out) : null;
+	}
+
+	/**
+	 * 再開できるジョブを開始する。記録済みの一時ファイルがある場合は検証して引き継ぐ
+	 *
+	 * @param file : 入力ファイル
+	 * @param options : ソートのオプション
+	 * @param comparator : 行の比較
+	 */
+	void openJob(File file, SortOptions options, Comparator<List<String>> comparator) throws IOException {
+		SortJob job = new SortJob(this.directories.get(0), file, options);
+		job.open(this, comparator);
+		this.job = job;
+	}
+
+	/**
+	 * 再開できるジョブ。ジョブでない場合は null
+	 */
+	SortJob getJob() {
+		return this.job;
+	}
+
+	/**
+	 * 一時ファイルの作成で、1ブロックを一時ファイルに書き終えたことをジョブに記録する
+	 *
+	 * @param block : 今回の実行で読み込んだブロックの番号（0から）
+	 * @param run : 書き終えた一時ファイル
+	 * @param rows : ブロックの入力ファイルの行数
+	 */
+	void checkpoint(int block, SortedRun run, long rows) throws IOException {
+		if (this.job != null) {
+			this.job.checkpoint(block, run, rows);
+		}
+	}
+
+	/**
+	 * 途中のマージパスで、隣り合う一時ファイルを1つにまとめたことをジョブに記録する
+	 */
+	void replaceRuns(List<SortedRun> inputs, SortedRun merged) throws IOException {
+		if (this.job != null) {
+			this.job.replace(inputs, merged);
+		}
+	}
+
+	/**
+	 * 一時ファイルをジョブが記録しているため、削除してはいけないかどうか
+	 */
+	boolean retains(SortedRun run) {
+		return this.job != null && this.job.holds(run);
+	}
+
+	/**
+	 * 一時ファイルを作成する。ディレクトリは作成するたびに順番に変える
+	 *
+	 * @param prefix : ファイル名の接頭辞
+	 * @return 作成した空のファイル
+	 */
+	File newRunFile(String prefix) throws IOException {
+		int index = Math.floorMod(this.next.getAndIncrement(), this.directories.size());
+		return Files.createTempFile(this.directories.get(index).toPath(), prefix, ".run").toFile();
+	}
+
+	/**
+	 * 書き込みバッファを借りる。使い終わったら {@link #release(ByteBuffer)} で返すこと
+	 */
+	ByteBuffer acquireWriteBuffer() {
+		return acquire(this.writeBuffers, WRITE_BUFFER_SIZE);
+	}
+
+	/**
+	 * 読み込みバッファを借りる。使い終わったら {@link #release(ByteBuffer)} で返すこと
+	 */
+	ByteBuffer acquireReadBuffer() {
+		return acquire(this.readBuffers, READ_BUFFER_SIZE);
+	}
+
+	private static ByteBuffer acquire(Queue<ByteBuffer> pool, int size) {
+		ByteBuffer buffer = pool.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(size);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * 借りたバッファを返す
+	 */
+	void release(ByteBuffer buffer) {
+		(buffer.capacity() == WRITE_BUFFER_SIZE ? this.writeBuffers : this.readBuffers).add(buffer);
+	}
+
+	/**
+	 * 残っている一時ファイルとディレクトリを削除する
+	 *
+	 * 再開できるジョブの場合は、ジョブが正常に終了した場合だけ削除する。
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.writeBuffers.clear();
+		this.readBuffers.clear();
+		if (this.durable) {
+			if (this.job != null && this.job.isCompleted()) {
+				this.job.delete();
+			}
+			return;
+		}
+		deleteAll(this.directories);
+		try {
+			Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+		} catch (IllegalStateException e) {
+			// シャットダウン中はシャットダウンフックが削除する
+		}
+	}
+
+	private static void deleteAll(List<File> directories) {
+		for (File directory : directories) {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 複数のソートキーによる比較
+ *
+ * {@link SortOptions#setSortSpec} に指定して使用する。
+ * キーは指定した順に比較し、全てのキーが同じ行は入力の順に出力する。
+ *
+ * 各行のキーは、行を読み込んだときに {@link #prepare} で1度だけ解析し、行と一緒に保持する。
+ * ブロックのソートとマージでは、解析済みのキーを比較する。
+ *
+ */
+public final class SortSpec implements RowKeyComparator {
+
+	private final SortKey[] keys;
+
+	public SortSpec(SortKey... keys) {
+		this(Arrays.asList(keys));
+	}
+
+	public SortSpec(List<SortKey> keys) {
+		if (keys.isEmpty()) {
+			throw new IllegalArgumentException("at least one sort key is required");
+		}
+		this.keys = keys.toArray(new SortKey[keys.size()]);
+	}
+
+	public List<SortKey> getKeys() {
+		return Collections.unmodifiableList(Arrays.asList(this.keys));
+	}
+
+	@Override
+	public List<String> prepare(List<String> row) {
+		if (row instanceof KeyedRow && ((KeyedRow) row).spec == this) {
+			return row;
+		}
+		return new KeyedRow(row, this, extract(row));
+	}
+
+	private Comparable<?>[] extract(List<String> row) {
+		Comparable<?>[] values = new Comparable<?>[this.keys.length];
+		for (int i = 0; i < this.keys.length; i++) {
+			values[i] = this.keys[i].extract(row);
+		}
+		return values;
+	}
+
+	private Comparable<?>[] keysOf(List<String> row) {
+		if (row instanceof KeyedRow && ((KeyedRow) row).spec == this) {
+			return ((KeyedRow) row).keys;
+		}
+		return extract(row);
+	}
+
+	@Override
+	public int compare(List<String> r1, List<String> r2) {
+		Comparable<?>[] k1 = keysOf(r1);
+		Comparable<?>[] k2 = keysOf(r2);
+		for (int i = 0; i < this.keys.length; i++) {
+			int result = this.keys[i].compareValues(k1[i], k2[i]);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return new ArrayList<SortKey>(Arrays.asList(this.keys)).toString();
+	}
+
+	/**
+	 * 解析済みのキーを保持する行
+	 *
+	 * 内容は元の行と同じであり、書き込み時には元の行として扱われる。
+	 */
+	static final class KeyedRow extends AbstractList<String> implements RandomAccess, WrappedRow {
+
+		private final List<String> row;
+		private final SortSpec spec;
+		private final Comparable<?>[] keys;
+
+		KeyedRow(List<String> row, SortSpec spec, Comparable<?>[] keys) {
+			this.row = row;
+			this.spec = spec;
+			this.keys = keys;
+		}
+
+		@Override
+		public String get(int index) {
+			return this.row.get(index);
+		}
+
+		@Override
+		public int size() {
+			return this.row.size();
+		}
+
+		@Override
+		public List<String> unwrap() {
+			return this.row;
+		}
+
+		@Override
+		public long overheadSize(MemoryEstimator estimator) {
+			// List row, SortSpec spec, Comparable[] keys
+			long size = estimator.object(3, 0) + estimator.referenceArray(this.keys.length);
+			for (int i = 0; i < this.keys.length; i++) {
+				size += estimator.key(this.keys[i]);
+			}
+			return size;
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ソート処理の統計情報
+ *
+ * {@link CsvFileSorter#sort(String, String, SortOptions)} の戻り値として返す。
+ *
+ * 時間はナノ秒で、並列に処理した場合は各スレッドの時間の合計である。
+ * 一時ファイルへの書き込みの時間（圧縮・直列化・ファイルへの書き込み）と書き込んだ行数・バイト数は、
+ * 途中のマージパスで作成した一時ファイルも含む。
+ *
+ */
+public final class SortStats {
+
+	private long rowCount = 0;
+	private long memoryBudget = 0;
+	private long blockSize = 0;
+	private long minBlockSize = 0;
+	private int runCount = 0;
+	private boolean inputSorted = false;
+	private Codec spillCodec = null;
+	private int fanIn = 0;
+	private int resumedRunCount = 0;
+	private long resumedInputRows = 0;
+	private long inputRows = 0;
+	private long readNanos = 0;
+	private long sortNanos = 0;
+	private long spilledRows = 0;
+	private long spilledBytes = 0;
+	private List<Long> runSizes = Collections.emptyList();
+	private long compressionNanos = 0;
+	private long serializationNanos = 0;
+	private long spillIoNanos = 0;
+	private long comparisonCount = 0;
+	private final List<MergePassStats> mergePasses = new ArrayList<MergePassStats>();
+
+	SortStats() {
+	}
+
+	/**
+	 * 出力した行数
+	 */
+	public long getRowCount() {
+		return this.rowCount;
+	}
+
+	void setRowCount(long rowCount) {
+		this.rowCount = rowCount;
+	}
+
+	/**
+	 * 一時ファイル作成中にメモリ上に保持する行の合計の上限（バイト数）
+	 */
+	public long getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * 選択した1ブロックの大きさ（バイト数）
+	 */
+	public long getBlockSize() {
+		return this.blockSize;
+	}
+
+	void setBlockSize(long blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * ヒープの空きに合わせて小さくした場合を含め、実際に使用した最小の1ブロックの大きさ（バイト数）
+	 */
+	public long getMinBlockSize() {
+		return this.minBlockSize;
+	}
+
+	void setMinBlockSize(long minBlockSize) {
+		this.minBlockSize = minBlockSize;
+	}
+
+	/**
+	 * 入力ファイルから作成した一時ファイル（ラン）の数
+	 */
+	public int getRunCount() {
+		return this.runCount;
+	}
+
+	void setRunCount(int runCount) {
+		this.runCount = runCount;
+	}
+
+	/**
+	 * 入力ファイルが整列済みだったかどうか
+	 *
+	 * 置換選択（{@link RunGeneration#REPLACEMENT_SELECTION}）で一時ファイルを作成した場合だけ判定する。
+	 * 整列済みで入力ファイルと出力ファイルが同じ形式の場合は、マージせずに入力ファイルを書き写す。
+	 */
+	public boolean isInputSorted() {
+		return this.inputSorted;
+	}
+
+	void setInputSorted(boolean inputSorted) {
+		this.inputSorted = inputSorted;
+	}
+
+	/**
+	 * 一時ファイルの圧縮方式。自動で選んだ場合は選んだ方式
+	 */
+	public Codec getSpillCodec() {
+		return this.spillCodec;
+	}
+
+	void setSpillCodec(Codec spillCodec) {
+		this.spillCodec = spillCodec;
+	}
+
+	/**
+	 * 1回のマージで同時に開く一時ファイルの最大数
+	 */
+	public int getFanIn() {
+		return this.fanIn;
+	}
+
+	void setFanIn(int fanIn) {
+		this.fanIn = fanIn;
+	}
+
+	/**
+	 * ジョブを再開した場合に、前回の実行から引き継いだ一時ファイルの数
+	 */
+	public int getResumedRunCount() {
+		return this.resumedRunCount;
+	}
+
+	void setResumedRunCount(int resumedRunCount) {
+		this.resumedRunCount = resumedRunCount;
+	}
+
+	/**
+	 * ジョブを再開した場合に、一時ファイルの作成で読み飛ばした入力ファイルの行数
+	 */
+	public long getResumedInputRows() {
+		return this.resumedInputRows;
+	}
+
+	void setResumedInputRows(long resumedInputRows) {
+		this.resumedInputRows = resumedInputRows;
+	}
+
+	/**
+	 * 入力元から読み込んだ行数（ジョブを再開した場合に読み飛ばした行を除く）
+	 */
+	public long getInputRows() {
+		return this.inputRows;
+	}
+
+	void setInputRows(long inputRows) {
+		this.inputRows = inputRows;
+	}
+
+	/**
+	 * 入力元の読み込みと解析（比較のためのキーの計算を含む）にかかった時間
+	 */
+	public long getReadNanos() {
+		return this.readNanos;
+	}
+
+	void setReadNanos(long readNanos) {
+		this.readNanos = readNanos;
+	}
+
+	/**
+	 * 一時ファイルを作成する前のブロックのソートにかかった時間。置換選択（{@link RunGeneration#REPLACEMENT_SELECTION}）では0
+	 */
+	public long getSortNanos() {
+		return this.sortNanos;
+	}
+
+	void setSortNanos(long sortNanos) {
+		this.sortNanos = sortNanos;
+	}
+
+	/**
+	 * 一時ファイルに書き込んだ行数
+	 */
+	public long getSpilledRows() {
+		return this.spilledRows;
+	}
+
+	void setSpilledRows(long spilledRows) {
+		this.spilledRows = spilledRows;
+	}
+
+	/**
+	 * 一時ファイルに書き込んだバイト数（圧縮後）
+	 */
+	public long getSpilledBytes() {
+		return this.spilledBytes;
+	}
+
+	void setSpilledBytes(long spilledBytes) {
+		this.spilledBytes = spilledBytes;
+	}
+
+	/**
+	 * 入力元から作成した一時ファイルの大きさ（バイト数）。作成した順に並ぶ
+	 */
+	public List<Long> getRunSizes() {
+		return this.runSizes;
+	}
+
+	void setRunSizes(List<Long> runSizes) {
+		this.runSizes = Collections.unmodifiableList(new ArrayList<Long>(runSizes));
+	}
+
+	/**
+	 * 一時ファイルへの書き込みで、圧縮にかかった時間
+	 */
+	public long getCompressionNanos() {
+		return this.compressionNanos;
+	}
+
+	void setCompressionNanos(long compressionNanos) {
+		this.compressionNanos = compressionNanos;
+	}
+
+	/**
+	 * 一時ファイルへの書き込みで、行の直列化にかかった時間。{@link SortOptions#setDetailedStats} を指定した場合だけ計測する
+	 */
+	public long getSerializationNanos() {
+		return this.serializationNanos;
+	}
+
+	void setSerializationNanos(long serializationNanos) {
+		this.serializationNanos = serializationNanos;
+	}
+
+	/**
+	 * 一時ファイルへの書き込みで、圧縮したデータをファイルへ書き込むのにかかった時間
+	 */
+	public long getSpillIoNanos() {
+		return this.spillIoNanos;
+	}
+
+	void setSpillIoNanos(long spillIoNanos) {
+		this.spillIoNanos = spillIoNanos;
+	}
+
+	/**
+	 * 行を比較した回数。{@link SortOptions#setDetailedStats} を指定した場合だけ数える
+	 *
+	 * アリーナ（{@link SortOptions#setArenaBuffer}）でのブロックのソートは、正規化キーを直接比較するため数えない。
+	 */
+	public long getComparisonCount() {
+		return this.comparisonCount;
+	}
+
+	void setComparisonCount(long comparisonCount) {
+		this.comparisonCount = comparisonCount;
+	}
+
+	/**
+	 * 全てのマージパスにかかった時間の合計
+	 */
+	public long getMergeNanos() {
+		long nanos = 0;
+		for (MergePassStats pass : this.mergePasses) {
+			nanos += pass.getNanos();
+		}
+		return nanos;
+	}
+
+	/**
+	 * マージパスの回数（最後の出力ファイルへのマージを含む）
+	 */
+	public int getMergePassCount() {
+		return this.mergePasses.size();
+	}
+
+	/**
+	 * マージパスごとの統計情報
+	 */
+	public List<MergePassStats> getMergePasses() {
+		return Collections.unmodifiableList(this.mergePasses);
+	}
+
+	void addMergePass(MergePassStats pass) {
+		this.mergePasses.add(pass);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(this.rowCount).append(" rows, ").append(this.runCount).append(" runs");
+		if (this.inputSorted) {
+			sb.append(" (input sorted)");
+		}
+		sb.append(", block size ").append(this.blockSize);
+		if (this.minBlockSize < this.blockSize) {
+			sb.append(" (min ").append(this.minBlockSize).append(')');
+		}
+		if (this.spillCodec != null) {
+			sb.append(", spill ").append(this.spillCodec);
+		}
+		if (this.resumedRunCount > 0) {
+			sb.append(", resumed ").append(this.resumedRunCount).append(" runs");
+		}
+		sb.append(", read ").append(this.readNanos / 1000000).append(" ms");
+		sb.append(", sort ").append(this.sortNanos / 1000000).append(" ms");
+		sb.append(", spilled ").append(this.spilledBytes).append(" bytes");
+		if (this.comparisonCount > 0) {
+			sb.append(", ").append(this.comparisonCount).append(" comparisons");
+		}
+		sb.append(", fan-in ").append(this.fanIn);
+		for (MergePassStats pass : this.mergePasses) {
+			sb.append(", ").append(pass);
+		}
+		return sb.toString();
+	}
+}
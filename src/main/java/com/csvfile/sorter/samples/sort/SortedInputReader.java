@@ -0,0 +1,79 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * ソート済みの入力ファイルの行を、比較の準備をして読み込む {@link RowReader}
+ *
+ * 行を読み込むごとに前の行と比較し、前の行より前に並ぶべき行があった場合は {@link UnsortedInputException} を投げる。
+ * 比較は1行につき1回だけである。
+ *
+ */
+final class SortedInputReader implements RowReader {
+
+	private final File file;
+	private final RowReader in;
+	private final Comparator<List<String>> comparator;
+	private List<String> previous = null;
+	private long rows = 0;
+
+	/**
+	 * @param file : 入力ファイル（例外のメッセージに使う）
+	 * @param in : 入力ファイルの行を読み込む {@link RowReader}
+	 * @param comparator : 入力ファイルのソートに使用した行の比較
+	 */
+	SortedInputReader(File file, RowReader in, Comparator<List<String>> comparator) {
+		this.file = file;
+		this.in = in;
+		this.comparator = comparator;
+	}
+
+	/**
+	 * 入力ファイルを開く
+	 *
+	 * @param file : 入力ファイル。存在しないか空の場合は、行を読み込まない
+	 * @param comparator : 入力ファイルのソートに使用した行の比較
+	 * @param options : 入力ファイルの形式・圧縮方式・文字コード・区切り文字
+	 */
+	static SortedInputReader open(File file, Comparator<List<String>> comparator, SortOptions options) throws IOException {
+		RowReader in;
+		if (!file.isFile() || file.length() == 0) {
+			in = new RowReader() {
+				@Override
+				public List<String> read() {
+					return null;
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		} else {
+			in = CsvFileSorter.openInput(file, options);
+		}
+		return new SortedInputReader(file, in, comparator);
+	}
+
+	@Override
+	public List<String> read() throws IOException {
+		List<String> row = this.in.read();
+		if (row == null) {
+			return null;
+		}
+		row = CsvFileSorter.prepare(this.comparator, row);
+		this.rows++;
+		if (this.previous != null && this.comparator.compare(this.previous, row) > 0) {
+			throw new UnsortedInputException(this.file, this.rows);
+		}
+		this.previous = row;
+		return row;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+}
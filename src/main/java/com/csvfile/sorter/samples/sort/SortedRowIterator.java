@@ -0,0 +1,243 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * ソートした行を順に返す {@link Iterator}
+ *
+ * 最後のマージは別のスレッドで行い、マージした行を BATCH_ROWS 行ごとのバッチとして受け取る。
+ * 受け取り待ちのバッチは最大2つとし、行の取り出しが追いつかない場合はマージを待たせる。
+ * マージで発生した例外は {@link #hasNext()}・{@link #next()} で {@link UncheckedIOException} として投げる。
+ *
+ * 全ての行を取り出すか {@link #close()} を呼び出すと、残っている一時ファイルを削除する。
+ * 途中で close() を呼び出した場合は、マージを中止する。
+ *
+ */
+public final class SortedRowIterator implements Iterator<List<String>>, Closeable {
+
+	static final int BATCH_ROWS = AsyncRowWriter.BATCH_ROWS;
+
+	// 受け取り待ちのバッチの最大数
+	private static final int BATCHES = 2;
+
+	// マージの終わりを表すバッチ
+	private static final List<List<String>> END = new ArrayList<List<String>>(0);
+
+	private final BlockingQueue<List<List<String>>> queue = new ArrayBlockingQueue<List<List<String>>>(BATCHES);
+	private final SortSession session;
+	private final SortStats stats;
+	private final Thread merger;
+	private volatile boolean closed = false;
+	private volatile IOException error = null;
+	private List<List<String>> batch = Collections.emptyList();
+	private int position = 0;
+	private boolean finished = false;
+
+	/**
+	 * 行を返さない
+	 */
+	SortedRowIterator(SortStats stats) {
+		this.session = null;
+		this.stats = stats;
+		this.merger = null;
+		this.finished = true;
+	}
+
+	/**
+	 * 一時ファイルのマージを始める
+	 *
+	 * @param files : マージする一時ファイル
+	 * @param comparator : 行の比較
+	 * @param options : マージのオプション
+	 * @param session : 一時ファイルを作成したソート処理。行を全て取り出すか close() で閉じる
+	 * @param stats : ソート処理の統計情報。マージが終わった時点で行数を設定する
+	 */
+	SortedRowIterator(final List<SortedRun> files,
+					  final Comparator<List<String>> comparator,
+					  final SortOptions options,
+					  SortSession session,
+					  final SortStats stats) {
+		this.session = session;
+		this.stats = stats;
+		this.merger = new Thread("csvsort-merge") {
+			@Override
+			public void run() {
+				merge(files, comparator, options);
+			}
+		};
+		// 呼び出し元が close() を呼び出さずに終了した場合に、JVM の終了を妨げない
+		this.merger.setDaemon(true);
+		this.merger.start();
+	}
+
+	private void merge(List<SortedRun> files, Comparator<List<String>> comparator, SortOptions options) {
+		try {
+			BatchWriter out = new BatchWriter();
+			long rowcounter = CsvFileSorter.mergeToWriter(files, out, comparator, options, this.session, this.stats);
+			out.flush();
+			this.stats.setRowCount(rowcounter);
+			this.session.getMetrics().finish(this.stats, comparator);
+		} catch (IOException e) {
+			this.error = e;
+		} catch (RuntimeException e) {
+			this.error = new IOException(e);
+		} finally {
+			// 中止した場合に残った一時ファイルは、close() でソート処理ごと削除する
+			try {
+				send(END);
+			} catch (IOException e) {
+				// close() が呼び出された場合は、終わりを受け取らない
+			}
+		}
+	}
+
+	/**
+	 * バッチを受け取り待ちにする。close() が呼び出された場合は中止する
+	 */
+	private void send(List<List<String>> rows) throws IOException {
+		try {
+			while (!this.queue.offer(rows, 100, TimeUnit.MILLISECONDS)) {
+				if (this.closed) {
+					throw new IOException("iterator was closed");
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("merging was interrupted");
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (this.position == this.batch.size()) {
+			if (this.finished) {
+				return false;
+			}
+			if (this.closed) {
+				throw new IllegalStateException("iterator was closed");
+			}
+			try {
+				this.batch = this.queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new UncheckedIOException(new InterruptedIOException("reading was interrupted"));
+			}
+			this.position = 0;
+			if (this.batch == END) {
+				this.batch = Collections.emptyList();
+				this.finished = true;
+				close();
+				if (this.error != null) {
+					throw new UncheckedIOException(this.error);
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public List<String> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return this.batch.get(this.position++);
+	}
+
+	/**
+	 * 残りの行を返す {@link Stream}。Stream を閉じるとこの Iterator も閉じる
+	 */
+	public Stream<List<String>> stream() {
+		Spliterator<List<String>> spliterator = Spliterators.spliteratorUnknownSize(this,
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * ソート処理の統計情報。行数と計測値は全ての行を取り出した後に設定される
+	 */
+	public SortStats getStats() {
+		return this.stats;
+	}
+
+	/**
+	 * マージを中止し、残っている一時ファイルを削除する
+	 */
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		if (this.merger != null) {
+			this.merger.interrupt();
+			boolean interrupted = false;
+			while (this.merger.isAlive()) {
+				this.queue.clear();
+				try {
+					this.merger.join(100);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		this.queue.clear();
+		if (this.session != null) {
+			this.session.close();
+		}
+	}
+
+	/**
+	 * マージした行をバッチにまとめて受け取り待ちにする {@link RowWriter}
+	 */
+	private final class BatchWriter implements RowWriter {
+
+		private List<List<String>> rows = new ArrayList<List<String>>(BATCH_ROWS);
+
+		@Override
+		public void write(List<String> row) throws IOException {
+			// 比較のためのキーは返さない
+			while (row instanceof WrappedRow) {
+				row = ((WrappedRow) row).unwrap();
+			}
+			this.rows.add(row);
+			if (this.rows.size() == BATCH_ROWS) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			if (!this.rows.isEmpty()) {
+				send(this.rows);
+				this.rows = new ArrayList<List<String>>(BATCH_ROWS);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
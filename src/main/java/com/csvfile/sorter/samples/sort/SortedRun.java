@@ -0,0 +1,107 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ソート済みの一時ファイル（ラン）の情報を保持するクラス
+ *
+ * 一時ファイルは {@link RunWriter#SEGMENT_ROWS} 行ごとのセグメントに分けて書き込まれており、
+ * 各セグメントは単独で読み込むことができる。
+ * セグメントの開始位置と先頭行を保持しておくことで、ファイルの途中から読み込みを開始できる。
+ *
+ */
+final class SortedRun {
+
+	private final File file;
+	private final long rowCount;
+	private final long[] segmentOffsets;
+	private final List<List<String>> segmentFirstRows;
+	private final boolean keyed;
+	private final Codec codec;
+	private final long checksum;
+	private final SortSession session;
+
+	SortedRun(File file, long rowCount, long[] segmentOffsets, List<List<String>> segmentFirstRows, boolean keyed,
+			  Codec codec, long checksum, SortSession session) {
+		this.file = file;
+		this.rowCount = rowCount;
+		this.segmentOffsets = segmentOffsets;
+		this.segmentFirstRows = Collections.unmodifiableList(segmentFirstRows);
+		this.keyed = keyed;
+		this.codec = codec;
+		this.checksum = checksum;
+		this.session = session;
+	}
+
+	File getFile() {
+		return this.file;
+	}
+
+	long getRowCount() {
+		return this.rowCount;
+	}
+
+	int getSegmentCount() {
+		return this.segmentOffsets.length;
+	}
+
+	long getSegmentOffset(int segment) {
+		return this.segmentOffsets[segment];
+	}
+
+	long getSegmentLength(int segment) {
+		long end = segment + 1 < this.segmentOffsets.length
+					? this.segmentOffsets[segment + 1]
+					: this.file.length();
+		return end - this.segmentOffsets[segment];
+	}
+
+	/**
+	 * 各セグメントの先頭行
+	 *
+	 * 並列マージで範囲の境界を決めるときのサンプルとして使用する。
+	 */
+	List<List<String>> getSegmentFirstRows() {
+		return this.segmentFirstRows;
+	}
+
+	/**
+	 * 各行に正規化キーが書き込まれているかどうか
+	 */
+	boolean isKeyed() {
+		return this.keyed;
+	}
+
+	/**
+	 * セグメントの圧縮方式
+	 */
+	Codec getCodec() {
+		return this.codec;
+	}
+
+	/**
+	 * 一時ファイル全体の CRC32
+	 */
+	long getChecksum() {
+		return this.checksum;
+	}
+
+	/**
+	 * 一時ファイルを作成したソート処理
+	 */
+	SortSession getSession() {
+		return this.session;
+	}
+
+	/**
+	 * 一時ファイルを削除する。再開できるジョブが記録している一時ファイルは、記録から外れるまで削除しない
+	 */
+	void delete() {
+		if (this.session.retains(this)) {
+			return;
+		}
+		this.file.delete();
+	}
+}
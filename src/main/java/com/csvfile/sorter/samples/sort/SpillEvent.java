@@ -0,0 +1,48 @@
+package com.csvfile.sorter.samples.sort;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * 一時ファイルを1つ書き込んだことを表す JFR のイベント
+ *
+ * イベントの期間は、一時ファイルを作成してから閉じるまでである。
+ *
+ */
+@Name("com.csvfile.sorter.Spill")
+@Label("Spill")
+@Category("CSV File Sorter")
+@Description("A sorted run written to a temporary file")
+final class SpillEvent extends Event {
+
+	@Label("Kind")
+	@Description("sortInBatch (run generation), mergePass or mergeRange")
+	String kind;
+
+	@Label("Rows")
+	long rows;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Codec")
+	String codec;
+
+	@Label("Compression Time")
+	@Timespan
+	long compressionNanos;
+
+	@Label("Serialization Time")
+	@Timespan
+	long serializationNanos;
+
+	@Label("I/O Time")
+	@Timespan
+	long ioNanos;
+}
@@ -0,0 +1,242 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 入力ファイルの先頭から k 行（ソート後の順）だけを出力するクラス
+ *
+ * 入力ファイルを1度だけ読み、保持している中で最も後ろになる行を先頭とするヒープに、k 行までを保持する。
+ * ヒープが k 行になった後は、先頭より前になる行だけをヒープの先頭と入れ替える。
+ * 比較が同じ行は後から読み込んだ行を後ろとするため、出力結果は全体をソートした結果の先頭 k 行と同じになる。
+ *
+ * ヒープの大きさがメモリ使用量の上限（1ブロックの大きさ）を超えた場合は、一時ファイルを使う方法に切り替える。
+ * ヒープの行を最初の一時ファイルとし、残りの入力はブロックごとにソートして先頭 k 行だけを一時ファイルへ書き込む。
+ * k 行を書き込んだ一時ファイルの最後の行より後ろになる行は、読み込んだ時点で捨てる。
+ * 一時ファイルがファンインに達したら先頭 k 行だけを1つにマージし、最後のマージも k 行を書き込んだ時点で終了する。
+ *
+ */
+final class TopK {
+
+	private final Comparator<List<String>> comparator;
+	private final long k;
+	private final SortOptions options;
+	private final SortSession session;
+	private final SortStats stats;
+	// ヒープの1要素あたりの大きさ（行を除く）
+	private final long entryOverhead = MemoryEstimator.CURRENT.object(1, 16);
+	private long seq = 0;
+
+	/**
+	 * @param comparator : 行の比較
+	 * @param k : 出力する行数
+	 * @param options : メモリ使用量の上限、入力ファイル・出力ファイルの形式
+	 * @param session : 一時ファイルを作成するソート処理
+	 * @param stats : ソート処理の統計情報
+	 */
+	TopK(Comparator<List<String>> comparator, long k, SortOptions options, SortSession session, SortStats stats) {
+		this.comparator = comparator;
+		this.k = k;
+		this.options = options;
+		this.session = session;
+		this.stats = stats;
+	}
+
+	/**
+	 * 入力ファイルの先頭 k 行を出力ファイルへ書き込む
+	 */
+	void select(File file, File output) throws IOException {
+		MemoryTracker tracker = MemoryTracker.create(file.length(), this.options, 1);
+		long limit = tracker.nextBlockSize();
+
+		// 保持している中で最も後ろになる行を先頭とする
+		PriorityQueue<Entry> heap = new PriorityQueue<Entry>(11, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e1, Entry e2) {
+				return e2.compareTo(e1);
+			}
+		});
+		long bytes = 0;
+		boolean overflow = false;
+
+		RowReader in = CsvFileSorter.openInput(file, this.options);
+		try {
+			List<String> line;
+			while ((line = in.read()) != null) {
+				Entry entry = new Entry(CsvFileSorter.prepare(this.comparator, line), this.seq++);
+				if (heap.size() < this.k) {
+					entry.size = tracker.sizeOf(entry.row) + this.entryOverhead;
+				} else if (entry.compareTo(heap.peek()) < 0) {
+					entry.size = tracker.sizeOf(entry.row) + this.entryOverhead;
+					bytes -= heap.poll().size;
+				} else {
+					continue;
+				}
+				heap.add(entry);
+				bytes += entry.size;
+				if (bytes > limit) {
+					overflow = true;
+					break;
+				}
+			}
+
+			List<Entry> entries = new ArrayList<Entry>(heap);
+			heap = null;
+			Collections.sort(entries);
+			List<List<String>> rows = new ArrayList<List<String>>(entries.size());
+			for (Entry entry : entries) {
+				rows.add(entry.row);
+			}
+
+			if (!overflow) {
+				tracker.report(this.stats);
+				this.stats.setRowCount(write(rows, output));
+				return;
+			}
+			List<SortedRun> runs = spill(in, rows, tracker);
+			tracker.report(this.stats);
+			this.stats.setRowCount(merge(runs, output));
+		} finally {
+			in.close();
+		}
+	}
+
+	private long write(List<List<String>> rows, File output) throws IOException {
+		RowWriter out = CsvFileSorter.openOutput(output, this.options);
+		try {
+			for (List<String> row : rows) {
+				out.write(row);
+			}
+		} finally {
+			out.close();
+		}
+		return rows.size();
+	}
+
+	/**
+	 * 残りの入力を、ブロックごとに先頭 k 行だけの一時ファイルにする
+	 *
+	 * @param in : 入力ファイル
+	 * @param first : ヒープに保持していた行（ソート済み）
+	 * @param tracker : ブロックの大きさ
+	 * @return 入力の順に並んだ一時ファイル
+	 */
+	private List<SortedRun> spill(RowReader in, List<List<String>> first, MemoryTracker tracker) throws IOException {
+		int fanIn = MergePlanner.chooseFanIn(this.options);
+		this.stats.setFanIn(fanIn);
+		List<SortedRun> runs = new ArrayList<SortedRun>();
+		int runCount = 0;
+		boolean completed = false;
+		try {
+			List<List<String>> block = first;
+			// k 行を書き込んだ一時ファイルの最後の行のうち、最も前になる行
+			List<String> cutoff = null;
+			while (!block.isEmpty()) {
+				Collections.sort(block, this.comparator);
+				if (block.size() >= this.k) {
+					block = block.subList(0, (int) this.k);
+					List<String> last = block.get(block.size() - 1);
+					if (cutoff == null || this.comparator.compare(last, cutoff) < 0) {
+						cutoff = last;
+					}
+				}
+				runs.add(CsvFileSorter.save(block, this.comparator, this.session));
+				runCount++;
+				if (runs.size() >= fanIn) {
+					runs = new ArrayList<SortedRun>(Collections.singletonList(
+								MergePlanner.mergeToRun(runs, this.comparator, this.k)));
+				}
+
+				block = new ArrayList<List<String>>();
+				long blocksize = tracker.nextBlockSize();
+				long currentblocksize = 0;
+				List<String> line;
+				while (currentblocksize < blocksize && (line = in.read()) != null) {
+					List<String> row = CsvFileSorter.prepare(this.comparator, line);
+					// 同じ値の行は先に書き込んだ行が前になるため、最後の行と同じ値の行も捨てる
+					if (cutoff != null && this.comparator.compare(row, cutoff) >= 0) {
+						continue;
+					}
+					currentblocksize += tracker.sizeOf(row);
+					block.add(row);
+				}
+			}
+			completed = true;
+			this.stats.setRunCount(runCount);
+			return runs;
+		} finally {
+			if (!completed) {
+				for (SortedRun run : runs) {
+					run.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 一時ファイルをマージして、先頭 k 行を出力ファイルへ書き込む
+	 */
+	private long merge(List<SortedRun> runs, File output) throws IOException {
+		long bytesRead = MergePlanner.totalBytes(runs);
+		long start = System.nanoTime();
+		List<BinaryFileBuffer> buffers = new ArrayList<BinaryFileBuffer>();
+		try {
+			for (int i = 0; i < runs.size(); i++) {
+				buffers.add(new BinaryFileBuffer(new RunReader(runs.get(i), this.comparator), i, runs.get(i)));
+			}
+		} catch (IOException e) {
+			for (BinaryFileBuffer bfb : buffers) {
+				bfb.close();
+			}
+			throw e;
+		}
+
+		RowWriter out;
+		try {
+			out = CsvFileSorter.openOutput(output, this.options);
+		} catch (IOException e) {
+			for (BinaryFileBuffer bfb : buffers) {
+				bfb.close();
+			}
+			throw e;
+		}
+		long rowcounter;
+		try {
+			rowcounter = CsvFileSorter.merge(buffers, this.comparator, out, this.k);
+		} finally {
+			out.close();
+		}
+		this.session.getMetrics().mergePass(this.stats, new MergePassStats(this.stats.getMergePassCount() + 1, runs.size(), 1,
+				rowcounter, bytesRead, output.length(), MergePassStats.depthOf(runs.size()), System.nanoTime() - start));
+		return rowcounter;
+	}
+
+	/**
+	 * ヒープの要素。比較が同じ行は読み込んだ順とする
+	 */
+	private final class Entry implements Comparable<Entry> {
+
+		final List<String> row;
+		final long seq;
+		long size;
+
+		Entry(List<String> row, long seq) {
+			this.row = row;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int result = TopK.this.comparator.compare(this.row, other.row);
+			if (result == 0) {
+				result = this.seq < other.seq ? -1 : (this.seq == other.seq ? 0 : 1);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * ソート済みのはずの入力ファイルに、順序が逆の行があったことを表す例外
+ *
+ * {@link CsvFileSorter#merge(java.util.List, String, SortOptions)} と
+ * {@link CsvFileSorter#join(String, String, String, JoinSpec, SortOptions)} が投げる。
+ *
+ */
+public class UnsortedInputException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final File file;
+	private final long row;
+
+	/**
+	 * @param file : 入力ファイル
+	 * @param row : 前の行より前に並ぶべき行の、入力ファイル内での番号（1から数える）
+	 */
+	UnsortedInputException(File file, long row) {
+		super(file + " is not sorted at row " + row);
+		this.file = file;
+		this.row = row;
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	public long getRow() {
+		return this.row;
+	}
+}
@@ -0,0 +1,23 @@
+package com.csvfile.sorter.samples.sort;
+
+import java.util.List;
+
+/**
+ * 比較のためのキーなどを付け加えて、元の行を包んだ行
+ *
+ * {@link RowKeyComparator#prepare} が返す行が実装する。
+ * メモリ使用量の見積もりと、元の行の取り出しに使用する。
+ *
+ */
+interface WrappedRow {
+
+	/**
+	 * 包んでいる元の行
+	 */
+	List<String> unwrap();
+
+	/**
+	 * 元の行を除いた、この行自身とキーの大きさの見積もり（バイト数）
+	 */
+	long overheadSize(MemoryEstimator estimator);
+}
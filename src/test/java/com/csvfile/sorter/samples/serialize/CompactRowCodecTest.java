@@ -0,0 +1,73 @@
+package com.csvfile.sorter.samples.serialize;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The class tests that rows written by CompactRowWriter are read by CompactRowReader
+ *
+ */
+public class CompactRowCodecTest {
+
+	/**
+	 * This method checks null cells, empty rows, non ASCII characters and cells larger than 64KB
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void RowsAreReadAsWritten() throws IOException {
+
+		StringBuilder large = new StringBuilder();
+		for( int i=0; i < 70000; i++ ) {
+			large.append((char) ('a' + i % 26));
+		}
+
+		List<List<String>> rows = new ArrayList<List<String>>();
+		rows.add(Arrays.asList("1", null, "", "3"));
+		rows.add(Collections.<String>emptyList());
+		rows.add(Arrays.asList("日本語", "é", "😀", null, null, null, null, null, null, "x"));
+		rows.add(Arrays.asList(large.toString()));
+		rows.add(Arrays.<String>asList((String) null));
+
+		// action
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompactRowWriter writer = new CompactRowWriter( bytes, 16 );
+		for( List<String> row : rows ) {
+			writer.write(row);
+		}
+		writer.close();
+
+		// verifying test result
+		CompactRowReader reader = new CompactRowReader( new ByteArrayInputStream( bytes.toByteArray() ), 16 );
+		List<List<String>> read = new ArrayList<List<String>>();
+		List<String> row;
+		while( (row = reader.read()) != null ) {
+			read.add(row);
+		}
+		reader.close();
+
+		assertEquals( rows, read );
+	}
+
+	/**
+	 * This method checks that UTF-8 length is the same as String#getBytes
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void Utf8LengthIsSameAsGetBytes() throws IOException {
+		String[] values = {"", "abc", "日本語", "é߿ࠀ", "😀", "\ud83d", "a\ude00b"};
+		for( String value : values ) {
+			assertEquals( value.getBytes("UTF-8").length, CompactRowWriter.utf8Length(value) );
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.csvfile.sorter.samples.sort.SortKey.Direction;
+
+/**
+ * The class tests run generation with the arena buffer
+ *
+ */
+public class ArenaRunBufferTest extends CsvFileSorterTest {
+
+	private static final String ARENA_CSVFILE         = SAVE_DIRECTORY
+															+ F + "Arena.csv";
+	private static final String SORTED_OBJECT_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedObjectArena.csv";
+	private static final String SORTED_ARENA_CSVFILE  = SAVE_DIRECTORY
+															+ F + "SortedArena.csv";
+
+	/**
+	 * This method checks that the arena buffer makes the same file with the default comparator
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void DefaultOrderIsSameAsObjectRows() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 2468L), ARENA_CSVFILE );
+
+		// action
+		CsvFileSorter.sort( ARENA_CSVFILE, SORTED_OBJECT_CSVFILE );
+
+		SortOptions options = new SortOptions();
+		options.setArenaBuffer(true);
+		options.setMemoryBudget(128 * 1024);
+		SortStats stats = CsvFileSorter.sort( ARENA_CSVFILE, SORTED_ARENA_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( stats.getRunCount() > 1 );
+		assertEquals( 30000, stats.getRowCount() );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_OBJECT_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_ARENA_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks typed keys, parallel buffers and keyed runs
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void TypedOrderIsSameAsObjectRows() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 1357L), ARENA_CSVFILE );
+
+		SortSpec spec = new SortSpec( new SortKey(1, KeyType.LONG, Direction.DESC),
+									  new SortKey(0, KeyType.LONG) );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setSortSpec(spec);
+		CsvFileSorter.sort( ARENA_CSVFILE, SORTED_OBJECT_CSVFILE, options );
+
+		options.setArenaBuffer(true);
+		options.setMemoryBudget(256 * 1024);
+		options.setParallelism(3);
+		CsvFileSorter.sort( ARENA_CSVFILE, SORTED_ARENA_CSVFILE, options );
+
+		// verifying test result
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_OBJECT_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_ARENA_CSVFILE).toPath()) );
+
+		options.setNormalizedKeys(true);
+		options.setMergeParallelism(2);
+		CsvFileSorter.sort( ARENA_CSVFILE, SORTED_ARENA_CSVFILE, options );
+
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_OBJECT_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_ARENA_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that a full arena refuses rows and keeps the equal rows in order
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void FullArenaRefusesRowsAndSortIsStable() throws IOException {
+
+		SortSpec spec = new SortSpec( new SortKey(0, KeyType.STRING) );
+		ArenaRunBuffer buffer = new ArenaRunBuffer( new NormalizedKeyComparator(spec), 64 );
+
+		// action
+		int added = 0;
+		while( buffer.add( new ArrayList<String>(Arrays.asList(added % 2 == 0 ? "b" : "a", String.valueOf(added))) )) {
+			added++;
+		}
+		buffer.sort();
+
+		// verifying test result
+		assertTrue( added > 1 );
+		assertEquals( added, buffer.size() );
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for( int i=0; i < added; i++ ) {
+			rows.add( buffer.rowAt(buffer.offsetAt(i), null) );
+		}
+		for( int i=1; i < rows.size(); i++ ) {
+			int result = rows.get(i - 1).get(0).compareTo( rows.get(i).get(0) );
+			assertTrue( result < 0 || (result == 0
+					&& Integer.parseInt(rows.get(i - 1).get(1)) < Integer.parseInt(rows.get(i).get(1))) );
+		}
+	}
+}
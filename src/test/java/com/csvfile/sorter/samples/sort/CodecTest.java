@@ -0,0 +1,111 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * The class tests the compression of input, temporary and output files
+ *
+ */
+public class CodecTest extends CsvFileSorterTest {
+
+	private static final String CODEC_CSVFILE        = SAVE_DIRECTORY
+															+ F + "Codec.csv";
+	private static final String SORTED_SNAPPY_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedSnappyCodec.csv";
+	private static final String SORTED_CODEC_CSVFILE  = SAVE_DIRECTORY
+															+ F + "SortedCodec.csv";
+	private static final String RESORTED_CODEC_CSVFILE = SAVE_DIRECTORY
+															+ F + "ResortedCodec.csv";
+
+	/**
+	 * This method checks that every spill codec makes the same file
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void EverySpillCodecMakesSameOutput() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 4321L), CODEC_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		SortStats snappy = CsvFileSorter.sort( CODEC_CSVFILE, SORTED_SNAPPY_CSVFILE, options );
+		assertEquals( Codec.SNAPPY, snappy.getSpillCodec() );
+
+		for( Codec codec : Arrays.asList(Codec.NONE, Codec.LZ4, Codec.zstd(1), Codec.zstd(19)) ) {
+			options.setSpillCodec(codec);
+			SortStats stats = CsvFileSorter.sort( CODEC_CSVFILE, SORTED_CODEC_CSVFILE, options );
+
+			// verifying test result
+			assertTrue( stats.getRunCount() > 1 );
+			assertEquals( codec, stats.getSpillCodec() );
+			assertArrayEquals( codec.getName(),
+							   Files.readAllBytes(new File(SORTED_SNAPPY_CSVFILE).toPath()),
+							   Files.readAllBytes(new File(SORTED_CODEC_CSVFILE).toPath()) );
+		}
+	}
+
+	/**
+	 * This method checks that the output codec can be read back as the input codec
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void OutputCodecIsReadAsInputCodec() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(20000, 8765L), CODEC_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		CsvFileSorter.sort( CODEC_CSVFILE, SORTED_SNAPPY_CSVFILE, options );
+
+		options.setOutputFormat(FileFormat.CSV);
+		options.setOutputCodec(Codec.ZSTD);
+		CsvFileSorter.sort( CODEC_CSVFILE, SORTED_CODEC_CSVFILE, options );
+
+		options.setInputFormat(FileFormat.CSV);
+		options.setInputCodec(Codec.ZSTD);
+		options.setOutputFormat(FileFormat.SERIALIZED);
+		options.setOutputCodec(null);
+		SortStats stats = CsvFileSorter.sort( SORTED_CODEC_CSVFILE, RESORTED_CODEC_CSVFILE, options );
+
+		// verifying test result
+		assertEquals( 20000, stats.getRowCount() );
+		assertEquals( readTestFile(SORTED_SNAPPY_CSVFILE), readTestFile(RESORTED_CODEC_CSVFILE) );
+	}
+
+	/**
+	 * This method checks that the automatic mode picks a candidate codec and makes the same file
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void AutoSpillCodecIsReported() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 1234L), CODEC_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		CsvFileSorter.sort( CODEC_CSVFILE, SORTED_SNAPPY_CSVFILE, options );
+
+		options.setAutoSpillCodec(true);
+		SortStats stats = CsvFileSorter.sort( CODEC_CSVFILE, SORTED_CODEC_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( CodecSelector.CANDIDATES.contains(stats.getSpillCodec()) );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_SNAPPY_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_CODEC_CSVFILE).toPath()) );
+	}
+}
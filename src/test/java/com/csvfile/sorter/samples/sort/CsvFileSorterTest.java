@@ -12,7 +12,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.xerial.snappy.SnappyInputStream;
 import org.xerial.snappy.SnappyOutputStream;
@@ -133,4 +135,26 @@ public class CsvFileSorterTest {
 		}
 		return rowsList;
 	}
+
+	/**
+	 * This method makes random rows.
+	 * Many rows have the same value, and some rows have a different number of columns.
+	 *
+	 * @param rows
+	 * @param seed
+	 * @return test data in type of List<List<String>>
+	 */
+	protected List<List<String>> generateRandomData(int rows, long seed) {
+		Random random = new Random(seed);
+		List<List<String>> rowsList = new ArrayList<List<String>>();
+		for( int i=0; i < rows; i++) {
+			String key = String.valueOf(random.nextInt(1000));
+			if( random.nextBoolean() ) {
+				rowsList.add(new ArrayList<String>(Arrays.asList(key, String.valueOf(i % 7))));
+			} else {
+				rowsList.add(new ArrayList<String>(Arrays.asList(key)));
+			}
+		}
+		return rowsList;
+	}
 }
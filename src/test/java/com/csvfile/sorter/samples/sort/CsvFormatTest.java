@@ -0,0 +1,117 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The class tests that CSV text input and output
+ *
+ */
+public class CsvFormatTest extends CsvFileSorterTest {
+
+	private static final String TEXT_CSVFILE        = SAVE_DIRECTORY
+														+ F + "Text.csv";
+	private static final String SORTED_TEXT_CSVFILE = SAVE_DIRECTORY
+														+ F + "SortedText.csv";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * This method checks quoted cells, escaped quotes, new lines in cells and line separators
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void QuotedCellsAreTokenized() throws IOException {
+
+		String text = "\ufeffa,\"b,c\",\"d\"\"e\"\r\n"
+					+ "\"multi\nline\",,x\r"
+					+ "last,\"\"";
+
+		List<List<String>> rows = tokenize( text.getBytes(UTF8), UTF8, ',' );
+
+		List<List<String>> expected = new ArrayList<List<String>>();
+		expected.add( Arrays.asList("a", "b,c", "d\"e") );
+		expected.add( Arrays.asList("multi\nline", "", "x") );
+		expected.add( Arrays.asList("last", "") );
+		assertEquals( expected, rows );
+	}
+
+	/**
+	 * This method checks that a non ASCII compatible charset and another delimiter are honored
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void CharsetAndDelimiterAreHonored() throws IOException {
+
+		Charset utf16 = Charset.forName("UTF-16");
+		String text = "日本;\"語;\"\n";
+
+		assertFalse( CsvTokenizer.isAsciiCompatible(utf16) );
+		assertEquals( Arrays.asList(Arrays.asList("日本", "語;")), tokenize( text.getBytes(utf16), utf16, ';' ));
+
+		Charset sjis = Charset.forName("Shift_JIS");
+		assertTrue( CsvTokenizer.isAsciiCompatible(sjis) );
+		assertEquals( Arrays.asList(Arrays.asList("日本", "語;")), tokenize( text.getBytes(sjis), sjis, ';' ));
+	}
+
+	/**
+	 * This method sorts a CSV file and writes a CSV file
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void CsvFileIsSortedToCsvFile() throws IOException {
+
+		Charset sjis = Charset.forName("Shift_JIS");
+		String text = "3,\"c,1\"\n"
+					+ "1,\"改\n行\"\n"
+					+ "2,\"\"\"q\"\"\"\n";
+		Files.write( new File(TEXT_CSVFILE).toPath(), text.getBytes(sjis) );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setInputFormat(FileFormat.CSV);
+		options.setOutputFormat(FileFormat.CSV);
+		options.setCharset(sjis);
+		options.setLineSeparator("\r\n");
+		SortStats stats = CsvFileSorter.sort( TEXT_CSVFILE, SORTED_TEXT_CSVFILE, options );
+
+		// verifying test result
+		String expected = "1,\"改\n行\"\r\n"
+						+ "2,\"\"\"q\"\"\"\r\n"
+						+ "3,\"c,1\"\r\n";
+		assertEquals( 3, stats.getRowCount() );
+		assertEquals( expected, new String( Files.readAllBytes(new File(SORTED_TEXT_CSVFILE).toPath()), sjis ));
+	}
+
+	/**
+	 * This method checks that an unterminated quoted cell is an error
+	 */
+	@Test(expected = IOException.class)
+	public void UnterminatedQuoteIsError() throws IOException {
+		tokenize( "a,\"b\n".getBytes(UTF8), UTF8, ',' );
+	}
+
+	private List<List<String>> tokenize( byte[] bytes, Charset charset, char delimiter ) throws IOException {
+		CsvTokenizer tokenizer = new CsvTokenizer( new ByteArrayInputStream(bytes), charset, delimiter );
+		List<List<String>> rows = new ArrayList<List<String>>();
+		List<String> row;
+		while( (row = tokenizer.read()) != null ) {
+			rows.add( new ArrayList<String>(row) );
+		}
+		tokenizer.close();
+		return rows;
+	}
+}
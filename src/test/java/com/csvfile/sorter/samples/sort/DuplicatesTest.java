@@ -0,0 +1,220 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * The class tests dropping duplicates and aggregating rows with the same key while sorting
+ *
+ */
+public class DuplicatesTest extends CsvFileSorterTest {
+
+	private static final String DUPLICATES_CSVFILE = SAVE_DIRECTORY
+															+ F + "Duplicates.csv";
+	private static final String SORTED_ALL_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedAllDuplicates.csv";
+	private static final String SORTED_CSVFILE     = SAVE_DIRECTORY
+															+ F + "SortedDuplicates.csv";
+
+	/**
+	 * This method checks that DROP_EXACT gives the distinct rows of the full sort
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void DropExactIsDistinctOfFullSort() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 3333L), DUPLICATES_CSVFILE );
+		CsvFileSorter.sort( DUPLICATES_CSVFILE, SORTED_ALL_CSVFILE );
+		List<List<String>> expected = new ArrayList<List<String>>(
+				new LinkedHashSet<List<String>>( readTestFile(SORTED_ALL_CSVFILE) ));
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setDuplicates(Duplicates.DROP_EXACT);
+		options.setMemoryBudget(64 * 1024);
+		options.setMaxFanIn(3);
+		SortStats stats = CsvFileSorter.sort( DUPLICATES_CSVFILE, SORTED_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( stats.getRunCount() > 3 );
+		assertEquals( expected.size(), stats.getRowCount() );
+		assertEquals( expected, readTestFile(SORTED_CSVFILE) );
+	}
+
+	/**
+	 * This method checks the first and last row per key with every run generation and merge
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void FirstAndLastPerKeyAreInInputOrder() throws IOException {
+
+		// Test file is generated
+		List<List<String>> data = generateRandomData(30000, 4444L);
+		generateTestFile( data, DUPLICATES_CSVFILE );
+
+		TreeMap<Long, List<String>> first = new TreeMap<Long, List<String>>();
+		TreeMap<Long, List<String>> last = new TreeMap<Long, List<String>>();
+		for (List<String> row : data) {
+			Long key = Long.valueOf(row.get(0));
+			if (!first.containsKey(key)) {
+				first.put(key, row);
+			}
+			last.put(key, row);
+		}
+
+		for (int variant = 0; variant < 3; variant++) {
+			SortOptions options = new SortOptions();
+			options.setSortSpec( new SortSpec(new SortKey(0, KeyType.LONG)) );
+			options.setMemoryBudget(64 * 1024);
+			options.setMaxFanIn(3);
+			if (variant == 1) {
+				options.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+			} else if (variant == 2) {
+				options.setMergeParallelism(4);
+				options.setMaxFanIn(1000);
+			}
+
+			// action
+			options.setDuplicates(Duplicates.FIRST_PER_KEY);
+			SortStats stats = CsvFileSorter.sort( DUPLICATES_CSVFILE, SORTED_CSVFILE, options );
+
+			// verifying test result
+			assertTrue( stats.getRunCount() > 1 );
+			assertEquals( new ArrayList<List<String>>(first.values()), readTestFile(SORTED_CSVFILE) );
+
+			options.setDuplicates(Duplicates.LAST_PER_KEY);
+			CsvFileSorter.sort( DUPLICATES_CSVFILE, SORTED_CSVFILE, options );
+			assertEquals( new ArrayList<List<String>>(last.values()), readTestFile(SORTED_CSVFILE) );
+		}
+	}
+
+	/**
+	 * This method checks COUNT, SUM, MIN and MAX per key across merge passes
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void AggregatesSurviveMergePasses() throws IOException {
+
+		// Test file is generated
+		Random random = new Random(5555L);
+		List<List<String>> data = new ArrayList<List<String>>();
+		for (int i = 0; i < 30000; i++) {
+			data.add( Arrays.asList( String.valueOf(random.nextInt(300)),
+									 String.valueOf(random.nextInt(2000) - 1000),
+									 String.valueOf(random.nextInt(2000) - 1000),
+									 i % 5 == 0 ? "" : String.valueOf(random.nextInt(100)),
+									 "x" ) );
+		}
+		generateTestFile( data, DUPLICATES_CSVFILE );
+
+		Map<Long, long[]> groups = new TreeMap<Long, long[]>();
+		Map<Long, List<String>> firsts = new LinkedHashMap<Long, List<String>>();
+		for (List<String> row : data) {
+			Long key = Long.valueOf(row.get(0));
+			long[] acc = groups.get(key);
+			if (acc == null) {
+				acc = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+				groups.put(key, acc);
+				firsts.put(key, row);
+			}
+			acc[0]++;
+			acc[1] += Long.parseLong(row.get(1));
+			acc[2] = Math.min(acc[2], Long.parseLong(row.get(2)));
+			if (!row.get(3).isEmpty()) {
+				acc[3] = Math.max(acc[3], Long.parseLong(row.get(3)));
+			}
+		}
+		List<List<String>> expected = new ArrayList<List<String>>();
+		for (Map.Entry<Long, long[]> group : groups.entrySet()) {
+			long[] acc = group.getValue();
+			expected.add( Arrays.asList( firsts.get(group.getKey()).get(0),
+										 String.valueOf(acc[1]),
+										 String.valueOf(acc[2]),
+										 acc[3] == Long.MIN_VALUE ? "" : String.valueOf(acc[3]),
+										 String.valueOf(acc[0]) ) );
+		}
+
+		for (int variant = 0; variant < 2; variant++) {
+			SortOptions options = new SortOptions();
+			options.setSortSpec( new SortSpec(new SortKey(0, KeyType.LONG)) );
+			options.setAggregates( new Aggregate(1, Aggregate.Function.SUM, KeyType.LONG),
+								   new Aggregate(2, Aggregate.Function.MIN, KeyType.LONG),
+								   new Aggregate(3, Aggregate.Function.MAX, KeyType.LONG),
+								   new Aggregate(4, Aggregate.Function.COUNT) );
+			options.setMemoryBudget(64 * 1024);
+			options.setMaxFanIn(3);
+			if (variant == 1) {
+				options.setMergeParallelism(4);
+				options.setMaxFanIn(1000);
+			}
+
+			// action
+			SortStats stats = CsvFileSorter.sort( DUPLICATES_CSVFILE, SORTED_CSVFILE, options );
+
+			// verifying test result
+			assertTrue( stats.getRunCount() > 3 );
+			if (variant == 0) {
+				assertTrue( stats.getMergePassCount() > 1 );
+			}
+			assertEquals( expected.size(), stats.getRowCount() );
+			assertEquals( expected, readTestFile(SORTED_CSVFILE) );
+		}
+	}
+
+	/**
+	 * This method checks that invalid combinations are rejected
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void InvalidReductionsAreRejected() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(100, 6666L), DUPLICATES_CSVFILE );
+
+		SortOptions noSpec = new SortOptions();
+		noSpec.setAggregates( new Aggregate(1, Aggregate.Function.COUNT) );
+
+		SortOptions keyColumn = new SortOptions();
+		keyColumn.setSortSpec( new SortSpec(new SortKey(0, KeyType.LONG)) );
+		keyColumn.setAggregates( new Aggregate(0, Aggregate.Function.SUM) );
+
+		SortOptions exact = new SortOptions();
+		exact.setSortSpec( new SortSpec(new SortKey(0, KeyType.LONG)) );
+		exact.setDuplicates(Duplicates.DROP_EXACT);
+		exact.setAggregates( new Aggregate(1, Aggregate.Function.COUNT) );
+
+		for (SortOptions options : Arrays.asList(noSpec, keyColumn, exact)) {
+			try {
+				CsvFileSorter.sort( DUPLICATES_CSVFILE, SORTED_CSVFILE, options );
+				fail( "expected IllegalArgumentException" );
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+
+		SortOptions top = new SortOptions();
+		top.setDuplicates(Duplicates.FIRST_PER_KEY);
+		try {
+			CsvFileSorter.top( DUPLICATES_CSVFILE, SORTED_CSVFILE, 10, top );
+			fail( "expected IllegalArgumentException" );
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
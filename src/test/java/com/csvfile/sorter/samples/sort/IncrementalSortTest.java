@@ -0,0 +1,154 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The class tests merging a sorted delta into an existing sorted output
+ *
+ */
+public class IncrementalSortTest extends CsvFileSorterTest {
+
+	private static final String BASE_CSVFILE        = SAVE_DIRECTORY
+															+ F + "Base.csv";
+	private static final String DELTA_CSVFILE       = SAVE_DIRECTORY
+															+ F + "Delta.csv";
+	private static final String ALL_CSVFILE         = SAVE_DIRECTORY
+															+ F + "BaseAndDelta.csv";
+	private static final String SORTED_BASE_FILE    = SAVE_DIRECTORY
+															+ F + "SortedBase.dat";
+	private static final String SORTED_ALL_FILE     = SAVE_DIRECTORY
+															+ F + "SortedBaseAndDelta.dat";
+	private static final String INCREMENTAL_FILE    = SAVE_DIRECTORY
+															+ F + "IncrementalBaseAndDelta.dat";
+
+	private static String generateCsv(int rows, int firstId, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < rows; i++) {
+			sb.append("key").append(random.nextInt(3000))
+			  .append(',').append(firstId + i)
+			  .append(',').append(random.nextInt(100000)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static SortOptions options(Duplicates duplicates) {
+		SortOptions options = new SortOptions();
+		options.setInputFormat(FileFormat.CSV);
+		options.setSortSpec(new SortSpec(new SortKey(0, KeyType.STRING)));
+		options.setDuplicates(duplicates);
+		options.setMemoryBudget(64 * 1024);
+		options.setMaxFanIn(4);
+		return options;
+	}
+
+	/**
+	 * This method checks that adding a delta gives the same output as sorting everything again
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void IncrementalSortIsSameAsFullSort() throws IOException {
+
+		// Test file is generated
+		String base = generateCsv(20000, 0, 1212L);
+		String delta = generateCsv(1500, 20000, 3434L);
+		Files.write(new File(BASE_CSVFILE).toPath(), base.getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(DELTA_CSVFILE).toPath(), delta.getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(ALL_CSVFILE).toPath(), (base + delta).getBytes(StandardCharsets.UTF_8));
+
+		for (Duplicates duplicates : new Duplicates[] { Duplicates.KEEP, Duplicates.LAST_PER_KEY }) {
+			SortOptions options = options(duplicates);
+			CsvFileSorter.sort( BASE_CSVFILE, SORTED_BASE_FILE, options );
+			SortStats full = CsvFileSorter.sort( ALL_CSVFILE, SORTED_ALL_FILE, options );
+
+			// action
+			SortStats stats = CsvFileSorter.sortIncremental( SORTED_BASE_FILE, DELTA_CSVFILE, INCREMENTAL_FILE, options );
+
+			// verifying test result
+			assertEquals( full.getRowCount(), stats.getRowCount() );
+			assertEquals( 1500, stats.getInputRows() );
+			assertTrue( stats.getRunCount() < full.getRunCount() );
+			assertEquals( readTestFile(SORTED_ALL_FILE), readTestFile(INCREMENTAL_FILE) );
+		}
+
+		// without an earlier output, only the delta is sorted
+		SortOptions options = options(Duplicates.KEEP);
+		CsvFileSorter.sort( DELTA_CSVFILE, SORTED_ALL_FILE, options );
+		SortStats stats = CsvFileSorter.sortIncremental( SAVE_DIRECTORY + F + "NoSuchBase.dat", DELTA_CSVFILE,
+														  INCREMENTAL_FILE, options );
+		assertEquals( 1500, stats.getRowCount() );
+		assertEquals( readTestFile(SORTED_ALL_FILE), readTestFile(INCREMENTAL_FILE) );
+	}
+
+	/**
+	 * This method checks that an earlier output written in blocks with an index can be the input of the next run
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void IncrementalSortOfBlockedOutputIsSameAsFullSort() throws IOException {
+
+		// Test file is generated
+		String base = generateCsv(20000, 0, 7878L);
+		String delta = generateCsv(1500, 20000, 9090L);
+		Files.write(new File(BASE_CSVFILE).toPath(), base.getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(DELTA_CSVFILE).toPath(), delta.getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(ALL_CSVFILE).toPath(), (base + delta).getBytes(StandardCharsets.UTF_8));
+
+		SortOptions options = options(Duplicates.LAST_PER_KEY);
+		options.setOutputBlockSize(4096);
+		CsvFileSorter.sort( BASE_CSVFILE, SORTED_BASE_FILE, options );
+		SortStats full = CsvFileSorter.sort( ALL_CSVFILE, SORTED_ALL_FILE, options );
+
+		// action
+		SortStats stats = CsvFileSorter.sortIncremental( SORTED_BASE_FILE, DELTA_CSVFILE, INCREMENTAL_FILE, options );
+
+		// verifying test result
+		assertEquals( full.getRowCount(), stats.getRowCount() );
+		assertEquals( readTestFile(SORTED_ALL_FILE), readTestFile(INCREMENTAL_FILE) );
+		IndexedSortedFile indexed = IndexedSortedFile.open(INCREMENTAL_FILE, options);
+		try {
+			assertEquals( stats.getRowCount(), indexed.getRowCount() );
+			assertTrue( indexed.getBlockCount() > 1 );
+		} finally {
+			indexed.close();
+		}
+	}
+
+	/**
+	 * This method checks that an earlier output that is not sorted, or the same file as the output, is rejected
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void InvalidEarlierOutputIsRejected() throws IOException {
+
+		// Test file is generated
+		Files.write(new File(DELTA_CSVFILE).toPath(), generateCsv(100, 0, 5656L).getBytes(StandardCharsets.UTF_8));
+		SortOptions options = options(Duplicates.KEEP);
+		options.setOutputFormat(FileFormat.CSV);
+
+		try {
+			CsvFileSorter.sortIncremental( DELTA_CSVFILE, DELTA_CSVFILE, INCREMENTAL_FILE, options );
+			fail( "expected UnsortedInputException" );
+		} catch (UnsortedInputException e) {
+			// verifying test result
+			assertEquals( new File(DELTA_CSVFILE), e.getFile() );
+		}
+		try {
+			CsvFileSorter.sortIncremental( INCREMENTAL_FILE, DELTA_CSVFILE, INCREMENTAL_FILE, options );
+			fail( "expected IllegalArgumentException" );
+		} catch (IllegalArgumentException e) {
+			// verifying test result
+		}
+	}
+}
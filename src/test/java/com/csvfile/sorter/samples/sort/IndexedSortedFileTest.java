@@ -0,0 +1,254 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The class tests the output written as compressed blocks with a sparse index
+ *
+ */
+public class IndexedSortedFileTest extends CsvFileSorterTest {
+
+	private static final String LOOKUP_CSVFILE         = SAVE_DIRECTORY
+																+ F + "Lookup.csv";
+	private static final String SORTED_LOOKUP_CSVFILE  = SAVE_DIRECTORY
+																+ F + "SortedLookup.csv";
+	private static final String INDEXED_LOOKUP_FILE    = SAVE_DIRECTORY
+																+ F + "IndexedLookup.dat";
+	private static final String MERGED_LOOKUP_FILE     = SAVE_DIRECTORY
+																+ F + "MergedIndexedLookup.dat";
+	private static final String RESORTED_LOOKUP_FILE   = SAVE_DIRECTORY
+																+ F + "ResortedIndexedLookup.dat";
+
+	private static final SortSpec SPEC = new SortSpec(new SortKey(1, KeyType.LONG));
+
+	private static List<List<String>> generateRows(int count, long seed) {
+		Random random = new Random(seed);
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (int i = 0; i < count; i++) {
+			String key = random.nextInt(50) == 0 ? "" : Integer.toString(random.nextInt(400));
+			rows.add(Arrays.asList("row" + i, key, "value" + random.nextInt(100000)));
+		}
+		return rows;
+	}
+
+	private static SortOptions options(FileFormat format, Codec codec, long blockSize) {
+		SortOptions options = new SortOptions();
+		options.setInputFormat(FileFormat.CSV);
+		options.setOutputFormat(format);
+		options.setOutputCodec(codec);
+		options.setSortSpec(SPEC);
+		options.setMemoryBudget(128 * 1024);
+		options.setOutputBlockSize(blockSize);
+		return options;
+	}
+
+	private static List<List<String>> toList(Iterator<List<String>> rows) {
+		List<List<String>> list = new ArrayList<List<String>>();
+		while (rows.hasNext()) {
+			list.add(new ArrayList<String>(rows.next()));
+		}
+		return list;
+	}
+
+	/**
+	 * Filters the rows whose key is in [from, to]
+	 */
+	private static List<List<String>> filter(List<List<String>> rows, List<String> from, List<String> to, boolean inclusive) {
+		List<List<String>> found = new ArrayList<List<String>>();
+		for (List<String> row : rows) {
+			if (from != null && SPEC.compare(row, from) < 0) {
+				continue;
+			}
+			if (to != null && (SPEC.compare(row, to) > 0 || (SPEC.compare(row, to) == 0 && !inclusive))) {
+				continue;
+			}
+			found.add(row);
+		}
+		return found;
+	}
+
+	private static List<String> key(String value) {
+		return Arrays.asList(null, value);
+	}
+
+	/**
+	 * This method checks that lookups through the index return the same rows as scanning the whole output
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void LookupsAreSameAsScan() throws IOException {
+
+		// Test file is generated
+		List<List<String>> rows = generateRows(20000, 9753L);
+		StringBuilder sb = new StringBuilder();
+		for (List<String> row : rows) {
+			sb.append(row.get(0)).append(',').append(row.get(1)).append(',').append(row.get(2)).append('\n');
+		}
+		Files.write(new File(LOOKUP_CSVFILE).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+		List<List<String>> expected = new ArrayList<List<String>>(rows);
+		Collections.sort(expected, SPEC);
+
+		SortOptions[] variants = {
+			options(FileFormat.CSV, Codec.LZ4, 4096),
+			options(FileFormat.SERIALIZED, Codec.SNAPPY, 8192),
+			options(FileFormat.CSV, Codec.NONE, 2048),
+		};
+		for (SortOptions options : variants) {
+			// action
+			SortStats stats = CsvFileSorter.sort( LOOKUP_CSVFILE, INDEXED_LOOKUP_FILE, options );
+
+			// verifying test result
+			assertEquals( 20000, stats.getRowCount() );
+			IndexedSortedFile indexed = IndexedSortedFile.open(INDEXED_LOOKUP_FILE, options);
+			try {
+				assertEquals( 20000, indexed.getRowCount() );
+				assertTrue( indexed.getBlockCount() > 10 );
+				assertEquals( expected, toList(indexed.seek(null)) );
+				for (String value : new String[] { "0", "7", "123", "399", "400", "-1" }) {
+					assertEquals( value, filter(expected, key(value), key(value), true), indexed.get(key(value)) );
+					assertEquals( value, filter(expected, key(value), null, false), toList(indexed.seek(key(value))) );
+				}
+				assertEquals( filter(expected, null, key(""), true), indexed.get(key("")) );
+				assertEquals( filter(expected, key("50"), key("60"), false), toList(indexed.range(key("50"), key("60"))) );
+				assertEquals( filter(expected, null, key("10"), false), toList(indexed.range(null, key("10"))) );
+				assertTrue( toList(indexed.range(key("60"), key("50"))).isEmpty() );
+			} finally {
+				indexed.close();
+			}
+		}
+
+		// uncompressed CSV blocks are a plain CSV file
+		SortOptions plain = options(FileFormat.CSV, Codec.NONE, 0);
+		CsvFileSorter.sort( LOOKUP_CSVFILE, SORTED_LOOKUP_CSVFILE, plain );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_LOOKUP_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(INDEXED_LOOKUP_FILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that a file written in blocks is read from the start like a file without blocks
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void BlockedOutputIsReadAsWholeFile() throws IOException {
+
+		// Test file is generated
+		List<List<String>> rows = generateRows(20000, 8642L);
+		StringBuilder sb = new StringBuilder();
+		for (List<String> row : rows) {
+			sb.append(row.get(0)).append(',').append(row.get(1)).append(',').append(row.get(2)).append('\n');
+		}
+		Files.write(new File(LOOKUP_CSVFILE).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+		List<List<String>> expected = new ArrayList<List<String>>(rows);
+		Collections.sort(expected, SPEC);
+
+		SortOptions[] variants = {
+			options(FileFormat.SERIALIZED, Codec.SNAPPY, 2000),
+			options(FileFormat.SERIALIZED, Codec.ZSTD, 2000),
+			options(FileFormat.CSV, Codec.LZ4, 2000),
+		};
+		for (SortOptions options : variants) {
+			CsvFileSorter.sort( LOOKUP_CSVFILE, INDEXED_LOOKUP_FILE, options );
+			IndexedSortedFile indexed = IndexedSortedFile.open(INDEXED_LOOKUP_FILE, options);
+			try {
+				assertTrue( indexed.getBlockCount() > 10 );
+			} finally {
+				indexed.close();
+			}
+
+			SortOptions reading = new SortOptions();
+			reading.setInputFormat(options.getOutputFormat());
+			reading.setInputCodec(options.getOutputCodec());
+			reading.setSortSpec(SPEC);
+
+			// action
+			boolean sorted = CsvFileSorter.isSorted( INDEXED_LOOKUP_FILE, reading );
+			SortStats merged = CsvFileSorter.merge( Arrays.asList(INDEXED_LOOKUP_FILE), MERGED_LOOKUP_FILE, reading );
+			SortStats resorted = CsvFileSorter.sort( INDEXED_LOOKUP_FILE, RESORTED_LOOKUP_FILE, reading );
+
+			// verifying test result
+			assertTrue( sorted );
+			assertEquals( 20000, merged.getRowCount() );
+			assertEquals( expected, readTestFile(MERGED_LOOKUP_FILE) );
+			assertEquals( 20000, resorted.getRowCount() );
+			assertEquals( expected, readTestFile(RESORTED_LOOKUP_FILE) );
+			if (options.getOutputFormat() == FileFormat.SERIALIZED && options.getOutputCodec().equals(Codec.SNAPPY)) {
+				// the blocks make a single Snappy-compressed object stream
+				assertEquals( expected, readTestFile(INDEXED_LOOKUP_FILE) );
+			}
+		}
+	}
+
+	/**
+	 * This method checks that without a sortSpec, keys are compared over their own columns only
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void LookupsWithoutSortSpecMatchKeyColumns() throws IOException {
+
+		// Test file is generated
+		List<List<String>> rows = generateRows(20000, 4321L);
+		StringBuilder sb = new StringBuilder();
+		for (List<String> row : rows) {
+			sb.append(row.get(1)).append(',').append(row.get(0)).append(',').append(row.get(2)).append('\n');
+		}
+		Files.write(new File(LOOKUP_CSVFILE).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+		SortOptions options = options(FileFormat.CSV, Codec.LZ4, 4096);
+		options.setSortSpec(null);
+		CsvFileSorter.sort( LOOKUP_CSVFILE, INDEXED_LOOKUP_FILE, options );
+
+		IndexedSortedFile indexed = IndexedSortedFile.open(INDEXED_LOOKUP_FILE, options);
+		try {
+			assertTrue( indexed.getBlockCount() > 10 );
+			for (String value : new String[] { "", "0", "123", "399", "400" }) {
+				// action
+				List<List<String>> found = indexed.get(Arrays.asList(value));
+
+				// verifying test result
+				int expected = 0;
+				for (List<String> row : rows) {
+					if (row.get(1).equals(value)) {
+						expected++;
+					}
+				}
+				assertEquals( value, expected, found.size() );
+				for (List<String> row : found) {
+					assertEquals( value, row.get(0) );
+				}
+			}
+			List<List<String>> range = toList(indexed.range(Arrays.asList("150"), Arrays.asList("160")));
+			assertFalse( range.isEmpty() );
+			for (List<String> row : range) {
+				assertTrue( row.get(0).compareTo("150") >= 0 && row.get(0).compareTo("160") < 0 );
+			}
+		} finally {
+			indexed.close();
+		}
+	}
+
+	/**
+	 * This method checks that opening a file without an index fails
+	 *
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void FileWithoutIndexIsRejected() throws IOException {
+		new File(SORTED_LOOKUP_CSVFILE + IndexedRowWriter.INDEX_SUFFIX).delete();
+		IndexedSortedFile.open(SORTED_LOOKUP_CSVFILE, options(FileFormat.CSV, Codec.NONE, 0));
+	}
+}
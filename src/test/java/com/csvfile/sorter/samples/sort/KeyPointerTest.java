@@ -0,0 +1,150 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The class tests sorting by the key columns and the position of each row
+ *
+ */
+public class KeyPointerTest extends CsvFileSorterTest {
+
+	private static final String WIDE_CSVFILE       = SAVE_DIRECTORY
+															+ F + "Wide.csv";
+	private static final String SORTED_ALL_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedAllWide.csv";
+	private static final String SORTED_KEY_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedKeyPointerWide.csv";
+
+	/**
+	 * Writes a CSV file with many columns, quoted cells, CRLF and LF line ends and no newline at the end
+	 */
+	private static void generateWideCsvFile(int rows, int columns, long seed) throws IOException {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < rows; i++) {
+			for (int c = 0; c < columns; c++) {
+				if (c > 0) {
+					sb.append(',');
+				}
+				if (c == 1) {
+					sb.append(random.nextInt(10) == 0 ? "" : Integer.toString(random.nextInt(500)));
+				} else if (c == 3) {
+					sb.append('"').append((char) ('a' + random.nextInt(3))).append(",\"\"x\n").append('"');
+				} else {
+					sb.append("cell").append(random.nextInt(100000));
+				}
+			}
+			if (i < rows - 1) {
+				sb.append(random.nextBoolean() ? "\r\n" : "\n");
+			}
+		}
+		Files.write(new File(WIDE_CSVFILE).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static SortOptions wideOptions() {
+		SortOptions options = new SortOptions();
+		options.setInputFormat(FileFormat.CSV);
+		options.setOutputFormat(FileFormat.CSV);
+		options.setSortSpec( new SortSpec(new SortKey(3, KeyType.STRING),
+										  new SortKey(1, KeyType.LONG, SortKey.Direction.DESC)) );
+		options.setMemoryBudget(256 * 1024);
+		return options;
+	}
+
+	/**
+	 * This method checks that the key and pointer sort makes the same file as the normal sort with far smaller runs
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void KeyPointerSortIsSameAsNormalSort() throws IOException {
+
+		// Test file is generated
+		generateWideCsvFile(6000, 60, 2468L);
+		SortStats expectedStats = CsvFileSorter.sort( WIDE_CSVFILE, SORTED_ALL_CSVFILE, wideOptions() );
+		byte[] expected = Files.readAllBytes(new File(SORTED_ALL_CSVFILE).toPath());
+
+		for (int variant = 0; variant < 5; variant++) {
+			SortOptions options = wideOptions();
+			options.setKeyPointer(true);
+			options.setMaxFanIn(3);
+			if (variant == 1) {
+				options.setNormalizedKeys(true);
+				options.setArenaBuffer(true);
+			} else if (variant == 2) {
+				options.setParallelism(3);
+				options.setMergeParallelism(3);
+			} else if (variant == 3) {
+				options.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+			} else if (variant == 4) {
+				options.setMemoryBudget(16 * 1024);
+				options.setNormalizedKeys(true);
+			}
+
+			// action
+			SortStats stats = CsvFileSorter.sort( WIDE_CSVFILE, SORTED_KEY_CSVFILE, options );
+
+			// verifying test result
+			assertEquals( 6000, stats.getRowCount() );
+			assertTrue( stats.getRunCount() > 1 );
+			assertArrayEquals( expected, Files.readAllBytes(new File(SORTED_KEY_CSVFILE).toPath()) );
+			if (variant == 0) {
+				long runBytes = 0;
+				for (long size : stats.getRunSizes()) {
+					runBytes += size;
+				}
+				long expectedRunBytes = 0;
+				for (long size : expectedStats.getRunSizes()) {
+					expectedRunBytes += size;
+				}
+				assertTrue( runBytes * 10 < expectedRunBytes );
+			}
+		}
+	}
+
+	/**
+	 * This method checks the options that the key and pointer sort does not support
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void UnsupportedOptionsAreRejected() throws IOException {
+
+		// Test file is generated
+		generateWideCsvFile(10, 5, 1357L);
+
+		for (int variant = 0; variant < 5; variant++) {
+			SortOptions options = wideOptions();
+			options.setKeyPointer(true);
+			if (variant == 0) {
+				options.setSortSpec(null);
+			} else if (variant == 1) {
+				options.setInputCodec(Codec.SNAPPY);
+			} else if (variant == 2) {
+				options.setDuplicates(Duplicates.FIRST_PER_KEY);
+			} else if (variant == 3) {
+				options.setCharset(StandardCharsets.UTF_16);
+			}
+
+			// action
+			try {
+				if (variant == 4) {
+					CsvFileSorter.top( WIDE_CSVFILE, SORTED_KEY_CSVFILE, 3, options );
+				} else {
+					CsvFileSorter.sort( WIDE_CSVFILE, SORTED_KEY_CSVFILE, options );
+				}
+				fail( "expected IllegalArgumentException: " + variant );
+			} catch (IllegalArgumentException e) {
+				// verifying test result
+			}
+		}
+	}
+}
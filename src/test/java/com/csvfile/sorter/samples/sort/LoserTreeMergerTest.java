@@ -0,0 +1,128 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The class tests that the loser tree merges in the same order as the heap
+ *
+ */
+public class LoserTreeMergerTest extends CsvFileSorterTest {
+
+	private static final String LOSER_TREE_CSVFILE  = SAVE_DIRECTORY
+															+ F + "LoserTree.csv";
+	private static final String SORTED_HEAP_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedHeapLoserTree.csv";
+	private static final String SORTED_TREE_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedTreeLoserTree.csv";
+
+	/**
+	 * This method checks that sorting with the loser tree makes the same file as the heap
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void LoserTreeSortIsSameAsHeapSort() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(40000, 1122L), LOSER_TREE_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(128 * 1024);
+		CsvFileSorter.sort( LOSER_TREE_CSVFILE, SORTED_HEAP_CSVFILE, options );
+
+		options.setMergeEngine(MergeEngine.LOSER_TREE);
+		SortStats stats = CsvFileSorter.sort( LOSER_TREE_CSVFILE, SORTED_TREE_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( stats.getRunCount() > 2 );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_HEAP_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_TREE_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks any number of inputs, empty inputs, long streaks and equal rows
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void LoserTreeMergeIsSameAsHeapMerge() throws IOException {
+
+		Random random = new Random(77L);
+		for( int k=1; k <= 9; k++ ) {
+			List<List<List<String>>> inputs = new ArrayList<List<List<String>>>();
+			for( int i=0; i < k; i++ ) {
+				List<List<String>> rows = new ArrayList<List<String>>();
+				int count = random.nextInt(4) == 0 ? 0 : random.nextInt(300);
+				// some inputs have long streaks of small values
+				int bound = random.nextBoolean() ? 20 : 1000;
+				for( int j=0; j < count; j++ ) {
+					rows.add( new ArrayList<String>(Arrays.asList(String.format("%04d", random.nextInt(bound)), i + "-" + j)) );
+				}
+				Collections.sort( rows, new Comparator<List<String>>() {
+					@Override
+					public int compare(List<String> r1, List<String> r2) {
+						return r1.get(0).compareTo(r2.get(0));
+					}
+				});
+				inputs.add(rows);
+			}
+
+			List<List<String>> heap = merge( inputs, MergeEngine.HEAP );
+			List<List<String>> tree = merge( inputs, MergeEngine.LOSER_TREE );
+
+			// verifying test result
+			assertEquals( "k=" + k, heap, tree );
+		}
+	}
+
+	private List<List<String>> merge( List<List<List<String>>> inputs, MergeEngine engine ) throws IOException {
+		Comparator<List<String>> byKey = new Comparator<List<String>>() {
+			@Override
+			public int compare(List<String> r1, List<String> r2) {
+				return r1.get(0).compareTo(r2.get(0));
+			}
+		};
+		List<BinaryFileBuffer> buffers = new ArrayList<BinaryFileBuffer>();
+		for( int i=0; i < inputs.size(); i++ ) {
+			final Iterator<List<String>> rows = inputs.get(i).iterator();
+			buffers.add( new BinaryFileBuffer(new RowReader() {
+				@Override
+				public List<String> read() {
+					return rows.hasNext() ? rows.next() : null;
+				}
+
+				@Override
+				public void close() {
+				}
+			}, i, null) );
+		}
+
+		final List<List<String>> merged = new ArrayList<List<String>>();
+		long count = engine.merge( buffers, byKey, new RowWriter() {
+			@Override
+			public void write(List<String> row) {
+				merged.add(row);
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		assertEquals( merged.size(), count );
+		return merged;
+	}
+}
@@ -0,0 +1,110 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The class tests the memory budget and the row size estimation
+ *
+ */
+public class MemoryBudgetTest extends CsvFileSorterTest {
+
+	private static final String BUDGET_CSVFILE        = SAVE_DIRECTORY
+															+ F + "Budget.csv";
+	private static final String SORTED_DEFAULT_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedDefaultBudget.csv";
+	private static final String SORTED_BUDGET_CSVFILE  = SAVE_DIRECTORY
+															+ F + "SortedSmallBudget.csv";
+
+	/**
+	 * This method checks that a small memory budget makes many runs and the same output
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void SmallBudgetMakesManyRunsAndSameOutput() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(20000, 4321L), BUDGET_CSVFILE );
+
+		// action
+		SortStats defaults = CsvFileSorter.sort( BUDGET_CSVFILE, SORTED_DEFAULT_CSVFILE, new SortOptions() );
+
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		SortStats small = CsvFileSorter.sort( BUDGET_CSVFILE, SORTED_BUDGET_CSVFILE, options );
+
+		// verifying test result
+		assertEquals( 1, defaults.getRunCount() );
+		assertEquals( 256 * 1024, small.getMemoryBudget() );
+		assertEquals( 256 * 1024, small.getBlockSize() );
+		assertTrue( small.getRunCount() > 1 );
+		assertEquals( 20000, small.getRowCount() );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_DEFAULT_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_BUDGET_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that parallel blocks share the memory budget
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void ParallelBlocksShareBudget() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(20000, 8765L), BUDGET_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(400 * 1024);
+		options.setParallelism(3);
+		SortStats stats = CsvFileSorter.sort( BUDGET_CSVFILE, SORTED_BUDGET_CSVFILE, options );
+
+		// verifying test result
+		assertEquals( 100 * 1024, stats.getBlockSize() );
+		assertTrue( stats.getRunCount() > 1 );
+		assertEquals( 20000, readTestFile( SORTED_BUDGET_CSVFILE ).size() );
+	}
+
+	/**
+	 * This method checks the estimated size of strings for each object layout
+	 */
+	@Test
+	public void StringSizeFollowsObjectLayout() {
+
+		MemoryEstimator compressed = new MemoryEstimator(12, 16, 4, true);
+		MemoryEstimator uncompressed = new MemoryEstimator(16, 24, 8, false);
+
+		// verifying test result
+		assertEquals( 24 + 24, compressed.string("abc") );
+		assertEquals( 24 + 24, compressed.string("あ") );
+		assertEquals( 32 + 32, uncompressed.string("abc") );
+		assertEquals( 0, compressed.string(null) );
+	}
+
+	/**
+	 * This method checks that the estimated size of a row includes its keys
+	 */
+	@Test
+	public void RowSizeIncludesKeys() {
+
+		MemoryEstimator estimator = new MemoryEstimator(12, 16, 4, true);
+		List<String> row = new ArrayList<String>(Arrays.asList("12", "abc"));
+		SortSpec spec = new SortSpec(new SortKey(0, KeyType.LONG));
+
+		// verifying test result
+		long plain = estimator.row(row);
+		assertEquals( 4 + 24 + 24 + (24 + 24) * 2, plain );
+		assertEquals( plain + 24 + 24 + 24, estimator.row(spec.prepare(row)) );
+		assertTrue( estimator.row(new NormalizedKeyComparator(spec).prepare(row)) > plain );
+	}
+}
@@ -0,0 +1,263 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The class tests merging already sorted files and the sort-merge join
+ *
+ */
+public class MergeJoinTest extends CsvFileSorterTest {
+
+	private static final String PART_CSVFILE     = SAVE_DIRECTORY
+															+ F + "Part%d.csv";
+	private static final String SORTED_PART_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedPart%d.csv";
+	private static final String ALL_CSVFILE      = SAVE_DIRECTORY
+															+ F + "AllParts.csv";
+	private static final String SORTED_ALL_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedAllParts.csv";
+	private static final String MERGED_CSVFILE   = SAVE_DIRECTORY
+															+ F + "MergedParts.csv";
+	private static final String LEFT_CSVFILE     = SAVE_DIRECTORY
+															+ F + "JoinLeft.csv";
+	private static final String SORTED_LEFT_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedJoinLeft.csv";
+	private static final String RIGHT_CSVFILE    = SAVE_DIRECTORY
+															+ F + "JoinRight.csv";
+	private static final String JOINED_CSVFILE   = SAVE_DIRECTORY
+															+ F + "Joined.csv";
+
+	private static SortOptions csvOptions(SortSpec spec) {
+		SortOptions options = new SortOptions();
+		options.setInputFormat(FileFormat.CSV);
+		options.setOutputFormat(FileFormat.CSV);
+		options.setSortSpec(spec);
+		options.setMemoryBudget(64 * 1024);
+		return options;
+	}
+
+	private static List<List<String>> generateRows(int count, int keys, int columns, Random random) {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (int i = 0; i < count; i++) {
+			List<String> row = new ArrayList<String>();
+			for (int c = 0; c < columns; c++) {
+				if (c == 1) {
+					row.add(random.nextInt(20) == 0 ? "" : Integer.toString(random.nextInt(keys)));
+				} else {
+					row.add("v" + random.nextInt(1000));
+				}
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private static void writeCsv(List<List<String>> rows, String file) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (List<String> row : rows) {
+			for (int c = 0; c < row.size(); c++) {
+				if (c > 0) {
+					sb.append(',');
+				}
+				sb.append(row.get(c));
+			}
+			sb.append('\n');
+		}
+		Files.write(new File(file).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static List<List<String>> readCsv(String file) throws IOException {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		CsvTokenizer in = new CsvTokenizer(new FileInputStream(file), StandardCharsets.UTF_8, ',');
+		try {
+			for (List<String> row = in.read(); row != null; row = in.read()) {
+				rows.add(new ArrayList<String>(row));
+			}
+		} finally {
+			in.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * This method checks that merging sorted files gives the same file as sorting all rows
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void MergeOfSortedFilesIsSameAsSort() throws IOException {
+
+		// Test file is generated
+		Random random = new Random(1122L);
+		SortSpec spec = new SortSpec(new SortKey(1, KeyType.LONG, SortKey.Direction.DESC));
+		List<List<String>> all = new ArrayList<List<String>>();
+		List<String> sortedParts = new ArrayList<String>();
+		for (int i = 0; i < 3; i++) {
+			List<List<String>> rows = generateRows(3000 + i * 500, 200, 4, random);
+			all.addAll(rows);
+			writeCsv(rows, String.format(PART_CSVFILE, i));
+			CsvFileSorter.sort( String.format(PART_CSVFILE, i), String.format(SORTED_PART_CSVFILE, i), csvOptions(spec) );
+			sortedParts.add(String.format(SORTED_PART_CSVFILE, i));
+		}
+		sortedParts.add(SAVE_DIRECTORY + F + "NoSuchPart.csv");
+		writeCsv(all, ALL_CSVFILE);
+		CsvFileSorter.sort( ALL_CSVFILE, SORTED_ALL_CSVFILE, csvOptions(spec) );
+		byte[] expected = Files.readAllBytes(new File(SORTED_ALL_CSVFILE).toPath());
+
+		for (int variant = 0; variant < 2; variant++) {
+			SortOptions options = csvOptions(spec);
+			if (variant == 1) {
+				options.setNormalizedKeys(true);
+				options.setMergeEngine(MergeEngine.LOSER_TREE);
+			}
+
+			// action
+			SortStats stats = CsvFileSorter.merge( sortedParts, MERGED_CSVFILE, options );
+
+			// verifying test result
+			assertEquals( all.size(), stats.getRowCount() );
+			assertEquals( 1, stats.getMergePassCount() );
+			assertEquals( new File(MERGED_CSVFILE).length(), stats.getMergePasses().get(0).getBytesWritten() );
+			assertArrayEquals( expected, Files.readAllBytes(new File(MERGED_CSVFILE).toPath()) );
+		}
+	}
+
+	/**
+	 * This method checks that an unsorted input is detected
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void UnsortedInputIsDetected() throws IOException {
+
+		// Test file is generated
+		SortOptions options = csvOptions(new SortSpec(new SortKey(1, KeyType.LONG)));
+		writeCsv(Arrays.asList(Arrays.asList("a", "1"), Arrays.asList("b", "3"), Arrays.asList("c", "2")), ALL_CSVFILE);
+		writeCsv(Arrays.asList(Arrays.asList("a", ""), Arrays.asList("b", "1"), Arrays.asList("c", "1")), SORTED_ALL_CSVFILE);
+
+		// verifying test result
+		assertFalse( CsvFileSorter.isSorted(ALL_CSVFILE, options) );
+		assertTrue( CsvFileSorter.isSorted(SORTED_ALL_CSVFILE, options) );
+		assertTrue( CsvFileSorter.isSorted(SAVE_DIRECTORY + F + "NoSuchPart.csv", options) );
+		try {
+			CsvFileSorter.merge( Arrays.asList(SORTED_ALL_CSVFILE, ALL_CSVFILE), MERGED_CSVFILE, options );
+			fail( "expected UnsortedInputException" );
+		} catch (UnsortedInputException e) {
+			assertEquals( new File(ALL_CSVFILE), e.getFile() );
+			assertEquals( 3, e.getRow() );
+		}
+	}
+
+	/**
+	 * Joins the rows with nested loops
+	 */
+	private static List<List<String>> expectedJoin(List<List<String>> lefts, List<List<String>> rights, JoinSpec join) {
+		List<List<String>> sortedLefts = new ArrayList<List<String>>(lefts);
+		Collections.sort(sortedLefts, join.getLeft());
+		List<List<String>> sortedRights = new ArrayList<List<String>>(rights);
+		Collections.sort(sortedRights, join.getRight());
+		List<List<String>> joined = new ArrayList<List<String>>();
+		for (List<String> left : sortedLefts) {
+			List<List<String>> matches = new ArrayList<List<String>>();
+			for (List<String> right : sortedRights) {
+				if (!left.get(1).isEmpty() && left.get(1).equals(right.get(0))) {
+					matches.add(right);
+				}
+			}
+			if (join.getType() == JoinType.ANTI) {
+				if (matches.isEmpty()) {
+					joined.add(left);
+				}
+			} else if (matches.isEmpty()) {
+				if (join.getType() == JoinType.LEFT) {
+					List<String> row = new ArrayList<String>(left);
+					row.addAll(Arrays.asList("", ""));
+					joined.add(row);
+				}
+			} else {
+				for (List<String> right : matches) {
+					List<String> row = new ArrayList<String>(left);
+					row.addAll(right);
+					joined.add(row);
+				}
+			}
+		}
+		return joined;
+	}
+
+	/**
+	 * This method checks every join type against a nested loop join, with sorted and unsorted inputs
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void JoinIsSameAsNestedLoopJoin() throws IOException {
+
+		// Test file is generated
+		Random random = new Random(3344L);
+		List<List<String>> lefts = generateRows(4000, 300, 3, random);
+		writeCsv(lefts, LEFT_CSVFILE);
+		List<List<String>> rights = new ArrayList<List<String>>();
+		for (int i = 0; i < 600; i++) {
+			int key = random.nextInt(400);
+			rights.add(Arrays.asList(key % 37 == 0 ? "" : Integer.toString(key), "r" + i));
+		}
+		writeCsv(rights, RIGHT_CSVFILE);
+		SortSpec leftKey = new SortSpec(new SortKey(1, KeyType.LONG));
+		SortSpec rightKey = new SortSpec(new SortKey(0, KeyType.LONG));
+		CsvFileSorter.sort( LEFT_CSVFILE, SORTED_LEFT_CSVFILE, csvOptions(leftKey) );
+
+		for (JoinType type : JoinType.values()) {
+			JoinSpec join = new JoinSpec(type, leftKey, rightKey);
+			List<List<String>> expected = expectedJoin(lefts, rights, join);
+
+			for (String left : new String[] { LEFT_CSVFILE, SORTED_LEFT_CSVFILE }) {
+				// action
+				long count = CsvFileSorter.join( left, RIGHT_CSVFILE, JOINED_CSVFILE, join, csvOptions(null) );
+
+				// verifying test result
+				assertEquals( expected.size(), count );
+				assertEquals( type + " " + left, expected, readCsv(JOINED_CSVFILE) );
+			}
+		}
+	}
+
+	/**
+	 * This method checks the join specifications and options that are rejected
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void InvalidJoinIsRejected() throws IOException {
+
+		try {
+			new JoinSpec(JoinType.INNER, new SortSpec(new SortKey(0, KeyType.LONG)), new SortSpec(new SortKey(0, KeyType.STRING)));
+			fail( "expected IllegalArgumentException" );
+		} catch (IllegalArgumentException e) {
+			// verifying test result
+		}
+
+		JoinSpec join = new JoinSpec(JoinType.INNER, new SortSpec(new SortKey(0, KeyType.LONG)), new SortSpec(new SortKey(1, KeyType.LONG)));
+		SortOptions options = csvOptions(null);
+		options.setDuplicates(Duplicates.FIRST_PER_KEY);
+		try {
+			CsvFileSorter.join( LEFT_CSVFILE, RIGHT_CSVFILE, JOINED_CSVFILE, join, options );
+			fail( "expected IllegalArgumentException" );
+		} catch (IllegalArgumentException e) {
+			// verifying test result
+		}
+	}
+}
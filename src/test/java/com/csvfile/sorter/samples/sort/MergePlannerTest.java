@@ -0,0 +1,110 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The class tests that intermediate merge passes
+ *
+ */
+public class MergePlannerTest extends CsvFileSorterTest {
+
+	private static final Comparator<List<String>> FIRST_COLUMN = new Comparator<List<String>>() {
+		@Override
+		public int compare(List<String> r1, List<String> r2) {
+			return r1.get(0).compareTo(r2.get(0));
+		}
+	};
+
+	private SortSession session;
+
+	@Before
+	public void openSession() throws IOException {
+		session = new SortSession( new SortOptions(), Codec.SNAPPY );
+	}
+
+	@After
+	public void closeSession() {
+		session.close();
+	}
+
+	/**
+	 * This method checks that runs are merged until the number of runs is less than fan-in,
+	 * and that rows with the same key keep the order of runs.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void RunsAreReducedToFanIn() throws IOException {
+
+		// Test runs are created. Every run has key "b" with the number of the run.
+		List<SortedRun> runs = new ArrayList<SortedRun>();
+		for( int i=0; i < 7; i++ ) {
+			runs.add( CsvFileSorter.save( generateTestData( new String[][] {{"a" + i}, {"b", String.valueOf(i)}, {"c" + i}} ), null, session ));
+		}
+
+		// action
+		SortStats stats = new SortStats();
+		List<SortedRun> reduced = MergePlanner.reduce( runs, FIRST_COLUMN, 2, stats );
+
+		// verifying test result
+		assertEquals( 2, reduced.size() );
+		assertEquals( 2, stats.getMergePassCount() );
+		assertEquals( 7, stats.getMergePasses().get(0).getInputRuns() );
+		assertEquals( 4, stats.getMergePasses().get(0).getOutputRuns() );
+		assertEquals( 21, reduced.get(0).getRowCount() + reduced.get(1).getRowCount() );
+		for( MergePassStats pass : stats.getMergePasses() ) {
+			assertTrue( pass.getBytesRead() > 0 );
+			assertTrue( pass.getBytesWritten() > 0 );
+		}
+
+		List<String> order = new ArrayList<String>();
+		for( SortedRun run : reduced ) {
+			RunReader reader = new RunReader( run );
+			List<String> row;
+			while( (row = reader.read()) != null ) {
+				if( row.get(0).equals("b") ) {
+					order.add(row.get(1));
+				}
+			}
+			reader.close();
+			run.delete();
+		}
+		assertEquals( Arrays.asList("0", "1", "2", "3", "4", "5", "6"), order );
+	}
+
+	/**
+	 * This method checks that only the needed runs are merged when one partial pass is enough
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void OnlyExcessRunsAreMerged() throws IOException {
+
+		List<SortedRun> runs = new ArrayList<SortedRun>();
+		for( int i=0; i < 6; i++ ) {
+			runs.add( CsvFileSorter.save( generateTestData( new String[][] {{"a" + i}} ), null, session ));
+		}
+
+		// action
+		SortStats stats = new SortStats();
+		List<SortedRun> reduced = MergePlanner.reduce( runs, FIRST_COLUMN, 4, stats );
+
+		// verifying test result
+		assertEquals( 4, reduced.size() );
+		assertEquals( 1, stats.getMergePassCount() );
+		assertEquals( 3, stats.getMergePasses().get(0).getRows() );
+		for( SortedRun run : reduced ) {
+			run.delete();
+		}
+	}
+}
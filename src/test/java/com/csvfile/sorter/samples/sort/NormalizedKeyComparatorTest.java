@@ -0,0 +1,108 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.csvfile.sorter.samples.sort.SortKey.Direction;
+import com.csvfile.sorter.samples.sort.SortKey.NullOrder;
+
+/**
+ * The class tests that normalized keys are compared in the same order as the original comparator
+ *
+ */
+public class NormalizedKeyComparatorTest extends CsvFileSorterTest {
+
+	private static final String MIXED_CSVFILE             = SAVE_DIRECTORY
+																+ F + "Mixed.csv";
+	private static final String SORTED_MIXED_CSVFILE      = SAVE_DIRECTORY
+																+ F + "SortedMixed.csv";
+	private static final String NORMALIZED_MIXED_CSVFILE  = SAVE_DIRECTORY
+																+ F + "NormalizedMixed.csv";
+
+	private static final String[] STRINGS = {"", "a", "ab", "abc", "b", "\u0000", "a\u0000", "é", "ÿ", "~", "\u007f",
+											 "日本", "日本語", "￿", "😀", "\ud83d", "Z"};
+
+	private static final String[] NUMBERS = {"0", "-0", "1", "-1", "10", "9", "-10", "100", "8.5", "8.50", "-8.5",
+											 "0.001", "-0.001", "123456789012", "-123456789012", "1E+3", ""};
+
+	private static final String[] DATES = {"2012-01-05", "1999-12-31", "1970-01-01", "1969-12-31", "2038-01-19", ""};
+
+	/**
+	 * This method checks the default comparator
+	 */
+	@Test
+	public void DefaultOrderIsKept() {
+		assertSameOrder( CsvFileSorter.DEFAULT_COMPARATOR, new NormalizedKeyComparator(null), 1L );
+	}
+
+	/**
+	 * This method checks typed keys with both directions and both null orders
+	 */
+	@Test
+	public void TypedOrderIsKept() {
+		SortSpec spec = new SortSpec( new SortKey(0, KeyType.STRING, Direction.DESC),
+									  new SortKey(1, KeyType.LONG, Direction.ASC, NullOrder.NULLS_LAST),
+									  new SortKey(2, KeyType.DECIMAL, Direction.DESC),
+									  new SortKey(3, KeyType.DATE, Direction.DESC, NullOrder.NULLS_LAST),
+									  new SortKey(4, KeyType.DECIMAL) );
+		assertSameOrder( spec, new NormalizedKeyComparator(spec), 2L );
+	}
+
+	/**
+	 * This method checks that sorting with normalized keys makes the same file
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void SortingWithNormalizedKeysIsSame() throws IOException {
+
+		generateTestFile( generateRows(30000, 3L), MIXED_CSVFILE );
+
+		SortOptions options = new SortOptions();
+		CsvFileSorter.sort( MIXED_CSVFILE, SORTED_MIXED_CSVFILE, options );
+
+		options.setNormalizedKeys(true);
+		options.setMergeParallelism(2);
+		CsvFileSorter.sort( MIXED_CSVFILE, NORMALIZED_MIXED_CSVFILE, options );
+
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_MIXED_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(NORMALIZED_MIXED_CSVFILE).toPath()) );
+	}
+
+	private void assertSameOrder( Comparator<List<String>> expected, NormalizedKeyComparator actual, long seed ) {
+		List<List<String>> rows = generateRows(400, seed);
+		for( List<String> r1 : rows ) {
+			for( List<String> r2 : rows ) {
+				int e = Integer.signum( expected.compare(r1, r2) );
+				assertEquals( r1 + " " + r2, e, Integer.signum( actual.compare(r1, r2) ));
+				assertEquals( r1 + " " + r2, e, Integer.signum( actual.compare(actual.prepare(r1), actual.prepare(r2)) ));
+			}
+		}
+	}
+
+	private List<List<String>> generateRows( int count, long seed ) {
+		Random random = new Random(seed);
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for( int i=0; i < count; i++ ) {
+			List<String> row = new ArrayList<String>();
+			row.add( STRINGS[random.nextInt(STRINGS.length)] );
+			row.add( random.nextInt(10) == 0 ? null : NUMBERS[random.nextInt(NUMBERS.length - 5)].replace(".", "").replace("E+3", "") );
+			row.add( NUMBERS[random.nextInt(NUMBERS.length)] );
+			row.add( DATES[random.nextInt(DATES.length)] );
+			if( random.nextBoolean() ) {
+				row.add( NUMBERS[random.nextInt(NUMBERS.length)] );
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+}
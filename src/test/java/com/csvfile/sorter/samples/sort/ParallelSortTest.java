@@ -0,0 +1,191 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * The class tests that parallel run generation
+ *
+ */
+public class ParallelSortTest extends CsvFileSorterTest {
+
+	private static final String RANDOM_CSVFILE          = SAVE_DIRECTORY
+																+ F + "Random.csv";
+	private static final String SORTED_SERIAL_CSVFILE   = SAVE_DIRECTORY
+																+ F + "SortedSerialRandom.csv";
+	private static final String SORTED_PARALLEL_CSVFILE = SAVE_DIRECTORY
+																+ F + "SortedParallelRandom.csv";
+	private static final String MERGED_PARALLEL_CSVFILE = SAVE_DIRECTORY
+																+ F + "MergedParallelRandom.csv";
+
+	/**
+	 * This method checks that parallel sorting makes the same rows as single thread sorting
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void ParallelSortingIsSameAsSerialSorting() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(20000, 1234L), RANDOM_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(128 * 1024);
+		CsvFileSorter.sort( RANDOM_CSVFILE, SORTED_SERIAL_CSVFILE, options );
+
+		options.setParallelism(4);
+		SortStats stats = CsvFileSorter.sort( RANDOM_CSVFILE, SORTED_PARALLEL_CSVFILE, options );
+
+		// verifying test result
+		List<List<String>> serial = readTestFile( SORTED_SERIAL_CSVFILE );
+		List<List<String>> parallel = readTestFile( SORTED_PARALLEL_CSVFILE );
+
+		assertTrue( stats.getRunCount() > 1 );
+		assertEquals( 20000, parallel.size() );
+		assertTrue( serial.equals( parallel ));
+		assertEquals( new File(SORTED_SERIAL_CSVFILE).length(), new File(SORTED_PARALLEL_CSVFILE).length() );
+	}
+
+	/**
+	 * This method checks that parallel merging makes the same file as single thread merging
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void ParallelMergingIsSameAsSerialMerging() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(60000, 5678L), RANDOM_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		CsvFileSorter.sort( RANDOM_CSVFILE, SORTED_SERIAL_CSVFILE, options );
+
+		options.setMergeParallelism(3);
+		SortStats stats = CsvFileSorter.sort( RANDOM_CSVFILE, MERGED_PARALLEL_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( stats.getRunCount() > 1 );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_SERIAL_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(MERGED_PARALLEL_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that later ranges are merged while the first range is still being written
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void RangesAreMergedConcurrently() throws IOException {
+
+		final CountDownLatch laterRanges = new CountDownLatch(2);
+		SortOptions options = new SortOptions();
+		options.setMergeParallelism(3);
+		options.setMemoryBudget(64 * 1024);
+		options.setListener(new SortListener() {
+			@Override
+			public void rangeMerged(int partition, long rows) {
+				if (partition > 0) {
+					laterRanges.countDown();
+				}
+			}
+		});
+		SortSession session = new SortSession( options, Codec.SNAPPY );
+		try {
+			// Test runs are created
+			Random random = new Random(2468L);
+			List<SortedRun> runs = new ArrayList<SortedRun>();
+			List<List<String>> expected = new ArrayList<List<String>>();
+			for( int i=0; i < 4; i++ ) {
+				List<List<String>> rows = new ArrayList<List<String>>();
+				for( int j=0; j < 30000; j++ ) {
+					rows.add( Arrays.asList( String.format("%08d", random.nextInt(100000000)), "run" + i ));
+				}
+				Collections.sort( rows, CsvFileSorter.DEFAULT_COMPARATOR );
+				runs.add( CsvFileSorter.save( rows, CsvFileSorter.DEFAULT_COMPARATOR, session ));
+				expected.addAll( rows );
+			}
+			Collections.sort( expected, CsvFileSorter.DEFAULT_COMPARATOR );
+
+			// the first range waits for the later ranges before writing its first row
+			final boolean[] concurrent = { false };
+			final List<List<String>> merged = new ArrayList<List<String>>();
+			RowWriter out = new RowWriter() {
+				@Override
+				public void write(List<String> row) throws IOException {
+					if( merged.isEmpty() ) {
+						try {
+							concurrent[0] = laterRanges.await(30, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							throw new InterruptedIOException();
+						}
+					}
+					merged.add( new ArrayList<String>(row) );
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+
+			// action
+			long rows = PartitionedMerge.mergeSortedFiles( runs, out, CsvFileSorter.DEFAULT_COMPARATOR, options, session, new SortStats() );
+
+			// verifying test result
+			assertTrue( concurrent[0] );
+			assertEquals( 120000, rows );
+			assertEquals( expected, merged );
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * This method checks that partitioned output files are the sorted rows in order
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void PartitionedOutputIsSortedInOrder() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(60000, 91011L), RANDOM_CSVFILE );
+
+		// action
+		CsvFileSorter.sort( RANDOM_CSVFILE, SORTED_SERIAL_CSVFILE );
+
+		SortOptions options = new SortOptions();
+		options.setMergeParallelism(3);
+		options.setPartitionedOutput(true);
+		CsvFileSorter.sort( RANDOM_CSVFILE, MERGED_PARALLEL_CSVFILE, options );
+
+		// verifying test result
+		List<List<String>> partitioned = new ArrayList<List<String>>();
+		int partitions = 0;
+		File part;
+		while( (part = PartitionedMerge.partitionFile(new File(MERGED_PARALLEL_CSVFILE), partitions)).isFile() ) {
+			partitioned.addAll( readTestFile( part.getPath() ));
+			part.delete();
+			partitions++;
+		}
+
+		assertTrue( partitions > 1 );
+		assertTrue( readTestFile( SORTED_SERIAL_CSVFILE ).equals( partitioned ));
+	}
+
+}
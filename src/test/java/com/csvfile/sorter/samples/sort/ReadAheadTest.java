@@ -0,0 +1,96 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The class tests the merge with read-ahead and asynchronous output
+ *
+ */
+public class ReadAheadTest extends CsvFileSorterTest {
+
+	private static final String READ_AHEAD_CSVFILE      = SAVE_DIRECTORY
+																+ F + "ReadAhead.csv";
+	private static final String SORTED_SYNC_CSVFILE     = SAVE_DIRECTORY
+																+ F + "SortedSyncReadAhead.csv";
+	private static final String SORTED_ASYNC_CSVFILE    = SAVE_DIRECTORY
+																+ F + "SortedAsyncReadAhead.csv";
+
+	/**
+	 * This method checks that the merge with read-ahead makes the same file
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void ReadAheadMergeIsSameAsSyncMerge() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(40000, 9753L), READ_AHEAD_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		SortStats sync = CsvFileSorter.sort( READ_AHEAD_CSVFILE, SORTED_SYNC_CSVFILE, options );
+
+		options.setReadAhead(64 * 1024);
+		SortStats async = CsvFileSorter.sort( READ_AHEAD_CSVFILE, SORTED_ASYNC_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( async.getRunCount() > 1 );
+		assertEquals( sync.getRowCount(), async.getRowCount() );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_SYNC_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_ASYNC_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that rows and errors are passed through the prefetcher in order
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void PrefetcherPassesRowsAndError() throws IOException {
+
+		final int rows = 5000;
+		RowReader failing = new RowReader() {
+			private int count = 0;
+
+			@Override
+			public List<String> read() throws IOException {
+				if( count == rows ) {
+					throw new IOException("broken run");
+				}
+				return new ArrayList<String>(Arrays.asList(String.valueOf(count++)));
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+
+		ReadAhead readAhead = new ReadAhead(1, 1);
+		RowReader reader = readAhead.prefetch(failing);
+		try {
+			// verifying test result
+			for( int i=0; i < rows; i++ ) {
+				assertEquals( String.valueOf(i), reader.read().get(0) );
+			}
+			try {
+				reader.read();
+				fail();
+			} catch( IOException e ) {
+				assertEquals( "broken run", e.getMessage() );
+			}
+		} finally {
+			reader.close();
+			readAhead.close();
+		}
+	}
+}
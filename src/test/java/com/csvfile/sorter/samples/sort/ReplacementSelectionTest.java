@@ -0,0 +1,155 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The class tests run generation by replacement selection
+ *
+ */
+public class ReplacementSelectionTest extends CsvFileSorterTest {
+
+	private static final String SELECTION_CSVFILE      = SAVE_DIRECTORY
+																+ F + "Selection.csv";
+	private static final String SORTED_BLOCK_CSVFILE   = SAVE_DIRECTORY
+																+ F + "SortedBlockSelection.csv";
+	private static final String SORTED_SELECTED_CSVFILE = SAVE_DIRECTORY
+																+ F + "SortedSelectedSelection.csv";
+
+	/**
+	 * This method checks that replacement selection makes fewer runs and the same file on random rows
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void RandomRowsMakeFewerRunsAndSameOutput() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(40000, 2222L), SELECTION_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		SortStats block = CsvFileSorter.sort( SELECTION_CSVFILE, SORTED_BLOCK_CSVFILE, options );
+
+		options.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+		SortStats selected = CsvFileSorter.sort( SELECTION_CSVFILE, SORTED_SELECTED_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( block.getRunCount() > 2 );
+		// the rows are so small that the heap entries take a large part of the memory
+		assertTrue( selected.getRunCount() < block.getRunCount() );
+		assertFalse( selected.isInputSorted() );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_BLOCK_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_SELECTED_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that nearly sorted rows make a single run
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void NearlySortedRowsMakeSingleRun() throws IOException {
+
+		// Test file is generated
+		List<List<String>> rows = sortedRows(40000);
+		Random random = new Random(3333L);
+		for( int i=0; i < 2000; i++ ) {
+			int j = random.nextInt(rows.size() - 5);
+			Collections.swap( rows, j, j + 1 + random.nextInt(4) );
+		}
+		generateTestFile( rows, SELECTION_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		CsvFileSorter.sort( SELECTION_CSVFILE, SORTED_BLOCK_CSVFILE, options );
+
+		options.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+		SortStats stats = CsvFileSorter.sort( SELECTION_CSVFILE, SORTED_SELECTED_CSVFILE, options );
+
+		// verifying test result
+		assertEquals( 1, stats.getRunCount() );
+		assertFalse( stats.isInputSorted() );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_BLOCK_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_SELECTED_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that sorted input is copied without merging
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void SortedInputSkipsMerge() throws IOException {
+
+		// Test file is generated
+		generateTestFile( sortedRows(20000), SELECTION_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		options.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+		SortStats stats = CsvFileSorter.sort( SELECTION_CSVFILE, SORTED_SELECTED_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( stats.isInputSorted() );
+		assertEquals( 20000, stats.getRowCount() );
+		assertEquals( 0, stats.getMergePassCount() );
+		assertArrayEquals( Files.readAllBytes(new File(SELECTION_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_SELECTED_CSVFILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that sorted CSV input is written again with the line separator and quoting of the output
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void SortedCsvInputIsWrittenAgain() throws IOException {
+
+		// Test file is generated. The rows end with CRLF and some values are quoted without need.
+		StringBuilder sb = new StringBuilder();
+		for( List<String> row : sortedRows(20000) ) {
+			sb.append('"').append(row.get(0)).append("\",").append(row.get(1)).append("\r\n");
+		}
+		Files.write( new File(SELECTION_CSVFILE).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8) );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setInputFormat(FileFormat.CSV);
+		options.setOutputFormat(FileFormat.CSV);
+		options.setMemoryBudget(256 * 1024);
+		CsvFileSorter.sort( SELECTION_CSVFILE, SORTED_BLOCK_CSVFILE, options );
+
+		options.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+		SortStats stats = CsvFileSorter.sort( SELECTION_CSVFILE, SORTED_SELECTED_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( stats.isInputSorted() );
+		assertEquals( 20000, stats.getRowCount() );
+		byte[] selected = Files.readAllBytes(new File(SORTED_SELECTED_CSVFILE).toPath());
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_BLOCK_CSVFILE).toPath()), selected );
+		assertEquals( -1, new String(selected, StandardCharsets.UTF_8).indexOf('\r') );
+	}
+
+	private List<List<String>> sortedRows( int count ) {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for( int i=0; i < count; i++ ) {
+			rows.add( new ArrayList<String>(Arrays.asList(String.format("%08d", i / 3), String.valueOf(i % 3))) );
+		}
+		return rows;
+	}
+}
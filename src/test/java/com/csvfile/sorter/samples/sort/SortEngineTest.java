@@ -0,0 +1,141 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The class tests the in-memory sort engines used before writing a temporary file
+ *
+ */
+public class SortEngineTest extends CsvFileSorterTest {
+
+	private static final String PREFIX_CSVFILE        = SAVE_DIRECTORY
+																+ F + "Prefix.csv";
+	private static final String SORTED_TIMSORT_CSVFILE = SAVE_DIRECTORY
+																+ F + "SortedTimsortPrefix.csv";
+	private static final String SORTED_RADIX_CSVFILE  = SAVE_DIRECTORY
+																+ F + "SortedRadixPrefix.csv";
+
+	/**
+	 * Makes keys with long shared prefixes (also nested after one differing byte), duplicates and empty keys
+	 */
+	private static byte[][] generateKeys(int count, long seed) {
+		Random random = new Random(seed);
+		byte[] prefix = new byte[300];
+		Arrays.fill(prefix, (byte) 'p');
+		byte[][] keys = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			int kind = random.nextInt(5);
+			if (kind == 0) {
+				keys[i] = new byte[random.nextInt(3)];
+			} else if (kind == 1) {
+				keys[i] = Arrays.copyOf(prefix, prefix.length + random.nextInt(3));
+			} else if (kind == 4) {
+				// prefix, one of two bytes, the prefix again and a short tail
+				keys[i] = new byte[2 * prefix.length + 1 + random.nextInt(3)];
+				System.arraycopy(prefix, 0, keys[i], 0, prefix.length);
+				keys[i][prefix.length] = (byte) random.nextInt(2);
+				System.arraycopy(prefix, 0, keys[i], prefix.length + 1, prefix.length);
+				for (int j = 2 * prefix.length + 1; j < keys[i].length; j++) {
+					keys[i][j] = (byte) random.nextInt(3);
+				}
+			} else {
+				keys[i] = new byte[1 + random.nextInt(6)];
+				for (int j = 0; j < keys[i].length; j++) {
+					keys[i][j] = (byte) (kind == 2 ? random.nextInt(4) : 0x80 + random.nextInt(4));
+				}
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * This method checks that the radix sort gives the same order as a stable comparison sort
+	 */
+	@Test
+	public void RadixSortIsStable() {
+
+		for (int count : new int[] { 0, 1, 15, 900, 5000, 40000 }) {
+			final byte[][] keys = generateKeys(count, count);
+			Integer[] expected = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				expected[i] = i;
+			}
+			Arrays.sort(expected, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i, Integer j) {
+					return Arrays.compareUnsigned(keys[i], keys[j]);
+				}
+			});
+
+			for (boolean parallel : new boolean[] { false, true }) {
+				// action
+				int[] order = RadixSorter.sort(keys, parallel);
+
+				// verifying test result
+				assertEquals( count, order.length );
+				for (int i = 0; i < count; i++) {
+					assertEquals( "count " + count + " position " + i, expected[i].intValue(), order[i] );
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method checks that every sort engine makes the same file as the comparison sort
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void SortEnginesMakeSameFile() throws IOException {
+
+		// Test file is generated
+		Random random = new Random(8642L);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sb.append("https://example.com/catalog/items/").append(random.nextInt(300))
+			  .append(',').append(random.nextInt(20) - 10)
+			  .append(',').append(i).append('\n');
+		}
+		Files.write(new File(PREFIX_CSVFILE).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+		for (int variant = 0; variant < 3; variant++) {
+			SortOptions base = new SortOptions();
+			base.setInputFormat(FileFormat.CSV);
+			base.setOutputFormat(FileFormat.CSV);
+			base.setMemoryBudget(512 * 1024);
+			if (variant == 1) {
+				base.setSortSpec( new SortSpec(new SortKey(0, KeyType.STRING),
+											   new SortKey(1, KeyType.LONG, SortKey.Direction.DESC)) );
+			} else if (variant == 2) {
+				base.setSortSpec( new SortSpec(new SortKey(1, KeyType.LONG)) );
+				base.setNormalizedKeys(true);
+			}
+			CsvFileSorter.sort( PREFIX_CSVFILE, SORTED_TIMSORT_CSVFILE, base );
+			byte[] expected = Files.readAllBytes(new File(SORTED_TIMSORT_CSVFILE).toPath());
+
+			for (SortEngine engine : new SortEngine[] { SortEngine.RADIX, SortEngine.PARALLEL_RADIX }) {
+				base.setSortEngine(engine);
+				base.setParallelism(engine == SortEngine.RADIX ? 1 : 2);
+
+				// action
+				SortStats stats = CsvFileSorter.sort( PREFIX_CSVFILE, SORTED_RADIX_CSVFILE, base );
+
+				// verifying test result
+				assertEquals( 20000, stats.getRowCount() );
+				assertTrue( stats.getRunCount() > 1 );
+				assertArrayEquals( "variant " + variant + " " + engine,
+								   expected, Files.readAllBytes(new File(SORTED_RADIX_CSVFILE).toPath()) );
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The class tests resuming a sort job from the runs recorded in its manifest
+ *
+ */
+public class SortJobTest extends CsvFileSorterTest {
+
+	private static final String JOB_CSVFILE        = SAVE_DIRECTORY
+															+ F + "Job.csv";
+	private static final String SORTED_ALL_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedAllJob.csv";
+	private static final String SORTED_JOB_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedJob.csv";
+	private static final String JOB_DIRECTORY      = SAVE_DIRECTORY
+															+ F + "job";
+
+	/**
+	 * Writes a CSV file whose key column holds "zz" at badRow (or only numbers when badRow is negative)
+	 */
+	private static void generateCsvFile(int rows, long seed, int badRow) throws IOException {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < rows; i++) {
+			String key = String.format("%02d", random.nextInt(100));
+			sb.append(i == badRow ? "zz" : key).append(',').append(random.nextInt(1000)).append('\n');
+		}
+		Files.write(new File(JOB_CSVFILE).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static SortOptions jobOptions() {
+		SortOptions options = new SortOptions();
+		options.setInputFormat(FileFormat.CSV);
+		options.setOutputFormat(FileFormat.CSV);
+		options.setSortSpec( new SortSpec(new SortKey(0, KeyType.LONG)) );
+		options.setMemoryBudget(64 * 1024);
+		options.setMaxFanIn(3);
+		options.setJobDirectory( new File(JOB_DIRECTORY) );
+		return options;
+	}
+
+	private static byte[] sortWithoutJob() throws IOException {
+		SortOptions options = jobOptions();
+		options.setJobDirectory(null);
+		CsvFileSorter.sort( JOB_CSVFILE, SORTED_ALL_CSVFILE, options );
+		return Files.readAllBytes(new File(SORTED_ALL_CSVFILE).toPath());
+	}
+
+	/**
+	 * This method checks that a job failing in run generation resumes after the recorded runs
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void FailedGenerationResumesAfterRecordedRuns() throws IOException {
+
+		// Test file is generated
+		generateCsvFile(30000, 1212L, 20000);
+		File input = new File(JOB_CSVFILE);
+		long lastModified = input.lastModified();
+
+		try {
+			CsvFileSorter.sort( JOB_CSVFILE, SORTED_JOB_CSVFILE, jobOptions() );
+			fail( "expected IllegalArgumentException" );
+		} catch (IllegalArgumentException e) {
+			// the key "zz" is not a number
+		}
+		assertTrue( new File(JOB_DIRECTORY, SortJob.MANIFEST).isFile() );
+
+		// the same file (path, length and timestamp) with the bad key fixed
+		generateCsvFile(30000, 1212L, -1);
+		input.setLastModified(lastModified);
+		byte[] expected = sortWithoutJob();
+		input.setLastModified(lastModified);
+
+		// action
+		SortStats stats = CsvFileSorter.sort( JOB_CSVFILE, SORTED_JOB_CSVFILE, jobOptions() );
+
+		// verifying test result
+		assertTrue( stats.getResumedRunCount() > 1 );
+		assertTrue( stats.getResumedInputRows() > 0 );
+		assertTrue( stats.getResumedInputRows() <= 20000 );
+		assertEquals( 30000, stats.getRowCount() );
+		assertArrayEquals( expected, Files.readAllBytes(new File(SORTED_JOB_CSVFILE).toPath()) );
+		assertFalse( new File(JOB_DIRECTORY).exists() );
+	}
+
+	/**
+	 * This method checks that a job failing in the final merge resumes without run generation,
+	 * and that a corrupt run makes the job start over
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void FailedMergeResumesFromRecordedRuns() throws IOException {
+
+		// Test file is generated
+		generateCsvFile(30000, 3434L, -1);
+		byte[] expected = sortWithoutJob();
+		File unwritable = new File(SAVE_DIRECTORY, "jobOutputDirectory");
+		unwritable.mkdirs();
+
+		for (int variant = 0; variant < 2; variant++) {
+			try {
+				CsvFileSorter.sort( JOB_CSVFILE, unwritable.getPath(), jobOptions() );
+				fail( "expected IOException" );
+			} catch (IOException e) {
+				// the output is a directory
+			}
+
+			File[] runs = new File(JOB_DIRECTORY).listFiles();
+			assertTrue( runs.length > 1 );
+			if (variant == 1) {
+				for (File run : runs) {
+					if (run.getName().endsWith(".run")) {
+						RandomAccessFile raf = new RandomAccessFile(run, "rw");
+						try {
+							raf.seek(run.length() / 2);
+							int b = raf.read();
+							raf.seek(run.length() / 2);
+							raf.write(b ^ 0xff);
+						} finally {
+							raf.close();
+						}
+						break;
+					}
+				}
+			}
+
+			// action
+			SortStats stats = CsvFileSorter.sort( JOB_CSVFILE, SORTED_JOB_CSVFILE, jobOptions() );
+
+			// verifying test result
+			if (variant == 0) {
+				assertTrue( stats.getResumedRunCount() > 1 );
+				assertEquals( stats.getResumedRunCount(), stats.getRunCount() );
+				assertEquals( 0, stats.getResumedInputRows() );
+			} else {
+				assertEquals( 0, stats.getResumedRunCount() );
+				assertTrue( stats.getRunCount() > 3 );
+			}
+			assertEquals( 30000, stats.getRowCount() );
+			assertArrayEquals( expected, Files.readAllBytes(new File(SORTED_JOB_CSVFILE).toPath()) );
+			assertFalse( new File(JOB_DIRECTORY).exists() );
+		}
+	}
+}
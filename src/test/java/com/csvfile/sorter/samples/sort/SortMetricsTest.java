@@ -0,0 +1,190 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+/**
+ * The class tests the per-phase metrics, the progress listener and the JFR events of a sort
+ *
+ */
+public class SortMetricsTest extends CsvFileSorterTest {
+
+	private static final String METRICS_FILE        = SAVE_DIRECTORY
+															+ F + "Metrics.dat";
+	private static final String SORTED_ALL_FILE     = SAVE_DIRECTORY
+															+ F + "SortedAllMetrics.dat";
+	private static final String SORTED_METRICS_FILE = SAVE_DIRECTORY
+															+ F + "SortedMetrics.dat";
+	private static final String RECORDING_FILE      = SAVE_DIRECTORY
+															+ F + "Metrics.jfr";
+
+	/**
+	 * A listener that records what it was told
+	 */
+	private static final class RecordingListener implements SortListener {
+
+		final AtomicLong inputRows = new AtomicLong();
+		final AtomicInteger runs = new AtomicInteger();
+		final AtomicLong runBytes = new AtomicLong();
+		final List<MergePassStats> passes = new ArrayList<MergePassStats>();
+		SortStats completed = null;
+
+		@Override
+		public void inputRead(long rows, long nanos) {
+			this.inputRows.accumulateAndGet(rows, Math::max);
+		}
+
+		@Override
+		public void runWritten(int runs, long rows, long bytes) {
+			this.runs.accumulateAndGet(runs, Math::max);
+			this.runBytes.addAndGet(bytes);
+		}
+
+		@Override
+		public void mergePassCompleted(MergePassStats pass) {
+			this.passes.add(pass);
+		}
+
+		@Override
+		public void sortCompleted(SortStats stats) {
+			this.completed = stats;
+		}
+	}
+
+	/**
+	 * This method checks the metrics reported through the stats and the listener
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void MetricsAreReportedThroughStatsAndListener() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 4545L), METRICS_FILE );
+		CsvFileSorter.sort( METRICS_FILE, SORTED_ALL_FILE );
+		byte[] expected = Files.readAllBytes(new File(SORTED_ALL_FILE).toPath());
+
+		for (int variant = 0; variant < 4; variant++) {
+			SortOptions options = new SortOptions();
+			options.setMemoryBudget(64 * 1024);
+			options.setMaxFanIn(4);
+			options.setDetailedStats(true);
+			RecordingListener listener = new RecordingListener();
+			options.setListener(listener);
+			if (variant == 1) {
+				options.setNormalizedKeys(true);
+			} else if (variant == 2) {
+				options.setNormalizedKeys(true);
+				options.setArenaBuffer(true);
+				options.setParallelism(2);
+			} else if (variant == 3) {
+				options.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+			}
+
+			// action
+			SortStats stats = CsvFileSorter.sort( METRICS_FILE, SORTED_METRICS_FILE, options );
+
+			// verifying test result
+			assertArrayEquals( expected, Files.readAllBytes(new File(SORTED_METRICS_FILE).toPath()) );
+			assertEquals( 30000, stats.getInputRows() );
+			assertTrue( stats.getReadNanos() > 0 );
+			assertEquals( variant != 3, stats.getSortNanos() > 0 );
+			assertTrue( stats.getCompressionNanos() > 0 );
+			assertTrue( stats.getSerializationNanos() > 0 );
+			assertTrue( stats.getComparisonCount() > 0 );
+			assertTrue( stats.getSpilledRows() > 30000 );
+			assertEquals( stats.getRunCount(), stats.getRunSizes().size() );
+			long runBytes = 0;
+			for (long size : stats.getRunSizes()) {
+				runBytes += size;
+			}
+			assertTrue( runBytes < stats.getSpilledBytes() );
+			assertTrue( stats.getMergePassCount() > 1 );
+			MergePassStats last = stats.getMergePasses().get(stats.getMergePassCount() - 1);
+			assertEquals( MergePassStats.depthOf(last.getInputRuns()), last.getHeapDepth() );
+			assertTrue( stats.getMergeNanos() > 0 );
+
+			assertEquals( 30000, listener.inputRows.get() );
+			assertEquals( stats.getRunCount(), listener.runs.get() );
+			assertEquals( runBytes, listener.runBytes.get() );
+			assertEquals( stats.getMergePasses(), listener.passes );
+			assertSame( stats, listener.completed );
+		}
+
+		// without detailed stats, comparisons and serialization are not measured
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(64 * 1024);
+		SortStats stats = CsvFileSorter.sort( METRICS_FILE, SORTED_METRICS_FILE, options );
+		assertEquals( 0, stats.getComparisonCount() );
+		assertEquals( 0, stats.getSerializationNanos() );
+		assertTrue( stats.getCompressionNanos() > 0 );
+		assertArrayEquals( expected, Files.readAllBytes(new File(SORTED_METRICS_FILE).toPath()) );
+	}
+
+	/**
+	 * This method checks that a sort records its JFR events
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void SortRecordsJfrEvents() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(20000, 5656L), METRICS_FILE );
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(64 * 1024);
+		options.setMaxFanIn(4);
+
+		// action
+		SortStats stats;
+		File dump = new File(RECORDING_FILE);
+		Recording recording = new Recording();
+		try {
+			recording.enable("com.csvfile.sorter.Sort");
+			recording.enable("com.csvfile.sorter.Spill");
+			recording.enable("com.csvfile.sorter.MergePass");
+			recording.start();
+			stats = CsvFileSorter.sort( METRICS_FILE, SORTED_METRICS_FILE, options );
+			recording.stop();
+			recording.dump(dump.toPath());
+		} finally {
+			recording.close();
+		}
+
+		// verifying test result
+		Set<String> names = new HashSet<String>();
+		int spills = 0;
+		int passes = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+			String name = event.getEventType().getName();
+			names.add(name);
+			if (name.equals("com.csvfile.sorter.Spill")) {
+				spills++;
+			} else if (name.equals("com.csvfile.sorter.MergePass")) {
+				passes++;
+			} else if (name.equals("com.csvfile.sorter.Sort")) {
+				assertEquals( 20000, event.getLong("rows") );
+				assertEquals( stats.getRunCount(), event.getInt("runs") );
+			}
+		}
+		assertTrue( names.contains("com.csvfile.sorter.Sort") );
+		assertTrue( spills > stats.getRunCount() );
+		assertEquals( stats.getMergePassCount(), passes );
+		dump.delete();
+	}
+}
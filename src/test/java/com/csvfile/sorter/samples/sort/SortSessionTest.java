@@ -0,0 +1,99 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The class tests spill directories, memory-mapped runs and the cleanup of temporary files
+ *
+ */
+public class SortSessionTest extends CsvFileSorterTest {
+
+	private static final String SESSION_CSVFILE       = SAVE_DIRECTORY
+															+ F + "Session.csv";
+	private static final String SORTED_STREAM_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedStreamSession.csv";
+	private static final String SORTED_MAPPED_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedMappedSession.csv";
+	private static final String SPILL_DIRECTORY1      = SAVE_DIRECTORY
+															+ F + "spill1";
+	private static final String SPILL_DIRECTORY2      = SAVE_DIRECTORY
+															+ F + "spill2";
+
+	/**
+	 * This method checks that runs on several directories and mapped runs make the same file
+	 * and that no temporary file is left
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void MappedRunsOnSpillDirectoriesMakeSameOutput() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 5678L), SESSION_CSVFILE );
+		List<File> directories = spillDirectories();
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(256 * 1024);
+		CsvFileSorter.sort( SESSION_CSVFILE, SORTED_STREAM_CSVFILE, options );
+
+		options.setSpillDirectories(directories);
+		options.setMappedRuns(true);
+		options.setMaxFanIn(4);
+		SortStats stats = CsvFileSorter.sort( SESSION_CSVFILE, SORTED_MAPPED_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( stats.getMergePassCount() > 1 );
+		assertArrayEquals( Files.readAllBytes(new File(SORTED_STREAM_CSVFILE).toPath()),
+						   Files.readAllBytes(new File(SORTED_MAPPED_CSVFILE).toPath()) );
+		for( File directory : directories ) {
+			assertEquals( 0, directory.list().length );
+		}
+	}
+
+	/**
+	 * This method checks that temporary files are made round-robin and removed when the session is closed
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void SessionSpreadsAndRemovesRuns() throws IOException {
+
+		List<File> directories = spillDirectories();
+		SortOptions options = new SortOptions();
+		options.setSpillDirectories(directories);
+
+		// action
+		SortSession session = new SortSession( options, Codec.LZ4 );
+		File run1 = session.newRunFile("test");
+		File run2 = session.newRunFile("test");
+		File run3 = session.newRunFile("test");
+		session.close();
+
+		// verifying test result
+		assertEquals( directories.get(0), run1.getParentFile().getParentFile() );
+		assertEquals( directories.get(1), run2.getParentFile().getParentFile() );
+		assertEquals( directories.get(0), run3.getParentFile().getParentFile() );
+		assertFalse( run1.exists() );
+		assertFalse( run2.getParentFile().exists() );
+		for( File directory : directories ) {
+			assertEquals( 0, directory.list().length );
+		}
+	}
+
+	private List<File> spillDirectories() {
+		List<File> directories = Arrays.asList( new File(SPILL_DIRECTORY1), new File(SPILL_DIRECTORY2) );
+		for( File directory : directories ) {
+			directory.mkdirs();
+		}
+		return directories;
+	}
+}
@@ -0,0 +1,144 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.csvfile.sorter.samples.sort.SortKey.Direction;
+import com.csvfile.sorter.samples.sort.SortKey.NullOrder;
+
+/**
+ * The class tests that sorting with typed sort keys
+ *
+ */
+public class SortSpecTest extends CsvFileSorterTest {
+
+	private static final String TYPED_CSVFILE        = SAVE_DIRECTORY
+															+ F + "Typed.csv";
+	private static final String SORTED_TYPED_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedTyped.csv";
+
+	/**
+	 * This method sorts numbers as numbers, not as strings
+	 *
+	 * before sort
+	 * {"10", "a"}
+	 * {"9", "b"}
+	 * {"-3", "c"}
+	 * {"100", "d"}
+	 *
+	 * after sort
+	 * {"-3", "c"}
+	 * {"9", "b"}
+	 * {"10", "a"}
+	 * {"100", "d"}
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void LongKeyIsSortedAsNumber() throws IOException {
+
+		String[][] testData = {{"10", "a"},
+							   {"9", "b"},
+							   {"-3", "c"},
+							   {"100", "d"}};
+
+		String[][] expectedData = {{"-3", "c"},
+								   {"9", "b"},
+								   {"10", "a"},
+								   {"100", "d"}};
+
+		assertSorted( testData, expectedData, new SortSpec( new SortKey(0, KeyType.LONG) ));
+	}
+
+	/**
+	 * This method sorts by a descending date and then an ascending decimal with nulls last.
+	 * Rows with the same keys keep the input order.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void MultipleKeysAreSortedInOrder() throws IOException {
+
+		String[][] testData = {{"2012-01-05", "8.5", "a"},
+							   {"2012-01-05", "", "b"},
+							   {"2013-11-30", "10", "c"},
+							   {"2012-01-05", "8.50", "d"},
+							   {"2012-01-05", "-1", "e"}};
+
+		String[][] expectedData = {{"2013-11-30", "10", "c"},
+								   {"2012-01-05", "-1", "e"},
+								   {"2012-01-05", "8.5", "a"},
+								   {"2012-01-05", "8.50", "d"},
+								   {"2012-01-05", "", "b"}};
+
+		assertSorted( testData, expectedData,
+					  new SortSpec( new SortKey(0, KeyType.DATE, Direction.DESC),
+									new SortKey(1, KeyType.DECIMAL, Direction.ASC, NullOrder.NULLS_LAST) ));
+	}
+
+	/**
+	 * This method compares string keys with their spaces, and trims number keys before parsing
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void OnlyNumberKeysAreTrimmed() throws IOException {
+
+		String[][] testData = {{"b", " 7 "},
+							   {" b", "10"},
+							   {" ", "  "},
+							   {"", "-2"},
+							   {"a", " 3"}};
+
+		String[][] expectedData = {{"", "-2"},
+								   {" ", "  "},
+								   {" b", "10"},
+								   {"a", " 3"},
+								   {"b", " 7 "}};
+
+		assertSorted( testData, expectedData, new SortSpec( new SortKey(0, KeyType.STRING) ));
+
+		String[][] expectedByNumber = {{" ", "  "},
+									   {"", "-2"},
+									   {"a", " 3"},
+									   {"b", " 7 "},
+									   {" b", "10"}};
+
+		assertSorted( testData, expectedByNumber, new SortSpec( new SortKey(1, KeyType.LONG) ));
+	}
+
+	/**
+	 * This method checks that keys are parsed once when the row is prepared
+	 */
+	@Test
+	public void PreparedRowsKeepParsedKeys() {
+		SortSpec spec = new SortSpec( new SortKey(0, KeyType.LONG) );
+		List<String> row = generateTestData( new String[][] {{"12"}} ).get(0);
+
+		List<String> prepared = spec.prepare(row);
+
+		assertTrue( prepared.equals(row) );
+		assertSame( prepared, spec.prepare(prepared) );
+		assertTrue( spec.compare(prepared, row) == 0 );
+	}
+
+	private void assertSorted( String[][] testData, String[][] expectedData, SortSpec spec ) throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateTestData(testData), TYPED_CSVFILE );
+
+		// action
+		SortOptions options = new SortOptions();
+		options.setSortSpec(spec);
+		CsvFileSorter.sort( TYPED_CSVFILE, SORTED_TYPED_CSVFILE, options );
+
+		// verifying test result
+		List<List<String>> sortedTestData = readTestFile( SORTED_TYPED_CSVFILE );
+
+		assertEquals( generateTestData(expectedData), sortedTestData );
+	}
+}
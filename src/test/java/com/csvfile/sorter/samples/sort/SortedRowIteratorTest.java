@@ -0,0 +1,147 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+/**
+ * The class tests returning sorted rows as an iterator and sorting rows given as an iterator
+ *
+ */
+public class SortedRowIteratorTest extends CsvFileSorterTest {
+
+	private static final String ITERATOR_CSVFILE   = SAVE_DIRECTORY
+															+ F + "Iterator.csv";
+	private static final String SORTED_ALL_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedAllIterator.csv";
+	private static final String SORTED_CSVFILE     = SAVE_DIRECTORY
+															+ F + "SortedIterator.csv";
+
+	/**
+	 * This method checks that the iterator returns the rows of the file output
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void IteratorIsSameAsFileOutput() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 7777L), ITERATOR_CSVFILE );
+		CsvFileSorter.sort( ITERATOR_CSVFILE, SORTED_ALL_CSVFILE );
+		List<List<String>> expected = readTestFile( SORTED_ALL_CSVFILE );
+
+		for (int variant = 0; variant < 3; variant++) {
+			SortOptions options = new SortOptions();
+			options.setMemoryBudget(64 * 1024);
+			File spill = new File(SAVE_DIRECTORY, "iteratorSpill" + variant);
+			spill.mkdirs();
+			options.setSpillDirectories( Collections.singletonList(spill) );
+			if (variant == 1) {
+				options.setMaxFanIn(3);
+				options.setReadAhead(1024 * 1024);
+			} else if (variant == 2) {
+				options.setMergeParallelism(4);
+			}
+
+			// action
+			List<List<String>> rows = new ArrayList<List<String>>();
+			SortedRowIterator it = CsvFileSorter.sorted( ITERATOR_CSVFILE, options );
+			try {
+				while (it.hasNext()) {
+					rows.add( it.next() );
+				}
+			} finally {
+				it.close();
+			}
+
+			// verifying test result
+			assertTrue( it.getStats().getRunCount() > 1 );
+			assertEquals( 30000, it.getStats().getRowCount() );
+			assertEquals( expected, rows );
+			assertEquals( 0, spill.list().length );
+		}
+	}
+
+	/**
+	 * This method checks that closing part way stops the merge and removes the runs
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void ClosingEarlyRemovesRuns() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 8888L), ITERATOR_CSVFILE );
+		CsvFileSorter.sort( ITERATOR_CSVFILE, SORTED_ALL_CSVFILE );
+		List<List<String>> expected = readTestFile( SORTED_ALL_CSVFILE );
+
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(64 * 1024);
+		File spill = new File(SAVE_DIRECTORY, "iteratorSpillEarly");
+		spill.mkdirs();
+		options.setSpillDirectories( Collections.singletonList(spill) );
+
+		// action
+		List<List<String>> first;
+		try (Stream<List<String>> stream = CsvFileSorter.sorted( ITERATOR_CSVFILE, options ).stream()) {
+			first = stream.limit(10).collect(Collectors.toList());
+		}
+
+		// verifying test result
+		assertEquals( expected.subList(0, 10), first );
+		assertEquals( 0, spill.list().length );
+	}
+
+	/**
+	 * This method checks sorting rows given as an iterator or a stream
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void RowsCanBeGivenAsIterator() throws IOException {
+
+		// Test file is generated
+		List<List<String>> data = generateRandomData(20000, 9999L);
+		generateTestFile( data, ITERATOR_CSVFILE );
+		CsvFileSorter.sort( ITERATOR_CSVFILE, SORTED_ALL_CSVFILE );
+		List<List<String>> expected = readTestFile( SORTED_ALL_CSVFILE );
+
+		SortOptions options = new SortOptions();
+		options.setMemoryBudget(64 * 1024);
+
+		// action
+		SortStats stats = CsvFileSorter.sort( data.iterator(), SORTED_CSVFILE, options );
+
+		// verifying test result
+		assertTrue( stats.getRunCount() > 1 );
+		assertEquals( 20000, stats.getRowCount() );
+		assertEquals( expected, readTestFile(SORTED_CSVFILE) );
+
+		final AtomicBoolean closed = new AtomicBoolean();
+		Stream<List<String>> input = data.stream().onClose(new Runnable() {
+			@Override
+			public void run() {
+				closed.set(true);
+			}
+		});
+		try (SortedRowIterator it = CsvFileSorter.sorted( input, options )) {
+			assertTrue( closed.get() );
+			assertEquals( expected, it.stream().collect(Collectors.toList()) );
+		}
+
+		// no rows
+		SortedRowIterator empty = CsvFileSorter.sorted( Collections.<List<String>>emptyIterator(), options );
+		assertFalse( empty.hasNext() );
+		assertEquals( 0, empty.getStats().getRowCount() );
+		assertFalse( CsvFileSorter.sorted( SAVE_DIRECTORY + F + "Missing.csv", options ).hasNext() );
+	}
+}
@@ -0,0 +1,87 @@
+package com.csvfile.sorter.samples.sort;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.csvfile.sorter.samples.sort.SortKey.Direction;
+
+/**
+ * The class tests writing only the first k rows of the sorted order
+ *
+ */
+public class TopKTest extends CsvFileSorterTest {
+
+	private static final String TOP_CSVFILE        = SAVE_DIRECTORY
+															+ F + "Top.csv";
+	private static final String SORTED_ALL_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedAllTop.csv";
+	private static final String SORTED_TOP_CSVFILE = SAVE_DIRECTORY
+															+ F + "SortedTop.csv";
+
+	/**
+	 * This method checks that the smallest and largest rows are the ends of the full sort
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void TopRowsAreEndsOfFullSort() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(30000, 1111L), TOP_CSVFILE );
+		CsvFileSorter.sort( TOP_CSVFILE, SORTED_ALL_CSVFILE );
+		List<List<String>> all = readTestFile( SORTED_ALL_CSVFILE );
+
+		// action
+		SortStats stats = CsvFileSorter.top( TOP_CSVFILE, SORTED_TOP_CSVFILE, 100, new SortOptions() );
+
+		// verifying test result
+		assertEquals( 100, stats.getRowCount() );
+		assertEquals( 0, stats.getRunCount() );
+		assertEquals( all.subList(0, 100), readTestFile(SORTED_TOP_CSVFILE) );
+
+		CsvFileSorter.top( TOP_CSVFILE, SORTED_TOP_CSVFILE, 100, true, new SortOptions() );
+		List<List<String>> largest = new ArrayList<List<String>>( all.subList(all.size() - 100, all.size()) );
+		Collections.reverse(largest);
+		assertEquals( largest, readTestFile(SORTED_TOP_CSVFILE) );
+
+		// k is larger than the input
+		stats = CsvFileSorter.top( TOP_CSVFILE, SORTED_TOP_CSVFILE, 50000, new SortOptions() );
+		assertEquals( 30000, stats.getRowCount() );
+		assertEquals( all, readTestFile(SORTED_TOP_CSVFILE) );
+	}
+
+	/**
+	 * This method checks the truncated external sort when k rows do not fit in memory
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void LargeKFallsBackToTruncatedRuns() throws IOException {
+
+		// Test file is generated
+		generateTestFile( generateRandomData(40000, 2222L), TOP_CSVFILE );
+
+		SortOptions options = new SortOptions();
+		options.setSortSpec( new SortSpec(new SortKey(0, KeyType.LONG, Direction.DESC)) );
+		CsvFileSorter.sort( TOP_CSVFILE, SORTED_ALL_CSVFILE, options );
+		List<List<String>> all = readTestFile( SORTED_ALL_CSVFILE );
+
+		// action
+		options.setSortSpec( new SortSpec(new SortKey(0, KeyType.LONG)) );
+		options.setNormalizedKeys(true);
+		options.setMemoryBudget(64 * 1024);
+		options.setMaxFanIn(3);
+		SortStats stats = CsvFileSorter.top( TOP_CSVFILE, SORTED_TOP_CSVFILE, 5000, true, options );
+
+		// verifying test result
+		assertTrue( stats.getRunCount() > 3 );
+		assertEquals( 5000, stats.getRowCount() );
+		assertEquals( all.subList(0, 5000), readTestFile(SORTED_TOP_CSVFILE) );
+	}
+}